@@ -0,0 +1,110 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.mobicents.diameter.api.ha.data;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage SPI used by replicated session datasources and timer facilities. An implementation is the local node's view
+ * of a set of entries which are replicated to all other members of the cluster. Each entry is identified by an id
+ * (usually a Session-Id) and holds a flat map of attributes.
+ */
+public interface IReplicatedStore {
+
+  /**
+   * Starts the store, joining the cluster.
+   */
+  void start();
+
+  /**
+   * Stops the store, leaving the cluster.
+   */
+  void stop();
+
+  /**
+   * @return true if this store does not replicate to any other node
+   */
+  boolean isLocalMode();
+
+  /**
+   * @return the id of the local cluster member
+   */
+  String getLocalNodeId();
+
+  /**
+   * @return the ids of the currently live cluster members, in ascending order
+   */
+  List<String> getMembers();
+
+  /**
+   * Creates the entry with the given id, if it does not exist yet.
+   *
+   * @param entryId the id of the entry
+   * @return true if the entry has been created, false if it already existed
+   */
+  boolean create(String entryId);
+
+  /**
+   * @param entryId the id of the entry
+   * @return true if the entry exists in the store
+   */
+  boolean exists(String entryId);
+
+  /**
+   * Retrieves an attribute value of an entry.
+   *
+   * @param entryId the id of the entry
+   * @param key the attribute name
+   * @return the value or null if entry or attribute are not present
+   */
+  Object get(String entryId, String key);
+
+  /**
+   * Retrieves a snapshot of all the attributes of an entry.
+   *
+   * @param entryId the id of the entry
+   * @return an attribute map, empty if entry does not exist
+   */
+  Map<String, Object> getAll(String entryId);
+
+  /**
+   * Sets an attribute value of an entry, creating the entry if needed. A null value removes the attribute.
+   *
+   * @param entryId the id of the entry
+   * @param key the attribute name
+   * @param value the attribute value
+   */
+  void put(String entryId, String key, Serializable value);
+
+  /**
+   * Removes an entry and all its attributes.
+   *
+   * @param entryId the id of the entry
+   * @return true if removed, false if it did not exist
+   */
+  boolean remove(String entryId);
+
+  void addListener(IReplicatedStoreListener listener);
+
+  void removeListener(IReplicatedStoreListener listener);
+
+}
@@ -0,0 +1,41 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.mobicents.diameter.api.ha.data;
+
+/**
+ * Listener for changes made to a {@link IReplicatedStore} by other cluster members.
+ */
+public interface IReplicatedStoreListener {
+
+  /**
+   * Invoked when an entry has been removed by another cluster member.
+   *
+   * @param entryId the id of the removed entry
+   */
+  void dataRemoved(String entryId);
+
+  /**
+   * Invoked when a cluster member has left (or failed). Its entries are still available in the store.
+   *
+   * @param nodeId the id of the departed member
+   */
+  void memberLeft(String nodeId);
+
+}
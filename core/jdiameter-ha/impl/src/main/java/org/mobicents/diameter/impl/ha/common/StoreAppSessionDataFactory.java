@@ -0,0 +1,257 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.mobicents.diameter.impl.ha.common;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.Message;
+import org.jdiameter.api.app.AppSession;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.client.api.parser.ParseException;
+import org.jdiameter.common.api.app.IAppSessionData;
+import org.jdiameter.common.api.app.IAppSessionDataFactory;
+import org.mobicents.diameter.api.ha.data.IReplicatedStore;
+import org.mobicents.diameter.impl.ha.data.ReplicatedStoreSessionDatasource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Application session data factory on top of {@link IReplicatedStore}. Instead of one hand-written replicated class per
+ * application, the session data interfaces (which are plain getter/setter pairs) are backed by a dynamic proxy storing
+ * each property as an attribute of the session entry. Initial values are taken from the matching local implementation,
+ * so defaults stay identical to the non replicated stack.
+ */
+public class StoreAppSessionDataFactory implements IAppSessionDataFactory<IAppSessionData> {
+
+  private static final Logger logger = LoggerFactory.getLogger(StoreAppSessionDataFactory.class);
+
+  public static final String SIFACE = "SIFACE";
+
+  private ReplicatedStoreSessionDatasource sessionDataSource;
+  private IAppSessionDataFactory<? extends IAppSessionData> localDataFactory;
+
+  public StoreAppSessionDataFactory(ReplicatedStoreSessionDatasource sessionDataSource,
+      IAppSessionDataFactory<? extends IAppSessionData> localDataFactory) {
+    super();
+    this.sessionDataSource = sessionDataSource;
+    this.localDataFactory = localDataFactory;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.jdiameter.common.api.app.IAppSessionDataFactory#getAppSessionData(java.lang.Class, java.lang.String)
+   */
+  @Override
+  public IAppSessionData getAppSessionData(Class<? extends AppSession> clazz, String sessionId) {
+    IAppSessionData localData = localDataFactory.getAppSessionData(clazz, sessionId);
+    IReplicatedStore store = sessionDataSource.getReplicatedStore();
+
+    Set<Class<?>> ifaces = new LinkedHashSet<Class<?>>();
+    for (Class<?> c = localData.getClass(); c != null; c = c.getSuperclass()) {
+      for (Class<?> iface : c.getInterfaces()) {
+        ifaces.add(iface);
+      }
+    }
+
+    SessionDataHandler handler = new SessionDataHandler(store, sessionId);
+    IAppSessionData data = (IAppSessionData) Proxy.newProxyInstance(localData.getClass().getClassLoader(),
+        ifaces.toArray(new Class<?>[ifaces.size()]), handler);
+
+    if (store.create(sessionId)) {
+      store.put(sessionId, SIFACE, clazz);
+      handler.initialize(ifaces, localData);
+    }
+    return data;
+  }
+
+  public static Class<? extends AppSession> getAppSessionIface(IReplicatedStore store, String sessionId) {
+    @SuppressWarnings("unchecked")
+    Class<? extends AppSession> value = (Class<? extends AppSession>) store.get(sessionId, SIFACE);
+    return value;
+  }
+
+  /**
+   * Marks a property holding a Diameter message, kept in encoded form.
+   */
+  private static final class EncodedMessage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] data;
+
+    EncodedMessage(byte[] data) {
+      this.data = data;
+    }
+  }
+
+  private final class SessionDataHandler implements InvocationHandler {
+
+    private final IReplicatedStore store;
+    private final String sessionId;
+
+    SessionDataHandler(IReplicatedStore store, String sessionId) {
+      this.store = store;
+      this.sessionId = sessionId;
+    }
+
+    void initialize(Set<Class<?>> ifaces, IAppSessionData localData) {
+      for (Class<?> iface : ifaces) {
+        for (Method m : iface.getMethods()) {
+          String name = getPropertyName(m);
+          if (name == null || name.equals("SessionId") || m.getParameterTypes().length != 0) {
+            continue;
+          }
+          try {
+            Object value = m.invoke(localData);
+            if (value != null) {
+              write(name, value);
+            }
+          }
+          catch (Exception e) {
+            logger.debug("Unable to read initial value of property " + name + " from " + localData.getClass(), e);
+          }
+        }
+      }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String methodName = method.getName();
+      int argc = args == null ? 0 : args.length;
+
+      if (method.getDeclaringClass() == Object.class) {
+        if (methodName.equals("equals")) {
+          return proxy == args[0];
+        }
+        else if (methodName.equals("hashCode")) {
+          return sessionId.hashCode();
+        }
+        return "StoreAppSessionData [sessionId=" + sessionId + "]";
+      }
+
+      if (methodName.equals("getSessionId") && argc == 0) {
+        return sessionId;
+      }
+      else if (methodName.equals("remove") && argc == 0) {
+        return store.remove(sessionId);
+      }
+
+      String name = getPropertyName(method);
+      if (name == null) {
+        throw new UnsupportedOperationException(method.toString());
+      }
+      if (!store.exists(sessionId)) {
+        throw new IllegalStateException();
+      }
+
+      if (argc == 0) {
+        return read(name, method.getReturnType());
+      }
+      write(name, args[0]);
+      return null;
+    }
+
+    private Object read(String name, Class<?> type) {
+      Object value = store.get(sessionId, name);
+      if (value instanceof EncodedMessage) {
+        try {
+          return getMessageParser().createMessage(((EncodedMessage) value).data);
+        }
+        catch (AvpDataException e) {
+          logger.error("Unable to recreate message for property " + name + " of session " + sessionId, e);
+          return null;
+        }
+      }
+      if (value == null && type.isPrimitive()) {
+        return getDefaultValue(type);
+      }
+      return value;
+    }
+
+    // value of a property never written, boxed to the exact primitive type the proxy must return
+    private Object getDefaultValue(Class<?> type) {
+      if (type == boolean.class) {
+        return Boolean.FALSE;
+      }
+      else if (type == int.class) {
+        return Integer.valueOf(IAppSessionData.NON_INITIALIZED);
+      }
+      else if (type == long.class) {
+        return Long.valueOf(IAppSessionData.NON_INITIALIZED);
+      }
+      else if (type == short.class) {
+        return Short.valueOf((short) IAppSessionData.NON_INITIALIZED);
+      }
+      else if (type == byte.class) {
+        return Byte.valueOf((byte) IAppSessionData.NON_INITIALIZED);
+      }
+      else if (type == double.class) {
+        return Double.valueOf(IAppSessionData.NON_INITIALIZED);
+      }
+      else if (type == float.class) {
+        return Float.valueOf(IAppSessionData.NON_INITIALIZED);
+      }
+      else if (type == char.class) {
+        return Character.valueOf((char) 0);
+      }
+      // void
+      return null;
+    }
+
+    private void write(String name, Object value) {
+      if (value instanceof Message) {
+        try {
+          value = new EncodedMessage(getMessageParser().encodeMessage((IMessage) value).array());
+        }
+        catch (ParseException e) {
+          throw new IllegalArgumentException("Unable to encode message for property " + name + " of session " + sessionId, e);
+        }
+      }
+      else if (value != null && !(value instanceof Serializable)) {
+        throw new IllegalArgumentException("Value of property " + name + " is not serializable: " + value.getClass());
+      }
+      store.put(sessionId, name, (Serializable) value);
+    }
+
+    private String getPropertyName(Method m) {
+      String name = m.getName();
+      if (name.startsWith("get") || name.startsWith("set")) {
+        return name.length() > 3 ? name.substring(3) : null;
+      }
+      else if (name.startsWith("is")) {
+        return name.length() > 2 ? name.substring(2) : null;
+      }
+      return null;
+    }
+
+    private IMessageParser getMessageParser() {
+      return sessionDataSource.getContainer().getAssemblerFacility().getComponentInstance(IMessageParser.class);
+    }
+  }
+
+}
@@ -66,6 +66,8 @@ import org.jdiameter.common.api.app.rx.IRxSessionData;
 import org.jdiameter.common.api.app.s13.IS13SessionData;
 import org.jdiameter.common.api.app.sh.IShSessionData;
 import org.jdiameter.common.api.data.ISessionDatasource;
+import org.jdiameter.common.api.data.ISessionIndex;
+import org.jdiameter.common.api.data.ISessionKeyExtractor;
 import org.jdiameter.common.impl.data.LocalDataSource;
 import org.jdiameter.common.api.app.slh.ISLhSessionData;
 import org.jdiameter.common.api.app.slg.ISLgSessionData;
@@ -293,6 +295,17 @@ public class ReplicatedSessionDatasource implements ISessionDatasource, DataRemo
     return this.appSessionDataFactories.get(x);
   }
 
+  // indexes are kept by local datasource, bindings are not replicated
+  @Override
+  public ISessionIndex addIndex(String name, ISessionKeyExtractor extractor) {
+    return this.localDataSource.addIndex(name, extractor);
+  }
+
+  @Override
+  public ISessionIndex getIndex(String name) {
+    return this.localDataSource.getIndex(name);
+  }
+
   // remove lst;
 
   public MobicentsCluster getMobicentsCluster() {
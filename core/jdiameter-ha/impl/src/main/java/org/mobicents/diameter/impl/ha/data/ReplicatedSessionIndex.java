@@ -0,0 +1,75 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.mobicents.diameter.impl.ha.data;
+
+import org.jdiameter.common.api.data.ISessionDatasource;
+import org.jdiameter.common.api.data.ISessionKeyExtractor;
+import org.jdiameter.common.impl.data.SessionIndex;
+import org.mobicents.diameter.api.ha.data.IReplicatedStore;
+
+/**
+ * Session index whose bindings are also kept in {@link IReplicatedStore}, one entry per key, so sessions bound on
+ * other nodes can be found. Bindings of sessions released on other nodes are removed from the store when they are
+ * found, as only the node owning the session knows its keys. {@link #size()} counts local bindings only.
+ */
+public class ReplicatedSessionIndex extends SessionIndex {
+
+  private static final String ENTRY_PREFIX = "sessionIndex/";
+  private static final String SESSION_ID = "sessionId";
+
+  private final IReplicatedStore store;
+  private final String entryPrefix;
+
+  public ReplicatedSessionIndex(String name, ISessionDatasource datasource, ISessionKeyExtractor extractor, IReplicatedStore store) {
+    super(name, datasource, extractor);
+    this.store = store;
+    this.entryPrefix = ENTRY_PREFIX + name + "/";
+  }
+
+  @Override
+  public String getSessionId(String key) {
+    String sessionId = super.getSessionId(key);
+    if (sessionId != null) {
+      return sessionId;
+    }
+    String entryId = entryPrefix + key;
+    sessionId = (String) store.get(entryId, SESSION_ID);
+    if (sessionId != null && !store.exists(sessionId)) {
+      store.remove(entryId);
+      return null;
+    }
+    return sessionId;
+  }
+
+  @Override
+  protected void keyBound(String key, String sessionId) {
+    String entryId = entryPrefix + key;
+    store.create(entryId);
+    store.put(entryId, SESSION_ID, sessionId);
+  }
+
+  @Override
+  protected void keyUnbound(String key, String sessionId) {
+    String entryId = entryPrefix + key;
+    if (sessionId.equals(store.get(entryId, SESSION_ID))) {
+      store.remove(entryId);
+    }
+  }
+}
@@ -0,0 +1,269 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.mobicents.diameter.impl.ha.data;
+
+import static org.jdiameter.client.impl.helpers.Parameters.OwnDiameterURI;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jdiameter.api.BaseSession;
+import org.jdiameter.api.IllegalDiameterStateException;
+import org.jdiameter.api.NetworkReqListener;
+import org.jdiameter.api.app.AppSession;
+import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.api.ISessionFactory;
+import org.jdiameter.common.api.app.IAppSessionData;
+import org.jdiameter.common.api.app.IAppSessionDataFactory;
+import org.jdiameter.common.api.app.IAppSessionFactory;
+import org.jdiameter.common.api.app.acc.IAccSessionData;
+import org.jdiameter.common.api.app.auth.IAuthSessionData;
+import org.jdiameter.common.api.app.cca.ICCASessionData;
+import org.jdiameter.common.api.app.cxdx.ICxDxSessionData;
+import org.jdiameter.common.api.app.gx.IGxSessionData;
+import org.jdiameter.common.api.app.rf.IRfSessionData;
+import org.jdiameter.common.api.app.ro.IRoSessionData;
+import org.jdiameter.common.api.app.rx.IRxSessionData;
+import org.jdiameter.common.api.app.s13.IS13SessionData;
+import org.jdiameter.common.api.app.s6a.IS6aSessionData;
+import org.jdiameter.common.api.app.sh.IShSessionData;
+import org.jdiameter.common.api.app.slg.ISLgSessionData;
+import org.jdiameter.common.api.app.slh.ISLhSessionData;
+import org.jdiameter.common.api.data.ISessionDatasource;
+import org.jdiameter.common.api.data.ISessionIndex;
+import org.jdiameter.common.api.data.ISessionKeyExtractor;
+import org.jdiameter.common.impl.data.LocalDataSource;
+import org.mobicents.diameter.api.ha.data.IReplicatedStore;
+import org.mobicents.diameter.api.ha.data.IReplicatedStoreListener;
+import org.mobicents.diameter.impl.ha.common.StoreAppSessionDataFactory;
+import org.mobicents.diameter.impl.ha.loopback.LoopbackCluster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replicated datasource implementation for {@link ISessionDatasource}, storing application session data in a pluggable
+ * {@link IReplicatedStore}. When created from configuration (single {@link IContainer} argument) the stack joins an
+ * in-process {@link LoopbackCluster}, named by the {@value #LOOPBACK_CLUSTER_PROPERTY} system property, using its own
+ * Diameter URI as node id. This allows several stacks in the same JVM to act as nodes of one cluster.
+ */
+public class ReplicatedStoreSessionDatasource implements ISessionDatasource, IReplicatedStoreListener {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReplicatedStoreSessionDatasource.class);
+
+  public static final String LOOPBACK_CLUSTER_PROPERTY = "jdiameter.ha.loopback.cluster";
+
+  private IContainer container;
+  private ISessionDatasource localDataSource;
+  private IReplicatedStore store;
+  private ConcurrentHashMap<String, ReplicatedSessionIndex> indexes = new ConcurrentHashMap<String, ReplicatedSessionIndex>();
+
+  protected HashMap<Class<? extends IAppSessionData>, IAppSessionDataFactory<? extends IAppSessionData>> appSessionDataFactories =
+      new HashMap<Class<? extends IAppSessionData>, IAppSessionDataFactory<? extends IAppSessionData>>();
+
+  public ReplicatedStoreSessionDatasource(IContainer container) {
+    this(container, LoopbackCluster.getCluster(System.getProperty(LOOPBACK_CLUSTER_PROPERTY, LoopbackCluster.DEFAULT_CLUSTER_NAME))
+        .createNode(container.getConfiguration().getStringValue(OwnDiameterURI.ordinal(), (String) OwnDiameterURI.defValue())));
+  }
+
+  public ReplicatedStoreSessionDatasource(IContainer container, IReplicatedStore store) {
+    this(container, new LocalDataSource(), store);
+  }
+
+  public ReplicatedStoreSessionDatasource(IContainer container, ISessionDatasource localDataSource, IReplicatedStore store) {
+    super();
+    this.container = container;
+    this.localDataSource = localDataSource;
+    this.store = store;
+    this.store.addListener(this);
+
+    // every application data is built from its local counterpart, which provides the initial values
+    Class<?>[] dataClasses = new Class<?>[] {IAuthSessionData.class, IAccSessionData.class, ICCASessionData.class, IRoSessionData.class,
+      IRfSessionData.class, IShSessionData.class, ICxDxSessionData.class, IGxSessionData.class, IRxSessionData.class, IS6aSessionData.class,
+      IS13SessionData.class, ISLhSessionData.class, ISLgSessionData.class};
+    LocalDataSource localDataFactories = new LocalDataSource();
+    for (Class<?> dataClass : dataClasses) {
+      @SuppressWarnings("unchecked")
+      Class<? extends IAppSessionData> x = (Class<? extends IAppSessionData>) dataClass;
+      appSessionDataFactories.put(x, new StoreAppSessionDataFactory(this, localDataFactories.getDataFactory(x)));
+    }
+  }
+
+  @Override
+  public boolean exists(String sessionId) {
+    return this.localDataSource.exists(sessionId) ? true : this.store.exists(sessionId);
+  }
+
+  @Override
+  public void addSession(BaseSession session) {
+    // data is already in the store, only the live object is kept locally
+    this.localDataSource.addSession(session);
+    for (ReplicatedSessionIndex index : indexes.values()) {
+      index.sessionAdded(session);
+    }
+  }
+
+  @Override
+  public BaseSession getSession(String sessionId) {
+    if (this.localDataSource.exists(sessionId)) {
+      return this.localDataSource.getSession(sessionId);
+    }
+    else if (this.store.exists(sessionId)) {
+      this.makeLocal(sessionId);
+      return this.localDataSource.getSession(sessionId);
+    }
+
+    return null;
+  }
+
+  @Override
+  public NetworkReqListener getSessionListener(String sessionId) {
+    if (this.localDataSource.exists(sessionId)) {
+      return this.localDataSource.getSessionListener(sessionId);
+    }
+    else if (this.store.exists(sessionId)) {
+      this.makeLocal(sessionId);
+      return this.localDataSource.getSessionListener(sessionId);
+    }
+
+    return null;
+  }
+
+  @Override
+  public void removeSession(String sessionId) {
+    logger.debug("removeSession({}) in Local DataSource", sessionId);
+
+    if (this.localDataSource.exists(sessionId)) {
+      this.localDataSource.removeSession(sessionId);
+    }
+    else {
+      this.store.remove(sessionId);
+    }
+    for (ReplicatedSessionIndex index : indexes.values()) {
+      index.sessionRemoved(sessionId);
+    }
+  }
+
+  @Override
+  public NetworkReqListener removeSessionListener(String sessionId) {
+    if (this.localDataSource.exists(sessionId)) {
+      return this.localDataSource.removeSessionListener(sessionId);
+    }
+    else if (this.store.exists(sessionId)) {
+      this.makeLocal(sessionId);
+      return this.localDataSource.removeSessionListener(sessionId);
+    }
+
+    return null;
+  }
+
+  @Override
+  public void setSessionListener(String sessionId, NetworkReqListener data) {
+    if (this.localDataSource.exists(sessionId)) {
+      this.localDataSource.setSessionListener(sessionId, data);
+    }
+    else if (this.store.exists(sessionId)) {
+      this.makeLocal(sessionId);
+      this.localDataSource.setSessionListener(sessionId, data);
+    }
+  }
+
+  @Override
+  public void start() {
+    this.store.start();
+  }
+
+  @Override
+  public void stop() {
+    this.store.stop();
+  }
+
+  @Override
+  public boolean isClustered() {
+    return !this.store.isLocalMode();
+  }
+
+  @Override
+  public IAppSessionDataFactory<? extends IAppSessionData> getDataFactory(Class<? extends IAppSessionData> x) {
+    return this.appSessionDataFactories.get(x);
+  }
+
+  @Override
+  public ISessionIndex addIndex(String name, ISessionKeyExtractor extractor) {
+    ReplicatedSessionIndex index = new ReplicatedSessionIndex(name, this, extractor, store);
+    if (indexes.putIfAbsent(name, index) != null) {
+      throw new IllegalArgumentException("Session index " + name + " already exists");
+    }
+    return index;
+  }
+
+  @Override
+  public ISessionIndex getIndex(String name) {
+    return indexes.get(name);
+  }
+
+  @Override
+  public void dataRemoved(String entryId) {
+    this.localDataSource.removeSession(entryId);
+    for (ReplicatedSessionIndex index : indexes.values()) {
+      index.sessionRemoved(entryId);
+    }
+  }
+
+  @Override
+  public void memberLeft(String nodeId) {
+    // sessions of the departed node are taken over lazily, on first access
+    logger.info("Cluster member [{}] left, local node [{}] will take over its sessions on demand", nodeId, store.getLocalNodeId());
+  }
+
+  public IReplicatedStore getReplicatedStore() {
+    return this.store;
+  }
+
+  public IContainer getContainer() {
+    return this.container;
+  }
+
+  private void makeLocal(String sessionId) {
+    try {
+      // this is APP session, always
+      Class<? extends AppSession> appSessionInterfaceClass = StoreAppSessionDataFactory.getAppSessionIface(this.store, sessionId);
+      if (appSessionInterfaceClass == null) {
+        logger.warn("Session with id:{}, is in replicated store, but has no Application Session interface.", sessionId);
+        return;
+      }
+      IAppSessionFactory fct = ((ISessionFactory) this.container.getSessionFactory()).getAppSessionFactory(appSessionInterfaceClass);
+      if (fct == null) {
+        logger.warn("Session with id:{}, is in replicated store, but no Application Session Factory for:{}.", sessionId, appSessionInterfaceClass);
+      }
+      else {
+        BaseSession session = fct.getSession(sessionId, appSessionInterfaceClass);
+        this.localDataSource.addSession(session);
+        this.localDataSource.setSessionListener(sessionId, (NetworkReqListener) session);
+        for (ReplicatedSessionIndex index : indexes.values()) {
+          index.sessionAdded(session);
+        }
+      }
+    }
+    catch (IllegalDiameterStateException e) {
+      logger.error("Failed to obtain factory from stack...", e);
+    }
+  }
+
+}
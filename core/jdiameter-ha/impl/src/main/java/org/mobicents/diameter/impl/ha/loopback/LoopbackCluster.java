@@ -0,0 +1,241 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.mobicents.diameter.impl.ha.loopback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process stand-in for a replication cluster. Every member is a {@link LoopbackReplicatedStore} living in the same
+ * JVM; writes are marshalled once and applied synchronously to every other live member, so replication cost, failover
+ * and session takeover can be exercised and measured on a single machine without any clustering stack.
+ */
+public class LoopbackCluster {
+
+  private static final Logger logger = LoggerFactory.getLogger(LoopbackCluster.class);
+
+  public static final String DEFAULT_CLUSTER_NAME = "default";
+
+  private static final ConcurrentMap<String, LoopbackCluster> clusters = new ConcurrentHashMap<String, LoopbackCluster>();
+
+  private final String name;
+  private final ConcurrentSkipListMap<String, LoopbackReplicatedStore> members = new ConcurrentSkipListMap<String, LoopbackReplicatedStore>();
+  // replication holds read lock, membership changes hold write lock so state transfer sees no write in flight
+  private final ReadWriteLock membershipLock = new ReentrantReadWriteLock();
+
+  // statistics
+  private final AtomicLong replicatedWrites = new AtomicLong();
+  private final AtomicLong replicatedRemovals = new AtomicLong();
+  private final AtomicLong replicatedBytes = new AtomicLong();
+  private final AtomicLong failovers = new AtomicLong();
+
+  public LoopbackCluster(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Returns the JVM-wide cluster with the given name, creating it if needed.
+   *
+   * @param name the cluster name
+   * @return the cluster
+   */
+  public static LoopbackCluster getCluster(String name) {
+    LoopbackCluster cluster = clusters.get(name);
+    if (cluster == null) {
+      cluster = new LoopbackCluster(name);
+      LoopbackCluster existing = clusters.putIfAbsent(name, cluster);
+      if (existing != null) {
+        cluster = existing;
+      }
+    }
+    return cluster;
+  }
+
+  /**
+   * Discards the JVM-wide cluster with the given name.
+   *
+   * @param name the cluster name
+   */
+  public static void destroyCluster(String name) {
+    LoopbackCluster cluster = clusters.remove(name);
+    if (cluster != null) {
+      for (LoopbackReplicatedStore member : cluster.members.values()) {
+        member.stop();
+      }
+    }
+  }
+
+  /**
+   * Creates a new (not yet started) member of this cluster.
+   *
+   * @param nodeId the unique id of the member
+   * @return the store representing the member
+   */
+  public LoopbackReplicatedStore createNode(String nodeId) {
+    return new LoopbackReplicatedStore(this, nodeId);
+  }
+
+  /**
+   * Simulates an abrupt failure of a member: it stops receiving replicated data, its store is stopped and the
+   * remaining members are notified so they can take over its sessions and timers.
+   *
+   * @param nodeId the id of the member to fail
+   */
+  public void failNode(String nodeId) {
+    LoopbackReplicatedStore member = members.get(nodeId);
+    if (member != null) {
+      failovers.incrementAndGet();
+      member.stop();
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public List<String> getMembers() {
+    return new ArrayList<String>(members.keySet());
+  }
+
+  public int getMemberCount() {
+    return members.size();
+  }
+
+  public long getReplicatedWrites() {
+    return replicatedWrites.get();
+  }
+
+  public long getReplicatedRemovals() {
+    return replicatedRemovals.get();
+  }
+
+  public long getReplicatedBytes() {
+    return replicatedBytes.get();
+  }
+
+  public long getFailovers() {
+    return failovers.get();
+  }
+
+  public void resetStatistics() {
+    replicatedWrites.set(0);
+    replicatedRemovals.set(0);
+    replicatedBytes.set(0);
+    failovers.set(0);
+  }
+
+  void join(LoopbackReplicatedStore member) {
+    membershipLock.writeLock().lock();
+    try {
+      // state transfer from any live member, all of them hold a full copy
+      Map.Entry<String, LoopbackReplicatedStore> donor = members.firstEntry();
+      if (members.putIfAbsent(member.getLocalNodeId(), member) != null) {
+        throw new IllegalStateException("Node " + member.getLocalNodeId() + " is already a member of cluster " + name);
+      }
+      if (donor != null) {
+        member.applyState(donor.getValue().getState());
+      }
+    }
+    finally {
+      membershipLock.writeLock().unlock();
+    }
+    logger.debug("Node [{}] joined loopback cluster [{}], members: {}", new Object[] {member.getLocalNodeId(), name, members.keySet()});
+  }
+
+  void leave(LoopbackReplicatedStore member) {
+    boolean removed;
+    membershipLock.writeLock().lock();
+    try {
+      removed = members.remove(member.getLocalNodeId(), member);
+    }
+    finally {
+      membershipLock.writeLock().unlock();
+    }
+    if (removed) {
+      logger.debug("Node [{}] left loopback cluster [{}], members: {}", new Object[] {member.getLocalNodeId(), name, members.keySet()});
+      for (LoopbackReplicatedStore other : members.values()) {
+        other.applyMemberLeft(member.getLocalNodeId());
+      }
+    }
+  }
+
+  void replicateCreate(LoopbackReplicatedStore source, String entryId) {
+    membershipLock.readLock().lock();
+    try {
+      for (LoopbackReplicatedStore other : members.values()) {
+        if (other != source) {
+          other.applyCreate(entryId);
+          replicatedWrites.incrementAndGet();
+        }
+      }
+    }
+    finally {
+      membershipLock.readLock().unlock();
+    }
+  }
+
+  void replicatePut(LoopbackReplicatedStore source, String entryId, String key, byte[] value) {
+    membershipLock.readLock().lock();
+    try {
+      for (LoopbackReplicatedStore other : members.values()) {
+        if (other != source) {
+          other.applyPut(entryId, key, value);
+          replicatedWrites.incrementAndGet();
+          if (value != null) {
+            replicatedBytes.addAndGet(value.length);
+          }
+        }
+      }
+    }
+    finally {
+      membershipLock.readLock().unlock();
+    }
+  }
+
+  void replicateRemove(LoopbackReplicatedStore source, String entryId) {
+    membershipLock.readLock().lock();
+    try {
+      for (LoopbackReplicatedStore other : members.values()) {
+        if (other != source) {
+          other.applyRemove(entryId);
+          replicatedRemovals.incrementAndGet();
+        }
+      }
+    }
+    finally {
+      membershipLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LoopbackCluster [name=" + name + ", members=" + members.keySet() + "]";
+  }
+}
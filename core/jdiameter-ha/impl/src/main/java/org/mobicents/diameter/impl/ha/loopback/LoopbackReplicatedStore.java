@@ -0,0 +1,270 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.mobicents.diameter.impl.ha.loopback;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.mobicents.diameter.api.ha.data.IReplicatedStore;
+import org.mobicents.diameter.api.ha.data.IReplicatedStoreListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Member of a {@link LoopbackCluster}. Values are kept in marshalled form, as a real replicated cache would, so every
+ * read and write pays the serialization cost.
+ */
+public class LoopbackReplicatedStore implements IReplicatedStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(LoopbackReplicatedStore.class);
+
+  private final LoopbackCluster cluster;
+  private final String nodeId;
+  private final ConcurrentHashMap<String, ConcurrentHashMap<String, byte[]>> entries =
+      new ConcurrentHashMap<String, ConcurrentHashMap<String, byte[]>>();
+  private final List<IReplicatedStoreListener> listeners = new CopyOnWriteArrayList<IReplicatedStoreListener>();
+  private volatile boolean started;
+
+  LoopbackReplicatedStore(LoopbackCluster cluster, String nodeId) {
+    this.cluster = cluster;
+    this.nodeId = nodeId;
+  }
+
+  @Override
+  public synchronized void start() {
+    if (!started) {
+      cluster.join(this);
+      started = true;
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (started) {
+      started = false;
+      cluster.leave(this);
+      entries.clear();
+    }
+  }
+
+  public boolean isStarted() {
+    return started;
+  }
+
+  @Override
+  public boolean isLocalMode() {
+    return cluster.getMemberCount() < 2;
+  }
+
+  @Override
+  public String getLocalNodeId() {
+    return nodeId;
+  }
+
+  @Override
+  public List<String> getMembers() {
+    return cluster.getMembers();
+  }
+
+  public LoopbackCluster getCluster() {
+    return cluster;
+  }
+
+  @Override
+  public boolean create(String entryId) {
+    if (entries.putIfAbsent(entryId, new ConcurrentHashMap<String, byte[]>()) == null) {
+      if (started) {
+        cluster.replicateCreate(this, entryId);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean exists(String entryId) {
+    return entries.containsKey(entryId);
+  }
+
+  @Override
+  public Object get(String entryId, String key) {
+    Map<String, byte[]> entry = entries.get(entryId);
+    if (entry == null) {
+      return null;
+    }
+    return unmarshal(entry.get(key));
+  }
+
+  @Override
+  public Map<String, Object> getAll(String entryId) {
+    Map<String, byte[]> entry = entries.get(entryId);
+    if (entry == null) {
+      return Collections.emptyMap();
+    }
+    Map<String, Object> values = new HashMap<String, Object>();
+    for (Map.Entry<String, byte[]> e : entry.entrySet()) {
+      values.put(e.getKey(), unmarshal(e.getValue()));
+    }
+    return values;
+  }
+
+  @Override
+  public void put(String entryId, String key, Serializable value) {
+    byte[] data = marshal(value);
+    applyPut(entryId, key, data);
+    if (started) {
+      cluster.replicatePut(this, entryId, key, data);
+    }
+  }
+
+  @Override
+  public boolean remove(String entryId) {
+    if (entries.remove(entryId) != null) {
+      if (started) {
+        cluster.replicateRemove(this, entryId);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void addListener(IReplicatedStoreListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeListener(IReplicatedStoreListener listener) {
+    listeners.remove(listener);
+  }
+
+  // replication callbacks, invoked by cluster ------------------------------
+
+  void applyCreate(String entryId) {
+    entries.putIfAbsent(entryId, new ConcurrentHashMap<String, byte[]>());
+  }
+
+  void applyPut(String entryId, String key, byte[] data) {
+    ConcurrentHashMap<String, byte[]> entry = entries.get(entryId);
+    if (entry == null) {
+      entry = new ConcurrentHashMap<String, byte[]>();
+      ConcurrentHashMap<String, byte[]> existing = entries.putIfAbsent(entryId, entry);
+      if (existing != null) {
+        entry = existing;
+      }
+    }
+    if (data == null) {
+      entry.remove(key);
+    }
+    else {
+      entry.put(key, data);
+    }
+  }
+
+  void applyRemove(String entryId) {
+    if (entries.remove(entryId) != null) {
+      for (IReplicatedStoreListener listener : listeners) {
+        try {
+          listener.dataRemoved(entryId);
+        }
+        catch (Exception e) {
+          logger.error("Failure notifying listener about removal of " + entryId, e);
+        }
+      }
+    }
+  }
+
+  void applyMemberLeft(String leftNodeId) {
+    for (IReplicatedStoreListener listener : listeners) {
+      try {
+        listener.memberLeft(leftNodeId);
+      }
+      catch (Exception e) {
+        logger.error("Failure notifying listener about departure of node " + leftNodeId, e);
+      }
+    }
+  }
+
+  Map<String, Map<String, byte[]>> getState() {
+    Map<String, Map<String, byte[]>> state = new HashMap<String, Map<String, byte[]>>();
+    for (Map.Entry<String, ConcurrentHashMap<String, byte[]>> e : entries.entrySet()) {
+      state.put(e.getKey(), new HashMap<String, byte[]>(e.getValue()));
+    }
+    return state;
+  }
+
+  void applyState(Map<String, Map<String, byte[]>> state) {
+    for (Map.Entry<String, Map<String, byte[]>> e : state.entrySet()) {
+      entries.put(e.getKey(), new ConcurrentHashMap<String, byte[]>(e.getValue()));
+    }
+  }
+
+  private static byte[] marshal(Serializable value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+      ObjectOutputStream oos = new ObjectOutputStream(bos);
+      oos.writeObject(value);
+      oos.close();
+      return bos.toByteArray();
+    }
+    catch (IOException e) {
+      throw new IllegalArgumentException("Unable to marshal value of type " + value.getClass(), e);
+    }
+  }
+
+  private static Object unmarshal(byte[] data) {
+    if (data == null) {
+      return null;
+    }
+    try {
+      ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+      try {
+        return ois.readObject();
+      }
+      finally {
+        ois.close();
+      }
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Unable to unmarshal value", e);
+    }
+    catch (ClassNotFoundException e) {
+      throw new IllegalStateException("Unable to unmarshal value", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LoopbackReplicatedStore [nodeId=" + nodeId + ", cluster=" + cluster.getName() + ", entries=" + entries.size() + "]";
+  }
+}
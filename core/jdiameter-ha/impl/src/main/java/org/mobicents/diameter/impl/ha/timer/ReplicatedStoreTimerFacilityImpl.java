@@ -0,0 +1,210 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.mobicents.diameter.impl.ha.timer;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.jdiameter.api.BaseSession;
+import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.impl.BaseSessionImpl;
+import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.jdiameter.common.api.data.ISessionDatasource;
+import org.jdiameter.common.api.timer.ITimerFacility;
+import org.jdiameter.common.impl.app.AppSessionImpl;
+import org.mobicents.diameter.api.ha.data.IReplicatedStore;
+import org.mobicents.diameter.api.ha.data.IReplicatedStoreListener;
+import org.mobicents.diameter.impl.ha.data.ReplicatedStoreSessionDatasource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replicated implementation of {@link ITimerFacility} on top of {@link IReplicatedStore}. Timers run on the local
+ * scheduler and are recorded in a per-node store entry; when a node leaves, the lowest remaining member reschedules its
+ * timers with the remaining delay. A timer can be cancelled on any node, the node running it finds its record gone
+ * when the timer is due and drops it.
+ */
+public class ReplicatedStoreTimerFacilityImpl implements ITimerFacility, IReplicatedStoreListener {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReplicatedStoreTimerFacilityImpl.class);
+
+  public static final String TIMERS = "/diameter/timers/";
+
+  private ISessionDatasource sessionDataSource;
+  private IReplicatedStore store;
+  private ScheduledExecutorService executor;
+  private ConcurrentHashMap<String, TimerTask> timers = new ConcurrentHashMap<String, TimerTask>();
+
+  public ReplicatedStoreTimerFacilityImpl(IContainer container) {
+    super();
+    this.sessionDataSource = container.getAssemblerFacility().getComponentInstance(ISessionDatasource.class);
+    this.executor = container.getConcurrentFactory().getScheduledExecutorService(IConcurrentFactory.ScheduledExecServices.ApplicationSession.name());
+    this.store = ((ReplicatedStoreSessionDatasource) this.sessionDataSource).getReplicatedStore();
+    this.store.addListener(this);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.jdiameter.common.api.timer.ITimerFacility#schedule(java.lang.String, java.lang.String, long)
+   */
+  @Override
+  public Serializable schedule(String sessionId, String timerName, long miliseconds) throws IllegalArgumentException {
+    String id = sessionId + "/" + timerName;
+    logger.debug("Scheduling timer with id {}", id);
+
+    // same as local facility, scheduling a running timer again replaces it
+    StoreTimerTaskData data = new StoreTimerTaskData(sessionId, timerName, System.currentTimeMillis() + miliseconds);
+    this.store.put(getTimersEntry(store.getLocalNodeId()), id, data);
+    scheduleLocally(id, data);
+    return id;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.jdiameter.common.api.timer.ITimerFacility#cancel(java.io.Serializable)
+   */
+  @Override
+  public void cancel(Serializable id) {
+    logger.debug("Cancelling timer with id {}", id);
+    if (id instanceof String) {
+      String timerId = (String) id;
+      TimerTask task = this.timers.remove(timerId);
+      if (task != null) {
+        task.cancel();
+        this.store.put(getTimersEntry(store.getLocalNodeId()), timerId, null);
+        return;
+      }
+      // timer runs on other node, e.g. one which handled the session before; without its record that node drops the
+      // timer when it is due and nobody takes it over if the node leaves
+      for (String member : this.store.getMembers()) {
+        String entry = getTimersEntry(member);
+        if (this.store.get(entry, timerId) != null) {
+          this.store.put(entry, timerId, null);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void dataRemoved(String entryId) {
+    // NOP
+  }
+
+  @Override
+  public void memberLeft(String nodeId) {
+    List<String> members = this.store.getMembers();
+    if (members.isEmpty() || !members.get(0).equals(this.store.getLocalNodeId())) {
+      return;
+    }
+
+    String failedEntry = getTimersEntry(nodeId);
+    String localEntry = getTimersEntry(store.getLocalNodeId());
+    Map<String, Object> failedTimers = this.store.getAll(failedEntry);
+    logger.info("Taking over {} timers from cluster member [{}]", failedTimers.size(), nodeId);
+    for (Map.Entry<String, Object> e : failedTimers.entrySet()) {
+      StoreTimerTaskData data = (StoreTimerTaskData) e.getValue();
+      this.store.put(localEntry, e.getKey(), data);
+      scheduleLocally(e.getKey(), data);
+    }
+    this.store.remove(failedEntry);
+  }
+
+  private void scheduleLocally(String id, StoreTimerTaskData data) {
+    long delay = Math.max(0, data.getExpiresAt() - System.currentTimeMillis());
+    TimerTask task = new TimerTask(id, data);
+    TimerTask previous = this.timers.put(id, task);
+    if (previous != null) {
+      logger.debug("Replaced running timer with id {}", id);
+      previous.cancel();
+    }
+    task.future = this.executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+  }
+
+  private static String getTimersEntry(String nodeId) {
+    return TIMERS + nodeId;
+  }
+
+  private final class TimerTask implements Runnable {
+
+    private final String id;
+    private final StoreTimerTaskData data;
+    private volatile ScheduledFuture<?> future;
+
+    TimerTask(String id, StoreTimerTaskData data) {
+      this.id = id;
+      this.data = data;
+    }
+
+    void cancel() {
+      // future may not be set yet, the task then finds itself unregistered when it runs
+      ScheduledFuture<?> f = future;
+      if (f != null) {
+        f.cancel(false);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (!timers.remove(id, this)) {
+        // cancelled or replaced meanwhile
+        return;
+      }
+      try {
+        String entry = getTimersEntry(store.getLocalNodeId());
+        if (store.get(entry, id) == null) {
+          logger.debug("Timer with id {} was cancelled on other node", id);
+          return;
+        }
+        store.put(entry, id, null);
+        BaseSession bSession = sessionDataSource.getSession(data.getSessionId());
+        if (bSession == null) {
+          logger.error("Base Session is null for sessionId: {}", data.getSessionId());
+          return;
+        }
+        else {
+          try {
+            if (!bSession.isAppSession()) {
+              BaseSessionImpl impl = (BaseSessionImpl) bSession;
+              impl.onTimer(data.getTimerName());
+            }
+            else {
+              AppSessionImpl impl = (AppSessionImpl) bSession;
+              impl.onTimer(data.getTimerName());
+            }
+          }
+          catch (Exception e) {
+            logger.error("Caught exception from session object!", e);
+          }
+        }
+      }
+      catch (Exception e) {
+        logger.error("Failure executing timer task with id: " + id, e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,52 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.mobicents.diameter.impl.ha.timer;
+
+import java.io.Serializable;
+
+/**
+ * Replicated record of a scheduled timer, enough to reschedule it on another node.
+ */
+final class StoreTimerTaskData implements Serializable {
+
+  private static final long serialVersionUID = -2186435937206591433L;
+
+  private final String sessionId;
+  private final String timerName;
+  private final long expiresAt;
+
+  StoreTimerTaskData(String sessionId, String timerName, long expiresAt) {
+    this.sessionId = sessionId;
+    this.timerName = timerName;
+    this.expiresAt = expiresAt;
+  }
+
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  public String getTimerName() {
+    return timerName;
+  }
+
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+}
@@ -0,0 +1,144 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.mobicents.diameter.impl.ha.data;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.jdiameter.api.BaseSession;
+import org.jdiameter.common.api.data.ISessionIndex;
+import org.jdiameter.common.api.data.ISessionKeyExtractor;
+import org.mobicents.diameter.impl.ha.loopback.LoopbackCluster;
+import org.mobicents.diameter.impl.ha.loopback.LoopbackReplicatedStore;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestReplicatedSessionIndex {
+
+  private static final String ENTRY = "sessionIndex/ip/10.0.0.1";
+
+  // sessions are indexed by the part of their id after the last ';'
+  private static final ISessionKeyExtractor EXTRACTOR = new ISessionKeyExtractor() {
+    @Override
+    public String[] getKeys(BaseSession session) {
+      String id = session.getSessionId();
+      return new String[] {id.substring(id.lastIndexOf(';') + 1)};
+    }
+  };
+
+  private LoopbackReplicatedStore store1;
+  private LoopbackReplicatedStore store2;
+  private ReplicatedStoreSessionDatasource datasource1;
+  private ReplicatedStoreSessionDatasource datasource2;
+
+  @BeforeMethod
+  public void setUp() {
+    LoopbackCluster cluster = new LoopbackCluster("test");
+    store1 = cluster.createNode("node1");
+    store2 = cluster.createNode("node2");
+    datasource1 = new ReplicatedStoreSessionDatasource(null, store1);
+    datasource2 = new ReplicatedStoreSessionDatasource(null, store2);
+    store1.start();
+    store2.start();
+  }
+
+  @Test
+  public void testBindingIsVisibleOnOtherNodeUntilSessionIsRemoved() {
+    ISessionIndex index1 = datasource1.addIndex("ip", EXTRACTOR);
+    ISessionIndex index2 = datasource2.addIndex("ip", EXTRACTOR);
+    // application data of session is replicated before the session is added
+    store1.create("host;1;10.0.0.1");
+    datasource1.addSession(newSession("host;1;10.0.0.1"));
+
+    assertEquals(index1.getSessionId("10.0.0.1"), "host;1;10.0.0.1");
+    assertEquals(index2.getSessionId("10.0.0.1"), "host;1;10.0.0.1");
+    assertEquals(index1.size(), 1);
+    // only bindings of local sessions are counted
+    assertEquals(index2.size(), 0);
+
+    datasource1.removeSession("host;1;10.0.0.1");
+    assertNull(index1.getSessionId("10.0.0.1"));
+    assertNull(index2.getSessionId("10.0.0.1"));
+    assertFalse(store2.exists(ENTRY));
+  }
+
+  @Test
+  public void testStaleBindingIsDroppedOnLookup() {
+    datasource1.addIndex("ip", EXTRACTOR);
+    ISessionIndex index2 = datasource2.addIndex("ip", EXTRACTOR);
+    store1.create("host;1;10.0.0.1");
+    datasource1.addSession(newSession("host;1;10.0.0.1"));
+    assertTrue(store2.exists(ENTRY));
+
+    // session data released while binding entry is left in the store
+    store1.remove("host;1;10.0.0.1");
+
+    assertNull(index2.getSessionId("10.0.0.1"));
+    assertFalse(store1.exists(ENTRY));
+    assertFalse(store2.exists(ENTRY));
+  }
+
+  @Test
+  public void testRemovalReplicatedFromOtherNodeUnbindsKeys() {
+    ISessionIndex index1 = datasource1.addIndex("ip", EXTRACTOR);
+    ISessionIndex index2 = datasource2.addIndex("ip", EXTRACTOR);
+    store1.create("host;1;10.0.0.1");
+    datasource1.addSession(newSession("host;1;10.0.0.1"));
+
+    // session released on other node
+    datasource2.removeSession("host;1;10.0.0.1");
+
+    assertNull(index1.getSessionId("10.0.0.1"));
+    assertNull(index2.getSessionId("10.0.0.1"));
+    assertEquals(index1.size(), 0);
+    assertFalse(store1.exists(ENTRY));
+  }
+
+  private static BaseSession newSession(final String sessionId) {
+    return (BaseSession) Proxy.newProxyInstance(TestReplicatedSessionIndex.class.getClassLoader(), new Class<?>[] {BaseSession.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getSessionId")) {
+              return sessionId;
+            }
+            else if (method.getName().equals("isReplicable")) {
+              return true;
+            }
+            else if (method.getName().equals("toString")) {
+              return "Session[" + sessionId + "]";
+            }
+            else if (method.getName().equals("hashCode")) {
+              return System.identityHashCode(proxy);
+            }
+            else if (method.getName().equals("equals")) {
+              return proxy == args[0];
+            }
+            return null;
+          }
+        });
+  }
+}
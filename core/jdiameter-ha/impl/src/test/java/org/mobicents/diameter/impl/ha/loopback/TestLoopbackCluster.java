@@ -0,0 +1,288 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.mobicents.diameter.impl.ha.loopback;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.jdiameter.api.BaseSession;
+import org.jdiameter.api.auth.ClientAuthSession;
+import org.jdiameter.client.api.IAssembler;
+import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.impl.app.auth.IClientAuthSessionData;
+import org.jdiameter.common.api.app.auth.IAuthSessionData;
+import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.jdiameter.common.api.data.ISessionDatasource;
+import org.mobicents.diameter.api.ha.data.IReplicatedStoreListener;
+import org.mobicents.diameter.impl.ha.data.ReplicatedStoreSessionDatasource;
+import org.mobicents.diameter.impl.ha.timer.ReplicatedStoreTimerFacilityImpl;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestLoopbackCluster {
+
+  private LoopbackCluster cluster;
+  private List<ScheduledExecutorService> executors = new ArrayList<ScheduledExecutorService>();
+  // session datasource served by assembler of each container
+  private Map<IContainer, ISessionDatasource> components = new HashMap<IContainer, ISessionDatasource>();
+  private List<String> firedSessions = new CopyOnWriteArrayList<String>();
+
+  @BeforeMethod
+  public void setUp() {
+    cluster = new LoopbackCluster("test");
+    firedSessions.clear();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    for (ScheduledExecutorService executor : executors) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testStateTransferOnJoin() {
+    LoopbackReplicatedStore node1 = cluster.createNode("node1");
+    node1.start();
+    node1.create("session1");
+    node1.put("session1", "key", "value");
+
+    LoopbackReplicatedStore node2 = cluster.createNode("node2");
+    node2.start();
+    assertEquals(node2.get("session1", "key"), "value");
+
+    node2.put("session1", "key", "changed");
+    assertEquals(node1.get("session1", "key"), "changed");
+    assertEquals(cluster.getMemberCount(), 2);
+  }
+
+  @Test
+  public void testDuplicateNodeIdIsRejected() {
+    LoopbackReplicatedStore node1 = cluster.createNode("node1");
+    node1.start();
+    node1.create("session1");
+    node1.put("session1", "key", "value");
+
+    LoopbackReplicatedStore duplicate = cluster.createNode("node1");
+    try {
+      duplicate.start();
+      fail("Node with duplicate id must not join");
+    }
+    catch (IllegalStateException e) {
+      // expected
+    }
+    assertFalse(duplicate.isStarted());
+    assertFalse(duplicate.exists("session1"));
+    assertEquals(cluster.getMembers().size(), 1);
+
+    // original member still replicates
+    LoopbackReplicatedStore node2 = cluster.createNode("node2");
+    node2.start();
+    node1.put("session1", "key", "other");
+    assertEquals(node2.get("session1", "key"), "other");
+  }
+
+  @Test
+  public void testFailNodeStopsStoreAndNotifiesMembers() {
+    LoopbackReplicatedStore node1 = cluster.createNode("node1");
+    LoopbackReplicatedStore node2 = cluster.createNode("node2");
+    node1.start();
+    node2.start();
+    final List<String> left = new ArrayList<String>();
+    node2.addListener(new IReplicatedStoreListener() {
+      @Override
+      public void dataRemoved(String entryId) {
+      }
+
+      @Override
+      public void memberLeft(String nodeId) {
+        left.add(nodeId);
+      }
+    });
+
+    cluster.failNode("node1");
+
+    assertFalse(node1.isStarted());
+    assertEquals(left.size(), 1);
+    assertEquals(left.get(0), "node1");
+    assertEquals(cluster.getFailovers(), 1);
+    assertTrue(node2.isLocalMode());
+
+    // failed node does not receive writes anymore
+    node2.create("session1");
+    assertFalse(node1.exists("session1"));
+  }
+
+  @Test
+  public void testSessionDataSurvivesFailover() {
+    LoopbackReplicatedStore node1 = cluster.createNode("node1");
+    LoopbackReplicatedStore node2 = cluster.createNode("node2");
+    ReplicatedStoreSessionDatasource datasource1 = new ReplicatedStoreSessionDatasource(newContainer(null), node1);
+    ReplicatedStoreSessionDatasource datasource2 = new ReplicatedStoreSessionDatasource(newContainer(null), node2);
+    datasource1.start();
+    datasource2.start();
+
+    IClientAuthSessionData data = (IClientAuthSessionData) datasource1.getDataFactory(IAuthSessionData.class)
+        .getAppSessionData(ClientAuthSession.class, "session1");
+    data.setDestinationHost("aaa://hss1.example.org");
+    data.setStateless(true);
+
+    cluster.failNode("node1");
+
+    assertTrue(datasource2.exists("session1"));
+    IClientAuthSessionData takenOver = (IClientAuthSessionData) datasource2.getDataFactory(IAuthSessionData.class)
+        .getAppSessionData(ClientAuthSession.class, "session1");
+    assertEquals(takenOver.getDestinationHost(), "aaa://hss1.example.org");
+    assertTrue(takenOver.isStateless());
+    // never written property gets its initial value, boxed to the right type
+    assertNull(takenOver.getTsTimerId());
+  }
+
+  @Test
+  public void testTimersTakenOverByLowestMember() {
+    LoopbackReplicatedStore node1 = cluster.createNode("node1");
+    LoopbackReplicatedStore node2 = cluster.createNode("node2");
+    LoopbackReplicatedStore node3 = cluster.createNode("node3");
+    ReplicatedStoreTimerFacilityImpl timers1 = newTimerFacility(node1);
+    newTimerFacility(node2);
+    newTimerFacility(node3);
+    node1.start();
+    node2.start();
+    node3.start();
+
+    timers1.schedule("session1", "Tx", 60000);
+    timers1.schedule("session2", "Tx", 60000);
+    // scheduling running timer again replaces it
+    timers1.schedule("session1", "Tx", 60000);
+
+    cluster.failNode("node1");
+
+    Map<String, Object> node2Timers = node2.getAll(ReplicatedStoreTimerFacilityImpl.TIMERS + "node2");
+    assertEquals(node2Timers.size(), 2);
+    assertTrue(node2Timers.containsKey("session1/Tx"));
+    assertTrue(node3.getAll(ReplicatedStoreTimerFacilityImpl.TIMERS + "node3").isEmpty());
+    assertFalse(node2.exists(ReplicatedStoreTimerFacilityImpl.TIMERS + "node1"));
+  }
+
+  @Test
+  public void testTimerCancelledOnOtherNodeIsDropped() throws Exception {
+    LoopbackReplicatedStore node1 = cluster.createNode("node1");
+    LoopbackReplicatedStore node2 = cluster.createNode("node2");
+    ReplicatedStoreTimerFacilityImpl timers1 = newTimerFacility(node1);
+    ReplicatedStoreTimerFacilityImpl timers2 = newTimerFacility(node2);
+    node1.start();
+    node2.start();
+
+    Serializable shortTimer = timers1.schedule("session1", "Tx", 100);
+    Serializable longTimer = timers1.schedule("session2", "Tx", 60000);
+    timers1.schedule("session3", "Tx", 100);
+    assertEquals(node2.getAll(ReplicatedStoreTimerFacilityImpl.TIMERS + "node1").size(), 3);
+
+    // session moved to node2, which cancels the timers running on node1
+    timers2.cancel(shortTimer);
+    timers2.cancel(longTimer);
+    Map<String, Object> node1Timers = node1.getAll(ReplicatedStoreTimerFacilityImpl.TIMERS + "node1");
+    assertEquals(node1Timers.keySet(), Collections.singleton("session3/Tx"));
+
+    // cancelled timer does not fire, the other one does
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!node1.getAll(ReplicatedStoreTimerFacilityImpl.TIMERS + "node1").isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(100);
+    assertEquals(firedSessions, Collections.singletonList("session3"));
+
+    // cancelled timer is not taken over
+    cluster.failNode("node1");
+    assertTrue(node2.getAll(ReplicatedStoreTimerFacilityImpl.TIMERS + "node2").isEmpty());
+  }
+
+  private ReplicatedStoreTimerFacilityImpl newTimerFacility(LoopbackReplicatedStore store) {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    executors.add(executor);
+    IContainer container = newContainer(executor);
+    ReplicatedStoreSessionDatasource datasource = new ReplicatedStoreSessionDatasource(container, store) {
+      @Override
+      public BaseSession getSession(String sessionId) {
+        // looked up by timers which fire
+        firedSessions.add(sessionId);
+        return super.getSession(sessionId);
+      }
+    };
+    components.put(container, datasource);
+    return new ReplicatedStoreTimerFacilityImpl(container);
+  }
+
+  private IContainer newContainer(final ScheduledExecutorService executor) {
+    final IContainer[] container = new IContainer[1];
+    final IAssembler assembler = proxy(IAssembler.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getComponentInstance") && args[0] == ISessionDatasource.class ? components.get(container[0]) : null;
+      }
+    });
+    final IConcurrentFactory concurrentFactory = proxy(IConcurrentFactory.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getScheduledExecutorService") ? executor : null;
+      }
+    });
+    container[0] = proxy(IContainer.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("getAssemblerFacility")) {
+          return assembler;
+        }
+        else if (method.getName().equals("getConcurrentFactory")) {
+          return concurrentFactory;
+        }
+        else if (method.getName().equals("hashCode")) {
+          return System.identityHashCode(proxy);
+        }
+        else if (method.getName().equals("equals")) {
+          return proxy == args[0];
+        }
+        return null;
+      }
+    });
+    return container[0];
+  }
+
+  private static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+    return iface.cast(Proxy.newProxyInstance(TestLoopbackCluster.class.getClassLoader(), new Class<?>[] {iface}, handler));
+  }
+}
@@ -0,0 +1,55 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.api;
+
+import java.util.concurrent.Future;
+
+/**
+ * Result of an asynchronous request. Unlike the plain {@link Future} returned by {@link Session#send(Message)},
+ * no thread has to block on it: the registered {@link EventListener} is called by the thread which completes the
+ * request, i.e. the one which received the answer or detected the timeout.
+ *
+ * {@link #get()} fails with {@link java.util.concurrent.ExecutionException} caused by
+ * {@link java.util.concurrent.TimeoutException} if no answer arrived within the request timeout.
+ *
+ * @param <R> type of request
+ * @param <A> type of answer
+ */
+public interface AnswerFuture<R extends Message, A extends Message> extends Future<A> {
+
+  /**
+   * Sets the listener notified when the request completes. If it has already completed the listener is
+   * notified immediately by the calling thread. Listener is not notified if the future is cancelled.
+   * Listener must not block, as it runs on the stack thread which received the answer.
+   *
+   * @param listener listener of answer or timeout
+   */
+  void setListener(EventListener<R, A> listener);
+
+  /**
+   * @return request that was sent
+   */
+  R getRequest();
+
+  /**
+   * @return true if the request completed because no answer arrived in time
+   */
+  boolean isTimeOut();
+}
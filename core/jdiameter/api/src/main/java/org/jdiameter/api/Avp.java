@@ -2743,6 +2743,41 @@ public interface Avp extends Wrapper, Serializable {
    */
   int SERVICE_AREA_IDENTITY = 1607;
 
+  /**
+   * Diameter Overload Indication Conveyance (IETF RFC 7683) OC-Supported-Features AVP code
+   */
+  int OC_SUPPORTED_FEATURES = 621;
+
+  /**
+   * Diameter Overload Indication Conveyance (IETF RFC 7683) OC-Feature-Vector AVP code
+   */
+  int OC_FEATURE_VECTOR = 622;
+
+  /**
+   * Diameter Overload Indication Conveyance (IETF RFC 7683) OC-OLR AVP code
+   */
+  int OC_OLR = 623;
+
+  /**
+   * Diameter Overload Indication Conveyance (IETF RFC 7683) OC-Sequence-Number AVP code
+   */
+  int OC_SEQUENCE_NUMBER = 624;
+
+  /**
+   * Diameter Overload Indication Conveyance (IETF RFC 7683) OC-Validity-Duration AVP code
+   */
+  int OC_VALIDITY_DURATION = 625;
+
+  /**
+   * Diameter Overload Indication Conveyance (IETF RFC 7683) OC-Report-Type AVP code
+   */
+  int OC_REPORT_TYPE = 626;
+
+  /**
+   * Diameter Overload Indication Conveyance (IETF RFC 7683) OC-Reduction-Percentage AVP code
+   */
+  int OC_REDUCTION_PERCENTAGE = 627;
+
   // Diameter ELP Application (SLg) reused AVPs:
   // LCS-Format-Indicator 1237 3GPP TS 32.299;
   // LCS-Name-String 1238 3GPP TS 2.299;
@@ -92,6 +92,20 @@ public interface IMessage extends IRequest, IAnswer {
    */
   void setState(int newState);
 
+  /**
+   * Return time, as given by {@link System#nanoTime()}, at which message was last moved to {@link #STATE_SENT}
+   * @return send time or 0 if message has not been sent yet
+   */
+  long getSentTime();
+
+  /**
+   * Hand message back for reuse by later created messages of the same stack, if message pooling is enabled.
+   * Released messages go to a bounded pool shared by all threads of the stack which created the message,
+   * message is dropped if the pool is full.
+   * Nobody may hold a reference to this message after the call.
+   */
+  void release();
+
   /**
    * Return header applicationId
    * @return header applicationId
@@ -118,6 +132,15 @@ public interface IMessage extends IRequest, IAnswer {
    */
   void createTimer(ScheduledExecutorService scheduledFacility, long timeOut, TimeUnit timeUnit);
 
+  /**
+   * Create timer for request timout procedure which is checked by timeout queue shared with other requests,
+   * so no task is scheduled for this request only
+   * @param scheduledFacility timer facility
+   * @param timeOut value of timeout
+   * @param timeUnit time unit
+   */
+  void createSharedTimer(ScheduledExecutorService scheduledFacility, long timeOut, TimeUnit timeUnit);
+
   /**
    * Execute timer task
    */
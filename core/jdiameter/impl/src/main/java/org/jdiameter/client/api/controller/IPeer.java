@@ -94,6 +94,72 @@ public interface IPeer extends Peer {
    */
   IMessage[] remAllMessage();
 
+  /**
+   * Return number of requests sent to this peer which are still waiting for an answer
+   *
+   * @return number of outstanding requests
+   */
+  int getOutstandingRequests();
+
+  /**
+   * Return smoothed (exponentially weighted moving average) answer latency of this peer
+   *
+   * @return answer latency in nanoseconds or 0 if no answer has been received yet
+   */
+  long getResponseTime();
+
+  /**
+   * Return percentage of traffic this peer asked to be reduced by means of a valid
+   * Diameter Overload Indication Conveyance (RFC 7683) host report
+   *
+   * @return reduction percentage, 0 if there is no overload report in force
+   */
+  int getOverloadReduction();
+
+  /**
+   * Return health score derived from watchdog round trip time, answer latency, ratio of timed out
+   * requests and ratio of transient error answers; it is limited for a while after peer was restored
+   *
+   * @return score from 0 (unusable) to 100 (healthy)
+   */
+  int getHealthScore();
+
+  /**
+   * @return smoothed watchdog round trip time in nanoseconds, 0 if no DWR was answered yet
+   */
+  long getWatchdogRoundTripTime();
+
+  /**
+   * Return true if in-flight window of the application on this peer has no free slot, so
+   * requests should be sent to other peers if possible
+   *
+   * @param applicationId application id of request
+   * @return true if window is configured and full
+   */
+  boolean isInFlightWindowFull(long applicationId);
+
+  /**
+   * Return number of requests of the application occupying in-flight window of this peer
+   *
+   * @param applicationId application id of requests
+   * @return number of requests, 0 if window is not configured
+   */
+  int getInFlightRequests(long applicationId);
+
+  /**
+   * Return number of requests which had to wait for a free slot of in-flight window
+   *
+   * @return number of queued requests
+   */
+  long getInFlightQueuedRequests();
+
+  /**
+   * Return number of requests rejected because in-flight window was full
+   *
+   * @return number of rejected requests
+   */
+  long getInFlightRejectedRequests();
+
   /**
    * Put message to peer fsm
    *
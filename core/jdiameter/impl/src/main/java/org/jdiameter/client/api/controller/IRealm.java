@@ -84,6 +84,14 @@ public interface IRealm extends Realm {
    */
   boolean hasPeerName(String name);
 
+  /**
+   * Get version of the peer names of this realm, which changes whenever a peer is added or removed.
+   * Lets callers which keep data derived from the peer names detect that it is stale.
+   *
+   * @return current version of realm peer names
+   */
+  int getPeerNamesVersion();
+
   /**
    * Get the processing agent for this realm
    *
@@ -129,4 +129,14 @@ public interface IMessageParser {
    */
   ByteBuffer encodeMessage(IMessage message) throws ParseException;
 
+  /**
+   * Create message with content of template message. Template is encoded once and messages created from it
+   * are encoded by patching flags, hop-by-hop and end-to-end identifiers only, so neither template nor the
+   * created messages may have their AVPs changed.
+   * @param template fully built message
+   * @return instance of message with new end-to-end identifier
+   * @throws ParseException
+   */
+  IMessage createMessageFromTemplate(IMessage template) throws ParseException;
+
 }
@@ -130,4 +130,31 @@ public interface IRouter  {
    */
   boolean updateRoute(IRequest message) throws RouteException, AvpDataException;
 
+  /**
+   * Send request which its peer failed to answer to an alternate peer, with 'T' flag set and the same
+   * End-to-End identifier, if failover is enabled and the request has retries left
+   *
+   * @param request request whose peer lost connection
+   * @return true if request was sent again
+   */
+  boolean failoverRequest(IMessage request);
+
+  /**
+   * Return request which was failed over after peer did not answer it, so a late answer of that peer
+   * can still be delivered
+   *
+   * @param peer peer which received the answer
+   * @param hopByHopIdentifier Hop-by-Hop identifier of the answer
+   * @return request still waiting for an answer or null if there is none
+   */
+  IMessage getFailedOverRequest(IPeer peer, long hopByHopIdentifier);
+
+  /**
+   * Called after peers were added to or removed from peer table, so routing information built from
+   * the previous table content is dropped
+   *
+   * @param table peer table which was changed
+   */
+  void peerTableChanged(IPeerTable table);
+
 }
@@ -46,6 +46,7 @@ import static org.jdiameter.client.impl.helpers.Parameters.MessageTimeOut;
 import static org.jdiameter.client.impl.helpers.Parameters.SessionTimeOut;
 
 import java.io.Serializable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -55,6 +56,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.jdiameter.api.Answer;
+import org.jdiameter.api.AnswerFuture;
 import org.jdiameter.api.ApplicationId;
 import org.jdiameter.api.Avp;
 import org.jdiameter.api.AvpSet;
@@ -174,6 +176,15 @@ public abstract class BaseSessionImpl implements BaseSession {
 
   protected void genericSend(Message aMessage, EventListener listener, long timeout, TimeUnit timeUnit)
       throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
+    genericSend(aMessage, listener, timeout, timeUnit, false);
+  }
+
+  /**
+   * @param sharedTimer if true timeout is checked by the timeout queue shared with other requests instead of
+   *   scheduling a task for this request
+   */
+  protected void genericSend(Message aMessage, EventListener listener, long timeout, TimeUnit timeUnit, boolean sharedTimer)
+      throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
     if (isValid) {
       setLastAccessTime();
 
@@ -197,7 +208,12 @@ public abstract class BaseSessionImpl implements BaseSession {
         throw new IllegalDiameterStateException("Illegal state");
       }
 
-      message.createTimer(container.getScheduledFacility(), timeout, timeUnit);
+      if (sharedTimer) {
+        message.createSharedTimer(container.getScheduledFacility(), timeout, timeUnit);
+      }
+      else {
+        message.createTimer(container.getScheduledFacility(), timeout, timeUnit);
+      }
       try {
         container.sendMessage(message);
       }
@@ -207,6 +223,10 @@ public abstract class BaseSessionImpl implements BaseSession {
       }
       catch (Exception e) {
         message.clearTimer();
+        if (e.getCause() instanceof OverloadException) {
+          // e.g. in-flight window of peer is full
+          throw (OverloadException) e.getCause();
+        }
         throw new InternalException(e);
       }
     }
@@ -233,6 +253,164 @@ public abstract class BaseSessionImpl implements BaseSession {
     return future;
   }
 
+  protected <R extends Message, A extends Message> AnswerFuture<R, A> genericSendAsync(Message message)
+      throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
+    if (isValid) {
+      long timeOut = container.getConfiguration().getLongValue(MessageTimeOut.ordinal(), (Long) MessageTimeOut.defValue());
+      return genericSendAsync(message, timeOut, TimeUnit.MILLISECONDS);
+    }
+    else {
+      throw new IllegalDiameterStateException("Session already released");
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  protected <R extends Message, A extends Message> AnswerFuture<R, A> genericSendAsync(Message message, long timeOut, TimeUnit timeUnit)
+      throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
+    MyAnswerFuture<R, A> future = new MyAnswerFuture<R, A>((R) message);
+    genericSend(message, future, timeOut, timeUnit, true);
+    return future;
+  }
+
+  /**
+   * Future completed directly from the answer/timeout callback of the request, without any lock held while
+   * waiting. Thread blocks only if it calls get().
+   */
+  private static class MyAnswerFuture<R extends Message, A extends Message> implements AnswerFuture<R, A>, EventListener<R, A> {
+
+    private static final int PENDING = 0;
+    private static final int ANSWERED = 1;
+    private static final int TIMED_OUT = 2;
+    private static final int CANCELLED = 3;
+
+    private final R request;
+    private final CountDownLatch block = new CountDownLatch(1);
+    private int state = PENDING;
+    private A answer;
+    private EventListener<R, A> listener;
+
+    MyAnswerFuture(R request) {
+      this.request = request;
+    }
+
+    @Override
+    public R getRequest() {
+      return request;
+    }
+
+    @Override
+    public void setListener(EventListener<R, A> listener) {
+      int completedState;
+      synchronized (this) {
+        if (state == PENDING) {
+          this.listener = listener;
+          return;
+        }
+        completedState = state;
+      }
+      notifyListener(listener, completedState);
+    }
+
+    @Override
+    public void receivedSuccessMessage(R request, A answer) {
+      complete(ANSWERED, answer);
+    }
+
+    @Override
+    public void timeoutExpired(R request) {
+      complete(TIMED_OUT, null);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      if (complete(CANCELLED, null)) {
+        ((IMessage) request).clearTimer();
+        return true;
+      }
+      return false;
+    }
+
+    private boolean complete(int newState, A newAnswer) {
+      EventListener<R, A> completedListener;
+      synchronized (this) {
+        if (state != PENDING) {
+          return false;
+        }
+        state = newState;
+        answer = newAnswer;
+        completedListener = listener;
+        listener = null;
+      }
+      block.countDown();
+      if (completedListener != null) {
+        notifyListener(completedListener, newState);
+      }
+      return true;
+    }
+
+    private void notifyListener(EventListener<R, A> listener, int completedState) {
+      try {
+        if (completedState == ANSWERED) {
+          listener.receivedSuccessMessage(request, getAnswer());
+        }
+        else if (completedState == TIMED_OUT) {
+          listener.timeoutExpired(request);
+        }
+      }
+      catch (Throwable e) {
+        logger.warn("Answer listener failed", e);
+      }
+    }
+
+    private synchronized int getState() {
+      return state;
+    }
+
+    private synchronized A getAnswer() {
+      return answer;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return getState() == CANCELLED;
+    }
+
+    @Override
+    public boolean isDone() {
+      return getState() != PENDING;
+    }
+
+    @Override
+    public boolean isTimeOut() {
+      return getState() == TIMED_OUT;
+    }
+
+    @Override
+    public A get() throws InterruptedException, ExecutionException {
+      block.await();
+      return result();
+    }
+
+    @Override
+    public A get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      if (!block.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+      return result();
+    }
+
+    private A result() throws ExecutionException {
+      switch (getState()) {
+        case CANCELLED:
+          throw new CancellationException();
+        case TIMED_OUT:
+          throw new ExecutionException(new TimeoutException("No answer received for request " + request));
+        default:
+          return getAnswer();
+      }
+    }
+  }
+
   private class MyFuture implements Future<Message> {
 
     private boolean canceled;
@@ -408,6 +408,51 @@ public class MetaDataImpl implements IMetaData {
       return new IMessage[0];
     }
 
+    @Override
+    public int getOutstandingRequests() {
+      return 0;
+    }
+
+    @Override
+    public long getResponseTime() {
+      return 0;
+    }
+
+    @Override
+    public int getOverloadReduction() {
+      return 0;
+    }
+
+    @Override
+    public int getHealthScore() {
+      return 100;
+    }
+
+    @Override
+    public long getWatchdogRoundTripTime() {
+      return 0;
+    }
+
+    @Override
+    public boolean isInFlightWindowFull(long applicationId) {
+      return false;
+    }
+
+    @Override
+    public int getInFlightRequests(long applicationId) {
+      return 0;
+    }
+
+    @Override
+    public long getInFlightQueuedRequests() {
+      return 0;
+    }
+
+    @Override
+    public long getInFlightRejectedRequests() {
+      return 0;
+    }
+
     @Override
     public boolean handleMessage(EventTypes type, IMessage message, String key) throws TransportException, OverloadException, InternalException {
       return false;
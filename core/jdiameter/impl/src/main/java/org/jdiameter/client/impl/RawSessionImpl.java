@@ -44,6 +44,7 @@ package org.jdiameter.client.impl;
 
 import java.util.concurrent.TimeUnit;
 
+import org.jdiameter.api.AnswerFuture;
 import org.jdiameter.api.ApplicationId;
 import org.jdiameter.api.Avp;
 import org.jdiameter.api.EventListener;
@@ -144,6 +145,18 @@ public class RawSessionImpl extends BaseSessionImpl implements RawSession {
     genericSend(message,  listener, timeOut, timeUnit);
   }
 
+  @Override
+  public AnswerFuture<Message, Message> sendAsync(Message message)
+      throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
+    return genericSendAsync(message);
+  }
+
+  @Override
+  public AnswerFuture<Message, Message> sendAsync(Message message, long timeOut, TimeUnit timeUnit)
+      throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
+    return genericSendAsync(message, timeOut, timeUnit);
+  }
+
   @Override
   public void release() {
     isValid = false;
@@ -46,6 +46,7 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.jdiameter.api.Answer;
+import org.jdiameter.api.AnswerFuture;
 import org.jdiameter.api.ApplicationId;
 import org.jdiameter.api.Avp;
 import org.jdiameter.api.EventListener;
@@ -116,6 +117,18 @@ public class SessionImpl extends BaseSessionImpl implements ISession {
     genericSend(message, listener, timeout, timeUnit);
   }
 
+  @Override
+  public AnswerFuture<Request, Answer> sendAsync(Message message)
+      throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
+    return genericSendAsync(message);
+  }
+
+  @Override
+  public AnswerFuture<Request, Answer> sendAsync(Message message, long timeout, TimeUnit timeUnit)
+      throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
+    return genericSendAsync(message, timeout, timeUnit);
+  }
+
   @Override
   public void setRequestListener(NetworkReqListener listener) {
     if (listener != null) {
@@ -0,0 +1,463 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.client.impl.app.s6a;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.ApplicationId;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.EventListener;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.Session;
+import org.jdiameter.api.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of unused E-UTRAN authentication vectors per IMSI, so an attach does not wait for Authentication-Information
+ * round trip to the HSS. When the pool of an IMSI drops below the low watermark it is refilled in background with an
+ * AIR requesting a batch of vectors; vectors older than their time to live are discarded. Vectors are handed out in
+ * the order the HSS returned them, as their sequence numbers increase.
+ *
+ * The AIRs are sent in sessions of their own, without {@link org.jdiameter.api.s6a.ClientS6aSession}, so they do not
+ * reach the S6a session listener of the application. The pool keeps at most given number of IMSIs, the least
+ * recently used one is dropped first.
+ *
+ * <pre>
+ *   S6aAuthenticationVectorPool pool = new S6aAuthenticationVectorPool(sessionFactory, "epc.mnc001.mcc001.3gppnetwork.org", null,
+ *       visitedPlmnId, 100000, 2, 5, 600000);
+ *   EUtranVector vector = pool.take(imsi, 5, TimeUnit.SECONDS);
+ * </pre>
+ */
+public class S6aAuthenticationVectorPool {
+
+  private static final Logger logger = LoggerFactory.getLogger(S6aAuthenticationVectorPool.class);
+
+  private static final long VENDOR_ID = 10415;
+  private static final ApplicationId S6A = ApplicationId.createByAuthAppId(VENDOR_ID, 16777251);
+  private static final int AUTHENTICATION_INFORMATION_REQUEST = 318;
+  private static final int NO_STATE_MAINTAINED = 1;
+
+  // 3GPP TS 29.272 AVP codes
+  private static final int REQUESTED_EUTRAN_AUTHENTICATION_INFO = 1408;
+  private static final int NUMBER_OF_REQUESTED_VECTORS = 1410;
+  private static final int IMMEDIATE_RESPONSE_PREFERRED = 1412;
+  private static final int AUTHENTICATION_INFO = 1413;
+  private static final int E_UTRAN_VECTOR = 1414;
+  private static final int RAND = 1447;
+  private static final int XRES = 1448;
+  private static final int AUTN = 1449;
+  private static final int KASME = 1450;
+
+  private final SessionFactory sessionFactory;
+  private final String destinationRealm;
+  private final String destinationHost;
+  private final byte[] visitedPlmnId;
+  private final int lowWatermark;
+  private final int batchSize;
+  private final long timeToLive;
+
+  // guarded by itself
+  private final LinkedHashMap<String, Pool> pools;
+
+  // statistics
+  private final AtomicLong roundTrips = new AtomicLong();
+  private final AtomicLong failedRoundTrips = new AtomicLong();
+  private final AtomicLong servedFromPool = new AtomicLong();
+  private final AtomicLong servedAfterWait = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+
+  /**
+   * @param sessionFactory session factory of the stack
+   * @param destinationRealm realm of the HSS
+   * @param destinationHost HSS host, null to let the realm route
+   * @param visitedPlmnId Visited-PLMN-Id sent in AIR
+   * @param maxSubscribers maximum number of IMSIs with pooled vectors
+   * @param lowWatermark pool is refilled when it has less vectors
+   * @param batchSize number of vectors requested by one AIR
+   * @param timeToLive time (ms) vector may be used after it was received
+   */
+  public S6aAuthenticationVectorPool(SessionFactory sessionFactory, String destinationRealm, String destinationHost, byte[] visitedPlmnId,
+      final int maxSubscribers, int lowWatermark, int batchSize, long timeToLive) {
+    if (batchSize < 1 || batchSize <= lowWatermark) {
+      throw new IllegalArgumentException("Batch size must be positive and greater than low watermark");
+    }
+    this.sessionFactory = sessionFactory;
+    this.destinationRealm = destinationRealm;
+    this.destinationHost = destinationHost;
+    this.visitedPlmnId = visitedPlmnId;
+    this.lowWatermark = lowWatermark;
+    this.batchSize = batchSize;
+    this.timeToLive = timeToLive;
+    this.pools = new LinkedHashMap<String, Pool>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Pool> eldest) {
+        return size() > maxSubscribers;
+      }
+    };
+  }
+
+  /**
+   * @return vector of IMSI from pool, or null if pool is empty; pool is refilled in background if needed
+   */
+  public EUtranVector poll(String imsi) {
+    Pool pool = getPool(imsi);
+    EUtranVector vector;
+    boolean refill;
+    boolean immediate;
+    synchronized (pool) {
+      vector = pool.poll();
+      if (vector != null) {
+        servedFromPool.incrementAndGet();
+      }
+      immediate = pool.vectors.isEmpty();
+      refill = startRefill(pool);
+    }
+    if (refill) {
+      sendRefill(imsi, pool, immediate);
+    }
+    return vector;
+  }
+
+  /**
+   * @return vector of IMSI, waiting for the HSS if pool is empty; null if none was received in time
+   */
+  public EUtranVector take(String imsi, long timeout, TimeUnit unit) throws InterruptedException {
+    Pool pool = getPool(imsi);
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    // refills completed before we started waiting for one, -1 until then
+    long refills = -1;
+    while (true) {
+      EUtranVector vector;
+      boolean refill;
+      boolean immediate;
+      synchronized (pool) {
+        vector = pool.poll();
+        if (vector != null) {
+          if (refills < 0) {
+            servedFromPool.incrementAndGet();
+          }
+          else {
+            servedAfterWait.incrementAndGet();
+          }
+        }
+        else if (refills >= 0 && pool.completedRefills != refills && pool.lastRefillFailed) {
+          // HSS did not provide vectors, do not hammer it
+          return null;
+        }
+        immediate = pool.vectors.isEmpty();
+        refill = startRefill(pool);
+        if (vector == null) {
+          if (refill) {
+            refills = pool.completedRefills;
+          }
+          else {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+              return null;
+            }
+            refills = pool.completedRefills;
+            TimeUnit.NANOSECONDS.timedWait(pool, remaining);
+            continue;
+          }
+        }
+      }
+      // AIR is sent without holding the pool, so other threads are not blocked on the network
+      if (refill) {
+        sendRefill(imsi, pool, immediate);
+      }
+      if (vector != null) {
+        return vector;
+      }
+    }
+  }
+
+  /**
+   * Fill pool of IMSI in advance, e.g. when the UE is expected to attach
+   */
+  public void prefetch(String imsi) {
+    Pool pool = getPool(imsi);
+    boolean refill;
+    boolean immediate;
+    synchronized (pool) {
+      immediate = pool.vectors.isEmpty();
+      refill = startRefill(pool);
+    }
+    if (refill) {
+      sendRefill(imsi, pool, immediate);
+    }
+  }
+
+  /**
+   * Discard vectors of IMSI, e.g. after synchronization failure or Cancel-Location
+   */
+  public void invalidate(String imsi) {
+    Pool pool;
+    synchronized (pools) {
+      pool = pools.remove(imsi);
+    }
+    if (pool != null) {
+      synchronized (pool) {
+        pool.vectors.clear();
+        pool.invalidated = true;
+      }
+    }
+  }
+
+  private Pool getPool(String imsi) {
+    synchronized (pools) {
+      Pool pool = pools.get(imsi);
+      if (pool == null) {
+        pool = new Pool();
+        pools.put(imsi, pool);
+      }
+      return pool;
+    }
+  }
+
+  /**
+   * Marks refill of the pool in flight, so only one AIR per IMSI is outstanding. Called with pool locked.
+   *
+   * @return true if caller has to send the AIR by {@link #sendRefill(String, Pool, boolean)} once the pool is unlocked
+   */
+  private boolean startRefill(Pool pool) {
+    if (pool.refilling || pool.invalidated || pool.vectors.size() >= lowWatermark && !pool.vectors.isEmpty()) {
+      return false;
+    }
+    pool.refilling = true;
+    return true;
+  }
+
+  // called with pool unlocked, after startRefill returned true
+  private void sendRefill(String imsi, Pool pool, boolean immediate) {
+    try {
+      Session session = sessionFactory.getNewSession();
+      Request request = session.createRequest(AUTHENTICATION_INFORMATION_REQUEST, S6A, destinationRealm, destinationHost);
+      AvpSet avps = request.getAvps();
+      avps.addAvp(Avp.AUTH_SESSION_STATE, NO_STATE_MAINTAINED, true, false);
+      avps.addAvp(Avp.USER_NAME, imsi, true, false, false);
+      avps.addAvp(Avp.VISITED_PLMN_ID, visitedPlmnId, VENDOR_ID, true, false);
+      AvpSet requested = avps.addGroupedAvp(REQUESTED_EUTRAN_AUTHENTICATION_INFO, VENDOR_ID, true, false);
+      requested.addAvp(NUMBER_OF_REQUESTED_VECTORS, batchSize, VENDOR_ID, true, false, true);
+      requested.addAvp(IMMEDIATE_RESPONSE_PREFERRED, immediate ? 1 : 0, VENDOR_ID, true, false, true);
+      roundTrips.incrementAndGet();
+      session.send(request, new RefillListener(session, pool));
+    }
+    catch (Exception e) {
+      logger.debug("Unable to send Authentication-Information-Request for " + imsi, e);
+      refillDone(pool, false);
+    }
+  }
+
+  private void refillDone(Pool pool, boolean succeeded) {
+    if (!succeeded) {
+      failedRoundTrips.incrementAndGet();
+    }
+    synchronized (pool) {
+      pool.refilling = false;
+      pool.completedRefills++;
+      pool.lastRefillFailed = !succeeded;
+      pool.notifyAll();
+    }
+  }
+
+  /**
+   * @return number of pooled vectors of IMSI, including expired ones not discarded yet
+   */
+  public int getPoolDepth(String imsi) {
+    Pool pool;
+    synchronized (pools) {
+      pool = pools.get(imsi);
+    }
+    if (pool == null) {
+      return 0;
+    }
+    synchronized (pool) {
+      return pool.vectors.size();
+    }
+  }
+
+  public int getSubscribers() {
+    synchronized (pools) {
+      return pools.size();
+    }
+  }
+
+  /**
+   * @return number of AIRs sent
+   */
+  public long getRoundTrips() {
+    return roundTrips.get();
+  }
+
+  public long getFailedRoundTrips() {
+    return failedRoundTrips.get();
+  }
+
+  /**
+   * @return number of vectors handed out without waiting for the HSS, i.e. round trips saved
+   */
+  public long getRoundTripsSaved() {
+    return servedFromPool.get();
+  }
+
+  /**
+   * @return number of vectors handed out after waiting for the HSS
+   */
+  public long getServedAfterWait() {
+    return servedAfterWait.get();
+  }
+
+  public long getExpired() {
+    return expired.get();
+  }
+
+  /**
+   * E-UTRAN authentication vector (RAND, XRES, AUTN, KASME) as received from the HSS
+   */
+  public static final class EUtranVector {
+
+    private final byte[] rand;
+    private final byte[] xres;
+    private final byte[] autn;
+    private final byte[] kasme;
+    private final long received;
+
+    EUtranVector(byte[] rand, byte[] xres, byte[] autn, byte[] kasme, long received) {
+      this.rand = rand;
+      this.xres = xres;
+      this.autn = autn;
+      this.kasme = kasme;
+      this.received = received;
+    }
+
+    public byte[] getRand() {
+      return rand;
+    }
+
+    public byte[] getXres() {
+      return xres;
+    }
+
+    public byte[] getAutn() {
+      return autn;
+    }
+
+    public byte[] getKasme() {
+      return kasme;
+    }
+
+    /**
+     * @return time (ms) vector was received
+     */
+    public long getReceived() {
+      return received;
+    }
+  }
+
+  private final class Pool {
+
+    final ArrayDeque<EUtranVector> vectors = new ArrayDeque<EUtranVector>();
+    boolean refilling;
+    boolean invalidated;
+    boolean lastRefillFailed;
+    long completedRefills;
+
+    EUtranVector poll() {
+      long now = System.currentTimeMillis();
+      EUtranVector vector;
+      while ((vector = vectors.poll()) != null) {
+        if (now - vector.received <= timeToLive) {
+          return vector;
+        }
+        expired.incrementAndGet();
+      }
+      return null;
+    }
+  }
+
+  private final class RefillListener implements EventListener<Request, Answer> {
+
+    private final Session session;
+    private final Pool pool;
+
+    RefillListener(Session session, Pool pool) {
+      this.session = session;
+      this.pool = pool;
+    }
+
+    @Override
+    public void receivedSuccessMessage(Request request, Answer answer) {
+      boolean succeeded = false;
+      try {
+        Avp resultCode = answer.getResultCode();
+        if (resultCode != null && resultCode.getUnsigned32() == ResultCode.SUCCESS) {
+          Avp info = answer.getAvps().getAvp(AUTHENTICATION_INFO, VENDOR_ID);
+          if (info != null) {
+            long now = System.currentTimeMillis();
+            int count = 0;
+            synchronized (pool) {
+              for (Avp vector : info.getGrouped().getAvps(E_UTRAN_VECTOR, VENDOR_ID)) {
+                AvpSet v = vector.getGrouped();
+                if (!pool.invalidated) {
+                  pool.vectors.offer(new EUtranVector(getOctets(v, RAND), getOctets(v, XRES), getOctets(v, AUTN), getOctets(v, KASME), now));
+                }
+                count++;
+              }
+            }
+            succeeded = count > 0;
+          }
+        }
+        else {
+          logger.debug("Authentication-Information-Request for {} failed with {}", request.getAvps().getAvp(Avp.USER_NAME), resultCode);
+        }
+      }
+      catch (AvpDataException e) {
+        logger.debug("Unable to decode Authentication-Information-Answer", e);
+      }
+      finally {
+        session.release();
+        refillDone(pool, succeeded);
+      }
+    }
+
+    @Override
+    public void timeoutExpired(Request request) {
+      session.release();
+      refillDone(pool, false);
+    }
+
+    private byte[] getOctets(AvpSet avps, int code) throws AvpDataException {
+      Avp avp = avps.getAvp(code, VENDOR_ID);
+      if (avp == null) {
+        throw new AvpDataException("E-UTRAN-Vector without AVP " + code);
+      }
+      return avp.getOctetString();
+    }
+  }
+}
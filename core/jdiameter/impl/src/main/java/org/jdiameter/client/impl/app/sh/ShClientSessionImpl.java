@@ -100,6 +100,7 @@ public class ShClientSessionImpl extends ShSession implements ClientShSession, E
   protected transient ClientShSessionListener listener;
 
   protected IShClientSessionData sessionData;
+  protected transient ShUserDataCache userDataCache;
 
   public ShClientSessionImpl(IShClientSessionData sessionData, IShMessageFactory fct, ISessionFactory sf, ClientShSessionListener lst) {
     super(sf, sessionData);
@@ -114,6 +115,13 @@ public class ShClientSessionImpl extends ShSession implements ClientShSession, E
     this.sessionData = sessionData;
   }
 
+  /**
+   * Serve UDRs of this session from cache, null to disable
+   */
+  public void setUserDataCache(ShUserDataCache userDataCache) {
+    this.userDataCache = userDataCache;
+  }
+
   @Override
   public Answer processRequest(Request request) {
     RequestDelivery rd = new RequestDelivery();
@@ -189,6 +197,9 @@ public class ShClientSessionImpl extends ShSession implements ClientShSession, E
   @Override
   public void sendProfileUpdateRequest(ProfileUpdateRequest request)
       throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
+    if (userDataCache != null) {
+      userDataCache.invalidate(request.getMessage());
+    }
     send(Event.Type.SEND_PROFILE_UPDATE_REQUEST, request, null);
   }
 
@@ -206,6 +217,18 @@ public class ShClientSessionImpl extends ShSession implements ClientShSession, E
 
   @Override
   public void sendUserDataRequest(UserDataRequest request) throws InternalException, IllegalDiameterStateException, RouteException, OverloadException {
+    if (userDataCache != null) {
+      Answer answer = userDataCache.get((Request) request.getMessage());
+      if (answer != null) {
+        AnswerDelivery ad = new AnswerDelivery();
+        ad.session = this;
+        ad.request = (Request) request.getMessage();
+        ad.answer = answer;
+        ad.cached = true;
+        super.scheduler.execute(ad);
+        return;
+      }
+    }
     send(Event.Type.SEND_USER_DATA_REQUEST, request, null);
   }
 
@@ -308,6 +331,9 @@ public class ShClientSessionImpl extends ShSession implements ClientShSession, E
       try {
         if (request.getApplicationId() == factory.getApplicationId()) {
           if (request.getCommandCode() == PushNotificationRequest.code) {
+            if (userDataCache != null) {
+              userDataCache.invalidate(request);
+            }
             handleEvent(new Event(Event.Type.RECEIVE_PUSH_NOTIFICATION_REQUEST, factory.createPushNotificationRequest(request), null));
             return;
           }
@@ -324,6 +350,7 @@ public class ShClientSessionImpl extends ShSession implements ClientShSession, E
     ClientShSession session;
     Answer answer;
     Request request;
+    boolean cached;
 
     @Override
     public void run() {
@@ -331,11 +358,18 @@ public class ShClientSessionImpl extends ShSession implements ClientShSession, E
         sendAndStateLock.lock();
         if (request.getApplicationId() == factory.getApplicationId()) {
           if (request.getCommandCode() == ProfileUpdateRequest.code) {
+            if (userDataCache != null) {
+              // requests sent before the update was applied may have read old data
+              userDataCache.invalidate(request);
+            }
             handleEvent(
                 new Event(Event.Type.RECEIVE_PROFILE_UPDATE_ANSWER, factory.createProfileUpdateRequest(request), factory.createProfileUpdateAnswer(answer)));
             return;
           }
           else if (request.getCommandCode() == UserDataRequest.code) {
+            if (userDataCache != null && !cached) {
+              userDataCache.put(request, answer);
+            }
             handleEvent(new Event(Event.Type.RECEIVE_USER_DATA_ANSWER, factory.createUserDataRequest(request), factory.createUserDataAnswer(answer)));
             return;
           }
@@ -0,0 +1,389 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.client.impl.app.sh;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.Message;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.ISessionFactory;
+import org.jdiameter.client.api.parser.IMessageParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of successful User-Data-Answers shared by Sh client sessions, keyed by User-Identity, Data-Reference,
+ * Service-Indication and the other AVPs which select the requested data. A cached UDA is delivered to the session
+ * listener as if it was received, without sending the UDR to the HSS. Entries expire after time to live and the
+ * least recently used ones are evicted when the cache is full.
+ *
+ * All entries of a User-Identity are invalidated when a Push-Notification-Request is received for it, and when a
+ * Profile-Update-Request for it is sent or answered. An answer to UDR sent before such invalidation is not cached,
+ * as it may carry the old data. Requests of active location retrieval (Current-Location) are never cached.
+ *
+ * <pre>
+ *   shSessionFactory.setUserDataCache(new ShUserDataCache(sessionFactory, 10000, 30000));
+ * </pre>
+ */
+public class ShUserDataCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(ShUserDataCache.class);
+
+  private static final long VENDOR_ID = 10415;
+  // AVPs selecting the data, besides User-Identity
+  private static final int[] KEY_AVPS = {Avp.SERVER_NAME, Avp.DATA_REFERENCE, Avp.SERVICE_INDICATION, Avp.REQUESTED_DOMAIN,
+    Avp.IDENTITY_SET, Avp.DSAI_TAG};
+  private static final long CURRENT_LOCATION_INITIATE_ACTIVE_LOCATION_RETRIEVAL = 1;
+
+  private final IMessageParser parser;
+  private final int maxEntries;
+  private final long timeToLive;
+
+  // guarded by this
+  private final LinkedHashMap<String, Entry> entries;
+  private final Map<String, Set<String>> keysByIdentity = new HashMap<String, Set<String>>();
+  // generation of last invalidation of identities, and of requests waiting for their answer (by end-to-end id)
+  private final LinkedHashMap<String, Long> invalidations;
+  private final LinkedHashMap<Long, Long> loads;
+  private long generation;
+
+  // statistics, guarded by this
+  private long hits;
+  private long misses;
+  private long expired;
+  private long evictions;
+  private long invalidated;
+  private long staleLoads;
+  private long totalAge;
+  private long maxAge;
+
+  /**
+   * @param sessionFactory session factory of the stack
+   * @param maxEntries maximum number of cached answers
+   * @param timeToLive time (ms) answer is served from cache
+   */
+  public ShUserDataCache(ISessionFactory sessionFactory, int maxEntries, long timeToLive) {
+    this(sessionFactory.getContainer().getAssemblerFacility().getComponentInstance(IMessageParser.class), maxEntries, timeToLive);
+  }
+
+  public ShUserDataCache(IMessageParser parser, final int maxEntries, long timeToLive) {
+    this.parser = parser;
+    this.maxEntries = maxEntries;
+    this.timeToLive = timeToLive;
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    this.invalidations = new LinkedHashMap<String, Long>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    this.loads = new LinkedHashMap<Long, Long>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * @return answer to UDR built from cached data, or null if request has to be sent; its answer should then be
+   *         passed to {@link #put(Request, Answer)}
+   */
+  public Answer get(Request request) {
+    String identity = getIdentity(request.getAvps());
+    String key = identity != null ? getKey(identity, request.getAvps()) : null;
+    if (key == null) {
+      return null;
+    }
+    byte[] data;
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      long now = System.currentTimeMillis();
+      if (entry != null && now - entry.created > timeToLive) {
+        remove(key, entry);
+        expired++;
+        entry = null;
+      }
+      if (entry == null) {
+        misses++;
+        loads.put(request.getEndToEndIdentifier(), generation);
+        return null;
+      }
+      hits++;
+      long age = now - entry.created;
+      totalAge += age;
+      maxAge = Math.max(maxAge, age);
+      data = entry.data;
+    }
+    try {
+      return createAnswer((IMessage) request, parser.createMessage(data));
+    }
+    catch (AvpDataException e) {
+      logger.debug("Unable to decode cached User-Data-Answer", e);
+      return null;
+    }
+  }
+
+  /**
+   * Cache answer to UDR which was not found in cache
+   */
+  public void put(Request request, Answer answer) {
+    Avp resultCode = answer.getResultCode();
+    try {
+      if (resultCode == null || resultCode.getUnsigned32() != ResultCode.SUCCESS) {
+        return;
+      }
+    }
+    catch (AvpDataException e) {
+      return;
+    }
+    String identity = getIdentity(request.getAvps());
+    String key = identity != null ? getKey(identity, request.getAvps()) : null;
+    if (key == null) {
+      return;
+    }
+    byte[] data;
+    try {
+      ByteBuffer buffer = parser.encodeMessage((IMessage) answer);
+      data = new byte[buffer.remaining()];
+      buffer.get(data);
+    }
+    catch (Exception e) {
+      logger.debug("Unable to encode User-Data-Answer for cache", e);
+      return;
+    }
+    synchronized (this) {
+      Long requestGeneration = loads.remove(request.getEndToEndIdentifier());
+      Long identityGeneration = invalidations.get(identity);
+      if (requestGeneration == null || (identityGeneration != null && identityGeneration > requestGeneration)) {
+        staleLoads++;
+        return;
+      }
+      Entry previous = entries.put(key, new Entry(identity, data));
+      if (previous == null) {
+        Set<String> keys = keysByIdentity.get(identity);
+        if (keys == null) {
+          keys = new HashSet<String>();
+          keysByIdentity.put(identity, keys);
+        }
+        keys.add(key);
+      }
+      if (entries.size() > maxEntries) {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        Map.Entry<String, Entry> e = eldest.next();
+        eldest.remove();
+        removeKey(e.getKey(), e.getValue().identity);
+        evictions++;
+      }
+    }
+  }
+
+  /**
+   * Remove cached data of User-Identity of the message (PNR, PUR or PUA request)
+   */
+  public void invalidate(Message message) {
+    String identity = getIdentity(message.getAvps());
+    if (identity == null) {
+      return;
+    }
+    synchronized (this) {
+      invalidations.put(identity, ++generation);
+      Set<String> keys = keysByIdentity.remove(identity);
+      if (keys != null) {
+        for (String key : keys) {
+          entries.remove(key);
+        }
+        invalidated += keys.size();
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized double getHitRatio() {
+    return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+  }
+
+  public synchronized long getExpired() {
+    return expired;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * @return number of entries removed by notifications and profile updates
+   */
+  public synchronized long getInvalidated() {
+    return invalidated;
+  }
+
+  /**
+   * @return number of answers not cached because their data was invalidated while the request was pending
+   */
+  public synchronized long getStaleLoads() {
+    return staleLoads;
+  }
+
+  /**
+   * @return average age (ms) of data served from cache
+   */
+  public synchronized long getAverageAge() {
+    return hits == 0 ? 0 : totalAge / hits;
+  }
+
+  /**
+   * @return maximum age (ms) of data served from cache
+   */
+  public synchronized long getMaxAge() {
+    return maxAge;
+  }
+
+  private void remove(String key, Entry entry) {
+    entries.remove(key);
+    removeKey(key, entry.identity);
+  }
+
+  private void removeKey(String key, String identity) {
+    Set<String> keys = keysByIdentity.get(identity);
+    if (keys != null) {
+      keys.remove(key);
+      if (keys.isEmpty()) {
+        keysByIdentity.remove(identity);
+      }
+    }
+  }
+
+  /**
+   * @return answer to request with AVPs of cached answer
+   */
+  private Answer createAnswer(IMessage request, IMessage cached) {
+    Answer answer = request.createAnswer();
+    AvpSet avps = answer.getAvps();
+    List<Integer> codes = new ArrayList<Integer>();
+    for (Avp avp : avps) {
+      if (avp.getCode() != Avp.SESSION_ID) {
+        codes.add(avp.getCode());
+      }
+    }
+    for (int code : codes) {
+      avps.removeAvp(code);
+    }
+    for (Avp avp : cached.getAvps()) {
+      if (avp.getCode() != Avp.SESSION_ID) {
+        avps.addAvp(avp);
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * @return Public-Identity or MSISDN of User-Identity AVP, null if there is none
+   */
+  static String getIdentity(AvpSet avps) {
+    try {
+      Avp userIdentity = avps.getAvp(Avp.USER_IDENTITY, VENDOR_ID);
+      if (userIdentity == null) {
+        return null;
+      }
+      AvpSet identity = userIdentity.getGrouped();
+      Avp publicIdentity = identity.getAvp(Avp.PUBLIC_IDENTITY, VENDOR_ID);
+      if (publicIdentity != null) {
+        return "sip:" + publicIdentity.getUTF8String();
+      }
+      Avp msisdn = identity.getAvp(Avp.MSISDN, VENDOR_ID);
+      if (msisdn != null) {
+        return "msisdn:" + toHex(msisdn.getOctetString());
+      }
+    }
+    catch (AvpDataException e) {
+      logger.debug("Unable to decode User-Identity", e);
+    }
+    return null;
+  }
+
+  /**
+   * @return cache key of UDR, null if it must not be cached
+   */
+  static String getKey(String identity, AvpSet avps) {
+    try {
+      Avp currentLocation = avps.getAvp(Avp.CURRENT_LOCATION, VENDOR_ID);
+      if (currentLocation != null && currentLocation.getInteger32() == CURRENT_LOCATION_INITIATE_ACTIVE_LOCATION_RETRIEVAL) {
+        return null;
+      }
+      StringBuilder key = new StringBuilder(identity);
+      for (int code : KEY_AVPS) {
+        for (Avp avp : avps.getAvps(code, VENDOR_ID)) {
+          key.append('|').append(code).append('=').append(toHex(avp.getRaw()));
+        }
+      }
+      return key.toString();
+    }
+    catch (AvpDataException e) {
+      logger.debug("Unable to decode User-Data-Request", e);
+      return null;
+    }
+  }
+
+  private static String toHex(byte[] data) {
+    StringBuilder sb = new StringBuilder(data.length * 2);
+    for (byte b : data) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  private static final class Entry {
+
+    final String identity;
+    final byte[] data;
+    final long created = System.currentTimeMillis();
+
+    Entry(String identity, byte[] data) {
+      this.identity = identity;
+      this.data = data;
+    }
+  }
+}
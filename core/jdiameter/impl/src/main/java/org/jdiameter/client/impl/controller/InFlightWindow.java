@@ -0,0 +1,173 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.controller;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jdiameter.client.api.IMessage;
+
+/**
+ * Limit of requests outstanding to one peer, kept separately for each application. A request takes a slot
+ * when it is sent and gives it back when it is answered, times out or is removed from the peer. When the
+ * window is full the request is either rejected or, with {@link Policy#QUEUE}, parked until a slot frees.
+ */
+final class InFlightWindow {
+
+  enum Policy {
+    REJECT, QUEUE
+  }
+
+  enum Admission {
+    ADMITTED, QUEUED, REJECTED
+  }
+
+  private final int size;
+  private final Policy policy;
+  private final int queueSize;
+  private final ConcurrentMap<Long, Slots> slots = new ConcurrentHashMap<Long, Slots>();
+  private final AtomicLong queued = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  InFlightWindow(int size, Policy policy, int queueSize) {
+    this.size = size;
+    this.policy = policy;
+    this.queueSize = queueSize;
+  }
+
+  boolean isFull(long applicationId) {
+    Slots s = slots.get(applicationId);
+    return s != null && s.inFlight.get() >= size;
+  }
+
+  int getInFlight(long applicationId) {
+    Slots s = slots.get(applicationId);
+    return s == null ? 0 : s.inFlight.get();
+  }
+
+  boolean hasQueued(long applicationId) {
+    Slots s = slots.get(applicationId);
+    return s != null && s.queue.peek() != null;
+  }
+
+  long getQueued() {
+    return queued.get();
+  }
+
+  long getRejected() {
+    return rejected.get();
+  }
+
+  Admission admit(IMessage request) {
+    Slots s = getSlots(request.getApplicationId());
+    while (true) {
+      int current = s.inFlight.get();
+      if (current >= size) {
+        break;
+      }
+      if (s.inFlight.compareAndSet(current, current + 1)) {
+        s.members.put(request.getHopByHopIdentifier(), Boolean.FALSE);
+        return Admission.ADMITTED;
+      }
+    }
+    if (policy == Policy.QUEUE && s.queueLength.get() < queueSize) {
+      s.members.put(request.getHopByHopIdentifier(), Boolean.TRUE);
+      s.queueLength.incrementAndGet();
+      s.queue.offer(request);
+      queued.incrementAndGet();
+      return Admission.QUEUED;
+    }
+    rejected.incrementAndGet();
+    return Admission.REJECTED;
+  }
+
+  /**
+   * Gives back slot of request which is no longer outstanding. Queued request which has not been sent yet
+   * just leaves the queue.
+   *
+   * @return true if a slot was freed, so queued requests may be sent
+   */
+  boolean release(IMessage request) {
+    Slots s = slots.get(request.getApplicationId());
+    if (s == null) {
+      return false;
+    }
+    Boolean waiting = s.members.remove(request.getHopByHopIdentifier());
+    if (waiting == null || waiting) {
+      return false;
+    }
+    s.inFlight.decrementAndGet();
+    return true;
+  }
+
+  /**
+   * @return queued request of the application which took a free slot and must be sent now, null if there is none
+   */
+  IMessage poll(long applicationId) {
+    Slots s = slots.get(applicationId);
+    if (s == null) {
+      return null;
+    }
+    while (s.queue.peek() != null) {
+      int current = s.inFlight.get();
+      if (current >= size) {
+        return null;
+      }
+      if (!s.inFlight.compareAndSet(current, current + 1)) {
+        continue;
+      }
+      IMessage request;
+      while ((request = s.queue.poll()) != null) {
+        s.queueLength.decrementAndGet();
+        // skip requests which timed out or were removed while waiting
+        if (s.members.replace(request.getHopByHopIdentifier(), Boolean.TRUE, Boolean.FALSE)) {
+          return request;
+        }
+      }
+      s.inFlight.decrementAndGet();
+    }
+    return null;
+  }
+
+  private Slots getSlots(long applicationId) {
+    Slots s = slots.get(applicationId);
+    if (s == null) {
+      s = new Slots();
+      Slots existing = slots.putIfAbsent(applicationId, s);
+      if (existing != null) {
+        s = existing;
+      }
+    }
+    return s;
+  }
+
+  private static final class Slots {
+
+    final AtomicInteger inFlight = new AtomicInteger();
+    // hop-by-hop id of each request holding a slot (false) or waiting in queue (true)
+    final ConcurrentMap<Long, Boolean> members = new ConcurrentHashMap<Long, Boolean>();
+    final Queue<IMessage> queue = new ConcurrentLinkedQueue<IMessage>();
+    final AtomicInteger queueLength = new AtomicInteger();
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.controller;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jdiameter.api.ResultCode;
+
+/**
+ * Health score of a peer, from 0 (unusable) to {@link #MAX_SCORE} (healthy), updated continuously from the
+ * traffic the peer carries: watchdog round trip time, answer latency, ratio of requests which timed out and
+ * ratio of answers with transient errors (DIAMETER_TOO_BUSY, DIAMETER_UNABLE_TO_DELIVER). Ratios and round trip
+ * time are exponentially weighted moving averages. Latencies are compared with the lowest one seen recently
+ * rather than with a configured limit, and only a latency over twice that baseline plus a few milliseconds lowers
+ * the score, so jitter of a peer which answers in well under a millisecond does not count. The baseline is the
+ * lowest latency of the last one or two baseline windows, so a peer which is permanently slower, e.g. after it
+ * moved to another site, gets its full score back once the old samples fall out of the window.
+ *
+ * When the peer comes back to OKAY after a failure its score is capped by a limit which rises linearly over
+ * the ramp-up time, so traffic returns to it progressively.
+ */
+final class PeerHealth {
+
+  static final int MAX_SCORE = 100;
+
+  // latency up to this multiple of the baseline, plus the slack, does not lower the score
+  private static final double LATENCY_TOLERANCE = 2.0d;
+  private static final long LATENCY_SLACK = TimeUnit.MILLISECONDS.toNanos(5);
+  // baseline is the lowest latency of the last one or two windows
+  private static final long BASELINE_WINDOW = TimeUnit.SECONDS.toNanos(60);
+  // weight of a new sample in timeout and error ratios
+  private static final double RATIO_ALPHA = 1.0d / 16;
+  // score limit right after peer was restored
+  private static final double RAMP_UP_START = 0.1d;
+
+  private final long rampUpTime;
+
+  // guarded by this
+  private long watchdogSent;
+  private final Baseline watchdogBaseline;
+  private final Baseline latencyBaseline;
+  private boolean connected;
+
+  private volatile long watchdogRoundTripTime;
+  private volatile long latency;
+  private volatile double timeoutRatio;
+  private volatile double errorRatio;
+  private volatile long restored;
+
+  /**
+   * @param rampUpTime time (ms) score limit takes to reach maximum after peer was restored
+   */
+  PeerHealth(long rampUpTime) {
+    this(rampUpTime, BASELINE_WINDOW);
+  }
+
+  /**
+   * @param rampUpTime time (ms) score limit takes to reach maximum after peer was restored
+   * @param baselineWindow time (ns) a latency sample is kept as baseline candidate, at least
+   */
+  PeerHealth(long rampUpTime, long baselineWindow) {
+    this.rampUpTime = rampUpTime * 1000000L;
+    this.watchdogBaseline = new Baseline(baselineWindow);
+    this.latencyBaseline = new Baseline(baselineWindow);
+  }
+
+  /**
+   * Peer entered OKAY state
+   */
+  synchronized void restored() {
+    // samples taken before the failure do not tell anything about the peer now
+    watchdogSent = 0;
+    watchdogRoundTripTime = 0;
+    latency = 0;
+    timeoutRatio = 0;
+    errorRatio = 0;
+    if (connected && rampUpTime > 0) {
+      restored = Math.max(System.nanoTime(), 1);
+    }
+    connected = true;
+  }
+
+  synchronized void watchdogSent() {
+    long now = System.nanoTime();
+    if (watchdogSent != 0) {
+      // previous DWR is still unanswered, its round trip is at least this long
+      updateWatchdogRoundTripTime(now - watchdogSent);
+    }
+    watchdogSent = now;
+  }
+
+  synchronized void watchdogAnswered() {
+    if (watchdogSent != 0) {
+      updateWatchdogRoundTripTime(System.nanoTime() - watchdogSent);
+      watchdogSent = 0;
+    }
+  }
+
+  private void updateWatchdogRoundTripTime(long sample) {
+    sample = Math.max(sample, 1);
+    long current = watchdogRoundTripTime;
+    current = current == 0 ? sample : current + ((sample - current) >> 3);
+    watchdogRoundTripTime = current;
+    watchdogBaseline.update(current);
+  }
+
+  /**
+   * @param responseTime answer latency average of the peer, after the answer was accounted
+   * @param resultCode Result-Code of the answer, or 0 if it has none
+   */
+  synchronized void answered(long responseTime, long resultCode) {
+    boolean error = resultCode == ResultCode.TOO_BUSY || resultCode == ResultCode.UNABLE_TO_DELIVER;
+    timeoutRatio -= timeoutRatio * RATIO_ALPHA;
+    errorRatio += ((error ? 1 : 0) - errorRatio) * RATIO_ALPHA;
+    updateLatency(responseTime);
+  }
+
+  /**
+   * @param responseTime answer latency average of the peer, after the timeout was accounted
+   */
+  synchronized void timedOut(long responseTime) {
+    timeoutRatio += (1 - timeoutRatio) * RATIO_ALPHA;
+    updateLatency(responseTime);
+  }
+
+  private void updateLatency(long responseTime) {
+    if (responseTime > 0) {
+      latency = responseTime;
+      latencyBaseline.update(responseTime);
+    }
+  }
+
+  /**
+   * @return current score, 0 - {@link #MAX_SCORE}
+   */
+  int getScore() {
+    double score = (1 - timeoutRatio) * (1 - errorRatio);
+    synchronized (this) {
+      score *= latencyFactor(latency, latencyBaseline.get()) * latencyFactor(watchdogRoundTripTime, watchdogBaseline.get());
+    }
+    long since = restored;
+    if (since != 0) {
+      long elapsed = System.nanoTime() - since;
+      if (elapsed >= rampUpTime) {
+        restored = 0;
+      }
+      else {
+        score = Math.min(score, RAMP_UP_START + (1 - RAMP_UP_START) * elapsed / rampUpTime);
+      }
+    }
+    return (int) Math.round(score * MAX_SCORE);
+  }
+
+  private static double latencyFactor(long current, long baseline) {
+    if (current <= 0 || baseline <= 0) {
+      return 1;
+    }
+    return Math.min(1, (LATENCY_TOLERANCE * baseline + LATENCY_SLACK) / current);
+  }
+
+  /**
+   * @return smoothed watchdog round trip time in nanoseconds, 0 if no DWR was answered yet
+   */
+  long getWatchdogRoundTripTime() {
+    return watchdogRoundTripTime;
+  }
+
+  double getTimeoutRatio() {
+    return timeoutRatio;
+  }
+
+  double getErrorRatio() {
+    return errorRatio;
+  }
+
+  /**
+   * Lowest sample of the current and of the previous window. A lower sample is taken at once, a higher one once
+   * all lower samples are older than one or two windows.
+   */
+  private static final class Baseline {
+
+    private final long window;
+
+    private long windowStart;
+    private long current;
+    private long previous;
+
+    Baseline(long window) {
+      this.window = window;
+    }
+
+    void update(long sample) {
+      long now = System.nanoTime();
+      long elapsed = now - windowStart;
+      if (current == 0 || elapsed >= window) {
+        // samples older than two windows are forgotten
+        previous = current != 0 && elapsed < 2 * window ? current : 0;
+        current = 0;
+        windowStart = now;
+      }
+      if (current == 0 || sample < current) {
+        current = sample;
+      }
+    }
+
+    long get() {
+      return previous == 0 ? current : Math.min(previous, current);
+    }
+  }
+}
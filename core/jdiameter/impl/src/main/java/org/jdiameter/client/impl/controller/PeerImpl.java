@@ -50,6 +50,13 @@ import static org.jdiameter.api.Avp.DISCONNECT_CAUSE;
 import static org.jdiameter.api.Avp.ERROR_MESSAGE;
 import static org.jdiameter.api.Avp.FIRMWARE_REVISION;
 import static org.jdiameter.api.Avp.HOST_IP_ADDRESS;
+import static org.jdiameter.api.Avp.OC_FEATURE_VECTOR;
+import static org.jdiameter.api.Avp.OC_OLR;
+import static org.jdiameter.api.Avp.OC_REDUCTION_PERCENTAGE;
+import static org.jdiameter.api.Avp.OC_REPORT_TYPE;
+import static org.jdiameter.api.Avp.OC_SEQUENCE_NUMBER;
+import static org.jdiameter.api.Avp.OC_SUPPORTED_FEATURES;
+import static org.jdiameter.api.Avp.OC_VALIDITY_DURATION;
 import static org.jdiameter.api.Avp.ORIGIN_HOST;
 import static org.jdiameter.api.Avp.ORIGIN_REALM;
 import static org.jdiameter.api.Avp.ORIGIN_STATE_ID;
@@ -72,8 +79,14 @@ import static org.jdiameter.client.api.fsm.EventTypes.DWR_EVENT;
 import static org.jdiameter.client.api.fsm.EventTypes.INTERNAL_ERROR;
 import static org.jdiameter.client.api.fsm.EventTypes.RECEIVE_MSG_EVENT;
 import static org.jdiameter.client.api.fsm.EventTypes.STOP_EVENT;
+import static org.jdiameter.client.impl.helpers.Parameters.InFlightWindowPolicy;
+import static org.jdiameter.client.impl.helpers.Parameters.InFlightWindowQueueSize;
+import static org.jdiameter.client.impl.helpers.Parameters.InFlightWindowSize;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlEnabled;
+import static org.jdiameter.client.impl.helpers.Parameters.PeerHealthRampUpTime;
 import static org.jdiameter.client.impl.helpers.Parameters.SecurityRef;
 import static org.jdiameter.client.impl.helpers.Parameters.UseUriAsFqdn;
+import static org.jdiameter.common.api.concurrent.IConcurrentFactory.ScheduledExecServices.PeerOverloadTimer;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -86,7 +99,12 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jdiameter.api.ApplicationId;
 import org.jdiameter.api.Avp;
@@ -121,6 +139,7 @@ import org.jdiameter.client.api.io.ITransportLayerFactory;
 import org.jdiameter.client.api.io.TransportError;
 import org.jdiameter.client.api.io.TransportException;
 import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.client.api.parser.ParseException;
 import org.jdiameter.client.api.router.IRouter;
 import org.jdiameter.client.impl.AbstractStateChangeListener;
 import org.jdiameter.client.impl.DictionarySingleton;
@@ -145,6 +164,13 @@ public class PeerImpl extends AbstractPeer implements IPeer {
 
   private static final Logger logger = LoggerFactory.getLogger(PeerImpl.class);
 
+  // RFC 7683 values
+  protected static final long OLR_DEFAULT_ALGO = 1L;
+  protected static final int OC_REPORT_TYPE_HOST = 0;
+  protected static final int OC_REPORT_TYPE_REALM = 1;
+  protected static final long OC_DEFAULT_VALIDITY = 30L;
+  protected static final long OC_MAX_VALIDITY = 86400L;
+
   // Properties
   protected InetAddress[] addresses;
   protected String realmName;
@@ -162,12 +188,22 @@ public class PeerImpl extends AbstractPeer implements IPeer {
   protected IRouter router;
   // XXX: FT/HA // protected Map<String, NetworkReqListener> slc;
   protected final Map<Long, IMessage> peerRequests = new ConcurrentHashMap<Long, IMessage>();
+  // Load indicators, kept outside of statistics so that routers can rely on them
+  protected final AtomicInteger outstandingRequests = new AtomicInteger();
+  protected final AtomicLong responseTime = new AtomicLong();
   protected final Dictionary dictionary = DictionarySingleton.getDictionary();
   // FSM layer
   protected IStateMachine fsm;
   protected IMessageParser parser;
   // Feature
   protected boolean useUriAsFQDN = false; // Use URI as origin host name into CER command
+  protected boolean overloadControl = false; // Diameter Overload Indication Conveyance (RFC 7683)
+  protected final AtomicReference<OverloadReport> overloadReport = new AtomicReference<OverloadReport>();
+  // limit of outstanding requests per application, null if unlimited
+  private InFlightWindow inFlightWindow;
+  // sends requests queued by in-flight window, so the thread which freed a slot (e.g. transport reader) does not
+  private ScheduledExecutorService inFlightWindowExecutor;
+  private final PeerHealth health;
 
   //session store and data
   protected ISessionDatasource sessionDataSource;
@@ -190,12 +226,16 @@ public class PeerImpl extends AbstractPeer implements IPeer {
     @Override
     public void connectionClosed(String connKey, List notSent) {
       logger.debug("Connection from {} is closed", uri);
+      onConnectionClosed(connKey);
       for (IMessage request : peerRequests.values()) {
         if (request.getState() == IMessage.STATE_SENT) {
+          if (router.failoverRequest(request)) {
+            continue;
+          }
           request.setReTransmitted(true);
           request.setState(IMessage.STATE_NOT_SENT);
           try {
-            peerRequests.remove(request.getHopByHopIdentifier());
+            removeRequest(request.getHopByHopIdentifier());
             table.sendMessage(request);
           }
           catch (Throwable exc) {
@@ -222,6 +262,9 @@ public class PeerImpl extends AbstractPeer implements IPeer {
             fsm.handleEvent(new FsmEvent(req ? CER_EVENT : CEA_EVENT, message, connKey));
             break;
           case DEVICE_WATCHDOG_REQUEST:
+            if (!req) {
+              health.watchdogAnswered();
+            }
             fsm.handleEvent(new FsmEvent(req ? DWR_EVENT : DWA_EVENT, message, connKey));
             break;
           case DISCONNECT_PEER_REQUEST:
@@ -278,6 +321,7 @@ public class PeerImpl extends AbstractPeer implements IPeer {
     this.metaData = metaData;
     // XXX: FT/HA // this.slc = table.getSessionReqListeners();
     this.sessionDataSource = sessionDataSource;
+    this.health = new PeerHealth(config.getLongValue(PeerHealthRampUpTime.ordinal(), (Long) PeerHealthRampUpTime.defValue()));
 
     int port = remotePeer.getPort();
     InetAddress remoteAddress;
@@ -297,6 +341,9 @@ public class PeerImpl extends AbstractPeer implements IPeer {
             if (PeerState.DOWN.equals(s)) {
               stopping = false;
             }
+            else if (PeerState.OKAY.equals(s) && !PeerState.OKAY.equals(oldState)) {
+              health.restored();
+            }
           }
         }
     );
@@ -368,12 +415,31 @@ public class PeerImpl extends AbstractPeer implements IPeer {
     this.parser = parser;
     this.addresses = new InetAddress[] {remoteAddress};
     this.useUriAsFQDN = config.getBooleanValue(UseUriAsFqdn.ordinal(), (Boolean) UseUriAsFqdn.defValue());
+    this.overloadControl = config.getBooleanValue(OverloadControlEnabled.ordinal(), (Boolean) OverloadControlEnabled.defValue());
+    int windowSize = config.getIntValue(InFlightWindowSize.ordinal(), (Integer) InFlightWindowSize.defValue());
+    if (windowSize > 0) {
+      String policy = config.getStringValue(InFlightWindowPolicy.ordinal(), (String) InFlightWindowPolicy.defValue());
+      int queueSize = config.getIntValue(InFlightWindowQueueSize.ordinal(), (Integer) InFlightWindowQueueSize.defValue());
+      this.inFlightWindow = new InFlightWindow(windowSize, InFlightWindow.Policy.valueOf(policy.trim().toUpperCase()), queueSize);
+      if (concurrentFactory != null) {
+        this.inFlightWindowExecutor = concurrentFactory.getScheduledExecutorService(PeerOverloadTimer.name());
+      }
+    }
   }
 
   public IContext getContext() {
     return new ActionContext();
   }
 
+  private long getResultCode(Avp avpResCode) {
+    try {
+      return avpResCode != null ? avpResCode.getUnsigned32() : 0;
+    }
+    catch (AvpDataException e) {
+      return 0;
+    }
+  }
+
   private boolean isRedirectAnswer(Avp avpResCode, IMessage answer) {
     try {
       return (answer.getFlags() & 0x20) != 0 && avpResCode != null && avpResCode.getInteger32() == ResultCode.REDIRECT_INDICATION;
@@ -388,6 +454,75 @@ public class PeerImpl extends AbstractPeer implements IPeer {
     return statistic;
   }
 
+  @Override
+  protected void createPeerStatistics() {
+    super.createPeerStatistics();
+    if (statistic.getRecordByName(IStatisticRecord.Counters.PeerHealthScore) != null) {
+      return;
+    }
+    IStatisticRecord score = statisticFactory.newCounterRecord(IStatisticRecord.Counters.PeerHealthScore, new IStatisticRecord.IntegerValueHolder() {
+      @Override
+      public int getValueAsInt() {
+        return health.getScore();
+      }
+
+      @Override
+      public String getValueAsString() {
+        return String.valueOf(getValueAsInt());
+      }
+    });
+    IStatisticRecord watchdogRtt = statisticFactory.newCounterRecord(IStatisticRecord.Counters.WatchdogRoundTripTime,
+        new IStatisticRecord.LongValueHolder() {
+          @Override
+          public long getValueAsLong() {
+            return TimeUnit.NANOSECONDS.toMicros(health.getWatchdogRoundTripTime());
+          }
+
+          @Override
+          public String getValueAsString() {
+            return String.valueOf(getValueAsLong());
+          }
+        });
+    IStatisticRecord latency = statisticFactory.newCounterRecord(IStatisticRecord.Counters.AnswerLatency, new IStatisticRecord.LongValueHolder() {
+      @Override
+      public long getValueAsLong() {
+        return TimeUnit.NANOSECONDS.toMicros(responseTime.get());
+      }
+
+      @Override
+      public String getValueAsString() {
+        return String.valueOf(getValueAsLong());
+      }
+    });
+    IStatisticRecord timeouts = statisticFactory.newCounterRecord(IStatisticRecord.Counters.TimeoutRatio, new IStatisticRecord.DoubleValueHolder() {
+      @Override
+      public double getValueAsDouble() {
+        return health.getTimeoutRatio();
+      }
+
+      @Override
+      public String getValueAsString() {
+        return String.valueOf(getValueAsDouble());
+      }
+    });
+    IStatisticRecord errors = statisticFactory.newCounterRecord(IStatisticRecord.Counters.TransientErrorRatio, new IStatisticRecord.DoubleValueHolder() {
+      @Override
+      public double getValueAsDouble() {
+        return health.getErrorRatio();
+      }
+
+      @Override
+      public String getValueAsString() {
+        return String.valueOf(getValueAsDouble());
+      }
+    });
+    IStatisticRecord retransmitted = statisticFactory.newCounterRecord(IStatisticRecord.Counters.RetransmittedRequest);
+    IStatisticRecord retransmittedPerSecond = statisticFactory.newPerSecondCounterRecord(uri.toString(),
+        IStatisticRecord.Counters.RetransmittedRequestPerSecond, retransmitted);
+    perSecondRecords.add(retransmittedPerSecond);
+    statistic.appendCounter(score, watchdogRtt, latency, timeouts, errors, retransmitted, retransmittedPerSecond);
+  }
+
   @Override
   public void addPeerStateListener(final PeerStateListener listener) {
     fsm.addStateChangeNotification(new AbstractStateChangeListener() {
@@ -557,19 +692,216 @@ public class PeerImpl extends AbstractPeer implements IPeer {
 
   @Override
   public void addMessage(IMessage message) {
-    peerRequests.put(message.getHopByHopIdentifier(), message);
+    if (peerRequests.put(message.getHopByHopIdentifier(), message) == null) {
+      outstandingRequests.incrementAndGet();
+    }
   }
 
   @Override
   public void remMessage(IMessage message) {
-    peerRequests.remove(message.getHopByHopIdentifier());
+    if (removeRequest(message.getHopByHopIdentifier()) != null && message.isTimeOut()) {
+      // a timed out request is accounted with its full wait time, so slow peers are not favoured
+      updateResponseTime(message);
+      health.timedOut(responseTime.get());
+    }
   }
 
   @Override
   public IMessage[] remAllMessage() {
-    IMessage[] m = peerRequests.values().toArray(new IMessage[peerRequests.size()]);
-    peerRequests.clear();
-    return m;
+    List<IMessage> m = new ArrayList<IMessage>(peerRequests.size());
+    for (Long hopByHop : peerRequests.keySet()) {
+      IMessage request = removeRequest(hopByHop);
+      if (request != null) {
+        m.add(request);
+      }
+    }
+    return m.toArray(new IMessage[m.size()]);
+  }
+
+  @Override
+  public int getOutstandingRequests() {
+    return outstandingRequests.get();
+  }
+
+  @Override
+  public long getResponseTime() {
+    return responseTime.get();
+  }
+
+  @Override
+  public int getHealthScore() {
+    return health.getScore();
+  }
+
+  @Override
+  public long getWatchdogRoundTripTime() {
+    return health.getWatchdogRoundTripTime();
+  }
+
+  @Override
+  public int getOverloadReduction() {
+    OverloadReport report = overloadReport.get();
+    if (report == null || report.reductionPercentage == 0 || System.currentTimeMillis() > report.expiryTime) {
+      return 0;
+    }
+    return report.reductionPercentage;
+  }
+
+  @Override
+  public boolean isInFlightWindowFull(long applicationId) {
+    return inFlightWindow != null && inFlightWindow.isFull(applicationId);
+  }
+
+  @Override
+  public int getInFlightRequests(long applicationId) {
+    return inFlightWindow == null ? 0 : inFlightWindow.getInFlight(applicationId);
+  }
+
+  @Override
+  public long getInFlightQueuedRequests() {
+    return inFlightWindow == null ? 0 : inFlightWindow.getQueued();
+  }
+
+  @Override
+  public long getInFlightRejectedRequests() {
+    return inFlightWindow == null ? 0 : inFlightWindow.getRejected();
+  }
+
+  /**
+   * Called when a transport connection of this peer is closed, before the state machine is notified. Anything
+   * negotiated over that connection must be forgotten here.
+   *
+   * @param connKey key of the closed connection
+   */
+  protected void onConnectionClosed(String connKey) {
+  }
+
+  /**
+   * Advertise support of loss abatement algorithm in outgoing request, unless an agent already did.
+   */
+  protected void addOverloadControlSupport(IMessage request) {
+    AvpSet avps = request.getAvps();
+    if (avps.getAvp(OC_SUPPORTED_FEATURES, 0) == null) {
+      avps.addGroupedAvp(OC_SUPPORTED_FEATURES, false, false).addAvp(OC_FEATURE_VECTOR, OLR_DEFAULT_ALGO, false, false);
+    }
+  }
+
+  /**
+   * Take over OC-OLR received in answer. Host reports are only accepted when they describe this peer,
+   * realm reports are applied to this peer as next hop towards the reported realm.
+   */
+  protected void updateOverloadReport(IMessage answer) {
+    AvpSet avps = answer.getAvps();
+    Avp olr = avps.getAvp(OC_OLR, 0);
+    if (olr == null || avps.getAvp(OC_SUPPORTED_FEATURES, 0) == null) {
+      return;
+    }
+    try {
+      AvpSet olrAvps = olr.getGrouped();
+      Avp sequenceAvp = olrAvps.getAvp(OC_SEQUENCE_NUMBER, 0);
+      Avp typeAvp = olrAvps.getAvp(OC_REPORT_TYPE, 0);
+      if (sequenceAvp == null || typeAvp == null) {
+        logger.debug("Ignoring malformed overload report from peer [{}]", uri);
+        return;
+      }
+      int type = typeAvp.getInteger32();
+      if (type == OC_REPORT_TYPE_HOST) {
+        Avp originHost = avps.getAvp(ORIGIN_HOST);
+        if (originHost == null || !originHost.getDiameterIdentity().equals(uri.getFQDN())) {
+          return;
+        }
+      }
+      else if (type != OC_REPORT_TYPE_REALM) {
+        return;
+      }
+      Avp reductionAvp = olrAvps.getAvp(OC_REDUCTION_PERCENTAGE, 0);
+      Avp validityAvp = olrAvps.getAvp(OC_VALIDITY_DURATION, 0);
+      long validity = validityAvp != null ? Math.min(validityAvp.getUnsigned32(), OC_MAX_VALIDITY) : OC_DEFAULT_VALIDITY;
+      int reduction = validity == 0 || reductionAvp == null ? 0 : (int) Math.min(reductionAvp.getUnsigned32(), 100);
+      OverloadReport report = new OverloadReport(sequenceAvp.getUnsigned64(), reduction, System.currentTimeMillis() + validity * 1000);
+      while (true) {
+        OverloadReport current = overloadReport.get();
+        if (current != null && current.sequenceNumber >= report.sequenceNumber) {
+          return;
+        }
+        if (overloadReport.compareAndSet(current, report)) {
+          logger.debug("Peer [{}] requested traffic reduction of {}% for {}s", new Object[] {uri, reduction, validity});
+          return;
+        }
+      }
+    }
+    catch (AvpDataException e) {
+      logger.debug("Unable to decode overload report from peer [{}]", uri, e);
+    }
+  }
+
+  protected IMessage removeRequest(long hopByHopIdentifier) {
+    IMessage request = peerRequests.remove(hopByHopIdentifier);
+    if (request != null) {
+      outstandingRequests.decrementAndGet();
+      if (inFlightWindow != null && inFlightWindow.release(request) && inFlightWindow.hasQueued(request.getApplicationId())) {
+        scheduleQueuedRequests(request.getApplicationId());
+      }
+    }
+    return request;
+  }
+
+  /**
+   * Send queued requests from executor, slots are freed by transport reader (answers) and timers
+   * which must not wait for FSM queue.
+   */
+  protected void scheduleQueuedRequests(final long applicationId) {
+    if (inFlightWindowExecutor != null) {
+      try {
+        inFlightWindowExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            sendQueuedRequests(applicationId);
+          }
+        });
+        return;
+      }
+      catch (RejectedExecutionException e) {
+        logger.debug("Executor rejected sending of queued requests to peer [{}], sending them in place", uri);
+      }
+    }
+    sendQueuedRequests(applicationId);
+  }
+
+  /**
+   * Send requests which waited for a free slot of in-flight window. A request which can not be handed to FSM
+   * keeps its slot until it times out.
+   */
+  protected void sendQueuedRequests(long applicationId) {
+    IMessage request;
+    while ((request = inFlightWindow.poll(applicationId)) != null) {
+      try {
+        if (stopping || !fsm.handleEvent(new FsmEvent(EventTypes.SEND_MSG_EVENT, request))) {
+          logger.debug("Unable to send queued request [{}] to peer [{}]", request, uri);
+        }
+      }
+      catch (Exception e) {
+        logger.debug("Unable to send queued request [{}] to peer [{}]", new Object[] {request, uri, e});
+      }
+    }
+  }
+
+  /**
+   * Feed time elapsed since request was sent into answer latency average (alpha = 1/8, as for TCP SRTT).
+   */
+  protected void updateResponseTime(IMessage request) {
+    long sentTime = request.getSentTime();
+    if (sentTime == 0) {
+      return;
+    }
+    long sample = Math.max(System.nanoTime() - sentTime, 0);
+    while (true) {
+      long current = responseTime.get();
+      long updated = current == 0 ? sample : current + ((sample - current) >> 3);
+      if (responseTime.compareAndSet(current, Math.max(updated, 1))) {
+        return;
+      }
+    }
   }
 
   @Override
@@ -583,7 +915,32 @@ public class PeerImpl extends AbstractPeer implements IPeer {
       logger.debug("Message validation is ENABLED. Going to validate message before sending.");
       dictionary.validate(message, false);
     }
-    return !stopping && fsm.handleEvent(new FsmEvent(EventTypes.SEND_MSG_EVENT, message));
+    boolean windowed = inFlightWindow != null && message.isRequest() && peerRequests.get(message.getHopByHopIdentifier()) == message;
+    if (windowed) {
+      switch (inFlightWindow.admit(message)) {
+        case QUEUED:
+          logger.debug("In-flight window of peer [{}] is full, request [{}] is queued", uri, message);
+          // a slot may have been freed meanwhile
+          sendQueuedRequests(message.getApplicationId());
+          return !stopping;
+        case REJECTED:
+          removeRequest(message.getHopByHopIdentifier());
+          throw new OverloadException("In-flight window of peer [" + uri + "] is full");
+        default:
+          break;
+      }
+    }
+    boolean sent = false;
+    try {
+      sent = !stopping && fsm.handleEvent(new FsmEvent(EventTypes.SEND_MSG_EVENT, message));
+    }
+    finally {
+      if (!sent && windowed) {
+        // give back the slot, the request will not be answered
+        removeRequest(message.getHopByHopIdentifier());
+      }
+    }
+    return sent;
   }
 
   @Override
@@ -713,8 +1070,28 @@ public class PeerImpl extends AbstractPeer implements IPeer {
   }
 
 
+  /**
+   * Overload report received from peer, immutable so it can be replaced atomically
+   */
+  protected static class OverloadReport {
+
+    protected final long sequenceNumber;
+    protected final int reductionPercentage;
+    protected final long expiryTime;
+
+    protected OverloadReport(long sequenceNumber, int reductionPercentage, long expiryTime) {
+      this.sequenceNumber = sequenceNumber;
+      this.reductionPercentage = reductionPercentage;
+      this.expiryTime = expiryTime;
+    }
+  }
+
   protected class ActionContext implements IContext {
 
+    // DWR/DWA content only changes with local state id, so they are encoded once and sent from templates
+    private volatile IMessage dwrTemplate;
+    private volatile IMessage dwaTemplate;
+
     @Override
     public String toString() {
       return new StringBuilder("ActionContext [getPeerDescription()=").append(getPeerDescription()).append(", isConnected()=").append(isConnected()).
@@ -802,6 +1179,12 @@ public class PeerImpl extends AbstractPeer implements IPeer {
           }
         }
       }
+      else if (overloadControl) {
+        int commandCode = message.getCommandCode();
+        if (commandCode != CAPABILITIES_EXCHANGE_REQUEST && commandCode != DEVICE_WATCHDOG_REQUEST && commandCode != DISCONNECT_PEER_REQUEST) {
+          addOverloadControlSupport(message);
+        }
+      }
       // PCB added this
       router.garbageCollectRequestRouteInfo(message);
 
@@ -850,23 +1233,69 @@ public class PeerImpl extends AbstractPeer implements IPeer {
     @Override
     public void sendDwrMessage() throws TransportException, OverloadException {
       logger.debug("Send DWR message");
-      IMessage message = parser.createEmptyMessage(DEVICE_WATCHDOG_REQUEST, 0);
-      message.setRequest(true);
+      IMessage template = dwrTemplate;
+      if (template == null || !isCurrentStateId(template)) {
+        template = parser.createEmptyMessage(DEVICE_WATCHDOG_REQUEST, 0);
+        template.setRequest(true);
+        // Set content
+        template.getAvps().addAvp(ORIGIN_HOST, metaData.getLocalPeer().getUri().getFQDN(), true, false, true);
+        template.getAvps().addAvp(ORIGIN_REALM, metaData.getLocalPeer().getRealmName(), true, false, true);
+        template.getAvps().addAvp(ORIGIN_STATE_ID, metaData.getLocalHostStateId(), true, false, true);
+        // Remove trash avp
+        template.getAvps().removeAvp(DESTINATION_HOST);
+        template.getAvps().removeAvp(DESTINATION_REALM);
+        dwrTemplate = template;
+      }
+      IMessage message = createFromTemplate(template);
       message.setHopByHopIdentifier(getHopByHopIdentifier());
-      // Set content
-      message.getAvps().addAvp(ORIGIN_HOST, metaData.getLocalPeer().getUri().getFQDN(), true, false, true);
-      message.getAvps().addAvp(ORIGIN_REALM, metaData.getLocalPeer().getRealmName(), true, false, true);
-      message.getAvps().addAvp(ORIGIN_STATE_ID, metaData.getLocalHostStateId(), true, false, true);
-      // Remove trash avp
-      message.getAvps().removeAvp(DESTINATION_HOST);
-      message.getAvps().removeAvp(DESTINATION_REALM);
       // Send
+      health.watchdogSent();
       sendMessage(message);
     }
 
+    private boolean isCurrentStateId(IMessage template) {
+      try {
+        return template.getAvps().getAvp(ORIGIN_STATE_ID).getUnsigned32() == metaData.getLocalHostStateId();
+      }
+      catch (AvpDataException e) {
+        return false;
+      }
+    }
+
+    private IMessage createFromTemplate(IMessage template) {
+      try {
+        return parser.createMessageFromTemplate(template);
+      }
+      catch (ParseException e) {
+        logger.debug("Unable to encode template message, sending a copy", e);
+        IMessage message = parser.createEmptyMessage(template.getCommandCode(), 0);
+        message.setRequest(template.isRequest());
+        message.getAvps().addAvp(template.getAvps());
+        return message;
+      }
+    }
+
     @Override
     public void sendDwaMessage(IMessage dwr, int resultCode, String errorMessage) throws TransportException, OverloadException {
       logger.debug("Send DWA message");
+      if (resultCode == ResultCode.SUCCESS && errorMessage == null) {
+        IMessage template = dwaTemplate;
+        if (template == null) {
+          template = parser.createEmptyMessage(DEVICE_WATCHDOG_REQUEST, 0);
+          template.setRequest(false);
+          template.getAvps().addAvp(RESULT_CODE, resultCode, true, false, true);
+          template.getAvps().addAvp(ORIGIN_HOST, metaData.getLocalPeer().getUri().getFQDN(), true, false, true);
+          template.getAvps().addAvp(ORIGIN_REALM, metaData.getLocalPeer().getRealmName(), true, false, true);
+          template.getAvps().removeAvp(DESTINATION_HOST);
+          template.getAvps().removeAvp(DESTINATION_REALM);
+          dwaTemplate = template;
+        }
+        IMessage message = createFromTemplate(template);
+        message.setHopByHopIdentifier(dwr.getHopByHopIdentifier());
+        message.setEndToEndIdentifier(dwr.getEndToEndIdentifier());
+        sendMessage(message);
+        return;
+      }
       IMessage message = parser.createEmptyMessage(dwr);
       message.setRequest(false);
       message.setHopByHopIdentifier(dwr.getHopByHopIdentifier());
@@ -1022,12 +1451,21 @@ public class PeerImpl extends AbstractPeer implements IPeer {
       else {
         logger.debug("Message is an answer");
 
+        if (overloadControl) {
+          updateOverloadReport(message);
+        }
         //TODO: check REALMs here?
-        IMessage request = peerRequests.remove(message.getHopByHopIdentifier());
+        IMessage request = removeRequest(message.getHopByHopIdentifier());
+        if (request == null) {
+          // late answer to a request which was failed over to another peer
+          request = router.getFailedOverRequest(PeerImpl.this, message.getHopByHopIdentifier());
+        }
         if (request != null && !request.isTimeOut()) {
           request.clearTimer();
+          updateResponseTime(request);
           request.setState(IMessage.STATE_ANSWERED);
           Avp avpResCode = message.getAvps().getAvp(RESULT_CODE);
+          health.answered(responseTime.get(), getResultCode(avpResCode));
           if (isRedirectAnswer(avpResCode, message)) {
             message.setListener(request.getEventListener());
             message = processRedirectAnswer(request, message);
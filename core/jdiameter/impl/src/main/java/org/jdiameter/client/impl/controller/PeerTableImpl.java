@@ -46,6 +46,8 @@ import static org.jdiameter.client.impl.helpers.Parameters.PeerIp;
 import static org.jdiameter.client.impl.helpers.Parameters.PeerLocalPortRange;
 import static org.jdiameter.client.impl.helpers.Parameters.PeerName;
 import static org.jdiameter.client.impl.helpers.Parameters.PeerRating;
+import static org.jdiameter.client.impl.helpers.Parameters.SDName;
+import static org.jdiameter.client.impl.helpers.Parameters.Security;
 import static org.jdiameter.client.impl.helpers.Parameters.StopTimeOut;
 
 import java.io.IOException;
@@ -55,6 +57,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -83,8 +86,11 @@ import org.jdiameter.client.api.parser.IMessageParser;
 import org.jdiameter.client.api.router.IRouter;
 import org.jdiameter.client.impl.DictionarySingleton;
 import org.jdiameter.client.impl.helpers.Parameters;
+import org.jdiameter.client.impl.transport.tls.netty.HandshakeStatistics;
+import org.jdiameter.client.impl.transport.tls.netty.SslContextFactory;
 import org.jdiameter.common.api.concurrent.IConcurrentFactory;
 import org.jdiameter.common.api.data.ISessionDatasource;
+import org.jdiameter.common.api.statistic.IStatistic;
 import org.jdiameter.common.api.statistic.IStatisticManager;
 import org.jdiameter.common.api.statistic.IStatisticRecord;
 import org.slf4j.Logger;
@@ -110,6 +116,9 @@ public class PeerTableImpl implements IPeerTable {
   protected IConcurrentFactory concurrentFactory;
   // XXX: FT/HA // protected ConcurrentHashMap<String, NetworkReqListener> sessionReqListeners = new ConcurrentHashMap<String, NetworkReqListener>();
   protected ISessionDatasource sessionDatasource;
+  protected Configuration globalConfig;
+  protected IStatisticManager statisticManager;
+  protected final List<IStatistic> tlsStatistics = new CopyOnWriteArrayList<IStatistic>();
 
   protected final Dictionary dictionary = DictionarySingleton.getDictionary();
 
@@ -129,8 +138,11 @@ public class PeerTableImpl implements IPeerTable {
     this.router = router;
     this.metaData = metaData;
     this.concurrentFactory = concurrentFactory;
+    this.globalConfig = globalConfig;
+    this.statisticManager = statisticFactory;
     this.stopTimeOut = globalConfig.getLongValue(StopTimeOut.ordinal(), (Long) StopTimeOut.defValue());
     this.sessionDatasource = stack.getAssemblerFacility().getComponentInstance(ISessionDatasource.class);
+    createTlsStatistics();
 
     logger.debug("Populating peerTable from configuration");
     Configuration[] peers = globalConfig.getChildren(Parameters.PeerTable.ordinal());
@@ -158,9 +170,54 @@ public class PeerTableImpl implements IPeerTable {
           }
         }
       }
+      router.peerTableChanged(this);
     }
   }
 
+  /**
+   * Expose handshake statistics of each security data entry, statistic is named after the entry
+   */
+  protected void createTlsStatistics() {
+    Configuration[] securityData = globalConfig.getChildren(Security.ordinal());
+    if (statisticManager == null || securityData == null) {
+      return;
+    }
+    for (Configuration sslConfig : securityData) {
+      HandshakeStatistics stats = SslContextFactory.getHandshakeStatistics(sslConfig);
+      tlsStatistics.add(statisticManager.newStatistic(sslConfig.getStringValue(SDName.ordinal(), ""), IStatistic.Groups.Tls,
+          newHandshakeRecord(IStatisticRecord.Counters.TlsHandshakes, stats),
+          newHandshakeRecord(IStatisticRecord.Counters.TlsResumedHandshakes, stats),
+          newHandshakeRecord(IStatisticRecord.Counters.TlsFailedHandshakes, stats),
+          newHandshakeRecord(IStatisticRecord.Counters.TlsHandshakeTime, stats),
+          newHandshakeRecord(IStatisticRecord.Counters.TlsMaxHandshakeTime, stats)));
+    }
+  }
+
+  private IStatisticRecord newHandshakeRecord(final IStatisticRecord.Counters counter, final HandshakeStatistics stats) {
+    return statisticManager.newCounterRecord(counter, new IStatisticRecord.LongValueHolder() {
+      @Override
+      public long getValueAsLong() {
+        switch (counter) {
+          case TlsHandshakes:
+            return stats.getHandshakes();
+          case TlsResumedHandshakes:
+            return stats.getResumedHandshakes();
+          case TlsFailedHandshakes:
+            return stats.getFailedHandshakes();
+          case TlsHandshakeTime:
+            return stats.getAverageHandshakeTime();
+          default:
+            return stats.getMaxHandshakeTime();
+        }
+      }
+
+      @Override
+      public String getValueAsString() {
+        return String.valueOf(getValueAsLong());
+      }
+    });
+  }
+
   protected Peer createPeer(int rating, String uri, String ip, String portRange, MetaData metaData, Configuration config, Configuration peerConfig,
       IFsmFactory fsmFactory, ITransportLayerFactory transportFactory, IStatisticManager statisticFactory, IConcurrentFactory concurrentFactory,
       IMessageParser parser)
@@ -258,7 +315,7 @@ public class PeerTableImpl implements IPeerTable {
         throw (AvpNotAllowedException) e;
       }
       else {
-        throw new IOException(e.getMessage());
+        throw new IOException(e.getMessage(), e);
       }
     }
   }
@@ -340,12 +397,23 @@ public class PeerTableImpl implements IPeerTable {
         // boolean interrupted = false;
         long remWaitTime = 2000;
         logger.debug("Stopping thread group and waiting a max of {}ms for all threads to finish", remWaitTime);
-        while (concurrentFactory.getThreadGroup().activeCount() > 0 && remWaitTime > 0) {
-          long waitTime = 250;
-          Thread.sleep(waitTime);
-          remWaitTime -= waitTime;
-          logger.debug("Waited {}ms. Time remaining to wait: {}ms. {} Thread still active.",
-              new Object[]{waitTime, remWaitTime, concurrentFactory.getThreadGroup().activeCount()});
+        long deadline = System.currentTimeMillis() + remWaitTime;
+        // join threads instead of polling, so we return as soon as the last one is gone
+        while (remWaitTime > 0) {
+          List<Thread> threads = concurrentFactory.getThreads();
+          Thread pending = null;
+          for (Thread thread : threads) {
+            if (thread != null && thread != Thread.currentThread() && thread.isAlive()) {
+              pending = thread;
+              break;
+            }
+          }
+          if (pending == null) {
+            break;
+          }
+          pending.join(remWaitTime);
+          remWaitTime = deadline - System.currentTimeMillis();
+          logger.debug("Time remaining to wait: {}ms. {} Thread still active.", remWaitTime, threads.size());
           // it did not terminated, let's interrupt
           // FIXME: remove ASAP, this is very bad, it kills threads in middle of op,
           //        killing FSM of peer for instance, after that its not usable.
@@ -361,6 +429,8 @@ public class PeerTableImpl implements IPeerTable {
         logger.warn("Unable to stop executor");
       }
     }
+    // contexts hold the cached TLS sessions, they are created again on start
+    SslContextFactory.releaseContexts(globalConfig, false);
     router.stop();
   }
 
@@ -403,6 +473,13 @@ public class PeerTableImpl implements IPeerTable {
       logger.debug("Calling destroy on router");
       router.destroy();
     }
+    if (globalConfig != null) {
+      SslContextFactory.releaseContexts(globalConfig, true);
+      for (IStatistic statistic : tlsStatistics) {
+        statisticManager.removeStatistic(statistic);
+      }
+      tlsStatistics.clear();
+    }
     router    = null;
     peerTable = null;
     assembler = null;
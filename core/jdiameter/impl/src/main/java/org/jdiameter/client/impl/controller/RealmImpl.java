@@ -45,6 +45,7 @@ package org.jdiameter.client.impl.controller;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jdiameter.api.ApplicationId;
 import org.jdiameter.api.LocalAction;
@@ -66,6 +67,7 @@ public class RealmImpl implements IRealm {
   protected boolean dynamic;
   protected long expirationTime;
   protected Collection<String> hosts = new ConcurrentLinkedQueue<String>();
+  protected final AtomicInteger hostsVersion = new AtomicInteger();
   protected IAgent agent;
   protected IAgentConfiguration agentConfiguration;
   public RealmImpl(String name, ApplicationId applicationId, LocalAction localAction,
@@ -130,6 +132,7 @@ public class RealmImpl implements IRealm {
   public void addPeerName(String name) {
     if (!hasPeerName(name)) {
       hosts.add(name);
+      hostsVersion.incrementAndGet();
     }
   }
 
@@ -141,7 +144,9 @@ public class RealmImpl implements IRealm {
    */
   @Override
   public void removePeerName(String s) {
-    hosts.remove(name);
+    if (hosts.remove(s)) {
+      hostsVersion.incrementAndGet();
+    }
   }
 
   /**
@@ -169,6 +174,11 @@ public class RealmImpl implements IRealm {
     return this.hosts.contains(name);
   }
 
+  @Override
+  public int getPeerNamesVersion() {
+    return hostsVersion.get();
+  }
+
   @Override
   public IAgent getAgent() {
     return agent;
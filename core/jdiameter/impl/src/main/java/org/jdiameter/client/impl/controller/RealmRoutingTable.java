@@ -0,0 +1,139 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.controller;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jdiameter.api.ApplicationId;
+import org.jdiameter.api.Realm;
+
+/**
+ * Immutable realm routing table compiled from the realm definitions of {@link RealmTableImpl}, which publishes
+ * a new one through a volatile field on every change (copy-on-write), so lookups need no locking.
+ *
+ * Routes are kept per realm name and Application-Id. A realm named "*.suffix" is a wildcard route, used for any
+ * Destination-Realm ending with ".suffix" which has no route of its own; the longest matching suffix wins.
+ * Realm names resolved through a wildcard are remembered, so next time they cost a single hash probe as well.
+ */
+final class RealmRoutingTable {
+
+  static final RealmRoutingTable EMPTY = new RealmRoutingTable(new HashMap<RouteKey, Realm>(), new HashSet<String>(), false);
+
+  static final String WILDCARD_PREFIX = "*.";
+
+  // bound for names resolved through wildcards, Destination-Realm of received requests is not trusted
+  private static final int MAX_RESOLVED = 4096;
+
+  private final Map<RouteKey, Realm> routes;
+  private final Set<String> names;
+  private final boolean wildcards;
+  private final ConcurrentMap<String, String> resolved = new ConcurrentHashMap<String, String>();
+
+  private RealmRoutingTable(Map<RouteKey, Realm> routes, Set<String> names, boolean wildcards) {
+    this.routes = routes;
+    this.names = names;
+    this.wildcards = wildcards;
+  }
+
+  /**
+   * @param realms all realm definitions
+   */
+  static RealmRoutingTable compile(Collection<Realm> realms) {
+    Map<RouteKey, Realm> routes = new HashMap<RouteKey, Realm>();
+    Set<String> names = new HashSet<String>();
+    boolean wildcards = false;
+    for (Realm realm : realms) {
+      routes.put(new RouteKey(realm.getName(), realm.getApplicationId()), realm);
+      names.add(realm.getName());
+      wildcards |= realm.getName().startsWith(WILDCARD_PREFIX);
+    }
+    return new RealmRoutingTable(routes, names, wildcards);
+  }
+
+  /**
+   * @return route defined for exactly this realm name and application, null if there is none
+   */
+  Realm getRoute(String realmName, ApplicationId applicationId) {
+    return routes.get(new RouteKey(realmName, applicationId));
+  }
+
+  /**
+   * @return name of routes used for Destination-Realm (the realm itself or matching wildcard), null if there are none
+   */
+  String resolve(String destinationRealm) {
+    if (destinationRealm == null) {
+      return null;
+    }
+    if (names.contains(destinationRealm)) {
+      return destinationRealm;
+    }
+    if (!wildcards) {
+      return null;
+    }
+    String name = resolved.get(destinationRealm);
+    if (name != null) {
+      return name;
+    }
+    for (int dot = destinationRealm.indexOf('.'); dot >= 0; dot = destinationRealm.indexOf('.', dot + 1)) {
+      String wildcard = "*" + destinationRealm.substring(dot);
+      if (names.contains(wildcard)) {
+        if (resolved.size() < MAX_RESOLVED) {
+          resolved.put(destinationRealm, wildcard);
+        }
+        return wildcard;
+      }
+    }
+    return null;
+  }
+
+  private static final class RouteKey {
+
+    final String realmName;
+    final ApplicationId applicationId;
+    final int hash;
+
+    RouteKey(String realmName, ApplicationId applicationId) {
+      this.realmName = realmName;
+      this.applicationId = applicationId;
+      this.hash = 31 * realmName.hashCode() + (applicationId != null ? applicationId.hashCode() : 0);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof RouteKey)) {
+        return false;
+      }
+      RouteKey other = (RouteKey) obj;
+      return realmName.equals(other.realmName)
+          && (applicationId == null ? other.applicationId == null : applicationId.equals(other.applicationId));
+    }
+  }
+}
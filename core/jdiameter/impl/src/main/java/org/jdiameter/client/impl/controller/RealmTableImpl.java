@@ -85,6 +85,9 @@ public class RealmTableImpl implements IRealmTable {
   // "cache" so we don't have to combine all realms
   protected List<String> allRealmsSet = new ArrayList<String>();
 
+  // compiled from realmNameToRealmSet for lock-free request routing, replaced on every change
+  protected volatile RealmRoutingTable routingTable = RealmRoutingTable.EMPTY;
+
   protected String localRealmName;
   protected String localHost;
 
@@ -96,8 +99,8 @@ public class RealmTableImpl implements IRealmTable {
 
   @Override
   public boolean realmExists(String realmName) {
-    // NOTE: this is still valid for local realm
-    return (this.realmNameToRealmSet.containsKey(realmName) &&  this.realmNameToRealmSet.get(realmName).size() > 0);
+    // NOTE: this is still valid for local realm; realm served by a wildcard route exists as well
+    return this.routingTable.resolve(realmName) != null;
   }
 
   @Override
@@ -142,8 +145,10 @@ public class RealmTableImpl implements IRealmTable {
    */
   @Override
   public Realm getRealm(String realmName, ApplicationId applicationId) {
-    RealmSet rs = this.realmNameToRealmSet.get(realmName);
-    return rs == null ? null : rs.getRealm(applicationId);
+    // read once, so resolve and lookup are done against same table
+    RealmRoutingTable table = this.routingTable;
+    String routeName = table.resolve(realmName);
+    return routeName == null ? null : table.getRoute(routeName, applicationId);
   }
 
   /*
@@ -161,6 +166,7 @@ public class RealmTableImpl implements IRealmTable {
         this.realmNameToRealmSet.remove(realmName);
         this.allRealmsSet.remove(realmName);
       }
+      compileRoutingTable();
       return r;
     }
 
@@ -182,6 +188,7 @@ public class RealmTableImpl implements IRealmTable {
       if (set != null) {
         Collection<Realm> present = set.values();
         allRealmsSet.remove(realmName);
+        compileRoutingTable();
         return new ArrayList<Realm>(present);
       }
     }
@@ -277,6 +284,7 @@ public class RealmTableImpl implements IRealmTable {
         return true;
       }
     });
+    compileRoutingTable();
   }
 
   /**
@@ -288,6 +296,7 @@ public class RealmTableImpl implements IRealmTable {
     Realm realm = rs.getRealm(appId);
     if (realm.isDynamic()) {
       rs.removeRealm(appId);
+      compileRoutingTable();
     }
   }
 
@@ -300,19 +309,23 @@ public class RealmTableImpl implements IRealmTable {
     this.localRealmName = localRealm;
     this.localHost = fqdn;
     getRealmSet(localRealm, true /* adds realm if not present  */);
+    compileRoutingTable();
   }
 
   // -------------------- helper methods --------------------
 
   protected Realm matchRealm(IMessage message, String realm) {
-    if (realmExists(realm)) {
+    // read once, so whole match is done against same table
+    RealmRoutingTable table = this.routingTable;
+    String routeName = table.resolve(realm);
+    if (routeName != null) {
       ApplicationId singleId = message.getSingleApplicationId();
       // check on single app id, than we iterate.
-      Realm r = getRealm(realm, singleId);
+      Realm r = table.getRoute(routeName, singleId);
       if (r == null) {
         List<ApplicationId> appIds = message.getApplicationIdAvps();
         for (int index = 0; index < appIds.size(); index++) {
-          r = getRealm(realm, appIds.get(index));
+          r = table.getRoute(routeName, appIds.get(index));
           if (r != null) {
             break;
           }
@@ -328,6 +341,14 @@ public class RealmTableImpl implements IRealmTable {
     RealmSet rs = getRealmSet(realm.getName(), true);
     rs.addRealm(realm);
     allRealmsSet.add(realm.getName());
+    compileRoutingTable();
+  }
+
+  /**
+   * Publishes routing table matching current realm definitions, must be called after each change of them.
+   */
+  protected synchronized void compileRoutingTable() {
+    this.routingTable = RealmRoutingTable.compile(getRealms());
   }
 
   protected RealmSet getRealmSet(String pKey, boolean create) {
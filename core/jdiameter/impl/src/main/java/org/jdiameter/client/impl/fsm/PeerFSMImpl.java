@@ -51,10 +51,13 @@ import static org.jdiameter.client.impl.helpers.Parameters.IacTimeOut;
 import static org.jdiameter.client.impl.helpers.Parameters.PeerFSMThreadCount;
 import static org.jdiameter.client.impl.helpers.Parameters.QueueSize;
 import static org.jdiameter.client.impl.helpers.Parameters.RecTimeOut;
+import static org.jdiameter.common.api.concurrent.IConcurrentFactory.ScheduledExecServices.PeerFSMTimer;
 
-import java.util.Random;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
@@ -101,20 +104,36 @@ public class PeerFSMImpl implements IStateMachine {
 
   protected FsmState state = FsmState.DOWN;
   protected boolean watchdogSent;
-  protected long timer;
+  // deadline of current FSM timer, 0 when not set. Only written on reset, checked by a task on timer scheduler
+  protected volatile long timer;
   protected long CEA_TIMEOUT = 0, IAC_TIMEOUT = 0, REC_TIMEOUT = 0, DWA_TIMEOUT = 0, DPA_TIMEOUT = 0;
 
   //PCB made FSM queue multi-threaded
   private static int FSM_THREAD_COUNT = 3;
 
   protected final StateEvent timeOutEvent = new FsmEvent(EventTypes.TIMEOUT_EVENT);
-  protected Random random = new Random();
+  // posted to wake up FSM threads blocked on empty queue when they have to stop, never processed
+  private final StateEvent wakeUpEvent = new FsmEvent(EventTypes.TIMEOUT_EVENT);
+
+  protected ScheduledExecutorService timerScheduler;
+  private final Object timerLock = new Object();
+  private ScheduledFuture<?> timerCheck;
+  // deadline the timer check is scheduled for, 0 if none
+  private volatile long timerCheckDeadline;
+  private final Runnable timerCheckTask = new Runnable() {
+    @Override
+    public void run() {
+      checkTimer();
+    }
+  };
 
   protected IConcurrentFactory concurrentFactory;
   protected IContext context;
   protected State[] states;
   protected int predefSize;
   private Lock lock = new ReentrantLock();
+  // delay of another attempt to enqueue timeout event when FSM queue is full
+  private static final long TIMER_RETRY_DELAY = 50;
 
   protected IStatisticManager statisticFactory;
   protected IStatistic queueStat;
@@ -135,6 +154,7 @@ public class PeerFSMImpl implements IStateMachine {
     this.listeners = new ConcurrentLinkedQueue<StateChangeListener>();
     loadTimeOuts(config);
     this.concurrentFactory = concurrentFactory;
+    this.timerScheduler = concurrentFactory.getScheduledExecutorService(PeerFSMTimer.name());
     FSM_THREAD_COUNT = config.getIntValue(PeerFSMThreadCount.ordinal(), (Integer) PeerFSMThreadCount.defValue());
     runQueueProcessing();
   }
@@ -213,8 +233,12 @@ public class PeerFSMImpl implements IStateMachine {
           while (mustRun) {
             StateEvent event;
             try {
-              event = eventQueue.poll(100, TimeUnit.MILLISECONDS);
-              if (logger.isDebugEnabled() && event != null) {
+              // timers are fired by timer scheduler, so threads only wake up for events
+              event = eventQueue.take();
+              if (event == wakeUpEvent) {
+                continue;
+              }
+              if (logger.isDebugEnabled()) {
                 logger.debug("Got Event [{}] from Queue", event);
               }
             }
@@ -226,31 +250,12 @@ public class PeerFSMImpl implements IStateMachine {
             // PCB removed lock
             // lock.lock();
             try {
-              if (event != null) {
-                if (event instanceof FsmEvent && queueStat != null && queueStat.isEnabled()) {
-                  timeSumm.inc(System.currentTimeMillis() - ((FsmEvent) event).getCreatedTime());
-                  timeCount.inc();
-                }
-                logger.debug("Process event [{}]. Peer State is [{}]", event, state);
-                getStates()[state.ordinal()].processEvent(event);
-              }
-              if (timer != 0 && timer < System.currentTimeMillis()) {
-                // ZhixiaoLuo: add lock here to avoid 2 timeout events at the same time if 2 threads get into timer=0
-                // ZhixiaoLuo: use double check strategy to avoid locking most normal cases
-                lock.lock();
-                try {
-                  if (timer != 0 && timer < System.currentTimeMillis()) {
-                    timer = 0;
-                    if (state != DOWN) { //without this check this event is fired in DOWN state.... it should not be.
-                      logger.debug("Sending timeout event");
-                      handleEvent(timeOutEvent); //FIXME: check why timer is not killed?
-                    }
-                  }
-                }
-                finally {
-                  lock.unlock();
-                }
+              if (event instanceof FsmEvent && queueStat != null && queueStat.isEnabled()) {
+                timeSumm.inc(System.currentTimeMillis() - ((FsmEvent) event).getCreatedTime());
+                timeCount.inc();
               }
+              logger.debug("Process event [{}]. Peer State is [{}]", event, state);
+              getStates()[state.ordinal()].processEvent(event);
             }
             catch (Exception e) {
               logger.debug("Error during processing FSM event", e);
@@ -283,6 +288,87 @@ public class PeerFSMImpl implements IStateMachine {
     }
   }
 
+  /**
+   * Make FSM threads exit, threads waiting for an event are woken up. If the queue is full, the oldest
+   * events are dropped to make room for wake up events, they would not be processed anyway.
+   */
+  protected void stopQueueProcessing() {
+    mustRun = false;
+    for (int i = numberOfThreadsRunning.get(); i > 0; i--) {
+      while (!eventQueue.offer(wakeUpEvent)) {
+        StateEvent dropped = eventQueue.poll();
+        logger.debug("Dropped event [{}] to wake up FSM threads", dropped);
+      }
+    }
+  }
+
+  /**
+   * Set FSM timer. Moving the deadline later (e.g. watchdog reset on traffic) is only a field write,
+   * the already scheduled check finds the new deadline and reschedules itself.
+   *
+   * @param deadline time in milliseconds when timeout event has to be fired, 0 to clear timer
+   */
+  protected void setTimerDeadline(long deadline) {
+    timer = deadline;
+    if (deadline == 0) {
+      return;
+    }
+    long scheduled = timerCheckDeadline;
+    if (scheduled != 0 && scheduled <= deadline) {
+      return;
+    }
+    synchronized (timerLock) {
+      scheduled = timerCheckDeadline;
+      if (scheduled != 0 && scheduled <= deadline) {
+        return;
+      }
+      if (timerCheck != null) {
+        timerCheck.cancel(false);
+      }
+      timerCheckDeadline = deadline;
+      timerCheck = timerScheduler.schedule(timerCheckTask, Math.max(0, deadline - System.currentTimeMillis()),
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void checkTimer() {
+    synchronized (timerLock) {
+      timerCheckDeadline = 0;
+      timerCheck = null;
+    }
+    // ZhixiaoLuo: add lock here to avoid 2 timeout events at the same time
+    lock.lock();
+    try {
+      long deadline = timer;
+      if (deadline == 0) {
+        return;
+      }
+      if (deadline <= System.currentTimeMillis()) {
+        timer = 0;
+        if (state != DOWN) { //without this check this event is fired in DOWN state.... it should not be.
+          logger.debug("Sending timeout event");
+          // timer thread is shared by all peers, so it must not wait for room in the queue of this one
+          if (numberOfThreadsRunning.get() == 0) {
+            runQueueProcessing();
+          }
+          if (!eventQueue.offer(timeOutEvent)) {
+            logger.debug("FSM queue is full, retrying timeout event in {}ms", TIMER_RETRY_DELAY);
+            setTimerDeadline(System.currentTimeMillis() + TIMER_RETRY_DELAY);
+          }
+        }
+      }
+      else {
+        setTimerDeadline(deadline);
+      }
+    }
+    catch (Exception e) {
+      logger.debug("Can not fire FSM timeout event", e);
+    }
+    finally {
+      lock.unlock();
+    }
+  }
+
   @Override
   public double getQueueInfo() {
     return eventQueue.size() * 1.0 / predefSize;
@@ -386,7 +472,7 @@ public class PeerFSMImpl implements IStateMachine {
   //private static long lastLogged;
 
   protected void setInActiveTimer() {
-    timer = IAC_TIMEOUT - 2 * 1000 + random.nextInt(5) * 1000 + System.currentTimeMillis();
+    setTimerDeadline(IAC_TIMEOUT - 2 * 1000 + ThreadLocalRandom.current().nextInt(5) * 1000 + System.currentTimeMillis());
   }
 
   @Override
@@ -416,7 +502,7 @@ public class PeerFSMImpl implements IStateMachine {
 
     protected void doEndConnection() {
       if (context.isRestoreConnection()) {
-        timer = REC_TIMEOUT + System.currentTimeMillis();
+        setTimer(REC_TIMEOUT);
         switchToNextState(REOPEN);
       }
       else {
@@ -433,7 +519,7 @@ public class PeerFSMImpl implements IStateMachine {
     }
 
     protected void setTimer(long value) {
-      timer = value + System.currentTimeMillis();
+      setTimerDeadline(value + System.currentTimeMillis());
     }
 
     protected String key(StateEvent event) {
@@ -444,12 +530,22 @@ public class PeerFSMImpl implements IStateMachine {
       return ((FsmEvent) event).getMessage();
     }
 
+    /**
+     * Give received watchdog message back for reuse, it is not referenced after being processed by FSM
+     */
+    protected void release(StateEvent event) {
+      IMessage message = message(event);
+      if (message != null) {
+        message.release();
+      }
+    }
+
     protected EventTypes type(StateEvent event) {
       return (EventTypes) event.getType();
     }
 
     protected void clearTimer() {
-      timer = 0;
+      setTimerDeadline(0);
     }
   }
 
@@ -467,7 +563,7 @@ public class PeerFSMImpl implements IStateMachine {
             public boolean processEvent(StateEvent event) {
               switch (event.encodeType(EventTypes.class)) {
                 case DISCONNECT_EVENT:
-                  timer = REC_TIMEOUT + System.currentTimeMillis();
+                  setTimer(REC_TIMEOUT);
                   switchToNextState(FsmState.REOPEN);
                   break;
                 case TIMEOUT_EVENT:
@@ -532,10 +628,12 @@ public class PeerFSMImpl implements IStateMachine {
                     doDisconnect();
                     switchToNextState(FsmState.DOWN);
                   }
+                  release(event);
                   break;
                 case DWA_EVENT:
                   setInActiveTimer();
                   watchdogSent = false;
+                  release(event);
                   break;
                 case SEND_MSG_EVENT:
                   try {
@@ -631,7 +729,7 @@ public class PeerFSMImpl implements IStateMachine {
               clearTimer();
               //PCB changed multithread FSM
               logger.debug("Setting mustRun to false @ Thread [{}]", Thread.currentThread().getName());
-              mustRun = false;
+              stopQueueProcessing();
               logger.debug("Finished Setting mustRun to false @ Thread [{}]", Thread.currentThread().getName());
               context.removeStatistics();
             }
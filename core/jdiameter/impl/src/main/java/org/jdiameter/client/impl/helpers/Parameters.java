@@ -94,6 +94,16 @@ public class Parameters extends Ordinal {
    */
   public static final Parameters QueueSize = new Parameters("QueueSize", Integer.class,   10000);
 
+  /**
+   * Number of released messages kept for reuse per stack, 0 disables pooling
+   */
+  public static final Parameters MessagePoolSize = new Parameters("MessagePoolSize", Integer.class, 0);
+
+  /**
+   * Run stack threads and executors on virtual threads (JDK 21+)
+   */
+  public static final Parameters VirtualThreads = new Parameters("VirtualThreads", Boolean.class, false);
+
   /**
    * Message time out  property
    */
@@ -263,6 +273,22 @@ public class Parameters extends Ordinal {
    */
   public static final Parameters CipherSuites = new Parameters("CipherSuites", String.class);
 
+  /**
+   * Security TLS start mode, true for in-band negotiation with Inband-Security-Id in CER/CEA,
+   * false for TLS handshake right after connect (dedicated TLS port)
+   */
+  public static final Parameters SDInbandSecurity = new Parameters("SDInbandSecurity", Boolean.class, true);
+
+  /**
+   * Number of TLS sessions kept for resumption, 0 for SSL provider default
+   */
+  public static final Parameters SDSessionCacheSize = new Parameters("SDSessionCacheSize", Long.class, 0L);
+
+  /**
+   * TLS session timeout in seconds, 0 for SSL provider default
+   */
+  public static final Parameters SDSessionTimeout = new Parameters("SDSessionTimeout", Long.class, 0L);
+
   /**
    * Key data
    */
@@ -402,6 +428,71 @@ public class Parameters extends Ordinal {
    */
   public static final Parameters DictionaryReceiveLevel = new Parameters("DictionaryReceiveLevel", String.class, "OFF");
 
+  /**
+   * Diameter Overload Indication Conveyance (RFC 7683) enabled
+   */
+  public static final Parameters OverloadControlEnabled = new Parameters("OverloadControlEnabled", Boolean.class, false);
+
+  /**
+   * Maximum number of requests processed at the same time before local overload is declared, 0 - unlimited
+   */
+  public static final Parameters OverloadControlMaxInFlight = new Parameters("OverloadControlMaxInFlight", Integer.class, 0);
+
+  /**
+   * Request processing time (ms) considered as full load, 0 - processing time is not taken into account
+   */
+  public static final Parameters OverloadControlTargetLatency = new Parameters("OverloadControlTargetLatency", Long.class, 0L);
+
+  /**
+   * Load level (0.0 - 1.0) at which traffic reduction starts
+   */
+  public static final Parameters OverloadControlLowWatermark = new Parameters("OverloadControlLowWatermark", Double.class, 0.8D);
+
+  /**
+   * Validity (seconds) of issued overload reports
+   */
+  public static final Parameters OverloadControlValidity = new Parameters("OverloadControlValidity", Long.class, 30L);
+
+  /**
+   * Maximum number of requests of one application outstanding to a peer, 0 - unlimited
+   */
+  public static final Parameters InFlightWindowSize = new Parameters("InFlightWindowSize", Integer.class, 0);
+
+  /**
+   * What happens to a request when in-flight window of all candidate peers is full: REJECT or QUEUE
+   */
+  public static final Parameters InFlightWindowPolicy = new Parameters("InFlightWindowPolicy", String.class, "REJECT");
+
+  /**
+   * Maximum number of requests of one application queued for a peer with full in-flight window
+   */
+  public static final Parameters InFlightWindowQueueSize = new Parameters("InFlightWindowQueueSize", Integer.class, 1000);
+
+  /**
+   * Routers divert traffic away from peers with low health score
+   */
+  public static final Parameters PeerHealthEnabled = new Parameters("PeerHealthEnabled", Boolean.class, false);
+
+  /**
+   * Time (ms) health score limit of a restored peer takes to reach maximum
+   */
+  public static final Parameters PeerHealthRampUpTime = new Parameters("PeerHealthRampUpTime", Long.class, 30000L);
+
+  /**
+   * Requests not answered by a peer are sent again to alternate peer with 'T' flag set
+   */
+  public static final Parameters FailoverEnabled = new Parameters("FailoverEnabled", Boolean.class, false);
+
+  /**
+   * Maximum number of times one request is sent again to alternate peer
+   */
+  public static final Parameters FailoverMaxRetries = new Parameters("FailoverMaxRetries", Integer.class, 1);
+
+  /**
+   * Time (ms) to wait for the answer of a retransmitted request, 0 - same as MessageTimeOut
+   */
+  public static final Parameters FailoverTimeout = new Parameters("FailoverTimeout", Long.class, 0L);
+
   /**
    * Return all parameters as iterator
    *
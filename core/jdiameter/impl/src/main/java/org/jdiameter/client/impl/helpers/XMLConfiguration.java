@@ -83,7 +83,19 @@ import static org.jdiameter.client.impl.helpers.Parameters.KDManager;
 import static org.jdiameter.client.impl.helpers.Parameters.KDPwd;
 import static org.jdiameter.client.impl.helpers.Parameters.KDStore;
 import static org.jdiameter.client.impl.helpers.Parameters.KeyData;
+import static org.jdiameter.client.impl.helpers.Parameters.FailoverEnabled;
+import static org.jdiameter.client.impl.helpers.Parameters.FailoverMaxRetries;
+import static org.jdiameter.client.impl.helpers.Parameters.FailoverTimeout;
+import static org.jdiameter.client.impl.helpers.Parameters.InFlightWindowPolicy;
+import static org.jdiameter.client.impl.helpers.Parameters.InFlightWindowQueueSize;
+import static org.jdiameter.client.impl.helpers.Parameters.InFlightWindowSize;
+import static org.jdiameter.client.impl.helpers.Parameters.MessagePoolSize;
 import static org.jdiameter.client.impl.helpers.Parameters.MessageTimeOut;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlEnabled;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlLowWatermark;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlMaxInFlight;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlTargetLatency;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlValidity;
 import static org.jdiameter.client.impl.helpers.Parameters.OwnDiameterURI;
 import static org.jdiameter.client.impl.helpers.Parameters.OwnFirmwareRevision;
 import static org.jdiameter.client.impl.helpers.Parameters.OwnIPAddress;
@@ -91,6 +103,8 @@ import static org.jdiameter.client.impl.helpers.Parameters.OwnProductName;
 import static org.jdiameter.client.impl.helpers.Parameters.OwnRealm;
 import static org.jdiameter.client.impl.helpers.Parameters.OwnVendorID;
 import static org.jdiameter.client.impl.helpers.Parameters.PeerFSMThreadCount;
+import static org.jdiameter.client.impl.helpers.Parameters.PeerHealthEnabled;
+import static org.jdiameter.client.impl.helpers.Parameters.PeerHealthRampUpTime;
 import static org.jdiameter.client.impl.helpers.Parameters.PeerIp;
 import static org.jdiameter.client.impl.helpers.Parameters.PeerLocalPortRange;
 import static org.jdiameter.client.impl.helpers.Parameters.PeerName;
@@ -104,8 +118,11 @@ import static org.jdiameter.client.impl.helpers.Parameters.RealmEntry;
 import static org.jdiameter.client.impl.helpers.Parameters.RealmTable;
 import static org.jdiameter.client.impl.helpers.Parameters.RecTimeOut;
 import static org.jdiameter.client.impl.helpers.Parameters.SDEnableSessionCreation;
+import static org.jdiameter.client.impl.helpers.Parameters.SDInbandSecurity;
 import static org.jdiameter.client.impl.helpers.Parameters.SDName;
 import static org.jdiameter.client.impl.helpers.Parameters.SDProtocol;
+import static org.jdiameter.client.impl.helpers.Parameters.SDSessionCacheSize;
+import static org.jdiameter.client.impl.helpers.Parameters.SDSessionTimeout;
 import static org.jdiameter.client.impl.helpers.Parameters.SDUseClientMode;
 import static org.jdiameter.client.impl.helpers.Parameters.Security;
 import static org.jdiameter.client.impl.helpers.Parameters.SecurityRef;
@@ -125,6 +142,7 @@ import static org.jdiameter.client.impl.helpers.Parameters.ThreadPoolSize;
 import static org.jdiameter.client.impl.helpers.Parameters.TrustData;
 import static org.jdiameter.client.impl.helpers.Parameters.UseUriAsFqdn;
 import static org.jdiameter.client.impl.helpers.Parameters.VendorId;
+import static org.jdiameter.client.impl.helpers.Parameters.VirtualThreads;
 import static org.jdiameter.server.impl.helpers.Parameters.RealmEntryExpTime;
 import static org.jdiameter.server.impl.helpers.Parameters.RealmEntryIsDynamic;
 import static org.jdiameter.server.impl.helpers.Parameters.RealmHosts;
@@ -344,6 +362,12 @@ public class XMLConfiguration extends EmptyConfiguration {
       else if (nodeName.equals("QueueSize")) {
         add(QueueSize, getIntValue(c.item(i)));
       }
+      else if (nodeName.equals("MessagePoolSize")) {
+        add(MessagePoolSize, getIntValue(c.item(i)));
+      }
+      else if (nodeName.equals("VirtualThreads")) {
+        add(VirtualThreads, Boolean.valueOf(getValue(c.item(i))));
+      }
       else if (nodeName.equals("MessageTimeOut")) {
         add(MessageTimeOut, getLongValue(c.item(i)));
       }
@@ -377,6 +401,18 @@ public class XMLConfiguration extends EmptyConfiguration {
       else if (nodeName.equals("Dictionary")) {
         addDictionary(Dictionary, c.item(i));
       }
+      else if (nodeName.equals("OverloadControl")) {
+        addOverloadControl(c.item(i));
+      }
+      else if (nodeName.equals("InFlightWindow")) {
+        addInFlightWindow(c.item(i));
+      }
+      else if (nodeName.equals("PeerHealth")) {
+        addPeerHealth(c.item(i));
+      }
+      else if (nodeName.equals("Failover")) {
+        addFailover(c.item(i));
+      }
       else {
         appendOtherParameter(c.item(i));
       }
@@ -428,6 +464,77 @@ public class XMLConfiguration extends EmptyConfiguration {
         .add(StatisticsActiveList, active_records));
   }
 
+  protected void addInFlightWindow(Node node) {
+    NamedNodeMap attributes = node.getAttributes();
+    for (int index = 0; index < attributes.getLength(); index++) {
+      Node n = attributes.item(index);
+      String v = n.getNodeValue();
+      if (n.getNodeName().equals("size")) {
+        add(InFlightWindowSize, Integer.valueOf(v));
+      }
+      else if (n.getNodeName().equals("policy")) {
+        add(InFlightWindowPolicy, v);
+      }
+      else if (n.getNodeName().equals("queueSize")) {
+        add(InFlightWindowQueueSize, Integer.valueOf(v));
+      }
+    }
+  }
+
+  protected void addPeerHealth(Node node) {
+    NamedNodeMap attributes = node.getAttributes();
+    for (int index = 0; index < attributes.getLength(); index++) {
+      Node n = attributes.item(index);
+      String v = n.getNodeValue();
+      if (n.getNodeName().equals("enabled")) {
+        add(PeerHealthEnabled, Boolean.valueOf(v));
+      }
+      else if (n.getNodeName().equals("rampUpTime")) {
+        add(PeerHealthRampUpTime, Long.valueOf(v));
+      }
+    }
+  }
+
+  protected void addFailover(Node node) {
+    NamedNodeMap attributes = node.getAttributes();
+    for (int index = 0; index < attributes.getLength(); index++) {
+      Node n = attributes.item(index);
+      String v = n.getNodeValue();
+      if (n.getNodeName().equals("enabled")) {
+        add(FailoverEnabled, Boolean.valueOf(v));
+      }
+      else if (n.getNodeName().equals("maxRetries")) {
+        add(FailoverMaxRetries, Integer.valueOf(v));
+      }
+      else if (n.getNodeName().equals("timeout")) {
+        add(FailoverTimeout, Long.valueOf(v));
+      }
+    }
+  }
+
+  protected void addOverloadControl(Node node) {
+    NamedNodeMap attributes = node.getAttributes();
+    for (int index = 0; index < attributes.getLength(); index++) {
+      Node n = attributes.item(index);
+      String v = n.getNodeValue();
+      if (n.getNodeName().equals("enabled")) {
+        add(OverloadControlEnabled, Boolean.valueOf(v));
+      }
+      else if (n.getNodeName().equals("maxInFlight")) {
+        add(OverloadControlMaxInFlight, Integer.valueOf(v));
+      }
+      else if (n.getNodeName().equals("targetLatency")) {
+        add(OverloadControlTargetLatency, Long.valueOf(v));
+      }
+      else if (n.getNodeName().equals("lowWatermark")) {
+        add(OverloadControlLowWatermark, Double.valueOf(v));
+      }
+      else if (n.getNodeName().equals("validity")) {
+        add(OverloadControlValidity, Long.valueOf(v));
+      }
+    }
+  }
+
   protected void addDictionary(org.jdiameter.client.impl.helpers.Parameters name, Node node) {
     AppConfiguration dicConfiguration = getInstance();
 
@@ -505,6 +612,18 @@ public class XMLConfiguration extends EmptyConfiguration {
         .add(SDProtocol, node.getAttributes().getNamedItem("protocol").getNodeValue())
         .add(SDEnableSessionCreation, Boolean.valueOf(node.getAttributes().getNamedItem("enable_session_creation").getNodeValue()))
         .add(SDUseClientMode, Boolean.valueOf(node.getAttributes().getNamedItem("use_client_mode").getNodeValue()));
+    Node inband = node.getAttributes().getNamedItem("inband_security");
+    if (inband != null) {
+      sd.add(SDInbandSecurity, Boolean.valueOf(inband.getNodeValue()));
+    }
+    Node cacheSize = node.getAttributes().getNamedItem("session_cache_size");
+    if (cacheSize != null) {
+      sd.add(SDSessionCacheSize, Long.valueOf(cacheSize.getNodeValue()));
+    }
+    Node timeout = node.getAttributes().getNamedItem("session_timeout");
+    if (timeout != null) {
+      sd.add(SDSessionTimeout, Long.valueOf(timeout.getNodeValue()));
+    }
 
     NodeList c = node.getChildNodes();
 
@@ -273,7 +273,13 @@ public class ElementParser implements IElementParser {
    * @throws AvpDataException
    */
   public AvpSetImpl decodeAvpSet(byte[] buffer, int shift) throws IOException, AvpDataException {
-    AvpSetImpl avps = new AvpSetImpl();
+    return decodeAvpSet(buffer, shift, new AvpSetImpl());
+  }
+
+  /**
+   * Decode AVPs into given (empty) set
+   */
+  AvpSetImpl decodeAvpSet(byte[] buffer, int shift, AvpSetImpl avps) throws IOException, AvpDataException {
     int tmp, counter = shift;
     DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer, shift, buffer.length /* - shift ? */));
 
@@ -59,6 +59,7 @@ import org.jdiameter.client.api.IEventListener;
 import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.controller.IPeer;
 import org.jdiameter.client.impl.router.RouterImpl;
+import org.jdiameter.common.impl.concurrent.TimeoutQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -91,11 +92,21 @@ public class MessageImpl implements IMessage {
   transient IPeer peer;
   transient TimerTask timerTask;
   transient IEventListener listener;
+  transient long sentTime;
+  // encoded form of template message this one was created from, see MessageParser.createMessageFromTemplate()
+  transient byte[] encodedTemplate;
+
+  // pool of the parser which created this message, null if it is not pooled
+  transient MessagePool pool;
+  transient boolean released;
 
   // Cached result for getApplicationIdAvps() method. It is called extensively and takes some time.
   // Potential place for dirt, but Application IDs don't change during message life time.
   transient List<ApplicationId> applicationIds;
 
+  // Cached result for getSessionId(), valid while the Session-Id AVP it was decoded from is in place.
+  transient SessionIdHolder sessionIdHolder;
+
   /**
    * Create empty message
    *
@@ -123,13 +134,12 @@ public class MessageImpl implements IMessage {
    * @param avpSet
    */
   MessageImpl(int commandCode, long applicationId, short flags, long hopByHopId, long endToEndId, AvpSetImpl avpSet) {
-    this(commandCode, applicationId);
+    this.commandCode = commandCode;
+    this.applicationId = applicationId;
     this.flags = flags;
     this.hopByHopId = hopByHopId;
     this.endToEndId = endToEndId;
-    if (avpSet != null) {
-      this.avpSet = avpSet;
-    }
+    this.avpSet = avpSet != null ? avpSet : new AvpSetImpl();
   }
 
   //  /**
@@ -158,6 +168,28 @@ public class MessageImpl implements IMessage {
    */
   private MessageImpl(MessageImpl request) {
     this(request.getCommandCode(), request.getHeaderApplicationId());
+    initAnswer(request);
+  }
+
+  /**
+   * Create answer, reusing a released message of current thread if possible
+   *
+   * @param request parent request
+   */
+  private static MessageImpl newAnswer(MessageImpl request) {
+    MessagePool pool = request.pool;
+    MessageImpl answer = pool != null ? pool.poll() : null;
+    if (answer == null) {
+      answer = new MessageImpl(request);
+      answer.pool = pool;
+      return answer;
+    }
+    answer.reuse(request.getCommandCode(), request.getHeaderApplicationId(), (short) 0, 0, 0);
+    answer.initAnswer(request);
+    return answer;
+  }
+
+  private void initAnswer(MessageImpl request) {
     copyHeader(request);
     setRequest(false);
     parser.copyBasicAvps(this, request, true);
@@ -273,8 +305,20 @@ public class MessageImpl implements IMessage {
   @Override
   public String getSessionId() {
     try {
-      Avp avpSessionId = avpSet.getAvp(Avp.SESSION_ID);
-      return avpSessionId != null ? avpSessionId.getUTF8String() : null;
+      // Session-Id should be the first AVP (RFC 6733, section 8.8), so try it before scanning
+      List<Avp> avps = avpSet.avps;
+      Avp avpSessionId = !avps.isEmpty() && avps.get(0).getCode() == Avp.SESSION_ID ? avps.get(0) : avpSet.getAvp(Avp.SESSION_ID);
+      if (avpSessionId == null) {
+        return null;
+      }
+      // decode only if Session-Id AVP (or its data) was replaced since last call
+      SessionIdHolder holder = sessionIdHolder;
+      byte[] raw = avpSessionId.getRaw();
+      if (holder == null || holder.avp != avpSessionId || holder.raw != raw) {
+        holder = new SessionIdHolder(avpSessionId, raw, avpSessionId.getUTF8String());
+        sessionIdHolder = holder;
+      }
+      return holder.sessionId;
     }
     catch (AvpDataException ade) {
       logger.error("Failed to fetch Session-Id", ade);
@@ -284,13 +328,13 @@ public class MessageImpl implements IMessage {
 
   @Override
   public Answer createAnswer() {
-    MessageImpl answer = new MessageImpl(this);
+    MessageImpl answer = newAnswer(this);
     return answer;
   }
 
   @Override
   public Answer createAnswer(long resultCode) {
-    MessageImpl answer = new MessageImpl(this);
+    MessageImpl answer = newAnswer(this);
     try {
       answer.getAvps().addAvp(Avp.RESULT_CODE, resultCode, true, false, true);
     }
@@ -304,7 +348,7 @@ public class MessageImpl implements IMessage {
 
   @Override
   public Answer createAnswer(long vendorId, long experimentalResultCode) {
-    MessageImpl answer = new MessageImpl(this);
+    MessageImpl answer = newAnswer(this);
     try {
       AvpSet exp_code = answer.getAvps().addGroupedAvp(297, true, false);
       exp_code.addAvp(Avp.VENDOR_ID, vendorId, true, false, true);
@@ -435,6 +479,41 @@ public class MessageImpl implements IMessage {
     return avpSet;
   }
 
+  /**
+   * Reset released message so it can be used again. AVP set instance is kept, its content is dropped.
+   */
+  void reuse(int commandCode, long applicationId, short flags, long hopByHopId, long endToEndId) {
+    this.state = STATE_NOT_SENT;
+    this.version = 1;
+    this.flags = flags;
+    this.commandCode = commandCode;
+    this.applicationId = applicationId;
+    this.hopByHopId = hopByHopId;
+    this.notMutableHopByHop = false;
+    this.endToEndId = endToEndId;
+    this.avpSet.avps.clear();
+    this.isNetworkRequest = false;
+    this.peer = null;
+    this.timerTask = null;
+    this.listener = null;
+    this.sentTime = 0;
+    this.encodedTemplate = null;
+    this.applicationIds = null;
+    this.sessionIdHolder = null;
+    this.routingInfo[0] = null;
+    this.routingInfo[1] = null;
+    this.released = false;
+  }
+
+  @Override
+  public void release() {
+    // messages sharing AVP set of a template are cheap already and must not touch the shared set
+    if (pool != null && !released && encodedTemplate == null && timerTask == null) {
+      released = true;
+      pool.offer(this);
+    }
+  }
+
   protected void copyHeader(MessageImpl request) {
     endToEndId = request.endToEndId;
     hopByHopId = request.hopByHopId;
@@ -519,15 +598,30 @@ public class MessageImpl implements IMessage {
 
   @Override
   public void setState(int newState) {
+    if (newState == STATE_SENT) {
+      sentTime = System.nanoTime();
+    }
     state = newState;
   }
 
+  @Override
+  public long getSentTime() {
+    return sentTime;
+  }
+
   @Override
   public void createTimer(ScheduledExecutorService scheduledFacility, long timeOut, TimeUnit timeUnit) {
     timerTask = new TimerTask(this);
     timerTask.setTimerHandler(scheduledFacility, scheduledFacility.schedule(timerTask, timeOut, timeUnit));
   }
 
+  @Override
+  public void createSharedTimer(ScheduledExecutorService scheduledFacility, long timeOut, TimeUnit timeUnit) {
+    timerTask = new TimerTask(this);
+    timerTask.shared = true;
+    timerTask.timeout = TimeoutQueue.forExecutor(scheduledFacility).add(timerTask, timeOut, timeUnit);
+  }
+
   @Override
   public void runTimer() {
     if (timerTask != null && !timerTask.isDone() && !timerTask.isCancelled()) {
@@ -618,6 +712,11 @@ public class MessageImpl implements IMessage {
     ScheduledFuture timerHandler;
     MessageImpl message;
     ScheduledExecutorService scheduledFacility;
+    // task queued in TimeoutQueue has no ScheduledFuture, so it keeps its own state
+    boolean shared;
+    TimeoutQueue.Timeout timeout;
+    volatile boolean expired;
+    volatile boolean cancelled;
 
     public TimerTask(MessageImpl message) {
       this.message = message;
@@ -630,6 +729,11 @@ public class MessageImpl implements IMessage {
 
     @Override
     public void run() {
+      if (shared && (cancelled || expired)) {
+        return;
+      }
+      // set before the peer is told, so it sees the request as timed out while this task is still running
+      expired = true;
       try {
         if (message != null && message.state != STATE_ANSWERED) {
           IEventListener listener = null;
@@ -650,6 +754,11 @@ public class MessageImpl implements IMessage {
     }
 
     public void cancel() {
+      cancelled = true;
+      if (timeout != null) {
+        // queue drops the task, so the message is not retained until the deadline
+        timeout.cancel();
+      }
       if (timerHandler != null) {
         timerHandler.cancel(true);
         if (scheduledFacility instanceof ThreadPoolExecutor && timerHandler instanceof Runnable) {
@@ -660,11 +769,39 @@ public class MessageImpl implements IMessage {
     }
 
     public boolean isDone() {
-      return timerHandler != null && timerHandler.isDone();
+      if (shared) {
+        return expired || cancelled;
+      }
+      return expired || timerHandler != null && timerHandler.isDone();
     }
 
     public boolean isCancelled() {
-      return timerHandler == null || timerHandler.isCancelled();
+      if (shared) {
+        return cancelled;
+      }
+      // task may run before its handler is set
+      return timerHandler == null ? cancelled || !expired : timerHandler.isCancelled();
+    }
+  }
+
+  /**
+   * Decoded Session-Id together with the AVP it was decoded from. Immutable, so it can be shared
+   * between threads without locking.
+   */
+  private static final class SessionIdHolder {
+
+    final Avp avp;
+    final byte[] raw;
+    final String sessionId;
+
+    SessionIdHolder(Avp avp, byte[] raw, String sessionId) {
+      this.avp = avp;
+      this.raw = raw;
+      this.sessionId = sessionId;
+      // session tables are keyed by Session-Id, have its hash ready before the first lookup
+      if (sessionId != null) {
+        sessionId.hashCode();
+      }
     }
   }
 }
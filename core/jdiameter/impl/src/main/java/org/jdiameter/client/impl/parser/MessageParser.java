@@ -46,6 +46,7 @@ import static org.jdiameter.api.Avp.ACCT_APPLICATION_ID;
 import static org.jdiameter.api.Avp.AUTH_APPLICATION_ID;
 import static org.jdiameter.api.Avp.SESSION_ID;
 import static org.jdiameter.api.Avp.VENDOR_SPECIFIC_APPLICATION_ID;
+import static org.jdiameter.client.impl.helpers.Parameters.MessagePoolSize;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -57,6 +58,7 @@ import java.util.concurrent.TimeUnit;
 import org.jdiameter.api.Avp;
 import org.jdiameter.api.AvpDataException;
 import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.Configuration;
 import org.jdiameter.api.Request;
 import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.IRequest;
@@ -82,8 +84,16 @@ public class MessageParser extends ElementParser implements IMessageParser {
 
 
 
+  // released messages of this stack, null if pooling is disabled
+  private final MessagePool pool;
+
   public MessageParser() {
+    this.pool = null;
+  }
 
+  public MessageParser(Configuration config) {
+    int poolSize = config.getIntValue(MessagePoolSize.ordinal(), (Integer) MessagePoolSize.defValue());
+    this.pool = poolSize > 0 ? new MessagePool(poolSize) : null;
   }
 
   @Override
@@ -113,9 +123,17 @@ public class MessageParser extends ElementParser implements IMessageParser {
       // byte[] body = new byte[message.length - 20];
       // System.arraycopy(message, 20, body, 0, body.length);
       // AvpSetImpl avpSet = decodeAvpSet(body);
+      MessageImpl pooled = pool != null ? pool.poll() : null;
+      if (pooled != null) {
+        pooled.reuse(commandCode, applicationId, flags, hopByHopId, endToEndId);
+        decodeAvpSet(message, 20, pooled.avpSet);
+        return pooled;
+      }
       AvpSetImpl avpSet = decodeAvpSet(message, 20);
 
-      return new MessageImpl(commandCode, applicationId, flags, hopByHopId, endToEndId, avpSet);
+      MessageImpl decoded = new MessageImpl(commandCode, applicationId, flags, hopByHopId, endToEndId, avpSet);
+      decoded.pool = pool;
+      return decoded;
     }
     catch (Exception exc) {
       throw new AvpDataException(exc);
@@ -153,20 +171,42 @@ public class MessageParser extends ElementParser implements IMessageParser {
 
   @Override
   public IMessage createEmptyMessage(IMessage prnMessage, int commandCode) {
-    //
-    MessageImpl newMessage = new MessageImpl(
-        commandCode,
-        prnMessage.getHeaderApplicationId(),
-        (short) prnMessage.getFlags(),
-        prnMessage.getHopByHopIdentifier(),
-        endToEndGen.nextLong(),
-        null
-        );
+    MessageImpl newMessage = pool != null ? pool.poll() : null;
+    if (newMessage != null) {
+      newMessage.reuse(commandCode, prnMessage.getHeaderApplicationId(), (short) prnMessage.getFlags(),
+          prnMessage.getHopByHopIdentifier(), endToEndGen.nextLong());
+    }
+    else {
+      newMessage = new MessageImpl(
+          commandCode,
+          prnMessage.getHeaderApplicationId(),
+          (short) prnMessage.getFlags(),
+          prnMessage.getHopByHopIdentifier(),
+          endToEndGen.nextLong(),
+          null
+          );
+      newMessage.pool = pool;
+    }
     copyBasicAvps(newMessage, prnMessage, false);
 
     return newMessage;
   }
 
+  @Override
+  public IMessage createMessageFromTemplate(IMessage template) throws ParseException {
+    MessageImpl source = (MessageImpl) template;
+    byte[] encoded = source.encodedTemplate;
+    if (encoded == null) {
+      // racing threads may both encode, result is the same
+      encoded = encodeMessage(source).array();
+      source.encodedTemplate = encoded;
+    }
+    MessageImpl message = new MessageImpl(source.commandCode, source.applicationId, source.flags, source.hopByHopId,
+        endToEndGen.nextLong(), source.avpSet);
+    message.encodedTemplate = encoded;
+    return message;
+  }
+
   void copyBasicAvps(IMessage newMessage, IMessage prnMessage, boolean invertPoints) {
     //left it here, but
     Avp avp;
@@ -286,6 +326,9 @@ public class MessageParser extends ElementParser implements IMessageParser {
 
   @Override
   public ByteBuffer encodeMessage(IMessage message) throws ParseException {
+    if (message instanceof MessageImpl && ((MessageImpl) message).encodedTemplate != null) {
+      return encodeFromTemplate((MessageImpl) message);
+    }
     ByteArrayOutputStream out = new ByteArrayOutputStream();
     try {
       byte[] rawData = encodeAvpSet(message.getAvps());
@@ -317,6 +360,24 @@ public class MessageParser extends ElementParser implements IMessageParser {
     }
   }
 
+  /**
+   * Copy encoded template and patch the header fields which differ between messages of the template
+   */
+  private ByteBuffer encodeFromTemplate(MessageImpl message) {
+    byte[] data = message.encodedTemplate.clone();
+    data[4] = (byte) message.getFlags();
+    writeInt(data, 12, message.getHopByHopIdentifier());
+    writeInt(data, 16, message.getEndToEndIdentifier());
+    return ByteBuffer.wrap(data);
+  }
+
+  private void writeInt(byte[] data, int offset, long value) {
+    data[offset] = (byte) ((value >> 24) & 0xFF);
+    data[offset + 1] = (byte) ((value >> 16) & 0xFF);
+    data[offset + 2] = (byte) ((value >> 8) & 0xFF);
+    data[offset + 3] = (byte) ((value) & 0xFF);
+  }
+
   private byte[] toBytes(long value) {
     byte[] data = new byte[4];
     data[0] = (byte) ((value >> 24) & 0xFF);
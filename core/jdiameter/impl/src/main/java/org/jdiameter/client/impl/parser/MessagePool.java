@@ -0,0 +1,57 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.parser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Released messages of one stack, kept by the {@link MessageParser} of that stack. Messages are only put back by an
+ * explicit {@link MessageImpl#release()} and remember the pool of the parser which created them, so pools of
+ * different stacks never mix and are collected together with their stack.
+ * <br><br>
+ * Pool is shared by all threads of the stack rather than kept per thread: messages are usually created on one thread
+ * (e.g. answers decoded by a transport thread) and released on another (the application thread which processed them),
+ * so per thread pools would fill up on releasing threads and stay empty on creating ones.
+ */
+final class MessagePool {
+
+  private final BlockingQueue<MessageImpl> messages;
+
+  MessagePool(int capacity) {
+    this.messages = new ArrayBlockingQueue<MessageImpl>(capacity);
+  }
+
+  /**
+   * @return released message or null if there is none
+   */
+  MessageImpl poll() {
+    return messages.poll();
+  }
+
+  void offer(MessageImpl message) {
+    // dropped if pool is full
+    messages.offer(message);
+  }
+
+  int size() {
+    return messages.size();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.router;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jdiameter.api.Configuration;
+import org.jdiameter.api.MetaData;
+import org.jdiameter.api.PeerState;
+import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IRealmTable;
+import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.jdiameter.server.api.IRouter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Least outstanding requests router implementation<br/><br/>
+ *
+ * Peer load is taken from the number of requests still waiting for an answer on each peer
+ * ({@link IPeer#getOutstandingRequests()}) and the smoothed answer latency of that peer
+ * ({@link IPeer#getResponseTime()}). Both are maintained by the peer itself, so no statistics
+ * have to be enabled. Selection uses the "power of two choices": two distinct peers are picked at
+ * random and the one with the lower cost wins, which avoids herding all traffic onto a single
+ * momentarily idle peer and needs no shared state between threads.
+ *
+ * <pre>
+ *   ...
+ *   <Extensions>
+ *   <RouterEngine value="org.jdiameter.client.impl.router.LeastOutstandingRequestsRouter" />
+ *   </Extensions>
+ * </pre>
+ */
+public class LeastOutstandingRequestsRouter extends RouterImpl implements IRouter {
+
+  private static final Logger logger = LoggerFactory.getLogger(LeastOutstandingRequestsRouter.class);
+
+  protected LeastOutstandingRequestsRouter(IRealmTable table, Configuration config) {
+    super(null, null, table, config, null);
+  }
+
+  public LeastOutstandingRequestsRouter(IContainer container, IConcurrentFactory concurrentFactory,
+                                        IRealmTable realmTable, Configuration config, MetaData aMetaData) {
+    super(container, concurrentFactory, realmTable, config, aMetaData);
+  }
+
+  /**
+   * Return the less loaded of two randomly chosen peers. The cost of a peer is
+   * <pre>
+   *   (outstanding requests + 1) * answer latency / rating
+   * </pre>
+   * A peer without latency samples yet is assumed to be as fast as the other candidate, so it is
+   * compared on its outstanding requests only. Peers with rating 0 are chosen only if no other peer is left.
+   *
+   * @param availablePeers list of peers that are in {@link PeerState#OKAY OKAY} state
+   * @return the selected peer according to algorithm
+   */
+  @Override
+  public IPeer selectPeer(List<IPeer> availablePeers) {
+    int peerSize = availablePeers != null ? availablePeers.size() : 0;
+
+    // Return none if empty, or first if only one member found
+    if (peerSize <= 0) {
+      return null;
+    }
+    if (peerSize == 1) {
+      return availablePeers.get(0);
+    }
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(peerSize);
+    int second = random.nextInt(peerSize - 1);
+    if (second >= first) {
+      second++;
+    }
+    IPeer a = availablePeers.get(first);
+    IPeer b = availablePeers.get(second);
+
+    IPeer selected = compare(a, b) <= 0 ? a : b;
+    if (logger.isTraceEnabled()) {
+      logger.trace("Selected {} out of [{}: {} outstanding, {}ns] and [{}: {} outstanding, {}ns]", new Object[] {selected,
+          a, a.getOutstandingRequests(), a.getResponseTime(), b, b.getOutstandingRequests(), b.getResponseTime()});
+    }
+    return selected;
+  }
+
+  /**
+   * Compare load of two peers
+   *
+   * @return negative value if peer a should be preferred, positive if peer b should be preferred, 0 if equal
+   */
+  protected int compare(IPeer a, IPeer b) {
+    int ratingA = a.getRating();
+    int ratingB = b.getRating();
+    if (ratingA <= 0 || ratingB <= 0) {
+      return ratingA > 0 ? -1 : (ratingB > 0 ? 1 : 0);
+    }
+
+    long latencyA = a.getResponseTime();
+    long latencyB = b.getResponseTime();
+    if (latencyA <= 0) {
+      latencyA = latencyB > 0 ? latencyB : 1;
+    }
+    if (latencyB <= 0) {
+      latencyB = latencyA;
+    }
+
+    // costA / ratingA vs. costB / ratingB, cross-multiplied; doubles avoid long overflow
+    double costA = (a.getOutstandingRequests() + 1.0d) * latencyA * ratingB;
+    double costB = (b.getOutstandingRequests() + 1.0d) * latencyB * ratingA;
+    return Double.compare(costA, costB);
+  }
+}
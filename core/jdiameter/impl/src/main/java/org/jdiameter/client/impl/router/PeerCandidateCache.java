@@ -0,0 +1,138 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.client.impl.router;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jdiameter.api.PeerState;
+import org.jdiameter.api.PeerStateListener;
+import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerTable;
+import org.jdiameter.client.api.controller.IRealm;
+
+/**
+ * Peers of each realm which are in {@link PeerState#OKAY} state, so routing of a request does not have to resolve
+ * and check every peer name of the realm. Cached lists are dropped whenever state of any resolved peer changes,
+ * peer names of the realm change or peers are added to or removed from the peer table; the latter also lets a
+ * list with a peer name unknown to the peer table be cached until that peer is added.
+ *
+ * Callers must still check state of returned peers, it may have changed since the list was built.
+ */
+final class PeerCandidateCache implements PeerStateListener {
+
+  private static final IPeer[] NO_PEERS = new IPeer[0];
+
+  private final ConcurrentMap<IRealm, Candidates> candidates = new ConcurrentHashMap<IRealm, Candidates>();
+  private final ConcurrentMap<IPeer, Boolean> watchedPeers = new ConcurrentHashMap<IPeer, Boolean>();
+  private final AtomicInteger generation = new AtomicInteger();
+
+  /**
+   * @return peers of realm in OKAY state, in order of realm peer names, or null if realm has no peer names
+   */
+  IPeer[] get(IRealm realm, IPeerTable table) {
+    int currentGeneration = generation.get();
+    int version = realm.getPeerNamesVersion();
+    Candidates cached = candidates.get(realm);
+    if (cached != null && cached.generation == currentGeneration && cached.version == version) {
+      return cached.peers;
+    }
+
+    String[] peerNames = realm.getPeerNames();
+    if (peerNames == null || peerNames.length == 0) {
+      return null;
+    }
+    List<IPeer> okay = new ArrayList<IPeer>(peerNames.length);
+    for (String peerName : peerNames) {
+      IPeer peer = table.getPeer(peerName);
+      if (peer == null) {
+        continue;
+      }
+      if (watchedPeers.putIfAbsent(peer, Boolean.TRUE) == null) {
+        peer.addPeerStateListener(this);
+      }
+      if (peer.getState(PeerState.class) == PeerState.OKAY) {
+        okay.add(peer);
+      }
+    }
+    IPeer[] peers = okay.isEmpty() ? NO_PEERS : okay.toArray(new IPeer[okay.size()]);
+    // versions were read before the peers, so a change made meanwhile makes this entry stale at once
+    candidates.put(realm, new Candidates(peers, currentGeneration, version));
+    return peers;
+  }
+
+  /**
+   * Drops all cached lists and stops watching peers which are no longer in the peer table
+   */
+  void peerTableChanged(IPeerTable table) {
+    invalidate();
+    unwatchRemovedPeers(table);
+  }
+
+  // removed peer would keep this cache as listener, and the cache would keep the peer
+  private void unwatchRemovedPeers(IPeerTable table) {
+    for (IPeer peer : watchedPeers.keySet()) {
+      if (table.getPeer(peer.getUri().getFQDN()) != peer && watchedPeers.remove(peer) != null) {
+        peer.removePeerStateListener(this);
+      }
+    }
+  }
+
+  /**
+   * Drops all cached lists
+   */
+  void invalidate() {
+    generation.incrementAndGet();
+    candidates.clear();
+  }
+
+  /**
+   * Drops all cached lists and stops watching peers, e.g. when the router is destroyed
+   */
+  void clear() {
+    for (IPeer peer : watchedPeers.keySet()) {
+      if (watchedPeers.remove(peer) != null) {
+        peer.removePeerStateListener(this);
+      }
+    }
+    invalidate();
+  }
+
+  @Override
+  public void stateChanged(PeerState oldState, PeerState newState) {
+    invalidate();
+  }
+
+  private static final class Candidates {
+
+    final IPeer[] peers;
+    final int generation;
+    final int version;
+
+    Candidates(IPeer[] peers, int generation, int version) {
+      this.peers = peers;
+      this.generation = generation;
+      this.version = version;
+    }
+  }
+}
@@ -0,0 +1,381 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.client.impl.router;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.Request;
+import org.jdiameter.client.api.IEventListener;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerTable;
+import org.jdiameter.common.api.statistic.IStatistic;
+import org.jdiameter.common.api.statistic.IStatisticManager;
+import org.jdiameter.common.api.statistic.IStatisticRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Failover of requests to alternate peers (RFC 6733, section 5.5.4). A request whose peer did not answer in time
+ * or lost its connection is sent again through the router with the 'T' flag set, a new Hop-by-Hop and the original
+ * End-to-End identifier; peers which already failed to answer it are not selected again. The application gets
+ * timeoutExpired only when retries are exhausted or there is no alternate peer, e.g. Destination-Host names the
+ * failed peer.
+ *
+ * An answer the original peer sends after the request was failed over is still accepted if the request has not
+ * been answered yet; whichever answer comes first is delivered and the other one is dropped. Attempts of an
+ * answered request are remembered for the failover timeout, so such a second answer is counted as duplicate.
+ */
+public final class RequestFailover {
+
+  private static final Logger logger = LoggerFactory.getLogger(RequestFailover.class);
+
+  private final int maxRetries;
+  private final long timeout;
+  private final ScheduledExecutorService scheduler;
+  // requests failed over, by peer and Hop-by-Hop identifier of each attempt which is not outstanding anymore
+  private final ConcurrentHashMap<AttemptKey, IMessage> failedAttempts = new ConcurrentHashMap<AttemptKey, IMessage>();
+  private final IStatisticManager statisticManager;
+  private final IStatistic statistic;
+
+  // statistics
+  private final AtomicLong retransmissions = new AtomicLong();
+  private final AtomicLong exhausted = new AtomicLong();
+  private final AtomicLong lateAnswers = new AtomicLong();
+  private final AtomicLong duplicateAnswers = new AtomicLong();
+
+  /**
+   * @param maxRetries maximum number of times one request is sent again
+   * @param timeout time (ms) to wait for the answer of a retransmitted request
+   * @param scheduler executor running timers of retransmitted requests
+   * @param statisticManager manager the counters are exposed through, null if they are not
+   */
+  public RequestFailover(int maxRetries, long timeout, ScheduledExecutorService scheduler, IStatisticManager statisticManager) {
+    this.maxRetries = maxRetries;
+    this.timeout = timeout;
+    this.scheduler = scheduler;
+    this.statisticManager = statisticManager;
+    if (statisticManager != null) {
+      this.statistic = statisticManager.newStatistic("failover", IStatistic.Groups.Failover,
+          newRecord(IStatisticRecord.Counters.FailoverRetransmissions, retransmissions),
+          newRecord(IStatisticRecord.Counters.FailoverExhausted, exhausted),
+          newRecord(IStatisticRecord.Counters.FailoverLateAnswers, lateAnswers),
+          newRecord(IStatisticRecord.Counters.FailoverDuplicateAnswers, duplicateAnswers));
+    }
+    else {
+      this.statistic = null;
+    }
+  }
+
+  private IStatisticRecord newRecord(IStatisticRecord.Counters counter, final AtomicLong value) {
+    return statisticManager.newCounterRecord(counter, new IStatisticRecord.LongValueHolder() {
+      @Override
+      public long getValueAsLong() {
+        return value.get();
+      }
+
+      @Override
+      public String getValueAsString() {
+        return String.valueOf(getValueAsLong());
+      }
+    });
+  }
+
+  /**
+   * Remove counters from the statistic manager
+   */
+  void destroy() {
+    if (statistic != null) {
+      statisticManager.removeStatistic(statistic);
+    }
+  }
+
+  /**
+   * Take over answer listener of request, so it is failed over before the application sees a timeout
+   */
+  void track(IMessage request, IPeerTable table) {
+    IEventListener listener = request.getEventListener();
+    if (listener != null && !(listener instanceof FailoverListener)) {
+      request.setListener(new FailoverListener(listener, table));
+    }
+  }
+
+  /**
+   * @return true if peer already failed to answer the request
+   */
+  boolean hasFailed(IMessage request, IPeer peer) {
+    IEventListener listener = request.getEventListener();
+    return listener instanceof FailoverListener && ((FailoverListener) listener).failedPeers.contains(peer);
+  }
+
+  /**
+   * Send request to an alternate peer
+   *
+   * @param request request its current peer failed to answer
+   * @param timedOut true if answer timer of request has expired
+   * @return true if request was sent again
+   */
+  boolean failover(IMessage request, boolean timedOut) {
+    IEventListener l = request.getEventListener();
+    if (!(l instanceof FailoverListener)) {
+      return false;
+    }
+    FailoverListener listener = (FailoverListener) l;
+    IPeer failedPeer = request.getPeer();
+    if (failedPeer == null || isDestinationHost(request, failedPeer)) {
+      // request has nowhere else to go
+      return false;
+    }
+    synchronized (listener) {
+      // attempt may be failed over concurrently by its timer and by loss of connection
+      if (listener.answered.get() || listener.failedPeers.size() >= maxRetries || listener.failedPeers.contains(failedPeer)) {
+        return false;
+      }
+      AttemptKey key = new AttemptKey(failedPeer, request.getHopByHopIdentifier());
+      listener.failedPeers.add(failedPeer);
+      listener.attempts.add(key);
+      failedAttempts.put(key, request);
+      failedPeer.remMessage(request);
+
+      request.setReTransmitted(true);
+      request.setState(IMessage.STATE_NOT_SENT);
+      if (timedOut) {
+        request.createTimer(scheduler, timeout, TimeUnit.MILLISECONDS);
+      }
+    }
+    // routing and sending may block, answer of the failed peer must not wait for it
+    try {
+      listener.table.sendMessage(request);
+    }
+    catch (Exception e) {
+      logger.debug("Unable to fail over request [{}] from peer [{}]", new Object[] {request, failedPeer, e});
+      if (timedOut) {
+        request.clearTimer();
+      }
+      return false;
+    }
+    retransmissions.incrementAndGet();
+    IStatistic statistic = failedPeer.getStatistic();
+    if (statistic != null && statistic.isEnabled()) {
+      IStatisticRecord record = statistic.getRecordByName(IStatisticRecord.Counters.RetransmittedRequest);
+      if (record != null) {
+        record.inc();
+      }
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Request [{}] failed over from peer [{}] to peer [{}]", new Object[] {request, failedPeer, request.getPeer()});
+    }
+    return true;
+  }
+
+  private boolean isDestinationHost(IMessage request, IPeer peer) {
+    Avp destHost = request.getAvps().getAvp(Avp.DESTINATION_HOST);
+    try {
+      return destHost != null && destHost.getDiameterIdentity().equals(peer.getUri().getFQDN());
+    }
+    catch (AvpDataException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return request peer failed to answer in time and which is still waiting for an answer, so the late answer
+   * can be delivered; null if there is none
+   */
+  IMessage getLateRequest(IPeer peer, long hopByHopIdentifier) {
+    IMessage request = failedAttempts.remove(new AttemptKey(peer, hopByHopIdentifier));
+    if (request == null) {
+      return null;
+    }
+    IEventListener l = request.getEventListener();
+    if (!(l instanceof FailoverListener)) {
+      return null;
+    }
+    FailoverListener listener = (FailoverListener) l;
+    synchronized (listener) {
+      if (listener.answered.get()) {
+        duplicateAnswers.incrementAndGet();
+        return null;
+      }
+      IPeer current = request.getPeer();
+      if (current != null && current != peer) {
+        // retransmitted copy is no longer outstanding, its answer is looked up here as well
+        current.remMessage(request);
+        AttemptKey key = new AttemptKey(current, request.getHopByHopIdentifier());
+        listener.attempts.add(key);
+        failedAttempts.put(key, request);
+      }
+    }
+    lateAnswers.incrementAndGet();
+    return request;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * @return number of requests sent again to alternate peer
+   */
+  public long getRetransmissions() {
+    return retransmissions.get();
+  }
+
+  /**
+   * @return number of requests reported as timed out to the application after their retries were exhausted
+   */
+  public long getExhausted() {
+    return exhausted.get();
+  }
+
+  /**
+   * @return number of answers of original peer delivered after request was failed over
+   */
+  public long getLateAnswers() {
+    return lateAnswers.get();
+  }
+
+  /**
+   * @return number of answers dropped because request was already answered by another peer
+   */
+  public long getDuplicateAnswers() {
+    return duplicateAnswers.get();
+  }
+
+  private final class FailoverListener implements IEventListener {
+
+    private final IEventListener listener;
+    private final IPeerTable table;
+    private final AtomicBoolean answered = new AtomicBoolean();
+    // guarded by this
+    private final List<IPeer> failedPeers = new ArrayList<IPeer>(2);
+    private final List<AttemptKey> attempts = new ArrayList<AttemptKey>(2);
+
+    FailoverListener(IEventListener listener, IPeerTable table) {
+      this.listener = listener;
+      this.table = table;
+    }
+
+    @Override
+    public void receivedSuccessMessage(Request request, Answer answer) {
+      if (!answered.compareAndSet(false, true)) {
+        duplicateAnswers.incrementAndGet();
+        return;
+      }
+      // answers to the other attempts may still come, they are recognized as duplicates until forgotten
+      final List<AttemptKey> answeredAttempts;
+      synchronized (this) {
+        answeredAttempts = new ArrayList<AttemptKey>(attempts);
+        attempts.clear();
+      }
+      if (!answeredAttempts.isEmpty()) {
+        final IMessage message = (IMessage) request;
+        try {
+          scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+              for (AttemptKey key : answeredAttempts) {
+                failedAttempts.remove(key, message);
+              }
+            }
+          }, timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (Exception e) {
+          logger.debug("Unable to schedule removal of answered attempts, removing them now", e);
+          for (AttemptKey key : answeredAttempts) {
+            failedAttempts.remove(key, message);
+          }
+        }
+      }
+      listener.receivedSuccessMessage(request, answer);
+    }
+
+    @Override
+    public void timeoutExpired(Request request) {
+      if (answered.get()) {
+        return;
+      }
+      if (failover((IMessage) request, true)) {
+        return;
+      }
+      if (!answered.compareAndSet(false, true)) {
+        return;
+      }
+      synchronized (this) {
+        if (!failedPeers.isEmpty()) {
+          exhausted.incrementAndGet();
+        }
+      }
+      forgetAttempts();
+      listener.timeoutExpired(request);
+    }
+
+    private synchronized void forgetAttempts() {
+      for (AttemptKey key : attempts) {
+        failedAttempts.remove(key);
+      }
+      attempts.clear();
+    }
+
+    @Override
+    public void setValid(boolean value) {
+      listener.setValid(value);
+    }
+
+    @Override
+    public boolean isValid() {
+      return listener.isValid();
+    }
+  }
+
+  private static final class AttemptKey {
+
+    final IPeer peer;
+    final long hopByHopIdentifier;
+
+    AttemptKey(IPeer peer, long hopByHopIdentifier) {
+      this.peer = peer;
+      this.hopByHopIdentifier = hopByHopIdentifier;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof AttemptKey)) {
+        return false;
+      }
+      AttemptKey other = (AttemptKey) o;
+      return peer == other.peer && hopByHopIdentifier == other.hopByHopIdentifier;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(peer) + (int) (hopByHopIdentifier ^ (hopByHopIdentifier >>> 32));
+    }
+  }
+}
@@ -46,7 +46,12 @@ import static org.jdiameter.client.impl.helpers.Parameters.AcctApplId;
 import static org.jdiameter.client.impl.helpers.Parameters.Agent;
 import static org.jdiameter.client.impl.helpers.Parameters.ApplicationId;
 import static org.jdiameter.client.impl.helpers.Parameters.AuthApplId;
+import static org.jdiameter.client.impl.helpers.Parameters.FailoverEnabled;
+import static org.jdiameter.client.impl.helpers.Parameters.FailoverMaxRetries;
+import static org.jdiameter.client.impl.helpers.Parameters.FailoverTimeout;
+import static org.jdiameter.client.impl.helpers.Parameters.MessageTimeOut;
 import static org.jdiameter.client.impl.helpers.Parameters.OwnRealm;
+import static org.jdiameter.client.impl.helpers.Parameters.PeerHealthEnabled;
 import static org.jdiameter.client.impl.helpers.Parameters.RealmEntry;
 import static org.jdiameter.client.impl.helpers.Parameters.RealmTable;
 import static org.jdiameter.client.impl.helpers.Parameters.VendorId;
@@ -68,6 +73,7 @@ import java.util.List;
 import java.util.Map;
 //PCB added for thread safe
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -87,6 +93,7 @@ import org.jdiameter.api.PeerState;
 import org.jdiameter.api.RouteException;
 import org.jdiameter.api.URI;
 import org.jdiameter.client.api.IAnswer;
+import org.jdiameter.client.api.IAssembler;
 import org.jdiameter.client.api.IContainer;
 import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.IRequest;
@@ -99,6 +106,7 @@ import org.jdiameter.client.impl.helpers.AppConfiguration;
 import org.jdiameter.client.impl.helpers.Parameters;
 import org.jdiameter.client.impl.parser.MessageImpl;
 import org.jdiameter.common.api.concurrent.IConcurrentFactory;
+import org.jdiameter.common.api.statistic.IStatisticManager;
 import org.jdiameter.server.api.agent.IAgentConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -120,6 +128,9 @@ public class RouterImpl implements IRouter {
   public static final int ALL_USER = 6;
   //
   private static final Logger logger = LoggerFactory.getLogger(RouterImpl.class);
+  private static final int MAX_HEALTH_SCORE = 100;
+  // percentage of its traffic a degraded peer keeps for probing
+  private static final int MIN_HEALTH_SHARE = 5;
   protected MetaData metaData;
   //
   //private ConcurrentHashMap<String, String[]> network = new ConcurrentHashMap<String, String[]>();
@@ -142,6 +153,12 @@ public class RouterImpl implements IRouter {
   protected Map<String, AnswerEntry> requestEntryMap;
   //protected List<Long> requestSortedEntryTable = new ArrayList<Long>();
   protected boolean isStopped = true;
+  // divert traffic away from peers with low health score
+  protected boolean peerHealthEnabled;
+  // retransmission of unanswered requests to alternate peers, null if disabled
+  protected RequestFailover failover;
+  // OKAY peers of realms, so realm routing does not resolve all peer names for each message
+  private final PeerCandidateCache peerCandidates = new PeerCandidateCache();
 
   public RouterImpl(IContainer container, IConcurrentFactory concurrentFactory, IRealmTable realmTable, Configuration config, MetaData aMetaData) {
     this.concurrentFactory = concurrentFactory;
@@ -179,6 +196,16 @@ public class RouterImpl implements IRouter {
       REQUEST_TABLE_SIZE = tSize;
       REQUEST_TABLE_CLEAR_SIZE = tClearSize;
     }
+    this.peerHealthEnabled = config.getBooleanValue(PeerHealthEnabled.ordinal(), (Boolean) PeerHealthEnabled.defValue());
+    if (container != null && config.getBooleanValue(FailoverEnabled.ordinal(), (Boolean) FailoverEnabled.defValue())) {
+      long timeout = config.getLongValue(FailoverTimeout.ordinal(), (Long) FailoverTimeout.defValue());
+      if (timeout <= 0) {
+        timeout = config.getLongValue(MessageTimeOut.ordinal(), (Long) MessageTimeOut.defValue());
+      }
+      IAssembler assembler = container.getAssemblerFacility();
+      this.failover = new RequestFailover(config.getIntValue(FailoverMaxRetries.ordinal(), (Integer) FailoverMaxRetries.defValue()), timeout,
+          container.getScheduledFacility(), assembler != null ? assembler.getComponentInstance(IStatisticManager.class) : null);
+    }
     //PCB added thread safety
     this.requestEntryMap = new ConcurrentHashMap<String, AnswerEntry>(REQUEST_TABLE_SIZE);
     logger.debug("Configured Request Table with size[{}] and clear size[{}].", REQUEST_TABLE_SIZE, REQUEST_TABLE_CLEAR_SIZE);
@@ -391,6 +418,9 @@ public class RouterImpl implements IRouter {
     String[] info = null;
     // Get destination information
     if (message.isRequest()) {
+      if (failover != null) {
+        failover.track(message, manager);
+      }
       Avp avpRealm = message.getAvps().getAvp(Avp.DESTINATION_REALM);
       if (avpRealm == null) {
         throw new RouteException("Destination realm avp is empty");
@@ -465,29 +495,63 @@ public class RouterImpl implements IRouter {
 
     if (c != null && c.hasValidConnection()) {
       logger.debug("Found a peer using destination host avp [{}] peer is [{}] with a valid connection.", destHost, c);
+      if (message.isRequest() && isAbated(c)) {
+        throw new RouteException("Request to [" + destHost + "] throttled, peer has reported overload");
+      }
       //here matchedRealm MAY
       return c;
     }
     else {
       logger.debug("Finding peer by destination host avp [host={}] did not find anything. Now going to try finding one by destination realm [{}]",
           destHost, destRealm);
-      String[] peers = matchedRealm.getPeerNames();
-      if (peers == null || peers.length == 0) {
+      IPeer[] peers = peerCandidates.get(matchedRealm, manager);
+      if (peers == null) {
         throw new RouteException("Unable to find context by route information [" + destRealm + " ," + destHost + "]");
       }
 
       // Collect peers
       ArrayList<IPeer> availablePeers = new ArrayList<IPeer>(5);
+      List<IPeer> fullPeers = null;
+      List<IPeer> drainedPeers = null;
+      boolean abated = false;
       logger.debug("Looping through peers in realm [{}]", destRealm);
-      for (String peerName : peers) {
-        IPeer localPeer = manager.getPeer(peerName);
+      for (IPeer localPeer : peers) {
         if (logger.isDebugEnabled()) {
-          logger.debug("Checking peer [{}] for name [{}]", new Object[]{localPeer, peerName});
+          logger.debug("Checking peer [{}]", localPeer);
         }
         // ammendonca: added peer state check.. should not be needed but
         // hasValidConnection is returning true for disconnected peers in *FTFlowTests
-        if (localPeer != null && localPeer.getState(PeerState.class) == PeerState.OKAY) {
+        // the list may also be built just before the peer changed state
+        if (localPeer.getState(PeerState.class) == PeerState.OKAY) {
+          if (failover != null && message.isRequest() && failover.hasFailed(message, localPeer)) {
+            logger.debug("Skipping peer [{}] which already failed to answer request", localPeer);
+            continue;
+          }
           if (localPeer.hasValidConnection()) {
+            if (message.isRequest() && isAbated(localPeer)) {
+              // divert to other peers of realm, if there are any
+              logger.debug("Skipping peer [{}] which has reported overload", localPeer);
+              abated = true;
+              continue;
+            }
+            if (message.isRequest() && localPeer.isInFlightWindowFull(message.getApplicationId())) {
+              // divert to other peers of realm, the peer applies its window policy if all are full
+              logger.debug("Skipping peer [{}] with full in-flight window", localPeer);
+              if (fullPeers == null) {
+                fullPeers = new ArrayList<IPeer>(2);
+              }
+              fullPeers.add(localPeer);
+              continue;
+            }
+            if (message.isRequest() && isDrained(localPeer)) {
+              // divert to healthier peers of realm, used only if there are none
+              logger.debug("Skipping peer [{}] with health score [{}]", localPeer, localPeer.getHealthScore());
+              if (drainedPeers == null) {
+                drainedPeers = new ArrayList<IPeer>(2);
+              }
+              drainedPeers.add(localPeer);
+              continue;
+            }
             if (logger.isDebugEnabled()) {
               logger.debug("Found available peer to add to available peer list with uri [{}] with a valid connection", localPeer.getUri().toString());
             }
@@ -506,8 +570,18 @@ public class RouterImpl implements IRouter {
             new Object[] {destRealm, availablePeers, Arrays.asList(peers)});
       }
 
+      if (availablePeers.isEmpty() && drainedPeers != null) {
+        availablePeers.addAll(drainedPeers);
+      }
+      if (availablePeers.isEmpty() && fullPeers != null) {
+        availablePeers.addAll(fullPeers);
+      }
+
       // Balancing
       IPeer peer = selectPeer(availablePeers);
+      if (peer == null && abated) {
+        throw new RouteException("Request to realm[" + destRealm + "] throttled, peers have reported overload");
+      }
       if (peer == null) {
         throw new RouteException("Unable to find valid connection to peer[" + destHost + "] in realm[" + destRealm + "]");
       }
@@ -526,6 +600,28 @@ public class RouterImpl implements IRouter {
     return this.realmTable;
   }
 
+  @Override
+  public boolean failoverRequest(IMessage request) {
+    return failover != null && failover.failover(request, false);
+  }
+
+  @Override
+  public IMessage getFailedOverRequest(IPeer peer, long hopByHopIdentifier) {
+    return failover == null ? null : failover.getLateRequest(peer, hopByHopIdentifier);
+  }
+
+  @Override
+  public void peerTableChanged(IPeerTable table) {
+    peerCandidates.peerTableChanged(table);
+  }
+
+  /**
+   * @return failover of unanswered requests to alternate peers, null if it is not enabled
+   */
+  public RequestFailover getRequestFailover() {
+    return failover;
+  }
+
   @Override
   public void processRedirectAnswer(IRequest request, IAnswer answer, IPeerTable table) throws InternalException, RouteException {
     try {
@@ -605,7 +701,13 @@ public class RouterImpl implements IRouter {
         }
         if (REDIRECT_TABLE_SIZE > redirectTable.size()) {
           RedirectEntry e = new RedirectEntry(primaryKey, secondaryKey, redirectCacheTime, redirectUsage, redirectHosts, destinationRealm);
-          redirectTable.add(e);
+          try {
+            redirectTableLock.writeLock().lock();
+            redirectTable.add(e);
+          }
+          finally {
+            redirectTableLock.writeLock().unlock();
+          }
           //redirectProcessing(answer, destRealm.getOctetString(), destHost !=null ? destHost.getOctetString():null);
           //we dont have to elect?
           updateRoute(request, e.getRedirectHost());
@@ -692,6 +794,10 @@ public class RouterImpl implements IRouter {
     if (avpUserName != null) {
       userName = avpUserName.getUTF8String();
     }
+    if (redirectTable.isEmpty()) {
+      // nothing was redirected with caching allowed, which is the usual case
+      return false;
+    }
     // Processing table
     try {
       redirectTableLock.readLock().lock();
@@ -785,6 +891,38 @@ public class RouterImpl implements IRouter {
     //redirectScheduler = null;
     redirectTable = null;
     requestEntryMap = null;
+    if (failover != null) {
+      failover.destroy();
+    }
+    peerCandidates.clear();
+  }
+
+  /**
+   * Loss abatement algorithm (RFC 7683): a request towards a peer that reported overload is dropped
+   * with probability of the requested reduction percentage.
+   *
+   * @param peer candidate peer
+   * @return true if request must not be sent to this peer
+   */
+  protected boolean isAbated(IPeer peer) {
+    int reduction = peer.getOverloadReduction();
+    return reduction > 0 && (reduction >= 100 || ThreadLocalRandom.current().nextInt(100) < reduction);
+  }
+
+  /**
+   * Peers are drained gradually: a request skips a peer with probability of its health score shortfall, so
+   * a peer with score 70 keeps about 70% of its share. Some probing traffic always passes, otherwise
+   * a peer with score 0 would never get the answers needed to recover.
+   *
+   * @param peer candidate peer
+   * @return true if request should go to other peers
+   */
+  protected boolean isDrained(IPeer peer) {
+    if (!peerHealthEnabled) {
+      return false;
+    }
+    int score = peer.getHealthScore();
+    return score < MAX_HEALTH_SCORE && ThreadLocalRandom.current().nextInt(MAX_HEALTH_SCORE) >= Math.max(score, MIN_HEALTH_SHARE);
   }
 
   protected IPeer selectPeer(List<IPeer> availablePeers) {
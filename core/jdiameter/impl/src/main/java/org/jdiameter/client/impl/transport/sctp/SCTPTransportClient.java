@@ -22,6 +22,10 @@ package org.jdiameter.client.impl.transport.sctp;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jdiameter.api.AvpDataException;
 import org.jdiameter.client.api.io.NotInitializedException;
@@ -43,7 +47,7 @@ public class SCTPTransportClient {
 
   // How long to wait for the association to be connected
   private static final int CONNECT_TIMEOUT = 30000;
-  // The waiting time between checks for association connection
+  // Max waiting time between checks for association connection, waiting ends earlier when association comes up
   private static final int DELAY = 100;
 
   public static final String SCTP_BUFFER_SIZE_PARAMETER = "org.restcomm.sctp.bufferSize";
@@ -58,6 +62,9 @@ public class SCTPTransportClient {
   private int payloadProtocolId = 0;
   private int streamNumber = 0;
 
+  private final Lock stateLock = new ReentrantLock();
+  private final Condition stateChanged = stateLock.newCondition();
+
   private static final Logger logger = LoggerFactory.getLogger(SCTPTransportClient.class);
 
   public SCTPTransportClient() {
@@ -152,24 +159,40 @@ public class SCTPTransportClient {
 
   private void defer() throws IOException {
     final long endTStamp = System.currentTimeMillis() + CONNECT_TIMEOUT;
-    while (clientAssociation.isStarted() && !clientAssociation.isConnected() && !clientAssociation.isUp()) {
-      try {
-        Thread.sleep(DELAY);
-      }
-      catch (InterruptedException e) {
-        // clear flag and proceed
-        Thread.interrupted();
-        throw new IOException("Failed to establish SCTP connection, thread was interrupted waiting for connection.");
-      }
-      if (endTStamp < System.currentTimeMillis()) {
-        throw new IOException("Failed to establish SCTP connection!");
+    stateLock.lock();
+    try {
+      while (clientAssociation.isStarted() && !clientAssociation.isConnected() && !clientAssociation.isUp()) {
+        try {
+          stateChanged.await(DELAY, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+          // clear flag and proceed
+          Thread.interrupted();
+          throw new IOException("Failed to establish SCTP connection, thread was interrupted waiting for connection.");
+        }
+        if (endTStamp < System.currentTimeMillis()) {
+          throw new IOException("Failed to establish SCTP connection!");
+        }
       }
     }
+    finally {
+      stateLock.unlock();
+    }
     logger.debug("Client Association Status: Started[{}] Connected[{}] Up[{}] ",
         new Object[]{clientAssociation.isStarted(), clientAssociation.isConnected(), clientAssociation.isUp()});
     logger.trace("Client Association [{}]", clientAssociation);
   }
 
+  private void signalStateChanged() {
+    stateLock.lock();
+    try {
+      stateChanged.signalAll();
+    }
+    finally {
+      stateLock.unlock();
+    }
+  }
+
   private class ClientAssociationListener implements AssociationListener {
 
     private final Logger logger = LoggerFactory.getLogger(ClientAssociationListener.class);
@@ -182,6 +205,7 @@ public class SCTPTransportClient {
     @Override
     public void onCommunicationUp(Association association, int maxInboundStreams, int maxOutboundStreams) {
       logger.debug("onCommunicationUp called for [{}]", this);
+      signalStateChanged();
       getParent().onConnected();
     }
 
@@ -193,6 +217,7 @@ public class SCTPTransportClient {
     @Override
     public void onCommunicationShutdown(Association association) {
       logger.debug("onCommunicationShutdown called for [{}]", this);
+      signalStateChanged();
       try {
         getParent().onDisconnect();
       }
@@ -209,6 +234,7 @@ public class SCTPTransportClient {
     @Override
     public void onCommunicationLost(Association association) {
       logger.debug("onCommunicationLost called for [{}]", this);
+      signalStateChanged();
     }
 
     /*
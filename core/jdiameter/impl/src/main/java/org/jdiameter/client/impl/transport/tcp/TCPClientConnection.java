@@ -48,8 +48,9 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentLinkedQueue;
-// FIXME : requires JDK6 : import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -78,12 +79,17 @@ public class TCPClientConnection implements IConnection {
 
   private static Logger logger = LoggerFactory.getLogger(TCPClientConnection.class);
 
+  static final int BUFFER_SIZE = 64;
+  // max time transport waits for a listener when buffer is full, before older events are dropped
+  static final long BUFFER_TIMEOUT = 10000; // milliseconds
+
   private final long createdTime;
   private TCPTransportClient client;
-  //FIXME : requires JDK6 : protected LinkedBlockingDeque<Event> buffer = new LinkedBlockingDeque<Event>(64);
-  private LinkedBlockingQueue<Event> buffer = new LinkedBlockingQueue<Event>(64);
+  // events received while there is no listener, delivered to the next added listener
+  private LinkedBlockingQueue<Event> buffer = new LinkedBlockingQueue<Event>(BUFFER_SIZE);
   private IMessageParser parser;
   private Lock lock = new ReentrantLock();
+  private Condition listenerAdded = lock.newCondition();
   private ConcurrentLinkedQueue<IConnectionListener> listeners = new ConcurrentLinkedQueue<IConnectionListener>();
 
   // Cached value for connection key
@@ -227,6 +233,7 @@ public class TCPClientConnection implements IConnection {
     lock.lock();
     try {
       listeners.add(listener);
+      listenerAdded.signalAll();
       if (buffer.size() != 0) {
         for (Event e : buffer) {
           try {
@@ -246,6 +253,31 @@ public class TCPClientConnection implements IConnection {
     }
   }
 
+  /**
+   * Wait until a listener is attached to this connection, so transport does not read messages
+   * nobody is going to process yet. Transport also waits here when buffer of events is full, so
+   * the remote peer is slowed down by TCP flow control instead of events being dropped.
+   *
+   * @param timeout max time to wait in milliseconds
+   * @return true if there is at least one listener
+   */
+  protected boolean awaitListener(long timeout) {
+    lock.lock();
+    try {
+      long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+      while (listeners.isEmpty() && nanos > 0) {
+        nanos = listenerAdded.awaitNanos(nanos);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      lock.unlock();
+    }
+    return !listeners.isEmpty();
+  }
+
   @Override
   public void remAllConnectionListener() {
     //PCB added logging
@@ -374,11 +406,12 @@ public class TCPClientConnection implements IConnection {
     if (listeners.size() == 0) {
       //PCB added logging
       logger.debug("listeners.size() == 0 on connection [{}]", this.getKey());
-      try {
-        buffer.add(event);
+      if (buffer.remainingCapacity() == 0 && awaitListener(BUFFER_TIMEOUT)) {
+        // listener was added while waiting and got buffered events, this one follows them
+        return true;
       }
-      catch (IllegalStateException e) {
-        logger.debug("Got IllegalStateException in processBufferedMessages");
+      if (!buffer.offer(event)) {
+        logger.warn("No listener attached to connection [{}] in {}ms, dropping buffered event", getKey(), BUFFER_TIMEOUT);
         // FIXME : requires JDK6 : buffer.removeLast();
         Event[] tempBuffer = buffer.toArray(new Event[buffer.size()]);
         buffer.remove(tempBuffer[tempBuffer.length - 1]);
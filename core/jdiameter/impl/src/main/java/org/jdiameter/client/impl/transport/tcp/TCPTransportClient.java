@@ -101,6 +101,8 @@ public class TCPTransportClient implements Runnable {
   //PCB - allow non blocking IO
   private static final boolean BLOCKING_IO = false;
   private static final long SELECT_TIMEOUT = 500; // milliseconds
+  // max time to wait for a connection listener before reading anyway, events are buffered by connection then
+  private static final long LISTENER_TIMEOUT = 10000; // milliseconds
 
   public TCPTransportClient() {
   }
@@ -186,17 +188,19 @@ public class TCPTransportClient implements Runnable {
   //PCB added logging
   @Override
   public void run() {
-    // Workaround for Issue #4 (http://code.google.com/p/jdiameter/issues/detail?id=4)
-    // BEGIN WORKAROUND // Give some time to initialization...
-    int sleepTime = 250;
-    logger.debug("Sleeping for {}ms before starting transport so that listeners can all be added and ready for messages", sleepTime);
-    try {
-      Thread.sleep(sleepTime);
-    }
-    catch (InterruptedException e) {
-      // ignore
+    // Issue #4 (http://code.google.com/p/jdiameter/issues/detail?id=4): do not read before a listener
+    // (e.g. the one of MutablePeerTableImpl) is attached, until then data waits in the socket
+    long start = System.currentTimeMillis();
+    long remaining = LISTENER_TIMEOUT;
+    while (!stop && !getParent().awaitListener(Math.min(remaining, SELECT_TIMEOUT))) {
+      remaining = LISTENER_TIMEOUT - (System.currentTimeMillis() - start);
+      if (remaining <= 0) {
+        // connection buffers a bounded number of events and stops reading when it is full
+        logger.debug("No listener attached to [{}] in {}ms, events will be buffered", socketDescription, LISTENER_TIMEOUT);
+        break;
+      }
     }
-    logger.debug("Finished sleeping for {}ms. By now, MutablePeerTableImpl should have added its listener", sleepTime);
+    logger.debug("Waited {}ms for listener of [{}]", System.currentTimeMillis() - start, socketDescription);
 
     logger.debug("Transport is started. Socket is [{}]", socketDescription);
     Selector selector = null;
@@ -0,0 +1,92 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.client.impl.transport.tls.netty;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TLS handshake counters and latency of the connections using one security data entry.
+ */
+public final class HandshakeStatistics {
+
+  private final AtomicLong handshakes = new AtomicLong();
+  private final AtomicLong resumedHandshakes = new AtomicLong();
+  private final AtomicLong failedHandshakes = new AtomicLong();
+  private final AtomicLong handshakeTime = new AtomicLong();
+  private final AtomicLong maxHandshakeTime = new AtomicLong();
+
+  void handshakeCompleted(long durationNanos, boolean resumed) {
+    handshakes.incrementAndGet();
+    if (resumed) {
+      resumedHandshakes.incrementAndGet();
+    }
+    handshakeTime.addAndGet(durationNanos);
+    long max = maxHandshakeTime.get();
+    while (durationNanos > max && !maxHandshakeTime.compareAndSet(max, durationNanos)) {
+      max = maxHandshakeTime.get();
+    }
+  }
+
+  void handshakeFailed() {
+    failedHandshakes.incrementAndGet();
+  }
+
+  /**
+   * @return number of successful handshakes, including resumed ones
+   */
+  public long getHandshakes() {
+    return handshakes.get();
+  }
+
+  /**
+   * @return number of handshakes which resumed a cached session
+   */
+  public long getResumedHandshakes() {
+    return resumedHandshakes.get();
+  }
+
+  public long getFailedHandshakes() {
+    return failedHandshakes.get();
+  }
+
+  /**
+   * @return average time of successful handshakes in microseconds
+   */
+  public long getAverageHandshakeTime() {
+    long count = handshakes.get();
+    return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(handshakeTime.get() / count);
+  }
+
+  /**
+   * @return longest successful handshake in microseconds
+   */
+  public long getMaxHandshakeTime() {
+    return TimeUnit.NANOSECONDS.toMicros(maxHandshakeTime.get());
+  }
+
+  public void reset() {
+    handshakes.set(0);
+    resumedHandshakes.set(0);
+    failedHandshakes.set(0);
+    handshakeTime.set(0);
+    maxHandshakeTime.set(0);
+  }
+}
@@ -24,6 +24,9 @@ import static org.jdiameter.client.impl.helpers.Parameters.KDManager;
 import static org.jdiameter.client.impl.helpers.Parameters.KDPwd;
 import static org.jdiameter.client.impl.helpers.Parameters.KDStore;
 import static org.jdiameter.client.impl.helpers.Parameters.KeyData;
+import static org.jdiameter.client.impl.helpers.Parameters.SDSessionCacheSize;
+import static org.jdiameter.client.impl.helpers.Parameters.SDSessionTimeout;
+import static org.jdiameter.client.impl.helpers.Parameters.Security;
 import static org.jdiameter.client.impl.helpers.Parameters.TDFile;
 import static org.jdiameter.client.impl.helpers.Parameters.TDManager;
 import static org.jdiameter.client.impl.helpers.Parameters.TDPwd;
@@ -31,9 +34,13 @@ import static org.jdiameter.client.impl.helpers.Parameters.TDStore;
 import static org.jdiameter.client.impl.helpers.Parameters.TrustData;
 
 import java.io.FileInputStream;
+import java.net.InetSocketAddress;
 import java.security.KeyStore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.TrustManagerFactory;
 
@@ -41,6 +48,7 @@ import org.jdiameter.api.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 
@@ -51,18 +59,105 @@ import io.netty.handler.ssl.SslContextBuilder;
 public abstract class SslContextFactory {
   private static final Logger logger = LoggerFactory.getLogger(SslContextFactory.class);
 
+  // TLS sessions are cached per context, so a context is kept for each security data entry to allow resumption.
+  // Security data entries belong to the configuration of one stack, which releases its entries when it stops.
+  private static final ConcurrentMap<Configuration, SslContext> clientContexts = new ConcurrentHashMap<Configuration, SslContext>();
+  private static final ConcurrentMap<Configuration, SslContext> serverContexts = new ConcurrentHashMap<Configuration, SslContext>();
+  private static final ConcurrentMap<Configuration, HandshakeStatistics> statistics = new ConcurrentHashMap<Configuration, HandshakeStatistics>();
+
   public static SslContext getSslContextForClient(Configuration config) throws SSLException, Exception {
-    SslContext sslContext = SslContextBuilder.forClient().keyManager(getKeyManagerFactory(config))
-        .trustManager(getTrustManagerFactory(config)).build();
+    SslContextBuilder builder = SslContextBuilder.forClient().keyManager(getKeyManagerFactory(config))
+        .trustManager(getTrustManagerFactory(config));
+    SslContext sslContext = setSessionParameters(builder, config).build();
     return sslContext;
   }
 
   public static SslContext getSslContextForServer(Configuration config) throws SSLException, Exception {
-    SslContext sslContext = SslContextBuilder.forServer(getKeyManagerFactory(config))
-        .trustManager(getTrustManagerFactory(config)).build();
+    SslContextBuilder builder = SslContextBuilder.forServer(getKeyManagerFactory(config))
+        .trustManager(getTrustManagerFactory(config));
+    SslContext sslContext = setSessionParameters(builder, config).build();
+    return sslContext;
+  }
+
+  /**
+   * Create client engine. Peer address is passed to the engine as the JDK provider only resumes sessions
+   * of engines created for a known peer.
+   */
+  public static SSLEngine newClientEngine(Configuration config, ByteBufAllocator alloc, InetSocketAddress peer) throws Exception {
+    SslContext sslContext = getCachedContext(clientContexts, config, true);
+    SSLEngine sslEngine = sslContext.newEngine(alloc, peer.getHostString(), peer.getPort());
+    sslEngine.setUseClientMode(true);
+    return sslEngine;
+  }
+
+  public static SSLEngine newServerEngine(Configuration config, ByteBufAllocator alloc) throws Exception {
+    SslContext sslContext = getCachedContext(serverContexts, config, false);
+    SSLEngine sslEngine = sslContext.newEngine(alloc);
+    sslEngine.setUseClientMode(false);
+    return sslEngine;
+  }
+
+  private static SslContext getCachedContext(ConcurrentMap<Configuration, SslContext> contexts, Configuration config, boolean client)
+      throws Exception {
+    SslContext sslContext = contexts.get(config);
+    if (sslContext == null) {
+      // concurrent creation is harmless, only one context is kept
+      sslContext = client ? getSslContextForClient(config) : getSslContextForServer(config);
+      SslContext existing = contexts.putIfAbsent(config, sslContext);
+      if (existing != null) {
+        sslContext = existing;
+      }
+    }
     return sslContext;
   }
 
+  /**
+   * @return handshake statistics of connections using given security data entry
+   */
+  public static HandshakeStatistics getHandshakeStatistics(Configuration sslConfig) {
+    HandshakeStatistics stats = statistics.get(sslConfig);
+    if (stats == null) {
+      stats = new HandshakeStatistics();
+      HandshakeStatistics existing = statistics.putIfAbsent(sslConfig, stats);
+      if (existing != null) {
+        stats = existing;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Drop cached contexts, and with them the cached TLS sessions, of all security data entries of the stack.
+   *
+   * @param stackConfig configuration of the stopped stack
+   * @param releaseStatistics true if handshake statistics should be released as well
+   */
+  public static void releaseContexts(Configuration stackConfig, boolean releaseStatistics) {
+    Configuration[] securityData = stackConfig.getChildren(Security.ordinal());
+    if (securityData == null) {
+      return;
+    }
+    for (Configuration sslConfig : securityData) {
+      clientContexts.remove(sslConfig);
+      serverContexts.remove(sslConfig);
+      if (releaseStatistics) {
+        statistics.remove(sslConfig);
+      }
+    }
+  }
+
+  private static SslContextBuilder setSessionParameters(SslContextBuilder builder, Configuration config) {
+    long cacheSize = config.getLongValue(SDSessionCacheSize.ordinal(), (Long) SDSessionCacheSize.defValue());
+    if (cacheSize > 0) {
+      builder.sessionCacheSize(cacheSize);
+    }
+    long timeout = config.getLongValue(SDSessionTimeout.ordinal(), (Long) SDSessionTimeout.defValue());
+    if (timeout > 0) {
+      builder.sessionTimeout(timeout);
+    }
+    return builder;
+  }
+
   public static KeyManagerFactory getKeyManagerFactory(Configuration sslConfig) throws Exception {
     final Configuration kdConfig = sslConfig.getChildren(KeyData.ordinal())[0];
     final String keyManagerAlgo = kdConfig.getStringValue(KDManager.ordinal(), null);
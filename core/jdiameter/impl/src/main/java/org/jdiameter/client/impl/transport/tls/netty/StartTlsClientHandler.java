@@ -21,7 +21,6 @@ package org.jdiameter.client.impl.transport.tls.netty;
 
 import javax.net.ssl.SSLEngine;
 
-import org.jdiameter.client.impl.transport.tls.netty.TLSTransportClient.TlsHandshakingState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,10 +28,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelPipeline;
-import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslHandler;
-import io.netty.util.concurrent.Future;
-import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.ReferenceCountUtil;
 
 /**
  *
@@ -47,49 +43,25 @@ public class StartTlsClientHandler extends ChannelInboundHandlerAdapter {
     this.tlsTransportClient = tlsTransportClient;
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public void channelRead(final ChannelHandlerContext ctx, Object msg) throws Exception {
     logger.debug("StartTlsClientHandler");
     ByteBuf buf = (ByteBuf) msg;
     byte[] bytes = new byte[buf.readableBytes()];
     buf.getBytes(buf.readerIndex(), bytes);
+    ReferenceCountUtil.release(msg);
 
     if ("StartTlsResponse".equals(new String(bytes))) {
       logger.debug("received StartTlsResponse");
 
-      SslContext sslContext = SslContextFactory.getSslContextForClient(this.tlsTransportClient.getConfig());
-      SSLEngine sslEngine = sslContext.newEngine(ctx.alloc());
-      sslEngine.setUseClientMode(true);
-      SslHandler sslHandler = new SslHandler(sslEngine, false);
+      SSLEngine sslEngine = SslContextFactory.newClientEngine(this.tlsTransportClient.getConfig(), ctx.alloc(),
+          this.tlsTransportClient.getDestAddress());
 
       final ChannelPipeline pipeline = ctx.pipeline();
       pipeline.remove("startTlsClientHandler");
-      pipeline.addLast("sslHandler", sslHandler);
 
       logger.debug("StartTls starting handshake");
-
-      sslHandler.handshakeFuture().addListener(new GenericFutureListener() {
-        @Override
-        public void operationComplete(Future future) throws Exception {
-          if (future.isSuccess()) {
-            logger.debug("StartTls handshake succesfull");
-
-            tlsTransportClient.setTlsHandshakingState(TlsHandshakingState.SHAKEN);
-
-            logger.debug("restoring all handlers");
-
-            pipeline.addLast("decoder", new DiameterMessageDecoder(StartTlsClientHandler.this.tlsTransportClient.getParent(),
-                StartTlsClientHandler.this.tlsTransportClient.getParser()));
-            pipeline.addLast("msgHandler",
-                new DiameterMessageHandler(StartTlsClientHandler.this.tlsTransportClient.getParent(), true));
-
-            pipeline.addLast("encoder", new DiameterMessageEncoder(StartTlsClientHandler.this.tlsTransportClient.getParser()));
-            pipeline.addLast("inbandWriter", new InbandSecurityHandler());
-          }
-        }
-      });
-
+      this.tlsTransportClient.addTlsHandlers(pipeline, sslEngine);
     }
   }
 
@@ -21,7 +21,6 @@ package org.jdiameter.client.impl.transport.tls.netty;
 
 import javax.net.ssl.SSLEngine;
 
-import org.jdiameter.client.impl.transport.tls.netty.TLSTransportClient.TlsHandshakingState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,8 +29,6 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelPipeline;
-import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslHandler;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
@@ -58,10 +55,7 @@ public class StartTlsServerHandler extends ChannelInboundHandlerAdapter {
 
     if ("StartTlsRequest".equals(new String(bytes))) {
       logger.debug("Received StartTlsRequest");
-      SslContext sslContext = SslContextFactory.getSslContextForServer(this.tlsTransportClient.getConfig());
-      SSLEngine sslEngine = sslContext.newEngine(ctx.alloc());
-      sslEngine.setUseClientMode(false);
-      SslHandler sslHandler = new SslHandler(sslEngine, false);
+      SSLEngine sslEngine = SslContextFactory.newServerEngine(this.tlsTransportClient.getConfig(), ctx.alloc());
 
       final ChannelPipeline pipeline = ctx.pipeline();
 
@@ -71,30 +65,7 @@ public class StartTlsServerHandler extends ChannelInboundHandlerAdapter {
       pipeline.remove("inbandWriter");
       pipeline.remove(this);
 
-      pipeline.addLast("sslHandler", sslHandler);
-
-      sslHandler.handshakeFuture().addListener(new GenericFutureListener() {
-
-        @Override
-        public void operationComplete(Future future) throws Exception {
-          if (future.isSuccess()) {
-            logger.debug("StartTls server handshake succesfull");
-
-            tlsTransportClient.setTlsHandshakingState(TlsHandshakingState.SHAKEN);
-
-            logger.debug("restoring all handlers");
-
-            pipeline.addLast("decoder", new DiameterMessageDecoder(StartTlsServerHandler.this.tlsTransportClient.getParent(),
-                StartTlsServerHandler.this.tlsTransportClient.getParser()));
-            pipeline.addLast("msgHandler",
-                new DiameterMessageHandler(StartTlsServerHandler.this.tlsTransportClient.getParent(), true));
-
-            pipeline.addLast("encoder", new DiameterMessageEncoder(StartTlsServerHandler.this.tlsTransportClient.getParser()));
-            pipeline.addLast("inbandWriter", new InbandSecurityHandler());
-
-          }
-        }
-      });
+      this.tlsTransportClient.addTlsHandlers(pipeline, sslEngine);
 
       ReferenceCountUtil.release(msg);
       logger.debug("Sending StartTlsResponse");
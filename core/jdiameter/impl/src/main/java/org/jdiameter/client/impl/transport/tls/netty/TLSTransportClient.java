@@ -19,8 +19,14 @@
 
 package org.jdiameter.client.impl.transport.tls.netty;
 
+import static org.jdiameter.client.impl.helpers.Parameters.SDInbandSecurity;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.net.ssl.SSLEngine;
 
 import org.jdiameter.api.Configuration;
 import org.jdiameter.client.api.IMessage;
@@ -37,6 +43,9 @@ import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
 
 /**
  *
@@ -45,6 +54,10 @@ import io.netty.channel.socket.nio.NioSocketChannel;
 public class TLSTransportClient {
   private static final Logger logger = LoggerFactory.getLogger(TLSTransportClient.class);
 
+  // all client connections share one event loop group instead of a group (and its threads) per connection
+  private static EventLoopGroup sharedWorkerGroup;
+  private static int sharedWorkerGroupUsers;
+
   private TLSClientConnection parentConnection;
   private IConcurrentFactory concurrentFactory;
   private IMessageParser parser;
@@ -58,6 +71,8 @@ public class TLSTransportClient {
   private EventLoopGroup workerGroup;
 
   private volatile TlsHandshakingState tlsHandshakingState = TlsHandshakingState.INIT;
+  // messages sent while in-band TLS is negotiated, written once handshake is done
+  private final Queue<IMessage> pendingMessages = new ConcurrentLinkedQueue<IMessage>();
 
   enum TlsHandshakingState {
     INIT, SHAKING, SHAKEN
@@ -97,11 +112,21 @@ public class TLSTransportClient {
     this.socketDescription = origAddress.toString() + "->" + destAddress.toString();
 
     ChannelPipeline pipeline = this.channel.pipeline();
-    pipeline.addLast("startTlsServerHandler", new StartTlsServerHandler(this));
-    pipeline.addLast("decoder", new DiameterMessageDecoder(parenConnection, parser));
-    pipeline.addLast("msgHandler", new DiameterMessageHandler(parentConnection, true));
-    pipeline.addLast("encoder", new DiameterMessageEncoder(parser));
-    pipeline.addLast("inbandWriter", new InbandSecurityHandler());
+    if (isInbandSecurity()) {
+      pipeline.addLast("startTlsServerHandler", new StartTlsServerHandler(this));
+      pipeline.addLast("decoder", new DiameterMessageDecoder(parenConnection, parser));
+      pipeline.addLast("msgHandler", new DiameterMessageHandler(parentConnection, true));
+      pipeline.addLast("encoder", new DiameterMessageEncoder(parser));
+      pipeline.addLast("inbandWriter", new InbandSecurityHandler());
+    }
+    else {
+      try {
+        addTlsHandlers(pipeline, SslContextFactory.newServerEngine(config, channel.alloc()));
+      }
+      catch (Exception e) {
+        throw new IllegalStateException("Unable to create TLS engine for " + socketDescription, e);
+      }
+    }
 
     logger.debug("Created TLSTransportClient (server) for {}", socketDescription);
   }
@@ -114,17 +139,24 @@ public class TLSTransportClient {
       return;
     }
 
-    workerGroup = new NioEventLoopGroup();
+    if (workerGroup == null) {
+      workerGroup = acquireWorkerGroup();
+    }
     Bootstrap bootstrap = new Bootstrap();
     bootstrap.group(workerGroup).channel(NioSocketChannel.class).handler(new ChannelInitializer<SocketChannel>() {
       @Override
       protected void initChannel(SocketChannel channel) throws Exception {
         ChannelPipeline pipeline = channel.pipeline();
-        pipeline.addLast("decoder", new DiameterMessageDecoder(parentConnection, parser));
-        pipeline.addLast("msgHandler", new DiameterMessageHandler(parentConnection, false));
-        pipeline.addLast("startTlsInitiator", new StartTlsInitiator(config, TLSTransportClient.this));
-        pipeline.addLast("encoder", new DiameterMessageEncoder(parser));
-        pipeline.addLast("inbandWriter", new InbandSecurityHandler());
+        if (isInbandSecurity()) {
+          pipeline.addLast("decoder", new DiameterMessageDecoder(parentConnection, parser));
+          pipeline.addLast("msgHandler", new DiameterMessageHandler(parentConnection, false));
+          pipeline.addLast("startTlsInitiator", new StartTlsInitiator(config, TLSTransportClient.this));
+          pipeline.addLast("encoder", new DiameterMessageEncoder(parser));
+          pipeline.addLast("inbandWriter", new InbandSecurityHandler());
+        }
+        else {
+          addTlsHandlers(pipeline, SslContextFactory.newClientEngine(config, channel.alloc(), destAddress));
+        }
       }
     });
 
@@ -135,6 +167,78 @@ public class TLSTransportClient {
     logger.debug("Started TLS Transport on Socket {}", socketDescription);
   }
 
+  /**
+   * @return true if TLS is negotiated in CER/CEA exchange, false if connection starts with TLS handshake (dedicated port)
+   */
+  boolean isInbandSecurity() {
+    return config.getBooleanValue(SDInbandSecurity.ordinal(), (Boolean) SDInbandSecurity.defValue());
+  }
+
+  /**
+   * Add TLS handler with message codec handlers behind it. Writes done before the handshake completes are
+   * held by the TLS handler, received messages are decoded as soon as TLS handler passes them.
+   */
+  void addTlsHandlers(final ChannelPipeline pipeline, final SSLEngine sslEngine) {
+    final SslHandler sslHandler = new SslHandler(sslEngine, false);
+    final long handshakeStart = System.nanoTime();
+    final long handshakeStartMillis = System.currentTimeMillis();
+
+    pipeline.addLast("sslHandler", sslHandler);
+    pipeline.addLast("decoder", new DiameterMessageDecoder(parentConnection, parser));
+    pipeline.addLast("msgHandler", new DiameterMessageHandler(parentConnection, true));
+    pipeline.addLast("encoder", new DiameterMessageEncoder(parser));
+    if (isInbandSecurity()) {
+      pipeline.addLast("inbandWriter", new InbandSecurityHandler());
+    }
+
+    sslHandler.handshakeFuture().addListener(new GenericFutureListener<Future<Object>>() {
+      @Override
+      public void operationComplete(Future<Object> future) throws Exception {
+        long duration = System.nanoTime() - handshakeStart;
+        if (future.isSuccess()) {
+          // a resumed session was created by an earlier handshake
+          boolean resumed = sslEngine.getSession().getCreationTime() < handshakeStartMillis;
+          SslContextFactory.getHandshakeStatistics(config).handshakeCompleted(duration, resumed);
+          logger.debug("TLS handshake on [{}] done in {}us, session resumed: {}", new Object[] {socketDescription,
+              duration / 1000, resumed});
+          setTlsHandshakingState(TlsHandshakingState.SHAKEN);
+          flushPendingMessages();
+        }
+        else {
+          SslContextFactory.getHandshakeStatistics(config).handshakeFailed();
+          logger.warn("TLS handshake on [" + socketDescription + "] failed", future.cause());
+          pipeline.channel().close();
+        }
+      }
+    });
+  }
+
+  private void flushPendingMessages() {
+    IMessage message;
+    while ((message = pendingMessages.poll()) != null) {
+      channel.write(message);
+    }
+    channel.flush();
+  }
+
+  private static synchronized EventLoopGroup acquireWorkerGroup() {
+    if (sharedWorkerGroup == null || sharedWorkerGroup.isShuttingDown()) {
+      sharedWorkerGroup = new NioEventLoopGroup();
+    }
+    sharedWorkerGroupUsers++;
+    return sharedWorkerGroup;
+  }
+
+  private static synchronized Future<?> releaseWorkerGroup(EventLoopGroup group) {
+    if (group == sharedWorkerGroup && --sharedWorkerGroupUsers > 0) {
+      return null;
+    }
+    if (group == sharedWorkerGroup) {
+      sharedWorkerGroup = null;
+    }
+    return group.shutdownGracefully();
+  }
+
   public TLSClientConnection getParent() {
     return parentConnection;
   }
@@ -167,6 +271,12 @@ public class TLSTransportClient {
     }
 
     if (this.tlsHandshakingState == TlsHandshakingState.SHAKING) {
+      pendingMessages.offer(message);
+      // handshake may have completed meanwhile, then nobody else flushes the queue
+      if (this.tlsHandshakingState == TlsHandshakingState.SHAKING) {
+        return;
+      }
+      flushPendingMessages();
       return;
     }
 
@@ -207,13 +317,17 @@ public class TLSTransportClient {
   }
 
   private void closeWorkerGroup() {
-    if (workerGroup != null && !workerGroup.isShuttingDown()) {
-      try {
-        workerGroup.shutdownGracefully().sync();
-      } catch (InterruptedException e) {
-        logger.error("Error stopping socket " + socketDescription, e);
-      }
+    if (workerGroup != null) {
+      Future<?> shutdown = releaseWorkerGroup(workerGroup);
       workerGroup = null;
+      pendingMessages.clear();
+      if (shutdown != null) {
+        try {
+          shutdown.sync();
+        } catch (InterruptedException e) {
+          logger.error("Error stopping socket " + socketDescription, e);
+        }
+      }
     }
   }
 
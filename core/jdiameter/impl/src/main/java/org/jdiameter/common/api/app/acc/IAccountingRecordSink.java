@@ -0,0 +1,40 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.common.api.app.acc;
+
+import java.util.List;
+
+import org.jdiameter.server.impl.app.acc.bulk.AccountingRecord;
+
+/**
+ * Destination of accounting records received by bulk accounting server. Records are delivered in
+ * batches, in the order they were received, from a single thread.
+ */
+public interface IAccountingRecordSink {
+
+  /**
+   * Consume batch of records. Batch is reused after this method returns, records may be kept.
+   *
+   * @param records accounting records, never empty
+   * @throws Exception if records could not be stored; batch is offered again after a delay
+   */
+  void consume(List<AccountingRecord> records) throws Exception;
+
+}
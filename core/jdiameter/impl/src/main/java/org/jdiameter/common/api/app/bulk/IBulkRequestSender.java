@@ -0,0 +1,47 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.common.api.app.bulk;
+
+/**
+ * Sends one request of a bulk signalling job, e.g. Gx RAR of a policy push, to a session. The answer is
+ * reported back to the job from the application session listener, see
+ * {@link org.jdiameter.server.impl.app.bulk.BulkSignalJob#answerReceived(String, long, long)}.
+ */
+public interface IBulkRequestSender {
+
+  /**
+   * Returned by {@link #send(String)} when nothing was sent
+   */
+  long NOT_SENT = -1;
+
+  /**
+   * @return peer requests of the session are sent to, used to limit concurrency per peer; null if unknown
+   */
+  String getPeer(String sessionId);
+
+  /**
+   * Build and send request of the session
+   *
+   * @return End-to-End Identifier of the request, {@link #NOT_SENT} if session no longer exists and nothing was sent
+   * @throws Exception if request could not be sent
+   */
+  long send(String sessionId) throws Exception;
+
+}
@@ -0,0 +1,44 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.common.api.app.cca;
+
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.cca.events.JCreditControlRequest;
+
+/**
+ * Application handler of one-time (EVENT_REQUEST) credit-control requests served by
+ * {@link org.jdiameter.server.impl.app.cca.StatelessCCAListener}, without any server session.
+ * It is called on the thread which received the request and must not block for long.
+ */
+public interface ICCAEventHandler {
+
+  /**
+   * Process event request and add AVPs of the answer, e.g. Granted-Service-Unit or Cost-Information.
+   * Answer already contains Session-Id, Auth-Application-Id, Origin-Host, Origin-Realm, CC-Request-Type and
+   * CC-Request-Number.
+   *
+   * @param request credit-control request with CC-Request-Type EVENT_REQUEST
+   * @param answerAvps AVPs of the answer
+   * @return Result-Code of the answer
+   * @throws Exception if request can not be processed; it is answered with DIAMETER_UNABLE_TO_COMPLY
+   */
+  long doCreditControlEvent(JCreditControlRequest request, AvpSet answerAvps) throws Exception;
+
+}
@@ -63,7 +63,8 @@ public interface IConcurrentFactory {
     PeerOverloadTimer,
     ConnectionTimer,
     StatisticTimer,
-    ApplicationSession
+    ApplicationSession,
+    PeerFSMTimer
   }
 
   // Thread
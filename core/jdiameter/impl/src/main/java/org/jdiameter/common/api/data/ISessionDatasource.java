@@ -76,4 +76,18 @@ public interface ISessionDatasource {
 
   IAppSessionDataFactory<? extends IAppSessionData> getDataFactory(Class<? extends IAppSessionData> x);
 
+  /**
+   * Create secondary index of sessions, kept consistent with sessions added to and removed from this datasource
+   *
+   * @param name name of index
+   * @param extractor provides keys of added sessions, may be null if keys are only bound explicitly
+   * @throws IllegalArgumentException if index with same name already exists
+   */
+  ISessionIndex addIndex(String name, ISessionKeyExtractor extractor);
+
+  /**
+   * @return index with given name or null if there is none
+   */
+  ISessionIndex getIndex(String name);
+
 }
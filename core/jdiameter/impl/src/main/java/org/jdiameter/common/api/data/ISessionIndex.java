@@ -0,0 +1,57 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.common.api.data;
+
+/**
+ * Secondary index of sessions kept by {@link ISessionDatasource}, mapping application keys (e.g. UE IP address and
+ * APN of a Gx session) to Session-Id. Each key is bound to at most one session, a new binding of the key replaces
+ * the previous one. Bindings of a session are removed when the session is removed from the datasource.
+ *
+ * @see ISessionDatasource#addIndex(String, ISessionKeyExtractor)
+ */
+public interface ISessionIndex {
+
+  String getName();
+
+  /**
+   * @return id of session bound to key, null if there is none
+   */
+  String getSessionId(String key);
+
+  /**
+   * Bind key to session, replacing previous binding of the key
+   *
+   * @return false if session does not exist (e.g. it was released meanwhile), no binding is kept then
+   */
+  boolean bind(String key, String sessionId);
+
+  /**
+   * Remove binding of key, only if it is bound to given session
+   *
+   * @return true if binding was removed
+   */
+  boolean unbind(String key, String sessionId);
+
+  /**
+   * @return number of keys bound to sessions
+   */
+  int size();
+
+}
@@ -0,0 +1,35 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.common.api.data;
+
+import org.jdiameter.api.BaseSession;
+
+/**
+ * Provides keys under which session is indexed when it is added to {@link ISessionDatasource}. Keys known only
+ * later, e.g. from a request received in the session, are bound with {@link ISessionIndex#bind(String, String)}.
+ */
+public interface ISessionKeyExtractor {
+
+  /**
+   * @return keys of session, null or empty if session should not be indexed
+   */
+  String[] getKeys(BaseSession session);
+
+}
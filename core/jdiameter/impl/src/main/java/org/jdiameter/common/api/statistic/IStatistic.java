@@ -58,7 +58,9 @@ public interface IStatistic extends Statistic {
     PeerFSM("Peer FSM statistic"),
     Network("Network statistic"),
     Concurrent(" Concurrent factory statistics"),
-    ScheduledExecService("ScheduledExecutorService statistic");
+    ScheduledExecService("ScheduledExecutorService statistic"),
+    Tls("TLS statistic"),
+    Failover("Request failover statistic");
 
     private String description;
 
@@ -86,7 +86,26 @@ public interface IStatisticRecord extends StatisticRecord {
     WaitTimeTask("Average waiting time for execution task"),
     BrokenTasks("Count of broken thread"),
     RejectedTasks("Count of rejected tasks"),
-    QueueSize("Peer FSM queue size");
+    QueueSize("Peer FSM queue size"),
+
+    PeerHealthScore("Peer health score, 0 - 100"),
+    WatchdogRoundTripTime("Smoothed watchdog round trip time in microseconds"),
+    AnswerLatency("Smoothed answer latency in microseconds"),
+    TimeoutRatio("Smoothed ratio of requests which timed out"),
+    TransientErrorRatio("Smoothed ratio of answers with DIAMETER_TOO_BUSY or DIAMETER_UNABLE_TO_DELIVER"),
+    RetransmittedRequest("Count of requests failed over to alternate peer"),
+    RetransmittedRequestPerSecond("Count of requests failed over to alternate peer per second"),
+
+    TlsHandshakes("Count of successful TLS handshakes"),
+    TlsResumedHandshakes("Count of TLS handshakes which resumed a cached session"),
+    TlsFailedHandshakes("Count of failed TLS handshakes"),
+    TlsHandshakeTime("Average TLS handshake time in microseconds"),
+    TlsMaxHandshakeTime("Longest TLS handshake time in microseconds"),
+
+    FailoverRetransmissions("Count of requests sent again to alternate peer"),
+    FailoverExhausted("Count of requests reported as timed out after their retries were exhausted"),
+    FailoverLateAnswers("Count of answers of original peer delivered after request was failed over"),
+    FailoverDuplicateAnswers("Count of answers dropped because request was already answered by another peer");
 
     private String description;
 
@@ -47,6 +47,7 @@ import org.jdiameter.api.sh.events.UserDataRequest;
 import org.jdiameter.client.api.ISessionFactory;
 import org.jdiameter.client.impl.app.sh.IShClientSessionData;
 import org.jdiameter.client.impl.app.sh.ShClientSessionImpl;
+import org.jdiameter.client.impl.app.sh.ShUserDataCache;
 import org.jdiameter.common.api.app.IAppSessionDataFactory;
 import org.jdiameter.common.api.app.sh.IShMessageFactory;
 import org.jdiameter.common.api.app.sh.IShSessionData;
@@ -79,6 +80,7 @@ public class ShSessionFactoryImpl implements IShSessionFactory, StateChangeListe
   protected ISessionDatasource sessionDataSource;
   protected IAppSessionDataFactory<IShSessionData> sessionDataFactory;
   protected long messageTimeout = 10000; // 10s default timeout
+  protected ShUserDataCache userDataCache;
   protected static final long applicationId = 16777217;
 
   public ShSessionFactoryImpl(SessionFactory sessionFactory) {
@@ -114,6 +116,20 @@ public class ShSessionFactoryImpl implements IShSessionFactory, StateChangeListe
     this.clientShSessionListener = clientShSessionListener;
   }
 
+  /**
+   * @return cache of User-Data-Answers used by client sessions, null if disabled
+   */
+  public ShUserDataCache getUserDataCache() {
+    return userDataCache;
+  }
+
+  /**
+   * @param userDataCache cache of User-Data-Answers for client sessions created from now on, null to disable
+   */
+  public void setUserDataCache(ShUserDataCache userDataCache) {
+    this.userDataCache = userDataCache;
+  }
+
   /**
    * @return the serverShSessionListener
    */
@@ -203,6 +219,7 @@ public class ShSessionFactoryImpl implements IShSessionFactory, StateChangeListe
         IShClientSessionData sessionData = (IShClientSessionData) this.sessionDataFactory.getAppSessionData(ClientShSession.class, sessionId);
         sessionData.setApplicationId(applicationId);
         clientSession = new ShClientSessionImpl(sessionData, this.getMessageFactory(), sessionFactory, this.getClientShSessionListener());
+        clientSession.setUserDataCache(userDataCache);
         sessionDataSource.addSession(clientSession);
         clientSession.getSessions().get(0).setRequestListener(clientSession);
         return clientSession;
@@ -258,7 +275,10 @@ public class ShSessionFactoryImpl implements IShSessionFactory, StateChangeListe
       }
       else if (aClass == ClientShSession.class) {
         IShClientSessionData sessionData = (IShClientSessionData) this.sessionDataFactory.getAppSessionData(ClientShSession.class, sessionId);
-        appSession = new ShClientSessionImpl(sessionData, this.getMessageFactory(), sessionFactory, this.getClientShSessionListener());
+        ShClientSessionImpl clientSession = new ShClientSessionImpl(sessionData, this.getMessageFactory(), sessionFactory,
+            this.getClientShSessionListener());
+        clientSession.setUserDataCache(userDataCache);
+        appSession = clientSession;
         appSession.getSessions().get(0).setRequestListener((NetworkReqListener) appSession);
       }
       else {
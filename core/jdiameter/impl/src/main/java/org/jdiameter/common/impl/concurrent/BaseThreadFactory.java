@@ -42,6 +42,11 @@
 
 package org.jdiameter.common.impl.concurrent;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -58,6 +63,10 @@ class BaseThreadFactory implements ThreadFactory {
   private String threadPoolName;
   private AtomicInteger count = new AtomicInteger(0);
 
+  // virtual threads can't join a thread group, so live ones are tracked here
+  private volatile boolean virtual = false;
+  private final Set<Thread> virtualThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
   BaseThreadFactory(String threadPoolName) {
     this.threadPoolName = threadPoolName;
 
@@ -66,15 +75,62 @@ class BaseThreadFactory implements ThreadFactory {
 
   @Override
   public Thread newThread(Runnable runnable) {
-    return new Thread(threadGroup, runnable, threadPoolName + "-" + count.getAndIncrement());
+    return newThread(threadPoolName, runnable);
   }
 
   public Thread newThread(String namePrefix, Runnable runnable) {
-    return new Thread(threadGroup, runnable, namePrefix + "-" + count.getAndIncrement());
+    String name = namePrefix + "-" + count.getAndIncrement();
+    return virtual ? newVirtualThread(name, runnable) : new Thread(threadGroup, runnable, name);
+  }
+
+  private Thread newVirtualThread(String name, final Runnable runnable) {
+    return VirtualThreads.newThread(name, new Runnable() {
+      @Override
+      public void run() {
+        Thread thread = Thread.currentThread();
+        virtualThreads.add(thread);
+        try {
+          runnable.run();
+        }
+        finally {
+          virtualThreads.remove(thread);
+        }
+      }
+    });
+  }
+
+  /**
+   * Create virtual instead of platform threads from now on. Ignored (returns false) if runtime
+   * does not support virtual threads.
+   */
+  boolean setVirtual(boolean virtual) {
+    this.virtual = virtual && VirtualThreads.isSupported();
+    return this.virtual;
   }
 
   public ThreadGroup getThreadGroup() {
     return threadGroup;
   }
 
+  /**
+   * @return number of live threads created by this factory, platform and virtual
+   */
+  public int getActiveCount() {
+    return threadGroup.activeCount() + virtualThreads.size();
+  }
+
+  /**
+   * @return live threads created by this factory, platform and virtual
+   */
+  public List<Thread> getThreads() {
+    Thread[] threads = new Thread[threadGroup.activeCount()];
+    int count = threadGroup.enumerate(threads);
+    List<Thread> list = new ArrayList<Thread>(count + virtualThreads.size());
+    for (int i = 0; i < count; i++) {
+      list.add(threads[i]);
+    }
+    list.addAll(virtualThreads);
+    return list;
+  }
+
 }
@@ -78,6 +78,11 @@ class CommonScheduledExecutorService extends ScheduledThreadPoolExecutor {
   private IStatisticManager statisticFactory;
 
   CommonScheduledExecutorService(String name, Configuration config, final IConcurrentEntityFactory entityFactory, IStatisticManager statisticFactory) {
+    this(name, config, entityFactory, statisticFactory, false);
+  }
+
+  CommonScheduledExecutorService(String name, Configuration config, final IConcurrentEntityFactory entityFactory, IStatisticManager statisticFactory,
+      boolean virtualThreads) {
     super(config == null ? (Integer) Parameters.ConcurrentEntityPoolSize.defValue() : config.getIntValue(Parameters.ConcurrentEntityPoolSize.ordinal(),
         (Integer) Parameters.ConcurrentEntityPoolSize.defValue()));
     this.statisticFactory = statisticFactory;
@@ -104,6 +109,9 @@ class CommonScheduledExecutorService extends ScheduledThreadPoolExecutor {
     } else {
       this.setThreadFactory(entityFactory.newThreadFactory(config.getStringValue(Parameters.ConcurrentEntityDescription.ordinal(), name)));
     }
+    if (virtualThreads && getThreadFactory() instanceof BaseThreadFactory) {
+      ((BaseThreadFactory) getThreadFactory()).setVirtual(true);
+    }
 
     super.setRejectedExecutionHandler(entityFactory.newRejectedExecutionHandler(rejectedCount));
   }
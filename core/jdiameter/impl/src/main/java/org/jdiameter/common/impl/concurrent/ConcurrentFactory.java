@@ -43,7 +43,6 @@
 package org.jdiameter.common.impl.concurrent;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -58,6 +57,8 @@ import org.jdiameter.common.api.concurrent.IConcurrentFactory;
 import org.jdiameter.common.api.statistic.IStatistic;
 import org.jdiameter.common.api.statistic.IStatisticManager;
 import org.jdiameter.common.api.statistic.IStatisticRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -66,7 +67,10 @@ import org.jdiameter.common.api.statistic.IStatisticRecord;
  */
 public class ConcurrentFactory implements IConcurrentFactory {
 
+  private static final Logger logger = LoggerFactory.getLogger(ConcurrentFactory.class);
+
   private BaseThreadFactory threadFactory;
+  private boolean virtualThreads;
 
   private Map<String, CommonScheduledExecutorService> scheduledExecutorServices;
   private Configuration[] config;
@@ -84,6 +88,16 @@ public class ConcurrentFactory implements IConcurrentFactory {
 
     threadFactory = (BaseThreadFactory) entityFactory.newThreadFactory(defThreadGroupName);
 
+    if (config.getBooleanValue(Parameters.VirtualThreads.ordinal(), (Boolean) Parameters.VirtualThreads.defValue())) {
+      virtualThreads = threadFactory.setVirtual(true);
+      if (virtualThreads) {
+        logger.info("Stack threads and executors will run on virtual threads");
+      }
+      else {
+        logger.warn("Virtual threads are not supported by this runtime (JDK 21+ required), using platform threads");
+      }
+    }
+
     scheduledExecutorServices = new ConcurrentHashMap<String, CommonScheduledExecutorService>();
     IStatisticRecord threadCount = statisticFactory.newCounterRecord(
         IStatisticRecord.Counters.ConcurrentThread,
@@ -95,7 +109,7 @@ public class ConcurrentFactory implements IConcurrentFactory {
 
           @Override
           public int getValueAsInt() {
-            return getThreadGroup().activeCount();
+            return threadFactory.getActiveCount();
           }
         });
 
@@ -144,9 +158,7 @@ public class ConcurrentFactory implements IConcurrentFactory {
 
   @Override
   public List<Thread> getThreads() {
-    Thread[] threads = new Thread[threadFactory.getThreadGroup().activeCount()];
-    threadFactory.getThreadGroup().enumerate(threads);
-    return Arrays.asList(threads);
+    return threadFactory.getThreads();
   }
 
   @Override
@@ -161,7 +173,7 @@ public class ConcurrentFactory implements IConcurrentFactory {
       //ZhixiaoLuo: fix StatisticManagerImpl.IllegalArgumentException if 2 sessions try to get ApplicationSession service
       synchronized (ConcurrentFactory.class) {
         if (!scheduledExecutorServices.containsKey(name)) {
-          service = new CommonScheduledExecutorService(name, getConfigByName(name), this.entityFactory, statisticFactory);
+          service = new CommonScheduledExecutorService(name, getConfigByName(name), this.entityFactory, statisticFactory, virtualThreads);
           scheduledExecutorServices.put(name, service);
         }
       }
@@ -0,0 +1,224 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.common.impl.concurrent;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timeouts of many requests sharing a single scheduled task, instead of one {@link java.util.concurrent.ScheduledFuture}
+ * for each of them. Tasks are kept in FIFO queues per timeout value; as requests mostly use one or few timeout values,
+ * each queue is ordered by deadline and expired tasks are always at its head. While any task is pending the queues are
+ * checked every {@link #TICK} milliseconds, which is the resolution of the timeouts. Expired tasks are handed to the
+ * executor, so they run on its threads in parallel and not one after another in the check.
+ *
+ * Cancelled tasks are released at once; their entries are removed when they reach the head of the queue, or
+ * earlier when they make up more than half of the pending entries.
+ */
+public final class TimeoutQueue {
+
+  private static final Logger logger = LoggerFactory.getLogger(TimeoutQueue.class);
+
+  static final long TICK = 10;
+  // cancelled entries are removed from the middle of the queues only above this count
+  static final int COMPACT_THRESHOLD = 1024;
+
+  // queue refers to its executor weakly, so an executor which is no longer used can be collected together with its queue
+  private static final Map<ScheduledExecutorService, TimeoutQueue> queues = new WeakHashMap<ScheduledExecutorService, TimeoutQueue>();
+  private static volatile TimeoutQueue lastUsed;
+
+  private final WeakReference<ScheduledExecutorService> executor;
+  private final ConcurrentHashMap<Long, Queue<Timeout>> entries = new ConcurrentHashMap<Long, Queue<Timeout>>();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicInteger cancelled = new AtomicInteger();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  private final Runnable sweeper = new Runnable() {
+    @Override
+    public void run() {
+      sweep();
+    }
+  };
+
+  private TimeoutQueue(ScheduledExecutorService executor) {
+    this.executor = new WeakReference<ScheduledExecutorService>(executor);
+  }
+
+  /**
+   * @return queue whose expired tasks are run by given executor
+   */
+  public static TimeoutQueue forExecutor(ScheduledExecutorService executor) {
+    TimeoutQueue queue = lastUsed;
+    if (queue != null && queue.executor.get() == executor) {
+      return queue;
+    }
+    synchronized (queues) {
+      queue = queues.get(executor);
+      if (queue == null) {
+        queue = new TimeoutQueue(executor);
+        queues.put(executor, queue);
+      }
+    }
+    lastUsed = queue;
+    return queue;
+  }
+
+  /**
+   * Runs task once timeout elapses
+   *
+   * @return handle to cancel the task
+   */
+  public Timeout add(Runnable task, long timeout, TimeUnit unit) {
+    long timeoutNanos = unit.toNanos(timeout);
+    Queue<Timeout> queue = entries.get(timeoutNanos);
+    if (queue == null) {
+      queue = new ConcurrentLinkedQueue<Timeout>();
+      Queue<Timeout> existing = entries.putIfAbsent(timeoutNanos, queue);
+      if (existing != null) {
+        queue = existing;
+      }
+    }
+    Timeout entry = new Timeout(System.nanoTime() + timeoutNanos, task);
+    queue.offer(entry);
+    pending.incrementAndGet();
+    schedule();
+    return entry;
+  }
+
+  /**
+   * @return number of tasks waiting for their timeout, including cancelled ones not removed yet
+   */
+  public int size() {
+    return pending.get();
+  }
+
+  private void schedule() {
+    ScheduledExecutorService executor = this.executor.get();
+    if (executor != null && scheduled.compareAndSet(false, true)) {
+      try {
+        executor.schedule(sweeper, TICK, TimeUnit.MILLISECONDS);
+      }
+      catch (RejectedExecutionException e) {
+        scheduled.set(false);
+        logger.debug("Executor does not accept timeout checks anymore, {} timeouts will not fire", pending.get());
+      }
+    }
+  }
+
+  // only one sweep runs at a time, so peek() and poll() below see the same head
+  private void sweep() {
+    long now = System.nanoTime();
+    try {
+      for (Queue<Timeout> queue : entries.values()) {
+        Timeout entry;
+        while ((entry = queue.peek()) != null && entry.deadline - now <= 0) {
+          queue.poll();
+          pending.decrementAndGet();
+          Runnable task = entry.getAndSet(null);
+          if (task == null) {
+            cancelled.decrementAndGet();
+          }
+          else {
+            execute(task);
+          }
+        }
+      }
+      int count = cancelled.get();
+      if (count > COMPACT_THRESHOLD && count > pending.get() / 2) {
+        compact();
+      }
+    }
+    finally {
+      scheduled.set(false);
+      if (pending.get() > 0) {
+        schedule();
+      }
+    }
+  }
+
+  private void execute(Runnable task) {
+    ScheduledExecutorService executor = this.executor.get();
+    try {
+      if (executor != null) {
+        executor.execute(task);
+        return;
+      }
+    }
+    catch (RejectedExecutionException e) {
+      logger.debug("Executor does not accept timeouts anymore, running it in place");
+    }
+    try {
+      task.run();
+    }
+    catch (Throwable e) {
+      logger.debug("Can not process timeout", e);
+    }
+  }
+
+  private void compact() {
+    for (Queue<Timeout> queue : entries.values()) {
+      for (Iterator<Timeout> it = queue.iterator(); it.hasNext(); ) {
+        if (it.next().get() == null) {
+          it.remove();
+          pending.decrementAndGet();
+          cancelled.decrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * Pending task, holds the task until it is run or cancelled
+   */
+  public final class Timeout extends AtomicReference<Runnable> {
+
+    private static final long serialVersionUID = 1L;
+
+    final long deadline;
+
+    Timeout(long deadline, Runnable task) {
+      super(task);
+      this.deadline = deadline;
+    }
+
+    /**
+     * Release the task, it will not run
+     */
+    public void cancel() {
+      if (getAndSet(null) != null) {
+        cancelled.incrementAndGet();
+      }
+    }
+  }
+}
@@ -0,0 +1,94 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.common.impl.concurrent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access to virtual threads (JDK 21+). The stack is built for older JDKs, so the API is looked up
+ * reflectively once; on older runtimes {@link #isSupported()} returns false.
+ */
+final class VirtualThreads {
+
+  private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+  // Thread.ofVirtual(), Thread.Builder.name(String), Thread.Builder.unstarted(Runnable)
+  private static final MethodHandle ofVirtual;
+  private static final MethodHandle name;
+  private static final MethodHandle unstarted;
+
+  static {
+    MethodHandle ofVirtualHandle = null;
+    MethodHandle nameHandle = null;
+    MethodHandle unstartedHandle = null;
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      Class<?> ofVirtualBuilder = Class.forName("java.lang.Thread$Builder$OfVirtual");
+      ofVirtualHandle = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(ofVirtualBuilder));
+      nameHandle = lookup.findVirtual(builder, "name", MethodType.methodType(builder, String.class));
+      unstartedHandle = lookup.findVirtual(builder, "unstarted", MethodType.methodType(Thread.class, Runnable.class));
+    }
+    catch (Exception e) {
+      logger.debug("Virtual threads are not available in this runtime", e);
+      ofVirtualHandle = null;
+    }
+    ofVirtual = ofVirtualHandle;
+    name = nameHandle;
+    unstarted = unstartedHandle;
+  }
+
+  private VirtualThreads() {
+  }
+
+  static boolean isSupported() {
+    return ofVirtual != null;
+  }
+
+  /**
+   * Create unstarted virtual thread
+   *
+   * @throws UnsupportedOperationException if runtime has no virtual threads
+   */
+  static Thread newThread(String threadName, Runnable runnable) {
+    if (ofVirtual == null) {
+      throw new UnsupportedOperationException("Virtual threads require JDK 21 or newer");
+    }
+    try {
+      Object builder = ofVirtual.invoke();
+      builder = name.invoke(builder, threadName);
+      return (Thread) unstarted.invoke(builder, runnable);
+    }
+    catch (RuntimeException e) {
+      throw e;
+    }
+    catch (Error e) {
+      throw e;
+    }
+    catch (Throwable e) {
+      throw new IllegalStateException("Unable to create virtual thread", e);
+    }
+  }
+}
@@ -65,6 +65,8 @@ import org.jdiameter.common.api.app.sh.IShSessionData;
 import org.jdiameter.common.api.app.slg.ISLgSessionData;
 import org.jdiameter.common.api.app.slh.ISLhSessionData;
 import org.jdiameter.common.api.data.ISessionDatasource;
+import org.jdiameter.common.api.data.ISessionIndex;
+import org.jdiameter.common.api.data.ISessionKeyExtractor;
 import org.jdiameter.common.impl.app.acc.AccLocalSessionDataFactory;
 import org.jdiameter.common.impl.app.auth.AuthLocalSessionDataFactory;
 import org.jdiameter.common.impl.app.cca.CCALocalSessionDataFactory;
@@ -94,6 +96,7 @@ public class LocalDataSource implements ISessionDatasource {
       new HashMap<Class<? extends IAppSessionData>, IAppSessionDataFactory<? extends IAppSessionData>>();
 
   private ConcurrentHashMap<String, SessionEntry> sessionIdToEntry = new ConcurrentHashMap<String, LocalDataSource.SessionEntry>();
+  private ConcurrentHashMap<String, SessionIndex> indexes = new ConcurrentHashMap<String, SessionIndex>();
 
   private static final Logger logger = LoggerFactory.getLogger(LocalDataSource.class);
 
@@ -177,6 +180,9 @@ public class LocalDataSource implements ISessionDatasource {
     }
     se.session = session;
     this.sessionIdToEntry.put(session.getSessionId(), se);
+    for (SessionIndex index : indexes.values()) {
+      index.sessionAdded(session);
+    }
   }
 
   @Override
@@ -190,6 +196,23 @@ public class LocalDataSource implements ISessionDatasource {
   public void removeSession(String sessionId) {
     SessionEntry se = this.sessionIdToEntry.remove(sessionId);
     logger.debug("removeSession({}) => {}", sessionId, se);
+    for (SessionIndex index : indexes.values()) {
+      index.sessionRemoved(sessionId);
+    }
+  }
+
+  @Override
+  public ISessionIndex addIndex(String name, ISessionKeyExtractor extractor) {
+    SessionIndex index = new SessionIndex(name, this, extractor);
+    if (indexes.putIfAbsent(name, index) != null) {
+      throw new IllegalArgumentException("Session index " + name + " already exists");
+    }
+    return index;
+  }
+
+  @Override
+  public ISessionIndex getIndex(String name) {
+    return indexes.get(name);
   }
 
 
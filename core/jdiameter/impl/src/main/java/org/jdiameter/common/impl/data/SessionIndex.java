@@ -0,0 +1,150 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.common.impl.data;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jdiameter.api.BaseSession;
+import org.jdiameter.common.api.data.ISessionDatasource;
+import org.jdiameter.common.api.data.ISessionIndex;
+import org.jdiameter.common.api.data.ISessionKeyExtractor;
+
+/**
+ * Local implementation of {@link ISessionIndex}. Datasource calls {@link #sessionAdded(BaseSession)} and
+ * {@link #sessionRemoved(String)} so bindings follow session lifecycle. A binding made while the session is being
+ * removed is detected by checking the session still exists after binding, and is rolled back.
+ */
+public class SessionIndex implements ISessionIndex {
+
+  private final String name;
+  private final ISessionDatasource datasource;
+  private final ISessionKeyExtractor extractor;
+
+  private final ConcurrentHashMap<String, String> keyToSessionId = new ConcurrentHashMap<String, String>();
+  private final ConcurrentHashMap<String, Set<String>> sessionIdToKeys = new ConcurrentHashMap<String, Set<String>>();
+
+  public SessionIndex(String name, ISessionDatasource datasource, ISessionKeyExtractor extractor) {
+    this.name = name;
+    this.datasource = datasource;
+    this.extractor = extractor;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getSessionId(String key) {
+    return keyToSessionId.get(key);
+  }
+
+  @Override
+  public boolean bind(String key, String sessionId) {
+    String previous = keyToSessionId.put(key, sessionId);
+    if (previous != null && !previous.equals(sessionId)) {
+      Set<String> keys = sessionIdToKeys.get(previous);
+      if (keys != null) {
+        keys.remove(key);
+      }
+    }
+    getKeys(sessionId).add(key);
+    if (!datasource.exists(sessionId)) {
+      // released meanwhile, its bindings may have been removed already
+      unbind(key, sessionId);
+      sessionIdToKeys.remove(sessionId);
+      return false;
+    }
+    keyBound(key, sessionId);
+    return true;
+  }
+
+  @Override
+  public boolean unbind(String key, String sessionId) {
+    Set<String> keys = sessionIdToKeys.get(sessionId);
+    if (keys != null) {
+      keys.remove(key);
+    }
+    if (keyToSessionId.remove(key, sessionId)) {
+      keyUnbound(key, sessionId);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public int size() {
+    return keyToSessionId.size();
+  }
+
+  public void sessionAdded(BaseSession session) {
+    if (extractor == null) {
+      return;
+    }
+    String[] keys = extractor.getKeys(session);
+    if (keys != null) {
+      for (String key : keys) {
+        bind(key, session.getSessionId());
+      }
+    }
+  }
+
+  public void sessionRemoved(String sessionId) {
+    Set<String> keys = sessionIdToKeys.remove(sessionId);
+    if (keys != null) {
+      for (String key : keys) {
+        if (keyToSessionId.remove(key, sessionId)) {
+          keyUnbound(key, sessionId);
+        }
+      }
+    }
+  }
+
+  /**
+   * Called after key was bound to existing session
+   */
+  protected void keyBound(String key, String sessionId) {
+  }
+
+  /**
+   * Called after binding of key to session was removed
+   */
+  protected void keyUnbound(String key, String sessionId) {
+  }
+
+  private Set<String> getKeys(String sessionId) {
+    Set<String> keys = sessionIdToKeys.get(sessionId);
+    if (keys == null) {
+      keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+      Set<String> existing = sessionIdToKeys.putIfAbsent(sessionId, keys);
+      if (existing != null) {
+        keys = existing;
+      }
+    }
+    return keys;
+  }
+
+  @Override
+  public String toString() {
+    return "SessionIndex [name=" + name + ", size=" + size() + "]";
+  }
+}
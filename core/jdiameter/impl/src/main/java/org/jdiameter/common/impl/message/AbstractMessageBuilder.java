@@ -0,0 +1,47 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.message;
+
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.Message;
+
+/**
+ * Base of typed builders generated by {@link MessageViewGenerator}. Setters add AVPs straight to the AVP set of
+ * the message with code, vendor and flags taken from the dictionary, so no lookups happen when message is built.
+ *
+ * @param <M> type of built message
+ */
+public abstract class AbstractMessageBuilder<M extends Message> {
+
+  protected final M message;
+  protected final AvpSet avps;
+
+  protected AbstractMessageBuilder(M message) {
+    this.message = message;
+    this.avps = message.getAvps();
+  }
+
+  /**
+   * @return built message
+   */
+  public M build() {
+    return message;
+  }
+}
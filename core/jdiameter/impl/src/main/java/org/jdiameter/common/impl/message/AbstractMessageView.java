@@ -0,0 +1,103 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.message;
+
+import java.util.Arrays;
+
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.Message;
+
+/**
+ * Base of typed read-only views generated by {@link MessageViewGenerator}. The top level AVPs of the message are
+ * located once, when the view is created, and kept in slots of the AVPs defined for the command, so typed getters
+ * do not scan the AVP set again. Values are decoded by the getter, the view holds no decoded values.
+ * <br><br>
+ * Views are not thread safe, and do not see AVPs added to the message after they were created.
+ */
+public abstract class AbstractMessageView {
+
+  private static final Avp[] NONE = new Avp[0];
+
+  private final Message message;
+  private final Avp[][] slots;
+
+  /**
+   * @param keys sorted keys of AVPs defined for the command, see {@link #key(int, long)}; index of a key is its slot
+   */
+  protected AbstractMessageView(Message message, long[] keys) {
+    this.message = message;
+    this.slots = new Avp[keys.length][];
+    AvpSet avps = message.getAvps();
+    int size = avps.size();
+    int[] positions = new int[size];
+    int[] counts = new int[keys.length];
+    for (int i = 0; i < size; i++) {
+      Avp avp = avps.getAvpByIndex(i);
+      int slot = Arrays.binarySearch(keys, key(avp.getCode(), avp.getVendorId()));
+      positions[i] = slot;
+      if (slot >= 0) {
+        counts[slot]++;
+      }
+    }
+    for (int slot = 0; slot < keys.length; slot++) {
+      slots[slot] = counts[slot] == 0 ? NONE : new Avp[counts[slot]];
+      counts[slot] = 0;
+    }
+    for (int i = 0; i < size; i++) {
+      int slot = positions[i];
+      if (slot >= 0) {
+        slots[slot][counts[slot]++] = avps.getAvpByIndex(i);
+      }
+    }
+  }
+
+  public static long key(int code, long vendorId) {
+    return ((long) code << 32) | (vendorId & 0xffffffffL);
+  }
+
+  /**
+   * @return message this view reads
+   */
+  public Message getMessage() {
+    return message;
+  }
+
+  protected boolean has(int slot) {
+    return slots[slot].length > 0;
+  }
+
+  protected int count(int slot) {
+    return slots[slot].length;
+  }
+
+  protected Avp avp(int slot) throws AvpDataException {
+    return avp(slot, 0);
+  }
+
+  protected Avp avp(int slot, int index) throws AvpDataException {
+    Avp[] avps = slots[slot];
+    if (index >= avps.length) {
+      throw new AvpDataException("AVP " + index + " of slot " + slot + " is not present, " + avps.length + " found");
+    }
+    return avps[index];
+  }
+}
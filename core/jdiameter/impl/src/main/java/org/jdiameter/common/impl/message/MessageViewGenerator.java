@@ -0,0 +1,372 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.message;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jdiameter.api.validation.AvpRepresentation;
+import org.jdiameter.api.validation.MessageRepresentation;
+import org.jdiameter.common.impl.validation.DictionaryImpl;
+
+/**
+ * Generates typed views ({@link AbstractMessageView}) and builders ({@link AbstractMessageBuilder}) for commands of
+ * a dictionary. For each command <code>Credit-Control-Request</code> it writes <code>CreditControlRequestView</code>
+ * and <code>CreditControlRequestBuilder</code> with a getter/setter for each AVP the command defines. Sources are
+ * meant to be generated at build time, e.g. from <code>exec-maven-plugin</code> in <code>generate-sources</code>
+ * phase, with
+ * <pre>
+ *   java org.jdiameter.common.impl.message.MessageViewGenerator dictionary.xml directory package [command ...]
+ * </pre>
+ * If no commands are given, all commands of the dictionary are generated.
+ */
+public final class MessageViewGenerator {
+
+  private final DictionaryImpl dictionary;
+  private final String packageName;
+  private final Set<String> classNames = new HashSet<String>();
+
+  public MessageViewGenerator(DictionaryImpl dictionary, String packageName) {
+    this.dictionary = dictionary;
+    this.packageName = packageName;
+  }
+
+  /**
+   * Write view and builder of command to directory, in subdirectories of the package
+   *
+   * @return generated class names, without View/Builder suffix
+   */
+  public List<String> generate(File directory, String... commands) throws IOException {
+    List<String> generated = new ArrayList<String>();
+    Set<String> names = new HashSet<String>(Arrays.asList(commands));
+    List<MessageRepresentation> messages = new ArrayList<MessageRepresentation>(dictionary.getCommandMap().keySet());
+    Collections.sort(messages, new Comparator<MessageRepresentation>() {
+      @Override
+      public int compare(MessageRepresentation o1, MessageRepresentation o2) {
+        if (o1.getApplicationId() != o2.getApplicationId()) {
+          return o1.getApplicationId() < o2.getApplicationId() ? -1 : 1;
+        }
+        if (o1.getCommandCode() != o2.getCommandCode()) {
+          return o1.getCommandCode() - o2.getCommandCode();
+        }
+        return o1.isRequest() == o2.isRequest() ? 0 : (o1.isRequest() ? -1 : 1);
+      }
+    });
+    File packageDirectory = new File(directory, packageName.replace('.', File.separatorChar));
+    if (!packageDirectory.isDirectory() && !packageDirectory.mkdirs()) {
+      throw new IOException("Unable to create directory " + packageDirectory);
+    }
+    for (MessageRepresentation message : messages) {
+      if (!names.isEmpty() && !names.contains(message.getName())) {
+        continue;
+      }
+      String className = toJavaName(message.getName());
+      if (!classNames.add(className)) {
+        // same command name defined by other application
+        className = className + message.getApplicationId();
+        classNames.add(className);
+      }
+      List<Field> fields = getFields(message);
+      write(new File(packageDirectory, className + "View.java"), generateView(message, className, fields));
+      write(new File(packageDirectory, className + "Builder.java"), generateBuilder(message, className, fields));
+      generated.add(className);
+    }
+    return generated;
+  }
+
+  private List<Field> getFields(MessageRepresentation message) {
+    List<Field> fields = new ArrayList<Field>();
+    Set<String> fieldNames = new HashSet<String>();
+    for (AvpRepresentation rule : message.getMessageAvps().values()) {
+      if (rule.getCode() < 0 || !rule.isAllowed()) {
+        continue;
+      }
+      AvpRepresentation avp = dictionary.getAvp(rule.getCode(), rule.getVendorId());
+      if (avp == null || avp.isWeak()) {
+        continue;
+      }
+      String name = toJavaName(avp.getName());
+      if (!fieldNames.add(name)) {
+        continue;
+      }
+      String multiplicity = rule.getMultiplicityIndicator();
+      boolean multiple = !AvpRepresentation._MP_ONE.equals(multiplicity) && !AvpRepresentation._MP_ZERO_OR_ONE.equals(multiplicity);
+      fields.add(new Field(avp, name, Type.of(avp), multiple));
+    }
+    for (Field field : fields) {
+      // get<X>Count() of a repeated AVP must not clash with getter of an AVP named X-Count
+      if (field.multiple && fieldNames.contains(field.name + "Count")) {
+        field.countName = field.name + "AvpCount";
+      }
+    }
+    Collections.sort(fields, new Comparator<Field>() {
+      @Override
+      public int compare(Field o1, Field o2) {
+        return o1.key < o2.key ? -1 : (o1.key == o2.key ? 0 : 1);
+      }
+    });
+    return fields;
+  }
+
+  private String generateView(MessageRepresentation message, String className, List<Field> fields) {
+    StringBuilder sb = new StringBuilder();
+    header(sb, message);
+    sb.append("import org.jdiameter.api.AvpDataException;\n");
+    if (hasGrouped(fields)) {
+      sb.append("import org.jdiameter.api.AvpSet;\n");
+    }
+    sb.append("import org.jdiameter.api.Message;\n");
+    sb.append("import org.jdiameter.common.impl.message.AbstractMessageView;\n\n");
+    sb.append("public class ").append(className).append("View extends AbstractMessageView {\n\n");
+    sb.append("  private static final long[] KEYS = {\n");
+    for (Field field : fields) {
+      sb.append("    key(").append(field.avp.getCode()).append(", ").append(field.avp.getVendorId()).append("L), // ")
+          .append(field.avp.getName()).append('\n');
+    }
+    sb.append("  };\n\n");
+    sb.append("  public ").append(className).append("View(Message message) {\n");
+    sb.append("    super(message, KEYS);\n");
+    sb.append("  }\n");
+    for (int slot = 0; slot < fields.size(); slot++) {
+      Field field = fields.get(slot);
+      sb.append('\n');
+      if (field.multiple) {
+        sb.append("  public int get").append(field.countName).append("() {\n");
+        sb.append("    return count(").append(slot).append(");\n");
+        sb.append("  }\n\n");
+        sb.append("  public ").append(field.type.javaType).append(" get").append(field.name)
+            .append("(int index) throws AvpDataException {\n");
+        sb.append("    return avp(").append(slot).append(", index).").append(field.type.getter).append("();\n");
+        sb.append("  }\n");
+      }
+      else {
+        sb.append("  public boolean has").append(field.name).append("() {\n");
+        sb.append("    return has(").append(slot).append(");\n");
+        sb.append("  }\n\n");
+        sb.append("  public ").append(field.type.javaType).append(" get").append(field.name).append("() throws AvpDataException {\n");
+        sb.append("    return avp(").append(slot).append(").").append(field.type.getter).append("();\n");
+        sb.append("  }\n");
+      }
+    }
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  private String generateBuilder(MessageRepresentation message, String className, List<Field> fields) {
+    StringBuilder sb = new StringBuilder();
+    header(sb, message);
+    if (hasGrouped(fields)) {
+      sb.append("import org.jdiameter.api.AvpSet;\n");
+    }
+    sb.append("import org.jdiameter.api.Message;\n");
+    sb.append("import org.jdiameter.common.impl.message.AbstractMessageBuilder;\n\n");
+    String builderName = className + "Builder";
+    sb.append("public class ").append(builderName).append("<M extends Message> extends AbstractMessageBuilder<M> {\n\n");
+    sb.append("  public ").append(builderName).append("(M message) {\n");
+    sb.append("    super(message);\n");
+    sb.append("  }\n");
+    for (Field field : fields) {
+      AvpRepresentation avp = field.avp;
+      String flags = avp.getVendorId() + "L, " + avp.isMandatory() + ", " + avp.isProtected();
+      sb.append('\n');
+      if (field.type == Type.GROUPED) {
+        sb.append("  public AvpSet add").append(field.name).append("() {\n");
+        sb.append("    return avps.addGroupedAvp(").append(avp.getCode()).append(", ").append(flags).append(");\n");
+        sb.append("  }\n");
+        continue;
+      }
+      sb.append("  public ").append(builderName).append("<M> ").append(field.multiple ? "add" : "set").append(field.name)
+          .append('(').append(field.type.javaType).append(" value) {\n");
+      sb.append("    avps.addAvp(").append(avp.getCode()).append(", value, ").append(flags).append(field.type.addSuffix).append(");\n");
+      sb.append("    return this;\n");
+      sb.append("  }\n");
+    }
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  private static boolean hasGrouped(List<Field> fields) {
+    for (Field field : fields) {
+      if (field.type == Type.GROUPED) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void header(StringBuilder sb, MessageRepresentation message) {
+    sb.append("/*\n");
+    sb.append(" * Generated by ").append(MessageViewGenerator.class.getName()).append(" from ").append(message.getName())
+        .append(" (application ").append(message.getApplicationId()).append(", command ").append(message.getCommandCode())
+        .append("), do not edit.\n");
+    sb.append(" */\n\n");
+    sb.append("package ").append(packageName).append(";\n\n");
+  }
+
+  private static void write(File file, String source) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write(source);
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * @return dictionary name such as <code>CC-Request-Number</code> as Java identifier part <code>CCRequestNumber</code>
+   */
+  static String toJavaName(String name) {
+    StringBuilder sb = new StringBuilder(name.length());
+    boolean upper = true;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (!Character.isLetterOrDigit(c)) {
+        upper = true;
+        continue;
+      }
+      sb.append(upper ? Character.toUpperCase(c) : c);
+      upper = false;
+    }
+    if (sb.length() == 0 || Character.isDigit(sb.charAt(0))) {
+      sb.insert(0, "Avp");
+    }
+    return sb.toString();
+  }
+
+  private static final class Field {
+
+    final AvpRepresentation avp;
+    final String name;
+    final Type type;
+    final boolean multiple;
+    final long key;
+    String countName;
+
+    Field(AvpRepresentation avp, String name, Type type, boolean multiple) {
+      this.avp = avp;
+      this.name = name;
+      this.type = type;
+      this.multiple = multiple;
+      this.key = AbstractMessageView.key(avp.getCode(), avp.getVendorId());
+      this.countName = name + "Count";
+    }
+  }
+
+  private enum Type {
+
+    OCTET_STRING("byte[]", "getOctetString", ""),
+    UTF8_STRING("String", "getUTF8String", ", false"),
+    IDENTITY("String", "getDiameterIdentity", ", true"),
+    INTEGER32("int", "getInteger32", ""),
+    INTEGER64("long", "getInteger64", ""),
+    UNSIGNED32("long", "getUnsigned32", ", true"),
+    UNSIGNED64("long", "getUnsigned64", ", false"),
+    FLOAT32("float", "getFloat32", ""),
+    FLOAT64("double", "getFloat64", ""),
+    ADDRESS("java.net.InetAddress", "getAddress", ""),
+    TIME("java.util.Date", "getTime", ""),
+    GROUPED("AvpSet", "getGrouped", "");
+
+    final String javaType;
+    final String getter;
+    // extra argument of AvpSet.addAvp selecting encoding of the value
+    final String addSuffix;
+
+    Type(String javaType, String getter, String addSuffix) {
+      this.javaType = javaType;
+      this.getter = getter;
+      this.addSuffix = addSuffix;
+    }
+
+    static Type of(AvpRepresentation avp) {
+      if (avp.isGrouped()) {
+        return GROUPED;
+      }
+      String type = avp.getOriginalType();
+      if ("UTF8String".equals(type) || "DiameterURI".equals(type) || "IPFilterRule".equals(type) || "QOSFilterRule".equals(type)) {
+        return UTF8_STRING;
+      }
+      if ("DiameterIdentity".equals(type)) {
+        return IDENTITY;
+      }
+      if ("Address".equals(type) || "IPAddress".equals(type)) {
+        return ADDRESS;
+      }
+      if ("Time".equals(type)) {
+        return TIME;
+      }
+      // derived types (Enumerated, AppId, ...) are read as their base type
+      type = avp.getType();
+      if ("Integer32".equals(type)) {
+        return INTEGER32;
+      }
+      if ("Integer64".equals(type)) {
+        return INTEGER64;
+      }
+      if ("Unsigned32".equals(type)) {
+        return UNSIGNED32;
+      }
+      if ("Unsigned64".equals(type)) {
+        return UNSIGNED64;
+      }
+      if ("Float32".equals(type)) {
+        return FLOAT32;
+      }
+      if ("Float64".equals(type)) {
+        return FLOAT64;
+      }
+      return OCTET_STRING;
+    }
+  }
+
+  /**
+   * @param args dictionary XML file, output directory, package of generated classes and optionally command names
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.out.println("Usage: MessageViewGenerator <dictionary.xml> <directory> <package> [command ...]");
+      return;
+    }
+    InputStream is = new FileInputStream(args[0]);
+    DictionaryImpl dictionary;
+    try {
+      dictionary = (DictionaryImpl) DictionaryImpl.getInstance(is);
+    }
+    finally {
+      is.close();
+    }
+    String[] commands = Arrays.copyOfRange(args, 3, args.length);
+    List<String> generated = new MessageViewGenerator(dictionary, args[2]).generate(new File(args[1]), commands);
+    System.out.println("Generated " + generated.size() + " views and builders in " + args[1]);
+  }
+}
@@ -0,0 +1,519 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2016, TeleStax Inc. and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package org.jdiameter.common.impl.validation;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jdiameter.api.validation.AvpRepresentation;
+import org.jdiameter.api.validation.MessageRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles parsed dictionary into compact binary form and loads it back, so the XML does not have to be parsed
+ * and resolved on every start. Compiled file name carries SHA-256 of the source XML, a changed XML never
+ * matches a stale file and is parsed (and compiled) again.
+ * <br><br>
+ * Compilation is enabled by <code>org.jdiameter.dictionary.cache</code> system property, which names the directory
+ * for compiled files. As compiled files are trusted on their hash alone, the directory is created accessible to its
+ * owner only, and the directory and files are only used if they are owned by the user running the stack and are not
+ * writable by group or others. Files can be prepared at build time with
+ * <pre>
+ *   java org.jdiameter.common.impl.validation.DictionaryCompiler dictionary.xml [directory]
+ * </pre>
+ * which also prints XML vs. compiled load times.
+ */
+public final class DictionaryCompiler {
+
+  private static final Logger logger = LoggerFactory.getLogger(DictionaryCompiler.class);
+
+  public static final String CACHE_PROPERTY = "org.jdiameter.dictionary.cache";
+
+  private static final int MAGIC = 0x4A444443; // JDDC
+  private static final int VERSION = 1;
+  private static final int NULL_STRING = -1;
+
+  private DictionaryCompiler() {
+  }
+
+  /**
+   * @return directory for compiled dictionaries or null if disabled
+   */
+  static File getCacheDirectory() {
+    String dir = System.getProperty(CACHE_PROPERTY);
+    if (dir == null || dir.length() == 0 || dir.equalsIgnoreCase("false")) {
+      return null;
+    }
+    return new File(dir);
+  }
+
+  /**
+   * @return true if file (or directory) is owned by the user running the stack and nobody else can write to it
+   */
+  static boolean isTrusted(File file) throws IOException {
+    Path path = file.toPath();
+    String owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS).getName();
+    String user = System.getProperty("user.name");
+    // windows owners are qualified by domain
+    if (!owner.equals(user) && !owner.endsWith("\\" + user)) {
+      return false;
+    }
+    PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+    if (view != null) {
+      Set<PosixFilePermission> permissions = view.readAttributes().permissions();
+      if (permissions.contains(PosixFilePermission.GROUP_WRITE) || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isPosix() {
+    return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+  }
+
+  static File getCompiledFile(File directory, String hash) {
+    return new File(directory, "dictionary-" + hash + ".bin");
+  }
+
+  static String hash(byte[] source) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(source);
+      StringBuilder sb = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return sb.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static byte[] readFully(InputStream is) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256 * 1024);
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = is.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Load compiled form of dictionary
+   *
+   * @return true if compiled dictionary for given hash was found and loaded into dictionary
+   */
+  static boolean load(DictionaryImpl dictionary, String hash) {
+    File directory = getCacheDirectory();
+    if (directory == null) {
+      return false;
+    }
+    File file = getCompiledFile(directory, hash);
+    if (!file.isFile()) {
+      return false;
+    }
+    try {
+      if (!isTrusted(directory) || !isTrusted(file)) {
+        logger.warn("Ignoring compiled dictionary {}, it or its directory is not owned by {} or is writable by others", file,
+            System.getProperty("user.name"));
+        return false;
+      }
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        new Reader(new DataInputStream(new ByteBufferInputStream(buffer))).read(dictionary, hash);
+        return true;
+      }
+      finally {
+        raf.close();
+      }
+    }
+    catch (Exception e) {
+      logger.warn("Unable to load compiled dictionary " + file + ", falling back to XML", e);
+      return false;
+    }
+  }
+
+  /**
+   * Store compiled form of configured dictionary. Failures are only logged, the dictionary is usable anyway.
+   */
+  static void store(DictionaryImpl dictionary, String hash) {
+    File directory = getCacheDirectory();
+    if (directory == null) {
+      return;
+    }
+    try {
+      store(dictionary, hash, directory);
+    }
+    catch (IOException e) {
+      logger.debug("Unable to store compiled dictionary in " + directory, e);
+    }
+  }
+
+  static File store(DictionaryImpl dictionary, String hash, File directory) throws IOException {
+    if (!directory.isDirectory()) {
+      if (isPosix()) {
+        Files.createDirectories(directory.toPath(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+      }
+      else {
+        Files.createDirectories(directory.toPath());
+      }
+    }
+    else if (!isTrusted(directory)) {
+      throw new IOException("Directory " + directory + " is not owned by " + System.getProperty("user.name") + " or is writable by others");
+    }
+    File file = getCompiledFile(directory, hash);
+    // write aside and rename, so concurrently starting stacks never see partial file; temp file is readable by owner only
+    File tmp = Files.createTempFile(directory.toPath(), "dictionary-", ".tmp").toFile();
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        new Writer(out).write(dictionary, hash);
+      }
+      finally {
+        out.close();
+      }
+      if (!tmp.renameTo(file) && !file.isFile()) {
+        throw new IOException("Unable to rename " + tmp + " to " + file);
+      }
+      logger.debug("Stored compiled dictionary {}", file);
+      return file;
+    }
+    finally {
+      if (tmp.exists()) {
+        tmp.delete();
+      }
+    }
+  }
+
+  private static class Writer {
+
+    private final DataOutput out;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    Writer(DataOutput out) {
+      this.out = out;
+    }
+
+    void write(DictionaryImpl dictionary, String hash) throws IOException {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(hash);
+
+      writeStringMap(dictionary.getVendorMap());
+      writeStringMap(dictionary.getTypedefMap());
+
+      // top level AVPs, the same instance can be in both AVP map and name map
+      Map<AvpRepresentation, Integer> index = new IdentityHashMap<AvpRepresentation, Integer>();
+      List<AvpRepresentation> avps = new ArrayList<AvpRepresentation>();
+      for (AvpRepresentation avp : dictionary.getAvpMap().values()) {
+        if (!index.containsKey(avp)) {
+          index.put(avp, avps.size());
+          avps.add(avp);
+        }
+      }
+      for (AvpRepresentation avp : dictionary.getNameToCodeMap().values()) {
+        if (!index.containsKey(avp)) {
+          index.put(avp, avps.size());
+          avps.add(avp);
+        }
+      }
+      out.writeInt(avps.size());
+      for (AvpRepresentation avp : avps) {
+        writeAvp((AvpRepresentationImpl) avp);
+      }
+      out.writeInt(dictionary.getAvpMap().size());
+      for (AvpRepresentation avp : dictionary.getAvpMap().values()) {
+        out.writeInt(index.get(avp));
+      }
+      out.writeInt(dictionary.getNameToCodeMap().size());
+      for (Map.Entry<String, AvpRepresentation> entry : dictionary.getNameToCodeMap().entrySet()) {
+        writeString(entry.getKey());
+        out.writeInt(index.get(entry.getValue()));
+      }
+
+      out.writeInt(dictionary.getCommandMap().size());
+      for (MessageRepresentation message : dictionary.getCommandMap().values()) {
+        MessageRepresentationImpl msg = (MessageRepresentationImpl) message;
+        out.writeInt(msg.getCommandCode());
+        out.writeLong(msg.getApplicationId());
+        out.writeBoolean(msg.isRequest());
+        writeString(msg.getName());
+        out.writeInt(msg.getMessageAvps().size());
+        for (AvpRepresentation avp : msg.getMessageAvps().values()) {
+          writeAvp((AvpRepresentationImpl) avp);
+        }
+      }
+    }
+
+    private void writeStringMap(Map<String, String> map) throws IOException {
+      out.writeInt(map.size());
+      for (Map.Entry<String, String> entry : map.entrySet()) {
+        writeString(entry.getKey());
+        writeString(entry.getValue());
+      }
+    }
+
+    private void writeAvp(AvpRepresentationImpl avp) throws IOException {
+      writeString(avp.name);
+      writeString(avp.description);
+      out.writeInt(avp.code);
+      out.writeLong(avp.vendor);
+      out.writeInt(avp.getPositionIndex());
+      writeString(avp.multiplicityIndicator);
+      writeString(avp.ruleMandatory);
+      writeString(avp.ruleProtected);
+      writeString(avp.ruleVendorBit);
+      writeString(avp.originalType);
+      writeString(avp.type);
+      out.writeBoolean(avp.mayEncrypt);
+      out.writeBoolean(avp._mandatory);
+      out.writeBoolean(avp._protected);
+      out.writeBoolean(avp.allowed);
+      out.writeBoolean(avp.grouped);
+      out.writeBoolean(avp.weak);
+      out.writeInt(avp.children.size());
+      for (AvpRepresentation child : avp.children) {
+        writeAvp((AvpRepresentationImpl) child);
+      }
+    }
+
+    /**
+     * Strings are written once, later occurrences refer to the first one by index
+     */
+    private void writeString(String value) throws IOException {
+      if (value == null) {
+        out.writeInt(NULL_STRING);
+        return;
+      }
+      Integer id = strings.get(value);
+      if (id != null) {
+        out.writeInt(id);
+      }
+      else {
+        id = strings.size();
+        strings.put(value, id);
+        out.writeInt(id);
+        out.writeUTF(value);
+      }
+    }
+  }
+
+  private static class Reader {
+
+    private final DataInput in;
+    private final List<String> strings = new ArrayList<String>();
+
+    Reader(DataInput in) {
+      this.in = in;
+    }
+
+    void read(DictionaryImpl dictionary, String hash) throws IOException {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a compiled dictionary of version " + VERSION);
+      }
+      if (!hash.equals(in.readUTF())) {
+        throw new IOException("Compiled dictionary does not match source");
+      }
+
+      Map<String, String> vendors = readStringMap();
+      Map<String, String> typedefs = readStringMap();
+
+      AvpRepresentation[] avps = new AvpRepresentation[in.readInt()];
+      for (int i = 0; i < avps.length; i++) {
+        avps[i] = readAvp();
+      }
+      Map<AvpRepresentation, AvpRepresentation> avpMap = new HashMap<AvpRepresentation, AvpRepresentation>();
+      for (int i = in.readInt(); i > 0; i--) {
+        AvpRepresentation avp = avps[in.readInt()];
+        avpMap.put(avp, avp);
+      }
+      Map<String, AvpRepresentation> avpByName = new HashMap<String, AvpRepresentation>();
+      for (int i = in.readInt(); i > 0; i--) {
+        avpByName.put(readString(), avps[in.readInt()]);
+      }
+
+      Map<MessageRepresentation, MessageRepresentation> commands = new HashMap<MessageRepresentation, MessageRepresentation>();
+      for (int i = in.readInt(); i > 0; i--) {
+        MessageRepresentationImpl msg = new MessageRepresentationImpl(in.readInt(), in.readLong(), in.readBoolean(), readString());
+        Map<AvpRepresentation, AvpRepresentation> msgAvps = new HashMap<AvpRepresentation, AvpRepresentation>();
+        for (int j = in.readInt(); j > 0; j--) {
+          AvpRepresentation avp = readAvp();
+          msgAvps.put(avp, avp);
+        }
+        msg.setMessageAvps(msgAvps);
+        commands.put(msg, msg);
+      }
+
+      dictionary.restore(vendors, typedefs, avpMap, avpByName, commands);
+    }
+
+    private Map<String, String> readStringMap() throws IOException {
+      int size = in.readInt();
+      Map<String, String> map = new HashMap<String, String>(size * 2);
+      for (int i = 0; i < size; i++) {
+        map.put(readString(), readString());
+      }
+      return map;
+    }
+
+    private AvpRepresentationImpl readAvp() throws IOException {
+      AvpRepresentationImpl avp = new AvpRepresentationImpl();
+      avp.name = readString();
+      avp.description = readString();
+      avp.code = in.readInt();
+      avp.vendor = in.readLong();
+      avp.markFixPosition(in.readInt());
+      avp.multiplicityIndicator = readString();
+      avp.ruleMandatory = readString();
+      avp.ruleProtected = readString();
+      avp.ruleVendorBit = readString();
+      avp.originalType = readString();
+      avp.type = readString();
+      avp.mayEncrypt = in.readBoolean();
+      avp._mandatory = in.readBoolean();
+      avp._protected = in.readBoolean();
+      avp.allowed = in.readBoolean();
+      avp.grouped = in.readBoolean();
+      avp.weak = in.readBoolean();
+      int children = in.readInt();
+      List<AvpRepresentation> list = new ArrayList<AvpRepresentation>(children);
+      for (int i = 0; i < children; i++) {
+        list.add(readAvp());
+      }
+      avp.children = list;
+      return avp;
+    }
+
+    private String readString() throws IOException {
+      int id = in.readInt();
+      if (id == NULL_STRING) {
+        return null;
+      }
+      if (id < strings.size()) {
+        return strings.get(id);
+      }
+      if (id != strings.size()) {
+        throw new IOException("Corrupted string table");
+      }
+      String value = in.readUTF();
+      strings.add(value);
+      return value;
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+  }
+
+  /**
+   * Compile dictionary and compare load times of XML and compiled form
+   *
+   * @param args dictionary XML file and optionally directory for compiled file
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.out.println("Usage: DictionaryCompiler <dictionary.xml> [directory]");
+      return;
+    }
+    byte[] source = readFully(new FileInputStream(args[0]));
+    String hash = hash(source);
+    File directory = args.length > 1 ? new File(args[1]) : getCacheDirectory();
+    if (directory == null) {
+      System.out.println("No directory given and " + CACHE_PROPERTY + " property is not set");
+      return;
+    }
+    System.setProperty(CACHE_PROPERTY, directory.getPath());
+
+    final int rounds = 10;
+    DictionaryImpl dictionary = (DictionaryImpl) DictionaryImpl.getInstance(new ByteArrayInputStream(source));
+    long xmlTime = 0;
+    for (int i = 0; i < rounds; i++) {
+      long start = System.nanoTime();
+      dictionary.parse(new ByteArrayInputStream(source));
+      xmlTime += System.nanoTime() - start;
+    }
+    File file = store(dictionary, hash, directory);
+
+    long compiledTime = 0;
+    for (int i = 0; i < rounds; i++) {
+      long start = System.nanoTime();
+      if (!load(dictionary, hash)) {
+        System.out.println("Failed to load compiled dictionary " + file);
+        return;
+      }
+      compiledTime += System.nanoTime() - start;
+    }
+    System.out.println("Compiled " + args[0] + " to " + file + " (" + file.length() + " bytes)");
+    System.out.println("Average load time: XML " + (xmlTime / rounds / 1000000) + "ms, compiled " + (compiledTime / rounds / 1000000) + "ms");
+  }
+}
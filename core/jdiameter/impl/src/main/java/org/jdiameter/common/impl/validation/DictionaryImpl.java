@@ -42,6 +42,7 @@
 
 package org.jdiameter.common.impl.validation;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -213,37 +214,24 @@ public class DictionaryImpl implements Dictionary {
     }
     try {
       long startTime = System.currentTimeMillis();
-      this.avpByNameMap = new TreeMap<String, AvpRepresentation>(new Comparator<String>() {
-        @Override
-        public int compare(String o1, String o2) {
-          return (o1 == null) ? 1 : (o2 == null) ? -1 : o1.compareTo(o2);
-        }
-      });
-
-      this.vendorMap = new HashMap<String, String>();
-      this.typedefMap = new HashMap<String, String>();
-      this.avpMap = new HashMap<AvpRepresentation, AvpRepresentation>();
-      this.commandMap = new HashMap<MessageRepresentation, MessageRepresentation>();
-
-      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-      dbf.setValidating(false);
-      DocumentBuilder db = dbf.newDocumentBuilder();
-      Document doc = db.parse(is);
 
-      doc.getDocumentElement().normalize();
-
-      this.parseVendors(doc);
-      this.parseTypeDefs(doc);
-      this.parseAvps(doc);
-      this.parseCommands(doc);
+      // compiled form of the same XML, if present, spares parsing and resolving of AVP definitions
+      byte[] source = DictionaryCompiler.readFully(is);
+      String hash = DictionaryCompiler.hash(source);
+      boolean compiled = DictionaryCompiler.load(this, hash);
+      if (!compiled) {
+        this.parse(new ByteArrayInputStream(source));
+        DictionaryCompiler.store(this, hash);
+      }
 
       this.configured = true;
 
       long endTime = System.currentTimeMillis();
 
       if (logger.isInfoEnabled()) {
-        logger.info("Mobicents Diameter Dictionary loaded in {}ms -- Vendors[{}] Commands[{}] Types[{}] AVPs[{}]",
-            new Object[] { (endTime - startTime), vendorMap.size(), commandMap.size(), typedefMap.size(), avpMap.size() });
+        logger.info("Mobicents Diameter Dictionary loaded{} in {}ms -- Vendors[{}] Commands[{}] Types[{}] AVPs[{}]",
+            new Object[] { compiled ? " (compiled)" : "", (endTime - startTime), vendorMap.size(), commandMap.size(), typedefMap.size(),
+                avpMap.size() });
       }
 
       if (logger.isInfoEnabled()) {
@@ -278,6 +266,54 @@ public class DictionaryImpl implements Dictionary {
     }
   }
 
+  /**
+   * Parses Dictionary XML into fresh maps
+   *
+   * @param is the XML Document with the Dictionary definitions
+   */
+  void parse(InputStream is) throws Exception {
+    this.avpByNameMap = newAvpByNameMap();
+    this.vendorMap = new HashMap<String, String>();
+    this.typedefMap = new HashMap<String, String>();
+    this.avpMap = new HashMap<AvpRepresentation, AvpRepresentation>();
+    this.commandMap = new HashMap<MessageRepresentation, MessageRepresentation>();
+
+    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setValidating(false);
+    DocumentBuilder db = dbf.newDocumentBuilder();
+    Document doc = db.parse(is);
+
+    doc.getDocumentElement().normalize();
+
+    this.parseVendors(doc);
+    this.parseTypeDefs(doc);
+    this.parseAvps(doc);
+    this.parseCommands(doc);
+  }
+
+  /**
+   * Replaces maps with the ones loaded from compiled dictionary
+   */
+  void restore(Map<String, String> vendors, Map<String, String> typedefs, Map<AvpRepresentation, AvpRepresentation> avps,
+      Map<String, AvpRepresentation> avpsByName, Map<MessageRepresentation, MessageRepresentation> commands) {
+    Map<String, AvpRepresentation> byName = newAvpByNameMap();
+    byName.putAll(avpsByName);
+    this.vendorMap = vendors;
+    this.typedefMap = typedefs;
+    this.avpMap = avps;
+    this.avpByNameMap = byName;
+    this.commandMap = commands;
+  }
+
+  private static Map<String, AvpRepresentation> newAvpByNameMap() {
+    return new TreeMap<String, AvpRepresentation>(new Comparator<String>() {
+      @Override
+      public int compare(String o1, String o2) {
+        return (o1 == null) ? 1 : (o2 == null) ? -1 : o1.compareTo(o2);
+      }
+    });
+  }
+
   /**
    * Parses the <vendor /> attributes from a Dictionary XML Document
    *
@@ -0,0 +1,50 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.api;
+
+import org.jdiameter.api.Selector;
+
+/**
+ * Selector which tells which Application-Id and Command-Code it can match. The network uses
+ * these keys to index selectors, so for an incoming request {@link #checkRule(Object)} is only called on
+ * selectors which may match it instead of on all registered ones.
+ *
+ * @param <T> type of checked object
+ * @param <A> type of meta data
+ */
+public interface IIndexedSelector<T, A> extends Selector<T, A> {
+
+  /**
+   * Key value matching any Application-Id or Command-Code
+   */
+  long ANY = -1;
+
+  /**
+   * @return Auth-Application-Id, or Acct-Application-Id if there is none, of the message Application-Id
+   *         ({@link org.jdiameter.client.api.IMessage#getSingleApplicationId()}) this selector can match
+   *         or {@link #ANY}
+   */
+  long getApplicationIdKey();
+
+  /**
+   * @return Command-Code this selector can match or {@link #ANY}
+   */
+  long getCommandCodeKey();
+}
@@ -43,6 +43,7 @@
 package org.jdiameter.server.api;
 
 import org.jdiameter.api.ApplicationId;
+import org.jdiameter.api.AvpSet;
 import org.jdiameter.api.OverloadManager;
 import org.jdiameter.api.URI;
 
@@ -77,4 +78,46 @@ public interface IOverloadManager extends OverloadManager {
    * @param value overload value
    */
   void changeNotification(int index, URI uri, double value);
+
+  /**
+   * Recalculate local load level and traffic reduction from values collected since last call
+   */
+  void updateLocalLoad();
+
+  /**
+   * Return current local load level
+   * @return load level, 1.0 means full capacity is used
+   */
+  double getLocalLoad();
+
+  /**
+   * Return percentage of traffic reduction requested from reacting nodes
+   * @return reduction percentage (0 - 100)
+   */
+  int getReductionPercentage();
+
+  /**
+   * Return true if request has to be rejected because of local overload
+   * @param abatedBySender true if sender supports overload control (RFC 7683) and reduces traffic on its own
+   * @return true if request has to be rejected
+   */
+  boolean isLocalOverload(boolean abatedBySender);
+
+  /**
+   * Notification that a request is passed to an application
+   * @return processing start time (System.nanoTime())
+   */
+  long processingStarted();
+
+  /**
+   * Notification that application returned from request processing
+   * @param startTime value returned by {@link #processingStarted()}
+   */
+  void processingFinished(long startTime);
+
+  /**
+   * Append OC-Supported-Features and, if local node is overloaded, OC-OLR to an answer (RFC 7683)
+   * @param answerAvps AVPs of answer sent to a node supporting overload control
+   */
+  void appendOverloadReport(AvpSet answerAvps);
 }
@@ -70,6 +70,8 @@ import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jdiameter.api.Avp;
 import org.jdiameter.api.AvpDataException;
@@ -297,6 +299,7 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
           for (Peer p : peerTable.values()) {
             ((IPeer) p).notifyOvrManager(ovrManager);
           }
+          ovrManager.updateLocalLoad();
         }
       }
     };
@@ -400,7 +403,8 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
     return incConnections;
   }
 
-  private final Object regLock = new Object();
+  // not a monitor, so a virtual thread waiting here does not pin its carrier thread
+  private final Lock regLock = new ReentrantLock();
 
   private INetworkGuard createNetworkGuard(final ITransportLayerFactory transportFactory) throws TransportException {
     return transportFactory.createNetworkGuard(
@@ -411,7 +415,8 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
           public void newNetworkConnection(final IConnection connection) {
             //PCB added logging
             logger.debug("newNetworkConnection. connection [{}]", connection.getKey());
-            synchronized (regLock) {
+            regLock.lock();
+            try {
               final IConnectionListener listener = new IConnectionListener() {
                 @Override
                 public void connectionOpened(String connKey) {
@@ -570,6 +575,9 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
               connection.addConnectionListener(listener);
               logger.debug("Added listener [{}] to connection [{}]", listener, connKey);
             }
+            finally {
+              regLock.unlock();
+            }
           }
         }
         );
@@ -589,6 +597,7 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
     }
 
     peerTable.put(peer.getUri().getFQDN(), peer);
+    router.peerTableChanged(this);
     if (peerTableListener != null) {
       peerTableListener.peerAccepted(peer);
     }
@@ -640,6 +649,7 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
         it.remove();
       }
     }
+    router.peerTableChanged(this);
 
   }
 
@@ -708,6 +718,7 @@ public class MutablePeerTableImpl extends PeerTableImpl implements IMutablePeerT
       if (fqdn != null) {
         predefinedPeerTable.remove(fqdn);
         Peer removedPeer = peerTable.remove(fqdn);
+        router.peerTableChanged(this);
         if (peerTableListener != null) {
           peerTableListener.peerRemoved(removedPeer);
         }
@@ -87,6 +87,9 @@ public class NetworkImpl implements INetwork {
   private final ApplicationId commonAccAppId = ApplicationId.createByAccAppId(0, 0xffffffff);
   private final ConcurrentHashMap<ApplicationId, NetworkReqListener> appIdToNetListener = new ConcurrentHashMap<ApplicationId, NetworkReqListener>();
   private final ConcurrentHashMap<Selector, NetworkReqListener> selectorToNetListener = new ConcurrentHashMap<Selector, NetworkReqListener>();
+  // read-only snapshot of both maps used for dispatch, rebuilt on every change
+  private volatile NetworkListenerIndex listenerIndex = new NetworkListenerIndex(appIdToNetListener, selectorToNetListener,
+      commonAuthAppId, commonAccAppId);
 
   protected IStatistic statistic;
 
@@ -134,6 +137,7 @@ public class NetworkImpl implements INetwork {
       }
 
       appIdToNetListener.put(a, networkReqListener);
+      rebuildIndex();
       metaData.addApplicationId(a); // this has ALL config declared, we need currently deployed
       router.getRealmTable().addLocalApplicationId(a);
     }
@@ -143,6 +147,7 @@ public class NetworkImpl implements INetwork {
   public void addNetworkReqListener(NetworkReqListener listener, Selector<Message, ApplicationId>... selectors) {
     for (Selector<Message, ApplicationId> s : selectors) {
       selectorToNetListener.put(s, listener);
+      rebuildIndex();
       ApplicationId ap = s.getMetaData();
       metaData.addApplicationId(ap);
       router.getRealmTable().addLocalApplicationId(ap);
@@ -153,6 +158,7 @@ public class NetworkImpl implements INetwork {
   public void removeNetworkReqListener(ApplicationId... applicationId) {
     for (ApplicationId a : applicationId) {
       appIdToNetListener.remove(a);
+      rebuildIndex();
       for (Selector<Message, ApplicationId> s : selectorToNetListener.keySet()) {
         if (s.getMetaData().equals(a)) {
           return;
@@ -167,6 +173,7 @@ public class NetworkImpl implements INetwork {
   public void removeNetworkReqListener(Selector<Message, ApplicationId>... selectors) {
     for (Selector<Message, ApplicationId> s : selectors) {
       selectorToNetListener.remove(s);
+      rebuildIndex();
       if (appIdToNetListener.containsKey(s.getMetaData())) {
         return;
       }
@@ -245,26 +252,11 @@ public class NetworkImpl implements INetwork {
     if (message == null) {
       return null;
     }
-    for (Selector<Message, ApplicationId> s : selectorToNetListener.keySet()) {
-      boolean r = s.checkRule(message);
-      if (r) {
-        return selectorToNetListener.get(s);
-      }
-    }
+    return listenerIndex.getListener(message);
+  }
 
-    ApplicationId appId = message.getSingleApplicationId();
-    if (appId == null) {
-      return null;
-    }
-    if (appIdToNetListener.containsKey(commonAuthAppId)) {
-      return appIdToNetListener.get(commonAuthAppId);
-    }
-    else if (appIdToNetListener.containsKey(commonAccAppId)) {
-      return appIdToNetListener.get(commonAccAppId);
-    }
-    else {
-      return appIdToNetListener.get(appId);
-    }
+  private synchronized void rebuildIndex() {
+    listenerIndex = new NetworkListenerIndex(appIdToNetListener, selectorToNetListener, commonAuthAppId, commonAccAppId);
   }
 
   @Override
@@ -0,0 +1,205 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jdiameter.api.ApplicationId;
+import org.jdiameter.api.Message;
+import org.jdiameter.api.NetworkReqListener;
+import org.jdiameter.api.Selector;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.server.api.IIndexedSelector;
+
+/**
+ * Immutable dispatch index of network request listeners, rebuilt by {@link NetworkImpl} whenever listeners
+ * change (copy-on-write). Selectors implementing {@link IIndexedSelector} are partitioned by the Application-Id
+ * and Command-Code they test, other selectors are checked for every request. The Application-Id of a request
+ * is taken from its Application-Id AVPs ({@link IMessage#getSingleApplicationId()}), as relayed requests carry
+ * the relay id in the header. Lookups are binary searches over primitive arrays.
+ */
+final class NetworkListenerIndex {
+
+  private static final SelectorEntry[] NO_SELECTORS = new SelectorEntry[0];
+
+  private final NetworkReqListener commonListener;
+  private final Map<ApplicationId, NetworkReqListener> appListeners;
+  private final int selectorCount;
+
+  // selectors keyed by application id and command code, application id only, command code only
+  private final long[] exactKeys;
+  private final SelectorEntry[][] exactSelectors;
+  private final long[] appKeys;
+  private final SelectorEntry[][] appSelectors;
+  private final long[] commandKeys;
+  private final SelectorEntry[][] commandSelectors;
+  private final SelectorEntry[] otherSelectors;
+  // all selectors, checked one by one when request has no Application-Id
+  private final SelectorEntry[] allSelectors;
+
+  NetworkListenerIndex(Map<ApplicationId, NetworkReqListener> appListeners, Map<Selector, NetworkReqListener> selectors,
+      ApplicationId commonAuthAppId, ApplicationId commonAccAppId) {
+    this.appListeners = new HashMap<ApplicationId, NetworkReqListener>(appListeners);
+    NetworkReqListener common = appListeners.get(commonAuthAppId);
+    this.commonListener = common != null ? common : appListeners.get(commonAccAppId);
+    this.selectorCount = selectors.size();
+
+    TreeMap<Long, List<SelectorEntry>> exact = new TreeMap<Long, List<SelectorEntry>>();
+    TreeMap<Long, List<SelectorEntry>> byApp = new TreeMap<Long, List<SelectorEntry>>();
+    TreeMap<Long, List<SelectorEntry>> byCommand = new TreeMap<Long, List<SelectorEntry>>();
+    List<SelectorEntry> other = new ArrayList<SelectorEntry>();
+    List<SelectorEntry> all = new ArrayList<SelectorEntry>(selectors.size());
+    for (Map.Entry<Selector, NetworkReqListener> e : selectors.entrySet()) {
+      SelectorEntry entry = new SelectorEntry(e.getKey(), e.getValue());
+      all.add(entry);
+      if (e.getKey() instanceof IIndexedSelector) {
+        IIndexedSelector<?, ?> s = (IIndexedSelector<?, ?>) e.getKey();
+        long appId = s.getApplicationIdKey();
+        long commandCode = s.getCommandCodeKey();
+        if (appId != IIndexedSelector.ANY && commandCode != IIndexedSelector.ANY) {
+          add(exact, key(appId, commandCode), entry);
+        }
+        else if (appId != IIndexedSelector.ANY) {
+          add(byApp, appId, entry);
+        }
+        else if (commandCode != IIndexedSelector.ANY) {
+          add(byCommand, commandCode, entry);
+        }
+        else {
+          other.add(entry);
+        }
+      }
+      else {
+        other.add(entry);
+      }
+    }
+    this.exactKeys = keys(exact);
+    this.exactSelectors = values(exact);
+    this.appKeys = keys(byApp);
+    this.appSelectors = values(byApp);
+    this.commandKeys = keys(byCommand);
+    this.commandSelectors = values(byCommand);
+    this.otherSelectors = other.toArray(NO_SELECTORS);
+    this.allSelectors = all.toArray(NO_SELECTORS);
+  }
+
+  NetworkReqListener getListener(IMessage message) {
+    ApplicationId applicationId = message.getSingleApplicationId();
+    if (selectorCount > 0) {
+      NetworkReqListener listener;
+      if (applicationId == null) {
+        listener = check(allSelectors, message);
+      }
+      else {
+        long appId = getApplicationIdKey(applicationId);
+        int commandCode = message.getCommandCode();
+        listener = check(find(exactKeys, exactSelectors, key(appId, commandCode)), message);
+        if (listener == null) {
+          listener = check(find(appKeys, appSelectors, appId), message);
+        }
+        if (listener == null) {
+          listener = check(find(commandKeys, commandSelectors, commandCode), message);
+        }
+        if (listener == null) {
+          listener = check(otherSelectors, message);
+        }
+      }
+      if (listener != null) {
+        return listener;
+      }
+    }
+    if (applicationId == null) {
+      return null;
+    }
+    if (commonListener != null) {
+      return commonListener;
+    }
+    return appListeners.get(applicationId);
+  }
+
+  /**
+   * @return numeric id used as index key of Application-Id, the Auth-Application-Id if it is set
+   */
+  static long getApplicationIdKey(ApplicationId applicationId) {
+    return applicationId.getAuthAppId() != ApplicationId.UNDEFINED_VALUE ? applicationId.getAuthAppId() : applicationId.getAcctAppId();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static NetworkReqListener check(SelectorEntry[] entries, IMessage message) {
+    for (SelectorEntry entry : entries) {
+      if (((Selector<Message, ApplicationId>) entry.selector).checkRule(message)) {
+        return entry.listener;
+      }
+    }
+    return null;
+  }
+
+  private static SelectorEntry[] find(long[] keys, SelectorEntry[][] values, long key) {
+    int index = Arrays.binarySearch(keys, key);
+    return index >= 0 ? values[index] : NO_SELECTORS;
+  }
+
+  private static long key(long appId, long commandCode) {
+    return (appId << 24) | (commandCode & 0xffffffL);
+  }
+
+  private static void add(TreeMap<Long, List<SelectorEntry>> map, long key, SelectorEntry entry) {
+    List<SelectorEntry> list = map.get(key);
+    if (list == null) {
+      list = new ArrayList<SelectorEntry>(1);
+      map.put(key, list);
+    }
+    list.add(entry);
+  }
+
+  private static long[] keys(TreeMap<Long, List<SelectorEntry>> map) {
+    long[] keys = new long[map.size()];
+    int i = 0;
+    for (Long key : map.keySet()) {
+      keys[i++] = key;
+    }
+    return keys;
+  }
+
+  private static SelectorEntry[][] values(TreeMap<Long, List<SelectorEntry>> map) {
+    SelectorEntry[][] values = new SelectorEntry[map.size()][];
+    int i = 0;
+    for (List<SelectorEntry> list : map.values()) {
+      values[i++] = list.toArray(NO_SELECTORS);
+    }
+    return values;
+  }
+
+  private static final class SelectorEntry {
+
+    final Selector selector;
+    final NetworkReqListener listener;
+
+    SelectorEntry(Selector selector, NetworkReqListener listener) {
+      this.selector = selector;
+      this.listener = listener;
+    }
+  }
+}
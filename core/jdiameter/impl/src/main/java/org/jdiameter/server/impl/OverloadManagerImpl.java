@@ -45,6 +45,11 @@ package org.jdiameter.server.impl;
 import static org.jdiameter.client.impl.helpers.Parameters.AcctApplId;
 import static org.jdiameter.client.impl.helpers.Parameters.ApplicationId;
 import static org.jdiameter.client.impl.helpers.Parameters.AuthApplId;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlEnabled;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlLowWatermark;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlMaxInFlight;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlTargetLatency;
+import static org.jdiameter.client.impl.helpers.Parameters.OverloadControlValidity;
 import static org.jdiameter.client.impl.helpers.Parameters.VendorId;
 import static org.jdiameter.server.impl.helpers.Parameters.OverloadEntryIndex;
 import static org.jdiameter.server.impl.helpers.Parameters.OverloadEntryhighThreshold;
@@ -54,14 +59,22 @@ import static org.jdiameter.server.impl.helpers.Parameters.OverloadMonitor;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.jdiameter.api.ApplicationId;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpSet;
 import org.jdiameter.api.Configuration;
 import org.jdiameter.api.OverloadListener;
 import org.jdiameter.api.URI;
 import org.jdiameter.server.api.IOverloadManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -71,10 +84,38 @@ import org.jdiameter.server.api.IOverloadManager;
  */
 public class OverloadManagerImpl implements IOverloadManager {
 
+  private static final Logger logger = LoggerFactory.getLogger(OverloadManagerImpl.class);
+
+  // RFC 7683 values
+  private static final long OLR_DEFAULT_ALGO = 1L;
+  private static final int OC_REPORT_TYPE_HOST = 0;
+  // maximum decrease of reduction percentage per load update, increase is applied immediately
+  private static final int REDUCTION_RELEASE_STEP = 10;
+
   private ConcurrentLinkedQueue<OverloadInfo> listeners = new ConcurrentLinkedQueue<OverloadInfo>();
-  private ConcurrentHashMap<Object, AppOverloadInfo> appInfo = new ConcurrentHashMap<Object, AppOverloadInfo>();
+  private ConcurrentHashMap<ApplicationId, AppOverloadInfo> appInfo = new ConcurrentHashMap<ApplicationId, AppOverloadInfo>();
+
+  // Local load measurement
+  private final boolean overloadControl;
+  private final int maxInFlight;
+  private final long targetLatency;
+  private final double lowWatermark;
+  private final long validity;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong processingTime = new AtomicLong();
+  private final AtomicInteger processed = new AtomicInteger();
+  private volatile double queueFill;
+  private volatile double localLoad;
+  private volatile LocalReport report = new LocalReport(System.currentTimeMillis(), 0, 0);
 
   public OverloadManagerImpl(Configuration config) {
+    this.overloadControl = config.getBooleanValue(OverloadControlEnabled.ordinal(), (Boolean) OverloadControlEnabled.defValue());
+    this.maxInFlight = config.getIntValue(OverloadControlMaxInFlight.ordinal(), (Integer) OverloadControlMaxInFlight.defValue());
+    this.targetLatency = TimeUnit.MILLISECONDS.toNanos(
+        config.getLongValue(OverloadControlTargetLatency.ordinal(), (Long) OverloadControlTargetLatency.defValue()));
+    this.lowWatermark = config.getDoubleValue(OverloadControlLowWatermark.ordinal(), (Double) OverloadControlLowWatermark.defValue());
+    this.validity = config.getLongValue(OverloadControlValidity.ordinal(), (Long) OverloadControlValidity.defValue());
+
     Configuration[] entries = config.getChildren(OverloadMonitor.ordinal());
     if (entries == null) {
       return;
@@ -112,7 +153,7 @@ public class OverloadManagerImpl implements IOverloadManager {
 
   @Override
   public void parentAppOverloadDetected(ApplicationId applicationId, int type, double value) {
-    AppOverloadInfo app = appInfo.get(createKey(applicationId));
+    AppOverloadInfo app = applicationId != null ? appInfo.get(applicationId) : null;
     if (app != null) {
       app.updateInformation(type, value);
     }
@@ -120,37 +161,27 @@ public class OverloadManagerImpl implements IOverloadManager {
 
   @Override
   public void parentAppOverloadCeased(ApplicationId applicationId, int type) {
-    AppOverloadInfo app = appInfo.get(createKey(applicationId));
+    AppOverloadInfo app = applicationId != null ? appInfo.get(applicationId) : null;
     if (app != null) {
       app.updateInformation(type, 0);
     }
   }
 
-  private Object createKey(final ApplicationId appId) {
-    return new Object() {
-      @Override
-      public int hashCode() {
-        return appId.hashCode();
-      }
-      @Override
-      public boolean equals(Object obj) {
-        return appId.equals(obj);
-      }
-    };
-  }
-
   @Override
   public boolean isParenAppOverload(final ApplicationId appId) {
-    if (appId == null) {
+    if (appId == null || appInfo.isEmpty()) {
       return false;
     }
-    AppOverloadInfo app = appInfo.get( createKey(appId) );
+    AppOverloadInfo app = appInfo.get(appId);
     return app != null && app.isOverload();
   }
 
   @Override
   public boolean isParenAppOverload(final ApplicationId appId, final int type) {
-    AppOverloadInfo app = appInfo.get( createKey(appId) );
+    if (appId == null || appInfo.isEmpty()) {
+      return false;
+    }
+    AppOverloadInfo app = appInfo.get(appId);
     return app != null && app.isOverload(type);
   }
 
@@ -166,6 +197,10 @@ public class OverloadManagerImpl implements IOverloadManager {
 
   @Override
   public void changeNotification(int index, URI uri, double value) {
+    // index 0 carries peer FSM queue fill, keep the worst one until next load update
+    if (index == 0 && value > queueFill) {
+      queueFill = value;
+    }
     for (OverloadInfo e : listeners) {
       if (e.getCode() == index) {
         e.changeNotification(uri, value);
@@ -173,6 +208,114 @@ public class OverloadManagerImpl implements IOverloadManager {
     }
   }
 
+  @Override
+  public void updateLocalLoad() {
+    double load = queueFill;
+    queueFill = 0;
+    if (maxInFlight > 0) {
+      load = Math.max(load, inFlight.get() / (double) maxInFlight);
+    }
+    if (processed.getAndSet(0) == 0) {
+      // no request finished since last update, e.g. all are rejected at full reduction, so latency average
+      // would never move; let it fade, otherwise node never leaves overload
+      long current = processingTime.get();
+      processingTime.compareAndSet(current, current >> 1);
+    }
+    if (targetLatency > 0) {
+      load = Math.max(load, processingTime.get() / (double) targetLatency);
+    }
+    localLoad = load;
+
+    int target = 0;
+    if (load > lowWatermark) {
+      target = (int) Math.min(100, Math.ceil((load - lowWatermark) / Math.max(1 - lowWatermark, 0.01) * 100));
+    }
+    LocalReport current = report;
+    int reduction = target >= current.reductionPercentage ? target : Math.max(target, current.reductionPercentage - REDUCTION_RELEASE_STEP);
+    if (reduction != current.reductionPercentage) {
+      // keep announcing end of overload (validity 0) for as long as the last report could be in force
+      long endTime = reduction == 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(validity) : 0;
+      report = new LocalReport(current.sequenceNumber + 1, reduction, endTime);
+      logger.debug("Local load is {}, requesting traffic reduction of {}%", load, reduction);
+    }
+  }
+
+  @Override
+  public double getLocalLoad() {
+    return localLoad;
+  }
+
+  @Override
+  public int getReductionPercentage() {
+    return report.reductionPercentage;
+  }
+
+  @Override
+  public boolean isLocalOverload(boolean abatedBySender) {
+    if (maxInFlight > 0 && inFlight.get() >= maxInFlight) {
+      return true;
+    }
+    if (!overloadControl || abatedBySender) {
+      return false;
+    }
+    // senders not taking part in overload control are throttled here, with the same loss algorithm
+    int reduction = report.reductionPercentage;
+    return reduction > 0 && (reduction >= 100 || ThreadLocalRandom.current().nextInt(100) < reduction);
+  }
+
+  @Override
+  public long processingStarted() {
+    inFlight.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  @Override
+  public void processingFinished(long startTime) {
+    inFlight.decrementAndGet();
+    long sample = Math.max(System.nanoTime() - startTime, 0);
+    while (true) {
+      long current = processingTime.get();
+      long updated = current == 0 ? sample : current + ((sample - current) >> 3);
+      if (processingTime.compareAndSet(current, updated)) {
+        processed.incrementAndGet();
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void appendOverloadReport(AvpSet answerAvps) {
+    if (answerAvps.getAvp(Avp.OC_SUPPORTED_FEATURES, 0) != null) {
+      return;
+    }
+    answerAvps.addGroupedAvp(Avp.OC_SUPPORTED_FEATURES, false, false).addAvp(Avp.OC_FEATURE_VECTOR, OLR_DEFAULT_ALGO, false, false);
+    LocalReport current = report;
+    if (current.reductionPercentage == 0 && System.currentTimeMillis() > current.endTime) {
+      return;
+    }
+    AvpSet olr = answerAvps.addGroupedAvp(Avp.OC_OLR, false, false);
+    olr.addAvp(Avp.OC_SEQUENCE_NUMBER, current.sequenceNumber, false, false);
+    olr.addAvp(Avp.OC_REPORT_TYPE, OC_REPORT_TYPE_HOST, false, false);
+    olr.addAvp(Avp.OC_REDUCTION_PERCENTAGE, current.reductionPercentage, false, false, true);
+    olr.addAvp(Avp.OC_VALIDITY_DURATION, current.reductionPercentage == 0 ? 0 : validity, false, false, true);
+  }
+
+  /**
+   * Overload report issued by local node, immutable so it is always read consistently
+   */
+  private static class LocalReport {
+
+    private final long sequenceNumber;
+    private final int reductionPercentage;
+    private final long endTime;
+
+    private LocalReport(long sequenceNumber, int reductionPercentage, long endTime) {
+      this.sequenceNumber = sequenceNumber;
+      this.reductionPercentage = reductionPercentage;
+      this.endTime = endTime;
+    }
+  }
+
   public static class AppOverloadInfo {
     private ApplicationId appId;
     private ArrayList <AppOverloadInfoEntry> entries = new ArrayList<AppOverloadInfoEntry>();
@@ -83,6 +83,8 @@ import org.jdiameter.server.api.INetwork;
 import org.jdiameter.server.api.IOverloadManager;
 import org.jdiameter.server.api.IPeer;
 import org.jdiameter.server.api.IStateMachine;
+import org.jdiameter.server.api.agent.IAgent;
+import org.jdiameter.server.api.agent.IProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -101,6 +103,8 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
   protected Set<String> predefinedPeerTable;
   protected INetwork network;
   protected IOverloadManager ovrManager;
+  // connection over which the peer announced overload control support (RFC 7683), null if it did not
+  protected volatile IConnection overloadControlConnection;
   protected ISessionFactory sessionFactory;
   // Internal parameters and members
   protected boolean isDuplicateProtection;
@@ -202,6 +206,22 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
     ovrManager.changeNotification(0, getUri(), fsm.getQueueInfo());
   }
 
+  /**
+   * @return true if peer announced overload control support over its current connection
+   */
+  protected boolean isOverloadControlPeer() {
+    IConnection c = overloadControlConnection;
+    return c != null && c == connection;
+  }
+
+  @Override
+  protected void onConnectionClosed(String connKey) {
+    IConnection c = overloadControlConnection;
+    if (c != null && c.getKey().equals(connKey)) {
+      overloadControlConnection = null;
+    }
+  }
+
   @Override
   public String toString() {
     if (fsm != null) {
@@ -338,6 +358,18 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
       return PeerImpl.this.toString();
     }
 
+    @Override
+    public boolean sendMessage(IMessage message) throws TransportException, OverloadException {
+      if (ovrManager != null && !message.isRequest() && isOverloadControlPeer()) {
+        int commandCode = message.getCommandCode();
+        if (commandCode != Message.CAPABILITIES_EXCHANGE_ANSWER && commandCode != Message.DEVICE_WATCHDOG_ANSWER
+            && commandCode != Message.DISCONNECT_PEER_ANSWER) {
+          ovrManager.appendOverloadReport(message.getAvps());
+        }
+      }
+      return super.sendMessage(message);
+    }
+
     @Override
     public boolean receiveMessage(IMessage message) {
       logger.debug("Receiving message in server.");
@@ -346,6 +378,12 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
       // we set the peer in the message so we can later reply directly
       message.setPeer(PeerImpl.this);
 
+      // peer taking part in overload control (RFC 7683) gets overload reports in answers
+      if (overloadControl && message.isRequest() && overloadControlConnection != connection
+          && message.getAvps().getAvp(Avp.OC_SUPPORTED_FEATURES, 0) != null) {
+        overloadControlConnection = connection;
+      }
+
       if (message.isRequest()) {
         IRequest req = message;
         Avp destRealmAvp = req.getAvps().getAvp(Avp.DESTINATION_REALM);
@@ -516,15 +554,28 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
      * @return
      */
     private boolean handleByAgent(IMessage message, boolean isProcessed, IRequest req, IRealm matched) {
-      if (ovrManager != null && ovrManager.isParenAppOverload(message.getSingleApplicationId())) {
+      if (isOverloaded(message)) {
         logger.debug("Request [{}] skipped, because server application is overloaded", message);
         sendErrorAnswer(message, "Overloaded", ResultCode.TOO_BUSY);
         return true;
       }
       else {
         try {
-          router.registerRequestRouteInfo(message);
-          IMessage answer = (IMessage) matched.getAgent().processRequest(req, matched);
+          IAgent agent = matched.getAgent();
+          // proxied requests keep their own route back to the originating peer
+          if (!(agent instanceof IProxy)) {
+            router.registerRequestRouteInfo(message);
+          }
+          long startTime = ovrManager != null ? ovrManager.processingStarted() : 0;
+          IMessage answer;
+          try {
+            answer = (IMessage) agent.processRequest(req, matched);
+          }
+          finally {
+            if (ovrManager != null) {
+              ovrManager.processingFinished(startTime);
+            }
+          }
           if (isDuplicateProtection && answer != null) {
             peerTable.saveToDuplicate(message.getDuplicationKey(), answer);
           }
@@ -552,6 +603,10 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
       return isProcessed;
     }
 
+    private boolean isOverloaded(IMessage message) {
+      return ovrManager != null && (ovrManager.isParenAppOverload(message.getSingleApplicationId()) || ovrManager.isLocalOverload(isOverloadControlPeer()));
+    }
+
     /**
      * @param message
      * @return
@@ -602,7 +657,7 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
             }
           }
           else {
-            if (ovrManager != null && ovrManager.isParenAppOverload(message.getSingleApplicationId())) {
+            if (isOverloaded(message)) {
               logger.debug("Request [{}] skipped, because server application is overloaded", message);
               sendErrorAnswer(message, "Overloaded", ResultCode.TOO_BUSY);
               return true;
@@ -610,7 +665,15 @@ public class PeerImpl extends org.jdiameter.client.impl.controller.PeerImpl impl
             else {
               try {
                 router.registerRequestRouteInfo(message);
-                answer = (IMessage) listener.processRequest(message);
+                long startTime = ovrManager != null ? ovrManager.processingStarted() : 0;
+                try {
+                  answer = (IMessage) listener.processRequest(message);
+                }
+                finally {
+                  if (ovrManager != null) {
+                    ovrManager.processingFinished(startTime);
+                  }
+                }
                 if (isDuplicateProtection && answer != null) {
                   peerTable.saveToDuplicate(message.getDuplicationKey(), answer);
                 }
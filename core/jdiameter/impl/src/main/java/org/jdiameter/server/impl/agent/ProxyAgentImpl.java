@@ -42,23 +42,68 @@
 
 package org.jdiameter.server.impl.agent;
 
-import org.apache.log4j.Logger;
+import static org.jdiameter.client.impl.helpers.Parameters.MessageTimeOut;
+import static org.jdiameter.client.impl.helpers.Parameters.OwnDiameterURI;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.PeerState;
 import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.URI;
 import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.api.IEventListener;
+import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.IRequest;
+import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerTable;
 import org.jdiameter.client.api.controller.IRealm;
 import org.jdiameter.client.api.controller.IRealmTable;
+import org.jdiameter.client.impl.MessageUtility;
+import org.jdiameter.server.api.agent.IAgentConfiguration;
 import org.jdiameter.server.api.agent.IProxy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Stateless proxy agent. Requests for realms configured with the PROXY local action are forwarded, as received, to the
+ * next hop picked from the matched realm: only the Hop-by-Hop Identifier is swapped and a Route-Record AVP appended,
+ * the remaining AVPs are passed along in their wire form and no session is created. Answers are mapped back to the
+ * originating peer through a small per-request transaction holding the original Hop-by-Hop Identifier.
  *
- *
- * @author babass
+ * @author <a href="mailto:baranowb@gmail.com"> Bartosz Baranowski </a>
+ * @author <a href="mailto:brainslog@gmail.com"> Alexandre Mendonca </a>
  */
 public class ProxyAgentImpl extends AgentImpl implements IProxy {
 
-  private static Logger logger = Logger.getLogger(ProxyAgentImpl.class);
+  private static final Logger logger = LoggerFactory.getLogger(ProxyAgentImpl.class);
+
+  /**
+   * Agent configuration property with the forwarded request timeout, in milliseconds.
+   */
+  public static final String TIMEOUT_PROPERTY = "proxy.timeout";
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final long defaultTimeout;
+  private final byte[] localHostBytes;
+  private final AtomicInteger nextHopIndex = new AtomicInteger();
+
+  private volatile IPeerTable peerTable;
+
+  // statistics
+  private final AtomicLong forwardedRequests = new AtomicLong();
+  private final AtomicLong forwardedAnswers = new AtomicLong();
+  private final AtomicLong timedOutRequests = new AtomicLong();
+  private final AtomicLong rejectedRequests = new AtomicLong();
 
   /**
    * @param container
@@ -66,7 +111,15 @@ public class ProxyAgentImpl extends AgentImpl implements IProxy {
    */
   public ProxyAgentImpl(IContainer container, IRealmTable realmTable) {
     super(container, realmTable);
-    logger.info("proxy agent: created");
+    this.defaultTimeout = container.getConfiguration().getLongValue(MessageTimeOut.ordinal(), (Long) MessageTimeOut.defValue());
+    String host = null;
+    try {
+      host = new URI(container.getConfiguration().getStringValue(OwnDiameterURI.ordinal(), (String) OwnDiameterURI.defValue())).getFQDN();
+    }
+    catch (Exception e) {
+      logger.warn("Unable to determine local identity, loop detection is disabled", e);
+    }
+    this.localHostBytes = host != null ? host.getBytes(UTF8) : null;
   }
 
   /*
@@ -78,7 +131,54 @@ public class ProxyAgentImpl extends AgentImpl implements IProxy {
    */
   @Override
   public Answer processRequest(IRequest request, IRealm matchedRealm) {
-    logger.info("proxy agent: processRequest executed");
+    IMessage message = (IMessage) request;
+    IPeer origin = message.getPeer();
+
+    // RFC 6733, 6.1.3: a request carrying our own identity in a Route-Record has looped back
+    if (isLoop(message)) {
+      logger.debug("Loop detected for request [{}], answering with 3005 (DIAMETER_LOOP_DETECTED)", message);
+      rejectedRequests.incrementAndGet();
+      return createErrorAnswer(message, origin, ResultCode.LOOP_DETECTED);
+    }
+
+    IPeer nextHop = selectNextHop(message, matchedRealm, origin);
+    if (nextHop == null) {
+      logger.debug("No next hop available for request [{}] in realm [{}]", message, matchedRealm.getName());
+      rejectedRequests.incrementAndGet();
+      return createErrorAnswer(message, origin, ResultCode.UNABLE_TO_DELIVER);
+    }
+
+    ProxyTransaction tx = new ProxyTransaction(origin, message.getHopByHopIdentifier());
+    // RFC 6733, 6.1.9: identity of the peer the request was received from
+    if (origin != null) {
+      message.getAvps().addAvp(Avp.ROUTE_RECORD, origin.getUri().getFQDN(), true, false, true);
+    }
+
+    message.setHopByHopIdentifier(nextHop.getHopByHopIdentifier());
+    message.setState(IMessage.STATE_NOT_SENT);
+    message.setListener(tx);
+    message.setPeer(nextHop);
+    nextHop.addMessage(message);
+    message.createTimer(container.getScheduledFacility(), getTimeout(matchedRealm), TimeUnit.MILLISECONDS);
+
+    boolean sent = false;
+    try {
+      sent = nextHop.sendMessage(message);
+    }
+    catch (Exception e) {
+      logger.debug("Failed to forward request to " + nextHop.getUri(), e);
+    }
+
+    if (!sent) {
+      nextHop.remMessage(message);
+      message.clearTimer();
+      tx.setValid(false);
+      message.setHopByHopIdentifier(tx.originHopByHopId);
+      rejectedRequests.incrementAndGet();
+      return createErrorAnswer(message, origin, ResultCode.UNABLE_TO_DELIVER);
+    }
+
+    forwardedRequests.incrementAndGet();
     return null;
   }
 
@@ -91,7 +191,8 @@ public class ProxyAgentImpl extends AgentImpl implements IProxy {
    */
   @Override
   public void receivedSuccessMessage(Request request, Answer answer) {
-    logger.info("proxy agent: receivedSuccessMessage");
+    // answers are delivered to the per-request transaction
+    logger.debug("Unexpected answer delivered to proxy agent [{}]", answer);
   }
 
   /*
@@ -102,7 +203,163 @@ public class ProxyAgentImpl extends AgentImpl implements IProxy {
    */
   @Override
   public void timeoutExpired(Request request) {
-    logger.info("proxy agent: timeoutExpired");
+    // timeouts are delivered to the per-request transaction
+    logger.debug("Unexpected timeout delivered to proxy agent [{}]", request);
+  }
+
+  public long getForwardedRequests() {
+    return forwardedRequests.get();
+  }
+
+  public long getForwardedAnswers() {
+    return forwardedAnswers.get();
+  }
+
+  public long getTimedOutRequests() {
+    return timedOutRequests.get();
+  }
+
+  public long getRejectedRequests() {
+    return rejectedRequests.get();
+  }
+
+  private boolean isLoop(IMessage message) {
+    if (localHostBytes == null) {
+      return false;
+    }
+    for (Avp rr : message.getAvps().getAvps(Avp.ROUTE_RECORD)) {
+      if (Arrays.equals(localHostBytes, rr.getRawData())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private IPeer selectNextHop(IMessage message, IRealm matchedRealm, IPeer origin) {
+    IPeerTable table = getPeerTable();
+
+    Avp destHostAvp = message.getAvps().getAvp(Avp.DESTINATION_HOST);
+    if (destHostAvp != null) {
+      try {
+        IPeer peer = table.getPeer(destHostAvp.getDiameterIdentity());
+        if (isEligible(peer, origin)) {
+          return peer;
+        }
+      }
+      catch (AvpDataException e) {
+        logger.debug("Unable to decode Destination-Host, falling back to realm routing", e);
+      }
+    }
+
+    String[] peerNames = matchedRealm.getPeerNames();
+    int size = peerNames != null ? peerNames.length : 0;
+    if (size == 0) {
+      return null;
+    }
+    int start = (nextHopIndex.getAndIncrement() & Integer.MAX_VALUE) % size;
+    for (int i = 0; i < size; i++) {
+      IPeer peer = table.getPeer(peerNames[(start + i) % size]);
+      if (isEligible(peer, origin)) {
+        return peer;
+      }
+    }
+    return null;
+  }
+
+  private boolean isEligible(IPeer peer, IPeer origin) {
+    return peer != null && peer != origin && peer.getState(PeerState.class) == PeerState.OKAY && peer.hasValidConnection();
+  }
+
+  private long getTimeout(IRealm matchedRealm) {
+    IAgentConfiguration agentConfiguration = matchedRealm.getAgentConfiguration();
+    if (agentConfiguration != null) {
+      Properties p = agentConfiguration.getProperties();
+      String value = p != null ? p.getProperty(TIMEOUT_PROPERTY) : null;
+      if (value != null) {
+        try {
+          return Long.parseLong(value);
+        }
+        catch (NumberFormatException e) {
+          logger.warn("Failed to parse configuration value {}={}", TIMEOUT_PROPERTY, value);
+        }
+      }
+    }
+    return defaultTimeout;
+  }
+
+  private IPeerTable getPeerTable() {
+    if (peerTable == null) {
+      peerTable = container.getAssemblerFacility().getComponentInstance(IPeerTable.class);
+    }
+    return peerTable;
+  }
+
+  private Answer createErrorAnswer(IMessage request, IPeer origin, int resultCode) {
+    IMessage answer = (IMessage) request.createAnswer(resultCode);
+    answer.setError(true);
+    MessageUtility.addOriginAvps(answer, container.getMetaData());
+    answer.setPeer(origin);
+    return answer;
+  }
+
+  /**
+   * Per-request state of a forwarded request, used as its answer listener.
+   */
+  private final class ProxyTransaction implements IEventListener {
+
+    private final IPeer origin;
+    private final long originHopByHopId;
+    private volatile boolean valid = true;
+
+    ProxyTransaction(IPeer origin, long originHopByHopId) {
+      this.origin = origin;
+      this.originHopByHopId = originHopByHopId;
+    }
+
+    @Override
+    public void receivedSuccessMessage(Request request, Answer answer) {
+      IMessage message = (IMessage) answer;
+      message.setHopByHopIdentifier(originHopByHopId);
+      message.setState(IMessage.STATE_NOT_SENT);
+      message.setPeer(origin);
+      try {
+        if (origin == null || !origin.sendMessage(message)) {
+          logger.debug("Unable to send answer [{}] back to originating peer [{}]", message, origin);
+        }
+        else {
+          forwardedAnswers.incrementAndGet();
+        }
+      }
+      catch (Exception e) {
+        logger.debug("Failed to send answer back to " + origin, e);
+      }
+    }
+
+    @Override
+    public void timeoutExpired(Request request) {
+      timedOutRequests.incrementAndGet();
+      IMessage message = (IMessage) request;
+      message.setHopByHopIdentifier(originHopByHopId);
+      try {
+        IMessage answer = (IMessage) createErrorAnswer(message, origin, ResultCode.UNABLE_TO_DELIVER);
+        if (origin != null) {
+          origin.sendMessage(answer);
+        }
+      }
+      catch (Exception e) {
+        logger.debug("Failed to send timeout answer back to " + origin, e);
+      }
+    }
+
+    @Override
+    public void setValid(boolean value) {
+      this.valid = value;
+    }
+
+    @Override
+    public boolean isValid() {
+      return valid;
+    }
   }
 
 }
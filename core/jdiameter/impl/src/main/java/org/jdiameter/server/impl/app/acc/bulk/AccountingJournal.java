@@ -0,0 +1,303 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl.app.acc.bulk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of encoded accounting requests, kept in memory-mapped segment files of fixed size.
+ * Once a record is appended it survives crash of the process; with force enabled each append is also
+ * flushed to the device, so it survives crash of the host.
+ *
+ * Each entry is written as length, CRC32 and data. Segment files are named by increasing sequence number.
+ * {@link #release(long)} records position up to which entries were consumed in a small checkpoint file and
+ * removes segments which are consumed completely. Entries left over after a restart can be read by
+ * {@link #replay(File, EntryHandler)}, which skips entries before the checkpoint. Delivery is at least once:
+ * entries consumed after the last checkpoint was written, or all entries if the checkpoint is damaged, are
+ * replayed again.
+ */
+public final class AccountingJournal implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger(AccountingJournal.class);
+
+  private static final String PREFIX = "acr-";
+  private static final String SUFFIX = ".journal";
+  private static final int ENTRY_HEADER = 8;
+  private static final String CHECKPOINT = "acr.consumed";
+  // position and its complement, so a torn write is detected
+  private static final int CHECKPOINT_SIZE = 16;
+
+  private final File directory;
+  private final int segmentSize;
+  private final boolean force;
+  private final CRC32 crc = new CRC32();
+
+  private long segment;
+  private long oldestSegment;
+  private long consumedPosition;
+  private RandomAccessFile file;
+  private MappedByteBuffer buffer;
+  private RandomAccessFile checkpointFile;
+  private MappedByteBuffer checkpoint;
+  private long appendedBytes;
+
+  /**
+   * Handler of entries read by {@link AccountingJournal#replay(File, EntryHandler)}
+   */
+  public interface EntryHandler {
+
+    /**
+     * @param position position after the entry, which can be passed to {@link AccountingJournal#release(long)}
+     *                 once the entry is processed
+     * @param data encoded entry
+     */
+    void entry(long position, byte[] data) throws IOException;
+  }
+
+  /**
+   * @param directory directory of segment files, created if it does not exist
+   * @param segmentSize size of segment file in bytes
+   * @param force flush each appended entry to the storage device
+   */
+  public AccountingJournal(File directory, int segmentSize, boolean force) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create journal directory " + directory);
+    }
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.force = force;
+    this.consumedPosition = readCheckpoint(directory);
+    long[] existing = listSegments(directory);
+    // never reuse number of consumed segment, even if all segments were removed
+    this.segment = Math.max(existing.length > 0 ? existing[existing.length - 1] : -1, segmentOf(consumedPosition));
+    this.oldestSegment = existing.length > 0 ? existing[0] : segment + 1;
+    this.checkpointFile = new RandomAccessFile(new File(directory, CHECKPOINT), "rw");
+    this.checkpoint = checkpointFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, CHECKPOINT_SIZE);
+    if (existing.length > 0) {
+      logger.info("Journal [{}] contains {} segments which were not released", directory, existing.length);
+    }
+  }
+
+  /**
+   * Append entry, rolling over to new segment if current one is full
+   *
+   * @return position after the entry
+   */
+  public synchronized long append(ByteBuffer data) throws IOException {
+    int length = data.remaining();
+    if (length + 2 * ENTRY_HEADER > segmentSize) {
+      throw new IOException("Entry of " + length + " bytes does not fit into journal segment");
+    }
+    // keep room for empty header which marks end of segment
+    if (buffer == null || buffer.remaining() < length + 2 * ENTRY_HEADER) {
+      roll();
+    }
+    crc.reset();
+    if (data.hasArray()) {
+      crc.update(data.array(), data.arrayOffset() + data.position(), length);
+    }
+    else {
+      byte[] copy = new byte[length];
+      data.duplicate().get(copy);
+      crc.update(copy, 0, length);
+    }
+    buffer.putInt(length);
+    buffer.putInt((int) crc.getValue());
+    buffer.put(data);
+    if (force) {
+      buffer.force();
+    }
+    appendedBytes += length + ENTRY_HEADER;
+    return position(segment, buffer.position());
+  }
+
+  /**
+   * Mark entries up to given position as consumed and remove segments which hold no other entries
+   *
+   * @param position position returned by {@link #append(ByteBuffer)} for the last consumed entry
+   */
+  public synchronized void release(long position) {
+    if (position <= consumedPosition) {
+      return;
+    }
+    consumedPosition = position;
+    // checkpoint goes first, so a crash never leaves a kept segment without it
+    if (checkpoint != null) {
+      checkpoint.putLong(0, position);
+      checkpoint.putLong(8, ~position);
+      if (force) {
+        checkpoint.force();
+      }
+    }
+    long limit = Math.min(segmentOf(position), buffer != null ? segment : segment + 1);
+    for (; oldestSegment < limit; oldestSegment++) {
+      File f = segmentFile(directory, oldestSegment);
+      if (f.exists() && !f.delete()) {
+        logger.warn("Unable to delete journal segment {}", f);
+      }
+    }
+  }
+
+  public synchronized long getAppendedBytes() {
+    return appendedBytes;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closeSegment();
+    if (checkpoint != null) {
+      checkpoint.force();
+      checkpoint = null;
+      checkpointFile.close();
+      checkpointFile = null;
+    }
+  }
+
+  private void closeSegment() throws IOException {
+    if (buffer != null) {
+      buffer.force();
+      buffer = null;
+    }
+    if (file != null) {
+      file.close();
+      file = null;
+    }
+  }
+
+  private void roll() throws IOException {
+    closeSegment();
+    segment++;
+    file = new RandomAccessFile(segmentFile(directory, segment), "rw");
+    buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    logger.debug("Journal rolled over to segment {}", segment);
+  }
+
+  /**
+   * Read entries of segments in directory which were not consumed yet, oldest first. Reading of a segment
+   * stops at the first entry which was not completely written.
+   */
+  public static void replay(File directory, EntryHandler handler) throws IOException {
+    long consumed = readCheckpoint(directory);
+    for (long s : listSegments(directory)) {
+      if (s < segmentOf(consumed)) {
+        continue;
+      }
+      RandomAccessFile f = new RandomAccessFile(segmentFile(directory, s), "r");
+      try {
+        MappedByteBuffer data = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= ENTRY_HEADER) {
+          int length = data.getInt();
+          int checksum = data.getInt();
+          if (length <= 0 || length > data.remaining()) {
+            break;
+          }
+          byte[] entry = new byte[length];
+          data.get(entry);
+          crc.reset();
+          crc.update(entry, 0, length);
+          if ((int) crc.getValue() != checksum) {
+            logger.warn("Journal segment {} is truncated, entry checksum does not match", s);
+            break;
+          }
+          long position = position(s, data.position());
+          if (position > consumed) {
+            handler.entry(position, entry);
+          }
+        }
+      }
+      finally {
+        f.close();
+      }
+    }
+  }
+
+  /**
+   * @return consumed position recorded in checkpoint of directory, -1 if there is none
+   */
+  private static long readCheckpoint(File directory) throws IOException {
+    File f = new File(directory, CHECKPOINT);
+    if (f.length() < CHECKPOINT_SIZE) {
+      return -1;
+    }
+    RandomAccessFile checkpointFile = new RandomAccessFile(f, "r");
+    try {
+      long position = checkpointFile.readLong();
+      if (checkpointFile.readLong() != ~position) {
+        logger.warn("Journal checkpoint {} is damaged, all entries will be replayed", f);
+        return -1;
+      }
+      return position;
+    }
+    finally {
+      checkpointFile.close();
+    }
+  }
+
+  private static long position(long segment, int offset) {
+    return segment << 32 | offset;
+  }
+
+  private static long segmentOf(long position) {
+    return position >> 32;
+  }
+
+  private static File segmentFile(File directory, long segment) {
+    return new File(directory, String.format("%s%016d%s", PREFIX, segment, SUFFIX));
+  }
+
+  private static long[] listSegments(File directory) {
+    String[] names = directory.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+      }
+    });
+    if (names == null) {
+      return new long[0];
+    }
+    long[] segments = new long[names.length];
+    int count = 0;
+    for (String name : names) {
+      try {
+        segments[count] = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        count++;
+      }
+      catch (NumberFormatException e) {
+        logger.debug("Ignoring file {} in journal directory", name);
+      }
+    }
+    segments = Arrays.copyOf(segments, count);
+    Arrays.sort(segments);
+    return segments;
+  }
+}
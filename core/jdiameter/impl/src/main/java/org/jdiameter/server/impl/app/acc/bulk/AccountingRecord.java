@@ -0,0 +1,87 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl.app.acc.bulk;
+
+import org.jdiameter.api.Request;
+
+/**
+ * Accounting-Request taken over by {@link BulkAccountingListener}, with the AVPs needed to correlate records
+ * already decoded. Other AVPs are available from the request itself.
+ */
+public final class AccountingRecord {
+
+  public static final int EVENT_RECORD = 1;
+  public static final int START_RECORD = 2;
+  public static final int INTERIM_RECORD = 3;
+  public static final int STOP_RECORD = 4;
+
+  private final Request request;
+  private final String sessionId;
+  private final String originHost;
+  private final int recordType;
+  private final long recordNumber;
+  private final long receivedTime;
+  // journal position after this record, -1 if journal is not used
+  long journalPosition = -1;
+
+  AccountingRecord(Request request, String sessionId, String originHost, int recordType, long recordNumber) {
+    this.request = request;
+    this.sessionId = sessionId;
+    this.originHost = originHost;
+    this.recordType = recordType;
+    this.recordNumber = recordNumber;
+    this.receivedTime = System.currentTimeMillis();
+  }
+
+  public Request getRequest() {
+    return request;
+  }
+
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  public String getOriginHost() {
+    return originHost;
+  }
+
+  /**
+   * @return value of Accounting-Record-Type, e.g. {@link #START_RECORD}
+   */
+  public int getRecordType() {
+    return recordType;
+  }
+
+  public long getRecordNumber() {
+    return recordNumber;
+  }
+
+  /**
+   * @return time (ms) the request was received
+   */
+  public long getReceivedTime() {
+    return receivedTime;
+  }
+
+  @Override
+  public String toString() {
+    return "AccountingRecord[sessionId=" + sessionId + ", originHost=" + originHost + ", type=" + recordType + ", number=" + recordNumber + "]";
+  }
+}
@@ -0,0 +1,341 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl.app.acc.bulk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.MetaData;
+import org.jdiameter.api.NetworkReqListener;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.acc.events.AccountRequest;
+import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.ISessionFactory;
+import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.client.impl.MessageUtility;
+import org.jdiameter.common.api.app.acc.IAccountingRecordSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * High-throughput accounting server for offline charging (Acc, Rf). Registered as network request listener
+ * for the accounting application instead of {@link org.jdiameter.server.impl.app.acc.ServerAccSessionImpl},
+ * it creates no sessions: each ACR is decoded and answered right on the thread which received it, and the
+ * record is handed to a bounded queue drained in batches into an {@link IAccountingRecordSink} by a single
+ * thread. When the queue is full ACR is answered with DIAMETER_TOO_BUSY, so the client can fail over.
+ *
+ * With an {@link AccountingJournal} set, each ACR is appended to the journal before ACA is sent and the
+ * journal is released up to the last record of each batch the sink has consumed.
+ *
+ * <pre>
+ *   BulkAccountingListener listener = new BulkAccountingListener(sessionFactory, sink, 65536, 1000, 100);
+ *   listener.setJournal(new AccountingJournal(new File("/var/spool/acr"), 64 * 1024 * 1024, false));
+ *   listener.start();
+ *   stack.unwrap(Network.class).addNetworkReqListener(listener, ApplicationId.createByAccAppId(3));
+ * </pre>
+ */
+public class BulkAccountingListener implements NetworkReqListener, Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(BulkAccountingListener.class);
+
+  private static final long SINK_RETRY_DELAY = 1000;
+
+  private final MetaData metaData;
+  private final IMessageParser parser;
+  private final IAccountingRecordSink sink;
+  private final BlockingQueue<AccountingRecord> queue;
+  private final int batchSize;
+  private final long maxBatchDelay;
+  private AccountingJournal journal;
+  private volatile Thread consumer;
+  private volatile boolean running;
+
+  // statistics
+  private final AtomicLong receivedRecords = new AtomicLong();
+  private final AtomicLong rejectedRecords = new AtomicLong();
+  private final AtomicLong invalidRecords = new AtomicLong();
+  private volatile long consumedRecords;
+  private volatile long batches;
+  private volatile long failedBatches;
+  private volatile int lastBatchSize;
+  private volatile long lastBatchTime;
+  private volatile long totalBatchTime;
+
+  /**
+   * @param sessionFactory session factory of the stack
+   * @param sink destination of records
+   * @param capacity maximum number of records waiting for the sink
+   * @param batchSize maximum number of records passed to the sink at once
+   * @param maxBatchDelay maximum time (ms) a record waits for its batch to fill
+   */
+  public BulkAccountingListener(ISessionFactory sessionFactory, IAccountingRecordSink sink, int capacity, int batchSize, long maxBatchDelay) {
+    IContainer container = sessionFactory.getContainer();
+    this.metaData = container.getMetaData();
+    this.parser = container.getAssemblerFacility().getComponentInstance(IMessageParser.class);
+    this.sink = sink;
+    this.queue = new ArrayBlockingQueue<AccountingRecord>(capacity);
+    this.batchSize = batchSize;
+    this.maxBatchDelay = maxBatchDelay;
+  }
+
+  /**
+   * Set journal records are written to before they are answered. Must be called before {@link #start()}.
+   */
+  public void setJournal(AccountingJournal journal) {
+    this.journal = journal;
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    consumer = new Thread(this, "BulkAccounting-" + metaData.getLocalPeer().getUri().getFQDN());
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  /**
+   * Stop accepting records and wait until queued records are consumed or timeout elapses
+   */
+  public synchronized void stop(long timeout, TimeUnit unit) throws InterruptedException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    Thread thread = consumer;
+    thread.join(unit.toMillis(timeout));
+    if (thread.isAlive()) {
+      thread.interrupt();
+      logger.warn("Bulk accounting stopped with {} records not consumed", queue.size());
+    }
+    consumer = null;
+  }
+
+  @Override
+  public Answer processRequest(Request request) {
+    if (request.getCommandCode() != AccountRequest.code) {
+      return request.createAnswer(ResultCode.COMMAND_UNSUPPORTED);
+    }
+    AvpSet avps = request.getAvps();
+    Avp typeAvp = avps.getAvp(Avp.ACC_RECORD_TYPE);
+    Avp numberAvp = avps.getAvp(Avp.ACC_RECORD_NUMBER);
+    if (typeAvp == null || numberAvp == null) {
+      invalidRecords.incrementAndGet();
+      Answer answer = createAnswer(request, ResultCode.MISSING_AVP);
+      answer.getAvps().addGroupedAvp(Avp.FAILED_AVP).addAvp(typeAvp == null ? Avp.ACC_RECORD_TYPE : Avp.ACC_RECORD_NUMBER, new byte[0]);
+      return answer;
+    }
+    AccountingRecord record;
+    try {
+      Avp originHost = avps.getAvp(Avp.ORIGIN_HOST);
+      record = new AccountingRecord(request, request.getSessionId(), originHost != null ? originHost.getDiameterIdentity() : null,
+          typeAvp.getInteger32(), numberAvp.getUnsigned32());
+    }
+    catch (AvpDataException e) {
+      invalidRecords.incrementAndGet();
+      logger.debug("Unable to decode accounting request {}", request, e);
+      return createAnswer(request, ResultCode.INVALID_AVP_VALUE);
+    }
+
+    if (!enqueue(record)) {
+      return createAnswer(request, ResultCode.TOO_BUSY);
+    }
+    receivedRecords.incrementAndGet();
+    Answer answer = createAnswer(request, ResultCode.SUCCESS);
+    answer.getAvps().addAvp(typeAvp);
+    answer.getAvps().addAvp(numberAvp);
+    return answer;
+  }
+
+  private boolean enqueue(AccountingRecord record) {
+    if (!running) {
+      rejectedRecords.incrementAndGet();
+      return false;
+    }
+    if (journal == null) {
+      if (!queue.offer(record)) {
+        rejectedRecords.incrementAndGet();
+        return false;
+      }
+      return true;
+    }
+    // journal and queue order must match, so segments are released only after all their records were consumed
+    synchronized (journal) {
+      if (queue.remainingCapacity() == 0) {
+        rejectedRecords.incrementAndGet();
+        return false;
+      }
+      try {
+        record.journalPosition = journal.append(parser.encodeMessage((IMessage) record.getRequest()));
+      }
+      catch (Exception e) {
+        logger.warn("Unable to write accounting record to journal", e);
+        rejectedRecords.incrementAndGet();
+        return false;
+      }
+      // single consumer only takes from queue, so there is still room
+      queue.offer(record);
+      return true;
+    }
+  }
+
+  private Answer createAnswer(Request request, long resultCode) {
+    Answer answer = request.createAnswer(resultCode);
+    MessageUtility.addOriginAvps(answer, metaData);
+    return answer;
+  }
+
+  @Override
+  public void run() {
+    List<AccountingRecord> batch = new ArrayList<AccountingRecord>(batchSize);
+    try {
+      while (running || !queue.isEmpty()) {
+        AccountingRecord first = queue.poll(maxBatchDelay, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBatchDelay);
+        while (batch.size() < batchSize) {
+          queue.drainTo(batch, batchSize - batch.size());
+          long wait = deadline - System.nanoTime();
+          if (batch.size() >= batchSize || wait <= 0) {
+            break;
+          }
+          AccountingRecord next = queue.poll(wait, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+        consume(batch);
+        batch.clear();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    logger.debug("Bulk accounting consumer finished");
+  }
+
+  private void consume(List<AccountingRecord> batch) throws InterruptedException {
+    while (true) {
+      long start = System.nanoTime();
+      try {
+        sink.consume(batch);
+      }
+      catch (Exception e) {
+        failedBatches++;
+        logger.warn("Accounting record sink failed to consume batch of " + batch.size() + " records, retrying", e);
+        Thread.sleep(SINK_RETRY_DELAY);
+        continue;
+      }
+      long time = System.nanoTime() - start;
+      batches++;
+      consumedRecords += batch.size();
+      lastBatchSize = batch.size();
+      lastBatchTime = time;
+      totalBatchTime += time;
+      if (logger.isDebugEnabled()) {
+        logger.debug("Consumed batch of {} records in {} us", batch.size(), TimeUnit.NANOSECONDS.toMicros(time));
+      }
+      break;
+    }
+    if (journal != null) {
+      journal.release(batch.get(batch.size() - 1).journalPosition);
+    }
+  }
+
+  /**
+   * @return number of records accepted and answered with success
+   */
+  public long getReceivedRecords() {
+    return receivedRecords.get();
+  }
+
+  /**
+   * @return number of records answered with DIAMETER_TOO_BUSY, because queue was full or journal failed
+   */
+  public long getRejectedRecords() {
+    return rejectedRecords.get();
+  }
+
+  /**
+   * @return number of requests which were not valid accounting records
+   */
+  public long getInvalidRecords() {
+    return invalidRecords.get();
+  }
+
+  public long getConsumedRecords() {
+    return consumedRecords;
+  }
+
+  public int getQueuedRecords() {
+    return queue.size();
+  }
+
+  public long getBatches() {
+    return batches;
+  }
+
+  public long getFailedBatches() {
+    return failedBatches;
+  }
+
+  public int getLastBatchSize() {
+    return lastBatchSize;
+  }
+
+  /**
+   * @return time the sink took to consume last batch, in microseconds
+   */
+  public long getLastBatchTime() {
+    return TimeUnit.NANOSECONDS.toMicros(lastBatchTime);
+  }
+
+  /**
+   * @return average time the sink took to consume a batch, in microseconds
+   */
+  public long getAverageBatchTime() {
+    long count = batches;
+    return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalBatchTime / count);
+  }
+
+  /**
+   * @return average number of records the sink consumed per second, measured over time spent in the sink
+   */
+  public long getSinkThroughput() {
+    long time = totalBatchTime;
+    return time == 0 ? 0 : consumedRecords * TimeUnit.SECONDS.toNanos(1) / time;
+  }
+}
@@ -0,0 +1,492 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl.app.bulk;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.common.api.app.bulk.IBulkRequestSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends one request, e.g. Gx/Ro RAR or Rx ASR of a policy or tariff change, to each of many sessions at a
+ * configured rate, with a limit of unanswered requests per peer. Requests answered with DIAMETER_UNABLE_TO_DELIVER
+ * or DIAMETER_TOO_BUSY, or not answered in time, are sent again after a delay, up to a number of retries; the peer of
+ * the session is looked up again for each retry, so a retry can go to another peer. Sessions which wait for their
+ * peer are queued per peer and sent once a request of that peer is answered, they do not hold back sessions of other
+ * peers.
+ *
+ * Requests are built and sent by an {@link IBulkRequestSender}, usually through the application session, so its
+ * state machine sees the exchange; the application session listener reports each answer to the job. Answers are
+ * matched by End-to-End Identifier, so a late answer to a request which timed out and was sent again is ignored:
+ * <pre>
+ *   BulkSignalJob job = new BulkSignalJob("tariff-2", sessionIds, sender, 2000, 100, 3, 1000, 10000);
+ *   job.start(concurrentFactory.getScheduledExecutorService(ScheduledExecServices.ApplicationSession.name()));
+ *   ...
+ *   // ServerGxSessionListener.doGxReAuthAnswer(...)
+ *   job.answerReceived(session.getSessionId(), answer.getEndToEndIdentifier(), answer.getResultCodeAvp().getUnsigned32());
+ *   ...
+ *   job.awaitCompletion(30, TimeUnit.MINUTES);
+ * </pre>
+ */
+public class BulkSignalJob implements Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(BulkSignalJob.class);
+
+  static final long TICK = 10;
+  // sessions waiting for their peer, taking further sessions stops at this limit
+  private static final int MAX_DEFERRED = 10000;
+  private static final String UNKNOWN_PEER = "";
+  // End-to-End Identifier of request which is being sent
+  private static final long PENDING = Long.MIN_VALUE;
+
+  private final String name;
+  private final Iterator<String> sessionIds;
+  private final IBulkRequestSender sender;
+  private final int rate;
+  private final int maxPerPeer;
+  private final int maxRetries;
+  private final long retryDelay;
+  private final long answerTimeout;
+
+  // used by scheduled task only
+  private final Map<String, Queue<Attempt>> deferred = new HashMap<String, Queue<Attempt>>();
+  private int deferredCount;
+  private final Queue<Attempt> sentOrder = new ArrayDeque<Attempt>();
+  private double permits = 1;
+  private long lastTick;
+
+  private final ConcurrentHashMap<String, Attempt> outstanding = new ConcurrentHashMap<String, Attempt>();
+  private final ConcurrentHashMap<String, AtomicInteger> peerOutstanding = new ConcurrentHashMap<String, AtomicInteger>();
+  private final Queue<Attempt> retries = new ConcurrentLinkedQueue<Attempt>();
+  // peers whose number of unanswered requests dropped since last tick
+  private final Set<String> releasedPeers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final CountDownLatch completed = new CountDownLatch(1);
+  private volatile ScheduledFuture<?> future;
+  private volatile boolean cancelled;
+
+  // statistics
+  private final AtomicLong selected = new AtomicLong();
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong succeeded = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong retried = new AtomicLong();
+  private final AtomicLong timedOut = new AtomicLong();
+  private final AtomicLong answered = new AtomicLong();
+  private final AtomicLong ignoredAnswers = new AtomicLong();
+  private final AtomicLong totalLatency = new AtomicLong();
+  private final AtomicLong maxLatency = new AtomicLong();
+  private volatile long startTime;
+  private volatile long endTime;
+
+  /**
+   * @param name name of job, used in logs
+   * @param sessionIds sessions to signal, iterated by the job only
+   * @param sender builds and sends request of a session
+   * @param rate maximum number of requests sent per second, including retries
+   * @param maxPerPeer maximum number of unanswered requests per peer
+   * @param maxRetries maximum number of times request of a session is sent again
+   * @param retryDelay time (ms) before request is sent again
+   * @param answerTimeout time (ms) after which request is considered not answered
+   */
+  public BulkSignalJob(String name, Iterator<String> sessionIds, IBulkRequestSender sender, int rate, int maxPerPeer, int maxRetries,
+      long retryDelay, long answerTimeout) {
+    if (rate <= 0 || maxPerPeer <= 0) {
+      throw new IllegalArgumentException("Rate and concurrency per peer must be positive");
+    }
+    this.name = name;
+    this.sessionIds = sessionIds;
+    this.sender = sender;
+    this.rate = rate;
+    this.maxPerPeer = maxPerPeer;
+    this.maxRetries = maxRetries;
+    this.retryDelay = TimeUnit.MILLISECONDS.toNanos(retryDelay);
+    this.answerTimeout = TimeUnit.MILLISECONDS.toNanos(answerTimeout);
+  }
+
+  public synchronized void start(ScheduledExecutorService scheduler) {
+    if (future != null) {
+      throw new IllegalStateException("Bulk signalling job " + name + " already started");
+    }
+    startTime = System.currentTimeMillis();
+    lastTick = System.nanoTime();
+    logger.info("Starting bulk signalling job {} at {} requests/s, {} per peer", new Object[] {name, rate, maxPerPeer});
+    future = scheduler.scheduleWithFixedDelay(this, 0, TICK, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop sending requests. Job completes once requests already sent are answered or time out.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Report answer to request of the job
+   *
+   * @param endToEndId End-to-End Identifier of the answer
+   * @return false if the answer is not for the unanswered request of the job for the session, e.g. it is a late
+   *         answer to a request which was sent again
+   */
+  public boolean answerReceived(String sessionId, long endToEndId, long resultCode) {
+    Attempt attempt = outstanding.get(sessionId);
+    if (attempt != null) {
+      long expected;
+      // waits for send() of the attempt to finish on other thread
+      synchronized (attempt) {
+        expected = attempt.endToEndId;
+      }
+      // still pending only if answer is reported from within send() of the attempt itself
+      if ((expected == endToEndId || expected == PENDING) && finish(attempt, resultCode, false, System.nanoTime())) {
+        return true;
+      }
+    }
+    ignoredAnswers.incrementAndGet();
+    return false;
+  }
+
+  public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+    return completed.await(timeout, unit);
+  }
+
+  public boolean isCompleted() {
+    return completed.getCount() == 0;
+  }
+
+  @Override
+  public void run() {
+    try {
+      tick(System.nanoTime());
+    }
+    catch (Throwable e) {
+      logger.error("Failure in bulk signalling job " + name, e);
+    }
+  }
+
+  private void tick(long now) {
+    expire(now);
+    if (cancelled) {
+      skipped.addAndGet(deferredCount);
+      deferred.clear();
+      deferredCount = 0;
+      while (retries.poll() != null) {
+        skipped.incrementAndGet();
+      }
+    }
+    else {
+      permits = Math.min(permits + rate * ((now - lastTick) / 1e9), Math.max(1, rate * TICK * 2 / 1000.0));
+      Attempt attempt;
+      // retries are queued with the same delay, so in order of their due time
+      while (permits >= 1 && (attempt = retries.peek()) != null && attempt.due - now <= 0) {
+        retries.poll();
+        // route may have changed since the request failed
+        send(new Attempt(attempt.sessionId, getPeer(attempt.sessionId), attempt.attempt, now), now);
+      }
+      sendDeferred(now);
+      while (permits >= 1 && deferredCount < MAX_DEFERRED && sessionIds.hasNext()) {
+        String sessionId = sessionIds.next();
+        selected.incrementAndGet();
+        send(new Attempt(sessionId, getPeer(sessionId), 0, now), now);
+      }
+    }
+    lastTick = now;
+    if ((cancelled || !sessionIds.hasNext()) && deferredCount == 0 && retries.isEmpty() && outstanding.isEmpty()) {
+      complete();
+    }
+  }
+
+  /**
+   * Sends requests waiting for peers which got an answer since last tick, other peers are not looked at
+   */
+  private void sendDeferred(long now) {
+    Iterator<String> it = releasedPeers.iterator();
+    while (permits >= 1 && it.hasNext()) {
+      String peer = it.next();
+      it.remove();
+      Queue<Attempt> queue = deferred.get(peer);
+      if (queue == null) {
+        continue;
+      }
+      AtomicInteger count = getPeerOutstanding(peer);
+      while (permits >= 1 && count.get() < maxPerPeer && !queue.isEmpty()) {
+        deferredCount--;
+        send(queue.poll(), count, now);
+      }
+      if (queue.isEmpty()) {
+        deferred.remove(peer);
+      }
+      else if (count.get() < maxPerPeer) {
+        // out of permits, continue with this peer on next tick
+        releasedPeers.add(peer);
+      }
+    }
+  }
+
+  private void send(Attempt attempt, long now) {
+    Queue<Attempt> queue = deferred.get(attempt.peer);
+    AtomicInteger count = getPeerOutstanding(attempt.peer);
+    // sessions already waiting for the peer go first
+    if (queue != null || count.get() >= maxPerPeer) {
+      if (queue == null) {
+        queue = new ArrayDeque<Attempt>();
+        deferred.put(attempt.peer, queue);
+      }
+      queue.offer(attempt);
+      deferredCount++;
+      return;
+    }
+    send(attempt, count, now);
+  }
+
+  private void send(Attempt attempt, AtomicInteger count, long now) {
+    count.incrementAndGet();
+    permits--;
+    attempt.sent = now;
+    outstanding.put(attempt.sessionId, attempt);
+    sentOrder.offer(attempt);
+    sent.incrementAndGet();
+    try {
+      long endToEndId;
+      synchronized (attempt) {
+        endToEndId = sender.send(attempt.sessionId);
+        attempt.endToEndId = endToEndId;
+      }
+      if (endToEndId == IBulkRequestSender.NOT_SENT && attempt.finished.compareAndSet(false, true)) {
+        release(attempt.peer, count);
+        skipped.incrementAndGet();
+        outstanding.remove(attempt.sessionId, attempt);
+      }
+    }
+    catch (Exception e) {
+      logger.debug("Failed to send request of bulk signalling job " + name + " to session " + attempt.sessionId, e);
+      if (attempt.finished.compareAndSet(false, true)) {
+        release(attempt.peer, count);
+        failed.incrementAndGet();
+        outstanding.remove(attempt.sessionId, attempt);
+      }
+    }
+  }
+
+  private void expire(long now) {
+    Attempt attempt;
+    while ((attempt = sentOrder.peek()) != null) {
+      if (!attempt.finished.get() && now - attempt.sent < answerTimeout) {
+        break;
+      }
+      sentOrder.poll();
+      if (!attempt.finished.get()) {
+        finish(attempt, 0, true, now);
+      }
+    }
+  }
+
+  private boolean finish(Attempt attempt, long resultCode, boolean timeout, long now) {
+    if (!attempt.finished.compareAndSet(false, true)) {
+      return false;
+    }
+    release(attempt.peer, getPeerOutstanding(attempt.peer));
+    if (timeout) {
+      timedOut.incrementAndGet();
+    }
+    else {
+      long latency = now - attempt.sent;
+      answered.incrementAndGet();
+      totalLatency.addAndGet(latency);
+      long max;
+      while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency)) {
+        // retry
+      }
+    }
+    boolean retry = timeout || resultCode == ResultCode.UNABLE_TO_DELIVER || resultCode == ResultCode.TOO_BUSY;
+    if (retry && attempt.attempt < maxRetries && !cancelled) {
+      retried.incrementAndGet();
+      // queued before the request stops being outstanding, so job is not seen as completed meanwhile; peer is looked
+      // up again when the retry is due
+      retries.offer(new Attempt(attempt.sessionId, UNKNOWN_PEER, attempt.attempt + 1, now + retryDelay));
+    }
+    else if (!timeout && resultCode >= 2000 && resultCode < 3000) {
+      succeeded.incrementAndGet();
+    }
+    else {
+      failed.incrementAndGet();
+    }
+    outstanding.remove(attempt.sessionId, attempt);
+    return true;
+  }
+
+  private void complete() {
+    if (completed.getCount() == 0) {
+      return;
+    }
+    endTime = System.currentTimeMillis();
+    ScheduledFuture<?> f = future;
+    if (f != null) {
+      f.cancel(false);
+    }
+    completed.countDown();
+    logger.info("Completed {}", this);
+  }
+
+  private String getPeer(String sessionId) {
+    String peer = sender.getPeer(sessionId);
+    return peer != null ? peer : UNKNOWN_PEER;
+  }
+
+  private void release(String peer, AtomicInteger count) {
+    count.decrementAndGet();
+    releasedPeers.add(peer);
+  }
+
+  private AtomicInteger getPeerOutstanding(String peer) {
+    AtomicInteger count = peerOutstanding.get(peer);
+    if (count == null) {
+      count = new AtomicInteger();
+      AtomicInteger existing = peerOutstanding.putIfAbsent(peer, count);
+      if (existing != null) {
+        count = existing;
+      }
+    }
+    return count;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return number of sessions taken from the session iterator
+   */
+  public long getSelected() {
+    return selected.get();
+  }
+
+  /**
+   * @return number of requests sent, including retries
+   */
+  public long getSent() {
+    return sent.get();
+  }
+
+  public long getSucceeded() {
+    return succeeded.get();
+  }
+
+  /**
+   * @return number of sessions whose request failed after all retries
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * @return number of sessions which no longer existed or were not signalled as the job was cancelled
+   */
+  public long getSkipped() {
+    return skipped.get();
+  }
+
+  public long getRetried() {
+    return retried.get();
+  }
+
+  public long getTimedOut() {
+    return timedOut.get();
+  }
+
+  /**
+   * @return number of answers which did not match unanswered request of the job, e.g. late answers
+   */
+  public long getIgnoredAnswers() {
+    return ignoredAnswers.get();
+  }
+
+  public int getOutstanding() {
+    return outstanding.size();
+  }
+
+  /**
+   * @return average time (ms) between request and its answer
+   */
+  public double getAverageLatency() {
+    long count = answered.get();
+    return count == 0 ? 0 : totalLatency.get() / 1000000.0 / count;
+  }
+
+  /**
+   * @return maximum time (ms) between request and its answer
+   */
+  public double getMaxLatency() {
+    return maxLatency.get() / 1000000.0;
+  }
+
+  /**
+   * @return time (ms) job has been running, or took if completed
+   */
+  public long getDuration() {
+    if (startTime == 0) {
+      return 0;
+    }
+    return (endTime != 0 ? endTime : System.currentTimeMillis()) - startTime;
+  }
+
+  @Override
+  public String toString() {
+    return "BulkSignalJob [name=" + name + ", selected=" + getSelected() + ", sent=" + getSent() + ", succeeded=" + getSucceeded()
+        + ", failed=" + getFailed() + ", skipped=" + getSkipped() + ", retried=" + getRetried() + ", timedOut=" + getTimedOut()
+        + ", outstanding=" + getOutstanding() + ", avgLatency=" + getAverageLatency() + "ms, maxLatency=" + getMaxLatency()
+        + "ms, duration=" + getDuration() + "ms]";
+  }
+
+  private static final class Attempt {
+
+    final String sessionId;
+    final String peer;
+    final int attempt;
+    final long due;
+    final AtomicBoolean finished = new AtomicBoolean();
+    long sent;
+    // guarded by this attempt
+    long endToEndId = PENDING;
+
+    Attempt(String sessionId, String peer, int attempt, long due) {
+      this.sessionId = sessionId;
+      this.peer = peer;
+      this.attempt = attempt;
+      this.due = due;
+    }
+  }
+}
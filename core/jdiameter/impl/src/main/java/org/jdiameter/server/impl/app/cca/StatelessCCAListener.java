@@ -0,0 +1,184 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl.app.cca;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.MetaData;
+import org.jdiameter.api.NetworkReqListener;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.cca.events.JCreditControlRequest;
+import org.jdiameter.client.api.ISessionFactory;
+import org.jdiameter.client.impl.MessageUtility;
+import org.jdiameter.common.api.app.cca.ICCAEventHandler;
+import org.jdiameter.common.impl.app.cca.JCreditControlRequestImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stateless credit-control server for event charging. Registered as network request listener for the
+ * credit-control application, it answers CCRs with CC-Request-Type EVENT_REQUEST right on the thread which
+ * received them by calling an {@link ICCAEventHandler}: no {@link ServerCCASessionImpl}, session data or
+ * Tcc timer is created and nothing is registered in the session datasource.
+ *
+ * Session based requests (INITIAL, UPDATE and TERMINATION) are passed to the delegate listener, which
+ * normally creates server session through the CCA session factory as before.
+ *
+ * <pre>
+ *   StatelessCCAListener listener = new StatelessCCAListener(sessionFactory, handler, sessionBasedListener);
+ *   stack.unwrap(Network.class).addNetworkReqListener(listener, ApplicationId.createByAuthAppId(4));
+ * </pre>
+ */
+public class StatelessCCAListener implements NetworkReqListener {
+
+  private static final Logger logger = LoggerFactory.getLogger(StatelessCCAListener.class);
+
+  private static final int EVENT_REQUEST = 4;
+
+  private final MetaData metaData;
+  private final ICCAEventHandler handler;
+  private final NetworkReqListener delegate;
+
+  // statistics
+  private final AtomicLong events = new AtomicLong();
+  private final AtomicLong failedEvents = new AtomicLong();
+  private final AtomicLong invalidRequests = new AtomicLong();
+  private final AtomicLong delegatedRequests = new AtomicLong();
+
+  /**
+   * @param sessionFactory session factory of the stack
+   * @param handler handler of event requests
+   * @param delegate listener of session based requests, null to reject them
+   */
+  public StatelessCCAListener(ISessionFactory sessionFactory, ICCAEventHandler handler, NetworkReqListener delegate) {
+    this.metaData = sessionFactory.getContainer().getMetaData();
+    this.handler = handler;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Answer processRequest(Request request) {
+    if (request.getCommandCode() != JCreditControlRequest.code) {
+      return delegate(request, ResultCode.COMMAND_UNSUPPORTED);
+    }
+    AvpSet avps = request.getAvps();
+    Avp typeAvp = avps.getAvp(Avp.CC_REQUEST_TYPE);
+    Avp numberAvp = avps.getAvp(Avp.CC_REQUEST_NUMBER);
+    if (typeAvp == null || numberAvp == null) {
+      invalidRequests.incrementAndGet();
+      Answer answer = createAnswer(request, typeAvp, numberAvp);
+      setResultCode(answer, ResultCode.MISSING_AVP);
+      answer.getAvps().addGroupedAvp(Avp.FAILED_AVP).addAvp(typeAvp == null ? Avp.CC_REQUEST_TYPE : Avp.CC_REQUEST_NUMBER, new byte[0]);
+      return answer;
+    }
+    try {
+      if (typeAvp.getInteger32() != EVENT_REQUEST) {
+        return delegate(request, ResultCode.UNABLE_TO_COMPLY);
+      }
+    }
+    catch (AvpDataException e) {
+      invalidRequests.incrementAndGet();
+      logger.debug("Unable to decode CC-Request-Type of {}", request, e);
+      Answer answer = createAnswer(request, null, numberAvp);
+      setResultCode(answer, ResultCode.INVALID_AVP_VALUE);
+      answer.getAvps().addGroupedAvp(Avp.FAILED_AVP).addAvp(typeAvp);
+      return answer;
+    }
+
+    Answer answer = createAnswer(request, typeAvp, numberAvp);
+    long resultCode;
+    try {
+      resultCode = handler.doCreditControlEvent(new JCreditControlRequestImpl(request), answer.getAvps());
+      events.incrementAndGet();
+    }
+    catch (Exception e) {
+      failedEvents.incrementAndGet();
+      logger.warn("Credit-control event handler failed to process request", e);
+      // handler may have left answer half filled
+      answer = createAnswer(request, typeAvp, numberAvp);
+      resultCode = ResultCode.UNABLE_TO_COMPLY;
+    }
+    setResultCode(answer, resultCode);
+    return answer;
+  }
+
+  private Answer delegate(Request request, long resultCode) {
+    if (delegate == null) {
+      Answer answer = request.createAnswer(resultCode);
+      MessageUtility.addOriginAvps(answer, metaData);
+      return answer;
+    }
+    delegatedRequests.incrementAndGet();
+    return delegate.processRequest(request);
+  }
+
+  // answer without Result-Code, which is inserted once known
+  private Answer createAnswer(Request request, Avp typeAvp, Avp numberAvp) {
+    Answer answer = request.createAnswer();
+    MessageUtility.addOriginAvps(answer, metaData);
+    AvpSet avps = answer.getAvps();
+    if (typeAvp != null) {
+      avps.addAvp(typeAvp);
+    }
+    if (numberAvp != null) {
+      avps.addAvp(numberAvp);
+    }
+    return answer;
+  }
+
+  private void setResultCode(Answer answer, long resultCode) {
+    AvpSet avps = answer.getAvps();
+    // right after Session-Id, which createAnswer() copied first
+    avps.insertAvp(avps.getAvp(Avp.SESSION_ID) != null ? 1 : 0, Avp.RESULT_CODE, resultCode, true, false, true);
+  }
+
+  /**
+   * @return number of event requests answered by the handler
+   */
+  public long getEvents() {
+    return events.get();
+  }
+
+  /**
+   * @return number of event requests the handler failed to process
+   */
+  public long getFailedEvents() {
+    return failedEvents.get();
+  }
+
+  /**
+   * @return number of requests without valid CC-Request-Type or CC-Request-Number
+   */
+  public long getInvalidRequests() {
+    return invalidRequests.get();
+  }
+
+  /**
+   * @return number of requests passed to the session based listener
+   */
+  public long getDelegatedRequests() {
+    return delegatedRequests.get();
+  }
+}
@@ -206,10 +206,12 @@ public class PeerFSMImpl extends org.jdiameter.client.impl.fsm.PeerFSMImpl imple
                     doDisconnect();
                     doEndConnection();
                   }
+                  release(event);
                   break;
                 case DWA_EVENT:
                   setInActiveTimer();
                   watchdogSent = false;
+                  release(event);
                   break;
                 case SEND_MSG_EVENT:
                   try {
@@ -323,7 +325,7 @@ public class PeerFSMImpl extends org.jdiameter.client.impl.fsm.PeerFSMImpl imple
               //       without any way to process messages
               // if (context.isRestoreConnection()) {
               //PCB added FSM multithread
-              mustRun = false;
+              stopQueueProcessing();
               // }
               context.removeStatistics();
             }
@@ -44,8 +44,8 @@ package org.jdiameter.server.impl.helpers;
 
 import org.jdiameter.api.ApplicationId;
 import org.jdiameter.api.Message;
-import org.jdiameter.api.Selector;
 import org.jdiameter.client.api.IMessage;
+import org.jdiameter.server.api.IIndexedSelector;
 
 /**
  *
@@ -53,7 +53,7 @@ import org.jdiameter.client.api.IMessage;
  * @author <a href="mailto:brainslog@gmail.com"> Alexandre Mendonca </a>
  * @author <a href="mailto:baranowb@gmail.com"> Bartosz Baranowski </a>
  */
-public class ApplicationIdSelector implements Selector<Message, ApplicationId> {
+public class ApplicationIdSelector implements IIndexedSelector<Message, ApplicationId> {
 
   private ApplicationId applicationId;
 
@@ -74,4 +74,15 @@ public class ApplicationIdSelector implements Selector<Message, ApplicationId> {
   public ApplicationId getMetaData() {
     return applicationId;
   }
+
+  @Override
+  public long getApplicationIdKey() {
+    long key = applicationId.getAuthAppId() != ApplicationId.UNDEFINED_VALUE ? applicationId.getAuthAppId() : applicationId.getAcctAppId();
+    return key == ApplicationId.UNDEFINED_VALUE || key == 0xffffffffL ? ANY : key;
+  }
+
+  @Override
+  public long getCommandCodeKey() {
+    return ANY;
+  }
 }
@@ -58,6 +58,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -169,6 +170,8 @@ public class NetworkGuard implements INetworkGuard {
     private ServerSocket serverSocket;
 
     private final ScheduledExecutorService binder = Executors.newSingleThreadScheduledExecutor();
+    // released once binding is done (or failed)
+    private final CountDownLatch bound = new CountDownLatch(1);
 
     GuardTask(final InetSocketAddress addr) throws IOException {
       if (bindDelay > 0) {
@@ -190,8 +193,12 @@ public class NetworkGuard implements INetworkGuard {
             logger.info("Open server socket {} ", serverSocket);
           }
           catch (IOException e) {
+            logger.error("Unable to bind " + addr, e);
             throw new RuntimeException(e);
           }
+          finally {
+            bound.countDown();
+          }
         }
       };
       binder.schedule(task, bindDelay, TimeUnit.MILLISECONDS);
@@ -204,12 +211,13 @@ public class NetworkGuard implements INetworkGuard {
     @Override
     public void run() {
       try {
+        while (isWork && !bound.await(100, TimeUnit.MILLISECONDS)) {
+          logger.trace("Selector is still null, stack is waiting for binding...");
+        }
+        if (selector == null) {
+          return;
+        }
         while (isWork) {
-          if (selector == null) {
-            logger.trace("Selector is still null, stack is waiting for binding...");
-            Thread.sleep(250);
-            continue;
-          }
           // without timeout when we kill socket, this causes errors, bug in VM ?
           int num = selector.select(100);
           if (num == 0) {
@@ -0,0 +1,258 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.client.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.AnswerFuture;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.EventListener;
+import org.jdiameter.api.MetaData;
+import org.jdiameter.api.OverloadException;
+import org.jdiameter.api.Peer;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.SessionFactory;
+import org.jdiameter.api.URI;
+import org.jdiameter.client.api.IAssembler;
+import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.impl.helpers.EmptyConfiguration;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestSendAsync {
+
+  private final MessageParser parser = new MessageParser();
+  private final List<IMessage> sent = new ArrayList<IMessage>();
+  private ScheduledExecutorService scheduler;
+  private IOException sendFailure;
+  private SessionImpl session;
+
+  @BeforeMethod
+  public void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    session = new SessionImpl(newContainer());
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void testFutureCompletesOnAnswer() throws Exception {
+    IMessage request = newRequest();
+    AnswerFuture<Request, Answer> future = session.sendAsync(request, 5, TimeUnit.SECONDS);
+    assertSame(future.getRequest(), request);
+    assertEquals(sent.size(), 1);
+    assertFalse(future.isDone());
+    RecordingListener early = new RecordingListener();
+    future.setListener(early);
+
+    Answer answer = answer(request);
+
+    assertTrue(future.isDone());
+    assertFalse(future.isTimeOut());
+    assertSame(future.get(), answer);
+    assertSame(future.get(1, TimeUnit.SECONDS), answer);
+    assertSame(early.answer, answer);
+    // listener set after completion is notified at once
+    RecordingListener late = new RecordingListener();
+    future.setListener(late);
+    assertSame(late.answer, answer);
+    // late timeout does not change result
+    request.getEventListener().timeoutExpired(request);
+    assertFalse(future.isTimeOut());
+  }
+
+  @Test
+  public void testFutureCompletesOnTimeout() throws Exception {
+    IMessage request = newRequest();
+    AnswerFuture<Request, Answer> future = session.sendAsync(request, 30, TimeUnit.MILLISECONDS);
+    RecordingListener listener = new RecordingListener();
+    future.setListener(listener);
+
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("request must time out");
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+    assertTrue(future.isDone());
+    assertTrue(future.isTimeOut());
+    assertTrue(listener.timedOut);
+    assertTrue(request.isTimeOut());
+  }
+
+  @Test
+  public void testFutureIsNotCompletedByCancelledRequest() throws Exception {
+    IMessage request = newRequest();
+    AnswerFuture<Request, Answer> future = session.sendAsync(request, 30, TimeUnit.MILLISECONDS);
+
+    assertTrue(future.cancel(true));
+    assertFalse(future.cancel(true));
+    assertTrue(future.isCancelled());
+    try {
+      future.get(1, TimeUnit.SECONDS);
+      fail("request is cancelled");
+    }
+    catch (CancellationException e) {
+      // expected
+    }
+    // timer was cleared with the future
+    Thread.sleep(100);
+    assertFalse(request.isTimeOut());
+    assertFalse(future.isTimeOut());
+  }
+
+  @Test
+  public void testOverloadExceptionIsUnwrapped() throws Exception {
+    OverloadException overload = new OverloadException("In-flight window of peer is full");
+    sendFailure = new IOException(overload.getMessage(), overload);
+    IMessage request = newRequest();
+
+    try {
+      session.sendAsync(request, 30, TimeUnit.MILLISECONDS);
+      fail("send must fail");
+    }
+    catch (OverloadException e) {
+      assertSame(e, overload);
+    }
+    // timer of request which was not sent is cleared
+    Thread.sleep(100);
+    assertFalse(request.isTimeOut());
+    assertFalse(((AnswerFuture<?, ?>) ((MyEventListener) request.getEventListener()).listener).isDone());
+  }
+
+  private Answer answer(IMessage request) {
+    IMessage answer = (IMessage) request.createAnswer(ResultCode.SUCCESS);
+    request.clearTimer();
+    request.setState(IMessage.STATE_ANSWERED);
+    request.getEventListener().receivedSuccessMessage(request, answer);
+    return answer;
+  }
+
+  private IMessage newRequest() {
+    IMessage request = parser.createEmptyMessage(272, 4);
+    request.setRequest(true);
+    request.getAvps().addAvp(Avp.SESSION_ID, session.getSessionId(), true, false, false);
+    request.getAvps().addAvp(Avp.DESTINATION_REALM, "example.com", true, false, true);
+    return request;
+  }
+
+  private IContainer newContainer() {
+    final EmptyConfiguration config = new EmptyConfiguration() { };
+    final IAssembler assembler = proxy(IAssembler.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return null;
+      }
+    });
+    final SessionFactory sessionFactory = proxy(SessionFactory.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getSessionId") ? "client.example.com;1;1" : null;
+      }
+    });
+    final Peer localPeer = proxy(Peer.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+        if (method.getName().equals("getUri")) {
+          return new URI("aaa://client.example.com:3868");
+        }
+        return method.getName().equals("getRealmName") ? "example.com" : null;
+      }
+    });
+    final MetaData metaData = proxy(MetaData.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getLocalPeer") ? localPeer : null;
+      }
+    });
+    return proxy(IContainer.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+        String name = method.getName();
+        if (name.equals("sendMessage")) {
+          if (sendFailure != null) {
+            throw sendFailure;
+          }
+          sent.add((IMessage) args[0]);
+          return null;
+        }
+        if (name.equals("getConfiguration")) {
+          return config;
+        }
+        if (name.equals("getAssemblerFacility")) {
+          return assembler;
+        }
+        if (name.equals("getSessionFactory")) {
+          return sessionFactory;
+        }
+        if (name.equals("getScheduledFacility")) {
+          return scheduler;
+        }
+        return name.equals("getMetaData") ? metaData : null;
+      }
+    });
+  }
+
+  private static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+    return iface.cast(Proxy.newProxyInstance(TestSendAsync.class.getClassLoader(), new Class<?>[] {iface}, handler));
+  }
+
+  private static class RecordingListener implements EventListener<Request, Answer> {
+
+    volatile Answer answer;
+    volatile boolean timedOut;
+
+    @Override
+    public void receivedSuccessMessage(Request request, Answer answer) {
+      this.answer = answer;
+    }
+
+    @Override
+    public void timeoutExpired(Request request) {
+      timedOut = true;
+    }
+  }
+}
@@ -0,0 +1,266 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+package org.jdiameter.client.impl.app.s6a;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.EventListener;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.Session;
+import org.jdiameter.api.SessionFactory;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.impl.app.s6a.S6aAuthenticationVectorPool.EUtranVector;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.testng.annotations.Test;
+
+public class TestS6aAuthenticationVectorPool {
+
+  private static final long VENDOR_ID = 10415;
+  private static final long S6A_APPLICATION_ID = 16777251;
+  private static final String IMSI = "001010123456789";
+  private static final int NUMBER_OF_REQUESTED_VECTORS = 1410;
+  private static final int IMMEDIATE_RESPONSE_PREFERRED = 1412;
+  private static final int REQUESTED_EUTRAN_AUTHENTICATION_INFO = 1408;
+  private static final int AUTHENTICATION_INFO = 1413;
+  private static final int E_UTRAN_VECTOR = 1414;
+  private static final int RAND = 1447;
+  private static final int XRES = 1448;
+  private static final int AUTN = 1449;
+  private static final int KASME = 1450;
+
+  private final MessageParser parser = new MessageParser();
+
+  @Test
+  public void testPollRefillsPoolInBackground() throws Exception {
+    FakeHss hss = new FakeHss();
+    S6aAuthenticationVectorPool pool = newPool(hss);
+
+    assertNull(pool.poll(IMSI));
+    assertEquals(hss.requests.size(), 1);
+    Request air = hss.requests.get(0);
+    AvpSet requested = air.getAvps().getAvp(REQUESTED_EUTRAN_AUTHENTICATION_INFO, VENDOR_ID).getGrouped();
+    assertEquals(requested.getAvp(NUMBER_OF_REQUESTED_VECTORS, VENDOR_ID).getUnsigned32(), 5);
+    assertEquals(requested.getAvp(IMMEDIATE_RESPONSE_PREFERRED, VENDOR_ID).getUnsigned32(), 1);
+    assertEquals(air.getAvps().getAvp(Avp.USER_NAME).getUTF8String(), IMSI);
+
+    hss.answer(0, 5);
+    assertEquals(pool.getPoolDepth(IMSI), 5);
+    EUtranVector vector = pool.poll(IMSI);
+    assertNotNull(vector);
+    assertEquals(vector.getRand()[0], (byte) 0);
+    assertEquals(pool.poll(IMSI).getRand()[0], (byte) 1);
+    assertEquals(pool.getRoundTripsSaved(), 2);
+    assertEquals(pool.getRoundTrips(), 1);
+  }
+
+  @Test
+  public void testOnlyOneRefillInFlightPerImsi() {
+    FakeHss hss = new FakeHss();
+    S6aAuthenticationVectorPool pool = newPool(hss);
+
+    pool.prefetch(IMSI);
+    pool.poll(IMSI);
+    pool.prefetch(IMSI);
+    assertEquals(hss.requests.size(), 1);
+
+    hss.answer(0, 5);
+    // drain below low watermark
+    for (int i = 0; i < 4; i++) {
+      assertNotNull(pool.poll(IMSI));
+    }
+    assertEquals(hss.requests.size(), 2);
+    Request air = hss.requests.get(1);
+    try {
+      AvpSet requested = air.getAvps().getAvp(REQUESTED_EUTRAN_AUTHENTICATION_INFO, VENDOR_ID).getGrouped();
+      assertEquals(requested.getAvp(IMMEDIATE_RESPONSE_PREFERRED, VENDOR_ID).getUnsigned32(), 0);
+    }
+    catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Test
+  public void testRequestIsSentWithoutPoolLocked() {
+    final boolean[] blocked = new boolean[1];
+    final S6aAuthenticationVectorPool[] pool = new S6aAuthenticationVectorPool[1];
+    FakeHss hss = new FakeHss() {
+      @Override
+      void sent(Request request) {
+        // another thread using the same IMSI must not wait for the network
+        Thread other = new Thread() {
+          @Override
+          public void run() {
+            pool[0].poll(IMSI);
+          }
+        };
+        other.start();
+        try {
+          other.join(5000);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        blocked[0] = other.isAlive();
+      }
+    };
+    pool[0] = newPool(hss);
+
+    pool[0].poll(IMSI);
+    assertFalse(blocked[0]);
+    assertEquals(hss.requests.size(), 1);
+  }
+
+  @Test
+  public void testTakeWaitsForHss() throws Exception {
+    final FakeHss hss = new FakeHss() {
+      @Override
+      void sent(Request request) {
+        new Thread() {
+          @Override
+          public void run() {
+            answer(requests.size() - 1, 3);
+          }
+        }.start();
+      }
+    };
+    S6aAuthenticationVectorPool pool = newPool(hss);
+
+    EUtranVector vector = pool.take(IMSI, 5, TimeUnit.SECONDS);
+    assertNotNull(vector);
+    assertEquals(pool.getServedAfterWait(), 1);
+    assertEquals(pool.getRoundTripsSaved(), 0);
+  }
+
+  @Test
+  public void testTakeGivesUpWhenHssFails() throws Exception {
+    FakeHss hss = new FakeHss() {
+      @Override
+      void sent(Request request) {
+        fail(requests.size() - 1);
+      }
+    };
+    S6aAuthenticationVectorPool pool = newPool(hss);
+
+    long start = System.currentTimeMillis();
+    assertNull(pool.take(IMSI, 5, TimeUnit.SECONDS));
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    assertEquals(hss.requests.size(), 1);
+    assertEquals(pool.getFailedRoundTrips(), 1);
+  }
+
+  @Test
+  public void testInvalidateDiscardsVectors() {
+    FakeHss hss = new FakeHss();
+    S6aAuthenticationVectorPool pool = newPool(hss);
+    pool.prefetch(IMSI);
+    hss.answer(0, 5);
+    pool.prefetch(IMSI);
+    assertEquals(hss.requests.size(), 1);
+
+    pool.invalidate(IMSI);
+    assertEquals(pool.getPoolDepth(IMSI), 0);
+    assertNull(pool.poll(IMSI));
+    assertEquals(hss.requests.size(), 2);
+  }
+
+  private S6aAuthenticationVectorPool newPool(FakeHss hss) {
+    return new S6aAuthenticationVectorPool(hss.newSessionFactory(), "hss.example.org", null, new byte[] {0, 1, 0x10}, 100, 2, 5, 60000);
+  }
+
+  private class FakeHss {
+
+    final List<Request> requests = new ArrayList<Request>();
+    final List<EventListener<Request, Answer>> listeners = new ArrayList<EventListener<Request, Answer>>();
+
+    // called when AIR was sent
+    void sent(Request request) {
+    }
+
+    synchronized void answer(int index, int vectors) {
+      Answer answer = ((IMessage) requests.get(index)).createAnswer(ResultCode.SUCCESS);
+      AvpSet info = answer.getAvps().addGroupedAvp(AUTHENTICATION_INFO, VENDOR_ID, true, false);
+      for (int i = 0; i < vectors; i++) {
+        AvpSet vector = info.addGroupedAvp(E_UTRAN_VECTOR, VENDOR_ID, true, false);
+        vector.addAvp(RAND, new byte[] {(byte) i}, VENDOR_ID, true, false);
+        vector.addAvp(XRES, new byte[] {1}, VENDOR_ID, true, false);
+        vector.addAvp(AUTN, new byte[] {2}, VENDOR_ID, true, false);
+        vector.addAvp(KASME, new byte[] {3}, VENDOR_ID, true, false);
+      }
+      listeners.get(index).receivedSuccessMessage(requests.get(index), answer);
+    }
+
+    synchronized void fail(int index) {
+      Answer answer = ((IMessage) requests.get(index)).createAnswer(ResultCode.UNABLE_TO_COMPLY);
+      listeners.get(index).receivedSuccessMessage(requests.get(index), answer);
+    }
+
+    SessionFactory newSessionFactory() {
+      return proxy(SessionFactory.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          return method.getName().equals("getNewSession") ? newSession() : null;
+        }
+      });
+    }
+
+    private Session newSession() {
+      return proxy(Session.class, new InvocationHandler() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          if (method.getName().equals("createRequest")) {
+            IMessage request = parser.createEmptyMessage((Integer) args[0], S6A_APPLICATION_ID);
+            request.setRequest(true);
+            request.getAvps().addAvp(Avp.SESSION_ID, "mme.example.org;" + System.identityHashCode(request), false);
+            request.getAvps().addAvp(Avp.DESTINATION_REALM, (String) args[2], true, false, true);
+            return request;
+          }
+          else if (method.getName().equals("send")) {
+            Request request = (Request) args[0];
+            synchronized (FakeHss.this) {
+              requests.add(request);
+              listeners.add((EventListener<Request, Answer>) args[1]);
+            }
+            sent(request);
+          }
+          return null;
+        }
+      });
+    }
+  }
+
+  private static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+    return iface.cast(Proxy.newProxyInstance(TestS6aAuthenticationVectorPool.class.getClassLoader(), new Class<?>[] {iface}, handler));
+  }
+}
@@ -0,0 +1,172 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.client.impl.app.sh;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.testng.annotations.Test;
+
+public class TestShUserDataCache {
+
+  private static final long VENDOR_ID = 10415;
+  private static final long SH_APPLICATION_ID = 16777217;
+  private static final int USER_DATA_REQUEST = 306;
+  private static final int PUSH_NOTIFICATION_REQUEST = 309;
+  private static final int REPOSITORY_DATA = 0;
+  private static final int IMS_USER_STATE = 11;
+  private static final int LOCATION_INFORMATION = 14;
+
+  private final MessageParser parser = new MessageParser();
+  private long endToEndId;
+
+  @Test
+  public void testCachedAnswerIsServedForSameData() {
+    ShUserDataCache cache = new ShUserDataCache(parser, 100, 60000);
+    IMessage request = newUdr("alice", REPOSITORY_DATA);
+
+    assertNull(cache.get(request));
+    cache.put(request, newUda(request, "<Sh-Data>alice</Sh-Data>"));
+    assertEquals(cache.size(), 1);
+
+    IMessage again = newUdr("alice", REPOSITORY_DATA);
+    Answer answer = cache.get(again);
+    assertNotNull(answer);
+    assertEquals(answer.getEndToEndIdentifier(), again.getEndToEndIdentifier());
+    assertEquals(answer.getSessionId(), again.getSessionId());
+    assertEquals(getUserData(answer), "<Sh-Data>alice</Sh-Data>");
+    assertEquals(cache.getHits(), 1);
+    assertEquals(cache.getMisses(), 1);
+
+    // other data of the same user and same data of other user are not cached
+    assertNull(cache.get(newUdr("alice", IMS_USER_STATE)));
+    assertNull(cache.get(newUdr("bob", REPOSITORY_DATA)));
+  }
+
+  @Test
+  public void testPushNotificationInvalidatesUser() {
+    ShUserDataCache cache = new ShUserDataCache(parser, 100, 60000);
+    load(cache, newUdr("alice", REPOSITORY_DATA), "repository");
+    load(cache, newUdr("alice", IMS_USER_STATE), "state");
+    load(cache, newUdr("bob", REPOSITORY_DATA), "repository");
+
+    cache.invalidate(newRequest(PUSH_NOTIFICATION_REQUEST, "alice"));
+
+    assertEquals(cache.size(), 1);
+    assertEquals(cache.getInvalidated(), 2);
+    assertNull(cache.get(newUdr("alice", REPOSITORY_DATA)));
+    assertNotNull(cache.get(newUdr("bob", REPOSITORY_DATA)));
+  }
+
+  @Test
+  public void testAnswerToRequestSentBeforeNotificationIsNotCached() {
+    ShUserDataCache cache = new ShUserDataCache(parser, 100, 60000);
+    IMessage request = newUdr("alice", REPOSITORY_DATA);
+    assertNull(cache.get(request));
+
+    // data changes while request is on its way
+    cache.invalidate(newRequest(PUSH_NOTIFICATION_REQUEST, "alice"));
+    cache.put(request, newUda(request, "old"));
+
+    assertEquals(cache.size(), 0);
+    assertEquals(cache.getStaleLoads(), 1);
+  }
+
+  @Test
+  public void testEntriesExpire() throws Exception {
+    ShUserDataCache cache = new ShUserDataCache(parser, 100, 20);
+    load(cache, newUdr("alice", REPOSITORY_DATA), "repository");
+
+    Thread.sleep(50);
+    assertNull(cache.get(newUdr("alice", REPOSITORY_DATA)));
+    assertEquals(cache.getExpired(), 1);
+    assertEquals(cache.size(), 0);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntryIsEvicted() {
+    ShUserDataCache cache = new ShUserDataCache(parser, 2, 60000);
+    load(cache, newUdr("alice", REPOSITORY_DATA), "alice");
+    load(cache, newUdr("bob", REPOSITORY_DATA), "bob");
+    assertNotNull(cache.get(newUdr("alice", REPOSITORY_DATA)));
+    load(cache, newUdr("carol", REPOSITORY_DATA), "carol");
+
+    assertEquals(cache.size(), 2);
+    assertEquals(cache.getEvictions(), 1);
+    assertNotNull(cache.get(newUdr("alice", REPOSITORY_DATA)));
+    assertNull(cache.get(newUdr("bob", REPOSITORY_DATA)));
+  }
+
+  @Test
+  public void testActiveLocationRetrievalIsNotCached() {
+    ShUserDataCache cache = new ShUserDataCache(parser, 100, 60000);
+    IMessage request = newUdr("alice", LOCATION_INFORMATION);
+    request.getAvps().addAvp(Avp.CURRENT_LOCATION, 1, VENDOR_ID, true, false);
+
+    assertNull(cache.get(request));
+    cache.put(request, newUda(request, "location"));
+    assertEquals(cache.size(), 0);
+    assertEquals(cache.getMisses(), 0);
+  }
+
+  private void load(ShUserDataCache cache, IMessage request, String userData) {
+    assertNull(cache.get(request));
+    cache.put(request, newUda(request, userData));
+  }
+
+  private IMessage newUdr(String user, int dataReference) {
+    IMessage request = newRequest(USER_DATA_REQUEST, user);
+    request.getAvps().addAvp(Avp.DATA_REFERENCE, dataReference, VENDOR_ID, true, false);
+    return request;
+  }
+
+  private IMessage newRequest(int commandCode, String user) {
+    IMessage request = parser.createEmptyMessage(commandCode, SH_APPLICATION_ID);
+    request.setRequest(true);
+    request.setEndToEndIdentifier(++endToEndId);
+    AvpSet avps = request.getAvps();
+    avps.addAvp(Avp.SESSION_ID, "as.example.org;" + endToEndId, false);
+    AvpSet userIdentity = avps.addGroupedAvp(Avp.USER_IDENTITY, VENDOR_ID, true, false);
+    userIdentity.addAvp(Avp.PUBLIC_IDENTITY, "sip:" + user + "@example.org", VENDOR_ID, true, false, false);
+    return request;
+  }
+
+  private static Answer newUda(IMessage request, String userData) {
+    Answer answer = request.createAnswer(ResultCode.SUCCESS);
+    answer.getAvps().addAvp(Avp.USER_DATA_SH, userData.getBytes(), VENDOR_ID, true, false);
+    return answer;
+  }
+
+  private static String getUserData(Answer answer) {
+    try {
+      return new String(answer.getAvps().getAvp(Avp.USER_DATA_SH, VENDOR_ID).getOctetString());
+    }
+    catch (Exception e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.client.impl.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.impl.controller.InFlightWindow.Admission;
+import org.jdiameter.client.impl.controller.InFlightWindow.Policy;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.testng.annotations.Test;
+
+public class TestInFlightWindow {
+
+  private static final long APP_ID = 4;
+  private static final long OTHER_APP_ID = 16777251;
+
+  private final MessageParser parser = new MessageParser();
+  private long hopByHopId;
+
+  @Test
+  public void testRejectPolicyRejectsWhenFull() {
+    InFlightWindow window = new InFlightWindow(2, Policy.REJECT, 10);
+    IMessage r1 = newRequest(APP_ID);
+    IMessage r2 = newRequest(APP_ID);
+
+    assertEquals(window.admit(r1), Admission.ADMITTED);
+    assertEquals(window.admit(r2), Admission.ADMITTED);
+    assertTrue(window.isFull(APP_ID));
+    assertEquals(window.admit(newRequest(APP_ID)), Admission.REJECTED);
+    assertEquals(window.getRejected(), 1);
+    assertEquals(window.getQueued(), 0);
+    assertFalse(window.hasQueued(APP_ID));
+
+    // window is kept per application
+    assertEquals(window.admit(newRequest(OTHER_APP_ID)), Admission.ADMITTED);
+
+    assertTrue(window.release(r1));
+    assertFalse(window.release(r1));
+    assertEquals(window.getInFlight(APP_ID), 1);
+    assertEquals(window.admit(newRequest(APP_ID)), Admission.ADMITTED);
+  }
+
+  @Test
+  public void testQueuePolicySendsQueuedRequestsInOrder() {
+    InFlightWindow window = new InFlightWindow(1, Policy.QUEUE, 10);
+    IMessage r1 = newRequest(APP_ID);
+    IMessage r2 = newRequest(APP_ID);
+    IMessage r3 = newRequest(APP_ID);
+
+    assertEquals(window.admit(r1), Admission.ADMITTED);
+    assertEquals(window.admit(r2), Admission.QUEUED);
+    assertEquals(window.admit(r3), Admission.QUEUED);
+    assertEquals(window.getQueued(), 2);
+    assertTrue(window.hasQueued(APP_ID));
+    // no free slot yet
+    assertNull(window.poll(APP_ID));
+
+    assertTrue(window.release(r1));
+    assertSame(window.poll(APP_ID), r2);
+    assertNull(window.poll(APP_ID));
+    assertTrue(window.release(r2));
+    assertSame(window.poll(APP_ID), r3);
+    assertFalse(window.hasQueued(APP_ID));
+    assertEquals(window.getInFlight(APP_ID), 1);
+  }
+
+  @Test
+  public void testQueuePolicyRejectsWhenQueueIsFull() {
+    InFlightWindow window = new InFlightWindow(1, Policy.QUEUE, 1);
+
+    assertEquals(window.admit(newRequest(APP_ID)), Admission.ADMITTED);
+    assertEquals(window.admit(newRequest(APP_ID)), Admission.QUEUED);
+    assertEquals(window.admit(newRequest(APP_ID)), Admission.REJECTED);
+    assertEquals(window.getRejected(), 1);
+  }
+
+  @Test
+  public void testRequestRemovedWhileQueuedIsSkipped() {
+    InFlightWindow window = new InFlightWindow(1, Policy.QUEUE, 10);
+    IMessage r1 = newRequest(APP_ID);
+    IMessage r2 = newRequest(APP_ID);
+    IMessage r3 = newRequest(APP_ID);
+    window.admit(r1);
+    window.admit(r2);
+    window.admit(r3);
+
+    // request timed out while waiting, it does not free any slot
+    assertFalse(window.release(r2));
+    assertTrue(window.release(r1));
+    assertSame(window.poll(APP_ID), r3);
+    assertEquals(window.getInFlight(APP_ID), 1);
+
+    assertTrue(window.release(r3));
+    assertNull(window.poll(APP_ID));
+    assertEquals(window.getInFlight(APP_ID), 0);
+  }
+
+  private IMessage newRequest(long applicationId) {
+    IMessage request = parser.createEmptyMessage(272, applicationId);
+    request.setRequest(true);
+    request.setHopByHopIdentifier(++hopByHopId);
+    return request;
+  }
+}
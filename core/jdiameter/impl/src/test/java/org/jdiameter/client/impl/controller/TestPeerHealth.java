@@ -0,0 +1,118 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+package org.jdiameter.client.impl.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jdiameter.api.ResultCode;
+import org.testng.annotations.Test;
+
+public class TestPeerHealth {
+
+  private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void testHealthyPeerHasFullScore() {
+    PeerHealth health = new PeerHealth(0);
+    assertEquals(health.getScore(), PeerHealth.MAX_SCORE);
+    for (int i = 0; i < 10; i++) {
+      health.answered(MILLISECOND, ResultCode.SUCCESS);
+    }
+    assertEquals(health.getScore(), PeerHealth.MAX_SCORE);
+  }
+
+  @Test
+  public void testTimeoutsLowerScoreUntilPeerAnswersAgain() {
+    PeerHealth health = new PeerHealth(0);
+    for (int i = 0; i < 16; i++) {
+      health.timedOut(MILLISECOND);
+    }
+    assertTrue(health.getScore() < 50, "score " + health.getScore());
+    assertTrue(health.getTimeoutRatio() > 0.5);
+
+    for (int i = 0; i < 100; i++) {
+      health.answered(MILLISECOND, ResultCode.SUCCESS);
+    }
+    assertTrue(health.getScore() > 95, "score " + health.getScore());
+  }
+
+  @Test
+  public void testTransientErrorsLowerScore() {
+    PeerHealth health = new PeerHealth(0);
+    for (int i = 0; i < 16; i++) {
+      health.answered(MILLISECOND, ResultCode.TOO_BUSY);
+    }
+    assertTrue(health.getScore() < 50, "score " + health.getScore());
+
+    // permanent failures are answers of a healthy peer
+    health = new PeerHealth(0);
+    for (int i = 0; i < 16; i++) {
+      health.answered(MILLISECOND, ResultCode.AUTHORIZATION_REJECTED);
+    }
+    assertEquals(health.getScore(), PeerHealth.MAX_SCORE);
+  }
+
+  @Test
+  public void testSmallLatencyDifferencesAreIgnored() {
+    PeerHealth health = new PeerHealth(0);
+    health.answered(MILLISECOND / 10, ResultCode.SUCCESS);
+    // forty times the baseline, but only a few milliseconds
+    health.answered(4 * MILLISECOND, ResultCode.SUCCESS);
+    assertEquals(health.getScore(), PeerHealth.MAX_SCORE);
+
+    // (2 * 0.1 + 5) / 52
+    health.answered(52 * MILLISECOND, ResultCode.SUCCESS);
+    assertEquals(health.getScore(), 10);
+  }
+
+  @Test
+  public void testBaselineRecoversFromPermanentSlowdown() throws Exception {
+    PeerHealth health = new PeerHealth(0, 20 * MILLISECOND);
+    health.answered(MILLISECOND, ResultCode.SUCCESS);
+    health.answered(70 * MILLISECOND, ResultCode.SUCCESS);
+    assertEquals(health.getScore(), 10);
+
+    // low sample is older than two windows
+    Thread.sleep(50);
+    health.answered(70 * MILLISECOND, ResultCode.SUCCESS);
+    assertEquals(health.getScore(), PeerHealth.MAX_SCORE);
+  }
+
+  @Test
+  public void testScoreRampsUpAfterPeerIsRestored() throws Exception {
+    PeerHealth health = new PeerHealth(200);
+    // first connection is not limited
+    health.restored();
+    assertEquals(health.getScore(), PeerHealth.MAX_SCORE);
+
+    for (int i = 0; i < 16; i++) {
+      health.timedOut(MILLISECOND);
+    }
+    health.restored();
+    int score = health.getScore();
+    assertTrue(score >= 10 && score < 50, "score " + score);
+
+    Thread.sleep(250);
+    // samples taken before the failure are forgotten
+    assertEquals(health.getScore(), PeerHealth.MAX_SCORE);
+  }
+}
@@ -0,0 +1,134 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.client.impl.controller;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jdiameter.api.Configuration;
+import org.jdiameter.api.URI;
+import org.jdiameter.client.api.IEventListener;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.fsm.IFsmFactory;
+import org.jdiameter.client.api.fsm.IStateMachine;
+import org.jdiameter.client.api.io.IConnection;
+import org.jdiameter.client.impl.helpers.XMLConfiguration;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.jdiameter.common.impl.statistic.StatisticManagerImpl;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestPeerTimeout {
+
+  private static final long TIMEOUT = 50;
+
+  private final MessageParser parser = new MessageParser();
+  private ScheduledExecutorService scheduler;
+  private PeerImpl peer;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    Configuration config = new XMLConfiguration("src/test/resources/jdiameter-realmrouting-config.xml");
+    peer = new PeerImpl(new PeerTableImpl() { }, 1, new URI("aaa://peer.example.com:3868"), "127.0.0.1", null, null,
+        config, null, proxy(IFsmFactory.class, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            return proxy(IStateMachine.class, NOOP);
+          }
+        }), null, parser, new StatisticManagerImpl(config), null, proxy(IConnection.class, NOOP), null);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void testTimerTimeoutUpdatesResponseTimeAndHealth() throws Exception {
+    assertTimeoutAccounted(false);
+  }
+
+  @Test
+  public void testSharedTimerTimeoutUpdatesResponseTimeAndHealth() throws Exception {
+    assertTimeoutAccounted(true);
+  }
+
+  private void assertTimeoutAccounted(boolean shared) throws Exception {
+    int score = peer.getHealthScore();
+    final CountDownLatch expired = new CountDownLatch(1);
+    IMessage request = newRequest();
+    request.setListener(proxy(IEventListener.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("isValid")) {
+          return true;
+        }
+        if (method.getName().equals("timeoutExpired")) {
+          expired.countDown();
+        }
+        return null;
+      }
+    }));
+    peer.addMessage(request);
+    if (shared) {
+      request.createSharedTimer(scheduler, TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+    else {
+      request.createTimer(scheduler, TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    assertTrue(expired.await(5, TimeUnit.SECONDS), "timeout not fired");
+    assertTrue(request.isTimeOut());
+    assertEquals(peer.getOutstandingRequests(), 0);
+    // timed out request is accounted with at least its full wait time
+    assertTrue(peer.getResponseTime() >= TimeUnit.MILLISECONDS.toNanos(TIMEOUT), "response time " + peer.getResponseTime());
+    assertTrue(peer.getHealthScore() < score, "health score " + peer.getHealthScore() + " not below " + score);
+  }
+
+  private IMessage newRequest() {
+    IMessage request = parser.createEmptyMessage(272, 4);
+    request.setRequest(true);
+    request.setHopByHopIdentifier(1);
+    request.setPeer(peer);
+    request.setState(IMessage.STATE_SENT);
+    return request;
+  }
+
+  private static final InvocationHandler NOOP = new InvocationHandler() {
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      return null;
+    }
+  };
+
+  private static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+    return iface.cast(Proxy.newProxyInstance(TestPeerTimeout.class.getClassLoader(), new Class<?>[] {iface}, handler));
+  }
+}
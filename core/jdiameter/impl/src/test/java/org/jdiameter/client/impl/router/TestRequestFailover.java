@@ -0,0 +1,361 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+package org.jdiameter.client.impl.router;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.Message;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.RouteException;
+import org.jdiameter.api.URI;
+import org.jdiameter.client.api.IEventListener;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerTable;
+import org.jdiameter.client.impl.helpers.XMLConfiguration;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.jdiameter.common.api.statistic.IStatistic;
+import org.jdiameter.common.api.statistic.IStatisticRecord;
+import org.jdiameter.common.impl.statistic.StatisticManagerImpl;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestRequestFailover {
+
+  private ScheduledExecutorService scheduler;
+  private long identifier;
+
+  @BeforeMethod
+  public void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void testRequestIsRetransmittedOnTimeout() throws Exception {
+    RequestFailover failover = new RequestFailover(2, 60000, scheduler, null);
+    FakePeer p1 = new FakePeer("hss1.example.org");
+    FakePeer p2 = new FakePeer("hss2.example.org");
+    FakeTable table = new FakeTable(failover, p1, p2);
+    RecordingListener application = new RecordingListener();
+    IMessage request = send(failover, table, application);
+    assertSame(request.getPeer(), p1.peer);
+    long endToEndId = request.getEndToEndIdentifier();
+    long firstHopByHopId = request.getHopByHopIdentifier();
+
+    request.getEventListener().timeoutExpired(request);
+
+    assertEquals(application.timeouts, 0);
+    assertSame(request.getPeer(), p2.peer);
+    assertTrue(request.isReTransmitted());
+    assertEquals(request.getEndToEndIdentifier(), endToEndId);
+    assertTrue(request.getHopByHopIdentifier() != firstHopByHopId);
+    assertEquals(p1.removed, Arrays.asList((Object) request));
+    assertTrue(failover.hasFailed(request, p1.peer));
+    assertFalse(failover.hasFailed(request, p2.peer));
+    assertEquals(failover.getRetransmissions(), 1);
+
+    request.getEventListener().receivedSuccessMessage(request, answer(request));
+    assertEquals(application.answers, 1);
+    request.clearTimer();
+  }
+
+  @Test
+  public void testRequestIsRetransmittedOnConnectionClose() throws Exception {
+    RequestFailover failover = new RequestFailover(2, 60000, scheduler, null);
+    FakePeer p1 = new FakePeer("hss1.example.org");
+    FakePeer p2 = new FakePeer("hss2.example.org");
+    FakeTable table = new FakeTable(failover, p1, p2);
+    IMessage request = send(failover, table, new RecordingListener());
+
+    assertTrue(failover.failover(request, false));
+    assertSame(request.getPeer(), p2.peer);
+    assertEquals(request.getState(), IMessage.STATE_SENT);
+    // same attempt is not failed over twice, e.g. by its timer and by loss of connection
+    request.setPeer(p1.peer);
+    assertFalse(failover.failover(request, false));
+    assertEquals(failover.getRetransmissions(), 1);
+    assertEquals(table.sent, 2);
+  }
+
+  @Test
+  public void testRequestIsSentWithoutListenerLocked() throws Exception {
+    RequestFailover failover = new RequestFailover(2, 60000, scheduler, null);
+    FakeTable table = new FakeTable(failover, new FakePeer("hss1.example.org"), new FakePeer("hss2.example.org"));
+    IMessage request = send(failover, table, new RecordingListener());
+
+    assertTrue(failover.failover(request, false));
+    assertFalse(table.sentLocked);
+  }
+
+  @Test
+  public void testRetriesAreBounded() throws Exception {
+    RequestFailover failover = new RequestFailover(1, 60000, scheduler, null);
+    FakePeer p1 = new FakePeer("hss1.example.org");
+    FakePeer p2 = new FakePeer("hss2.example.org");
+    FakePeer p3 = new FakePeer("hss3.example.org");
+    FakeTable table = new FakeTable(failover, p1, p2, p3);
+    RecordingListener application = new RecordingListener();
+    IMessage request = send(failover, table, application);
+    long firstHopByHopId = request.getHopByHopIdentifier();
+
+    request.getEventListener().timeoutExpired(request);
+    assertSame(request.getPeer(), p2.peer);
+    request.clearTimer();
+    request.getEventListener().timeoutExpired(request);
+
+    assertEquals(application.timeouts, 1);
+    assertEquals(table.sent, 2);
+    assertEquals(failover.getRetransmissions(), 1);
+    assertEquals(failover.getExhausted(), 1);
+    // late answer of the first peer after the application saw the timeout is not delivered
+    assertNull(failover.getLateRequest(p1.peer, firstHopByHopId));
+  }
+
+  @Test
+  public void testDestinationHostIsNotFailedOver() throws Exception {
+    RequestFailover failover = new RequestFailover(2, 60000, scheduler, null);
+    FakePeer p1 = new FakePeer("hss1.example.org");
+    FakeTable table = new FakeTable(failover, p1, new FakePeer("hss2.example.org"));
+    RecordingListener application = new RecordingListener();
+    IMessage request = newRequest();
+    request.getAvps().addAvp(Avp.DESTINATION_HOST, "hss1.example.org", true, false, true);
+    request.setListener(application);
+    failover.track(request, table.table);
+    table.sendMessage(request);
+
+    request.getEventListener().timeoutExpired(request);
+
+    assertEquals(application.timeouts, 1);
+    assertEquals(table.sent, 1);
+    assertEquals(failover.getRetransmissions(), 0);
+    assertEquals(failover.getExhausted(), 0);
+  }
+
+  @Test
+  public void testLateAnswerOfFailedPeerIsDelivered() throws Exception {
+    RequestFailover failover = new RequestFailover(2, 60000, scheduler, null);
+    FakePeer p1 = new FakePeer("hss1.example.org");
+    FakePeer p2 = new FakePeer("hss2.example.org");
+    FakeTable table = new FakeTable(failover, p1, p2);
+    RecordingListener application = new RecordingListener();
+    IMessage request = send(failover, table, application);
+    long firstHopByHopId = request.getHopByHopIdentifier();
+    assertTrue(failover.failover(request, false));
+    long secondHopByHopId = request.getHopByHopIdentifier();
+
+    assertSame(failover.getLateRequest(p1.peer, firstHopByHopId), request);
+    // retransmitted copy is no longer outstanding at the alternate peer
+    assertEquals(p2.removed, Arrays.asList((Object) request));
+    request.getEventListener().receivedSuccessMessage(request, answer(request));
+    assertEquals(application.answers, 1);
+    assertEquals(failover.getLateAnswers(), 1);
+
+    // answer of the alternate peer comes as well
+    assertNull(failover.getLateRequest(p2.peer, secondHopByHopId));
+    assertEquals(failover.getDuplicateAnswers(), 1);
+    assertEquals(application.answers, 1);
+  }
+
+  @Test
+  public void testDuplicateAnswerIsDroppedAndCounted() throws Exception {
+    RequestFailover failover = new RequestFailover(2, 50, scheduler, null);
+    FakePeer p1 = new FakePeer("hss1.example.org");
+    FakeTable table = new FakeTable(failover, p1, new FakePeer("hss2.example.org"));
+    RecordingListener application = new RecordingListener();
+    IMessage request = send(failover, table, application);
+    long firstHopByHopId = request.getHopByHopIdentifier();
+    assertTrue(failover.failover(request, false));
+
+    // alternate peer answers first
+    request.getEventListener().receivedSuccessMessage(request, answer(request));
+    assertNull(failover.getLateRequest(p1.peer, firstHopByHopId));
+    assertEquals(failover.getDuplicateAnswers(), 1);
+    assertEquals(failover.getLateAnswers(), 0);
+    assertEquals(application.answers, 1);
+
+    // answered attempts are forgotten after failover timeout
+    Thread.sleep(200);
+    assertNull(failover.getLateRequest(p1.peer, firstHopByHopId));
+    assertEquals(failover.getDuplicateAnswers(), 1);
+  }
+
+  @Test
+  public void testCountersAreExported() throws Exception {
+    StatisticManagerImpl manager = new StatisticManagerImpl(new XMLConfiguration("src/test/resources/jdiameter-realmrouting-config.xml"));
+    RequestFailover failover = new RequestFailover(2, 60000, scheduler, manager);
+    FakeTable table = new FakeTable(failover, new FakePeer("hss1.example.org"), new FakePeer("hss2.example.org"));
+    assertTrue(failover.failover(send(failover, table, new RecordingListener()), false));
+
+    IStatistic statistic = null;
+    for (IStatistic candidate : manager.getStatistic()) {
+      if (candidate.getName().equals("Failover.failover")) {
+        statistic = candidate;
+      }
+    }
+    assertNotNull(statistic);
+    assertEquals(statistic.getRecordByName(IStatisticRecord.Counters.FailoverRetransmissions).getValueAsLong(), 1);
+    assertEquals(statistic.getRecordByName(IStatisticRecord.Counters.FailoverDuplicateAnswers).getValueAsLong(), 0);
+    assertNotNull(statistic.getRecordByName(IStatisticRecord.Counters.FailoverExhausted));
+    assertNotNull(statistic.getRecordByName(IStatisticRecord.Counters.FailoverLateAnswers));
+
+    failover.destroy();
+    assertFalse(manager.getStatistic().contains(statistic));
+  }
+
+  private IMessage send(RequestFailover failover, FakeTable table, IEventListener listener) throws Exception {
+    IMessage request = newRequest();
+    request.setListener(listener);
+    failover.track(request, table.table);
+    table.sendMessage(request);
+    return request;
+  }
+
+  private IMessage newRequest() {
+    IMessage request = new MessageParser().createEmptyMessage(Message.ACCOUNTING_REQUEST, 3);
+    request.setRequest(true);
+    request.setEndToEndIdentifier(++identifier);
+    request.getAvps().addAvp(Avp.SESSION_ID, "mme.example.org;" + identifier, false);
+    request.getAvps().addAvp(Avp.DESTINATION_REALM, "example.org", true, false, true);
+    return request;
+  }
+
+  private static Answer answer(IMessage request) {
+    return request.createAnswer(ResultCode.SUCCESS);
+  }
+
+  private static class RecordingListener implements IEventListener {
+
+    int answers;
+    int timeouts;
+
+    @Override
+    public void receivedSuccessMessage(Request request, Answer answer) {
+      answers++;
+    }
+
+    @Override
+    public void timeoutExpired(Request request) {
+      timeouts++;
+    }
+
+    @Override
+    public void setValid(boolean value) {
+    }
+
+    @Override
+    public boolean isValid() {
+      return true;
+    }
+  }
+
+  private static class FakePeer {
+
+    final IPeer peer;
+    final List<Object> removed = new ArrayList<Object>();
+
+    FakePeer(String fqdn) throws Exception {
+      final URI uri = new URI("aaa://" + fqdn + ":3868");
+      peer = (IPeer) Proxy.newProxyInstance(TestRequestFailover.class.getClassLoader(), new Class<?>[] {IPeer.class}, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          if (method.getName().equals("getUri")) {
+            return uri;
+          }
+          else if (method.getName().equals("remMessage")) {
+            removed.add(args[0]);
+          }
+          else if (method.getName().equals("hashCode")) {
+            return System.identityHashCode(proxy);
+          }
+          else if (method.getName().equals("equals")) {
+            return proxy == args[0];
+          }
+          else if (method.getName().equals("toString")) {
+            return uri.toString();
+          }
+          return null;
+        }
+      });
+    }
+  }
+
+  /**
+   * Routes request to the first peer which did not fail to answer it yet, like realm routing does
+   */
+  private class FakeTable implements InvocationHandler {
+
+    final RequestFailover failover;
+    final List<FakePeer> peers;
+    final IPeerTable table;
+    int sent;
+    boolean sentLocked;
+
+    FakeTable(RequestFailover failover, FakePeer... peers) {
+      this.failover = failover;
+      this.peers = Arrays.asList(peers);
+      this.table = (IPeerTable) Proxy.newProxyInstance(TestRequestFailover.class.getClassLoader(), new Class<?>[] {IPeerTable.class}, this);
+    }
+
+    void sendMessage(IMessage message) throws Exception {
+      table.sendMessage(message);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+      if (!method.getName().equals("sendMessage")) {
+        return null;
+      }
+      IMessage message = (IMessage) args[0];
+      sentLocked |= Thread.holdsLock(message.getEventListener());
+      for (FakePeer peer : peers) {
+        if (!failover.hasFailed(message, peer.peer)) {
+          message.setPeer(peer.peer);
+          message.setHopByHopIdentifier(++identifier);
+          message.setState(IMessage.STATE_SENT);
+          sent++;
+          return null;
+        }
+      }
+      throw new RouteException("No peer left");
+    }
+  }
+}
@@ -22,14 +22,18 @@ package org.jdiameter.client.impl.router;
 import org.jdiameter.api.*;
 import org.jdiameter.api.app.StateChangeListener;
 import org.jdiameter.client.api.IAnswer;
+import org.jdiameter.client.api.IContainer;
 import org.jdiameter.client.api.IMessage;
 import org.jdiameter.client.api.IRequest;
 import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerTable;
 import org.jdiameter.client.api.controller.IRealmTable;
 import org.jdiameter.client.api.fsm.EventTypes;
 import org.jdiameter.client.api.io.IConnectionListener;
 import org.jdiameter.client.api.io.TransportException;
+import org.jdiameter.client.impl.controller.RealmTableImpl;
 import org.jdiameter.client.impl.helpers.XMLConfiguration;
+import org.jdiameter.client.impl.parser.MessageParser;
 import org.jdiameter.common.api.statistic.IStatistic;
 import org.jdiameter.common.api.statistic.IStatisticManager;
 import org.jdiameter.common.api.statistic.IStatisticRecord;
@@ -39,15 +43,23 @@ import org.jdiameter.server.api.agent.IAgentConfiguration;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.InetAddress;
 import java.net.URISyntaxException;
 import java.net.UnknownServiceException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
 
 /**
  * Various testcases for Router implementations
@@ -243,6 +255,262 @@ public class TestRouter {
 
     }
 
+    @Test
+    public void testLeastOutstandingRequests() throws Exception {
+
+        Configuration config = new XMLConfiguration("src/test/resources/jdiameter-weightedleastconnections-config.xml");
+        LeastOutstandingRequestsRouter router = new LeastOutstandingRequestsRouter(new RealmTableTest(), config);
+
+        IStatisticManager manager = new StatisticManagerImpl(config);
+        PeerTest p1 = new PeerTest(1, 1, true, manager);
+        PeerTest p2 = new PeerTest(2, 1, true, manager);
+
+        List<IPeer> peers = new ArrayList<IPeer>(2);
+        peers.add(p1);
+        peers.add(p2);
+
+        // no latency samples yet, fewer outstanding requests wins
+        p1.setOutstandingRequests(3);
+        assertEquals(p2.toString(), router.selectPeer(peers).toString());
+        p2.setOutstandingRequests(5);
+        assertEquals(p1.toString(), router.selectPeer(peers).toString());
+
+        // p1 answers four times slower, so (3+1)*4 > (5+1)*1
+        p1.setResponseTime(4000000);
+        p2.setResponseTime(1000000);
+        assertEquals(p2.toString(), router.selectPeer(peers).toString());
+
+        // doubling rating of p1 halves its cost, but not enough: 16/2 > 6
+        p1.setRating(2);
+        assertEquals(p2.toString(), router.selectPeer(peers).toString());
+
+        // p2 queue grows: 8 < (11+1)
+        p2.setOutstandingRequests(11);
+        assertEquals(p1.toString(), router.selectPeer(peers).toString());
+
+        // peer with rating 0 is not selected
+        p1.setRating(0);
+        assertEquals(p2.toString(), router.selectPeer(peers).toString());
+
+        // single peer is always returned
+        assertEquals(p1.toString(), router.selectPeer(peers.subList(0, 1)).toString());
+    }
+
+    @Test
+    public void testFullPeersUsedOnlyWhenNoOtherPeerIsAvailable() throws Exception {
+
+        Configuration config = new XMLConfiguration("src/test/resources/jdiameter-realmrouting-config.xml");
+        RouterImpl router = new RouterImpl(null, null, new RealmTableImpl(newContainer()), config, null);
+
+        IStatisticManager manager = new StatisticManagerImpl(config);
+        PeerTest p1 = new PeerTest(1, 2, true, manager);
+        PeerTest p2 = new PeerTest(2, 1, true, manager);
+        IPeerTable table = newPeerTable(p1, p2);
+        IMessage request = newRequest("remotepeer.2scale.net");
+
+        // highest rating wins
+        assertEquals(p1.toString(), router.getPeer(request, table).toString());
+
+        // peer with full window is skipped while other peer of realm is available
+        p1.setInFlightWindowFull(true);
+        assertEquals(p2.toString(), router.getPeer(request, table).toString());
+        assertEquals(p2.toString(), router.getPeer(request, table).toString());
+
+        // all windows full, peer applies its window policy
+        p2.setInFlightWindowFull(true);
+        assertEquals(p1.toString(), router.getPeer(request, table).toString());
+
+        // peer that is down is never a fallback
+        p1.setState(PeerState.DOWN);
+        assertEquals(p2.toString(), router.getPeer(request, table).toString());
+
+        p2.setInFlightWindowFull(false);
+        p1.setState(PeerState.OKAY);
+        assertEquals(p2.toString(), router.getPeer(request, table).toString());
+    }
+
+    @Test
+    public void testDrainedPeersUsedOnlyWhenNoHealthyPeerIsAvailable() throws Exception {
+
+        Configuration config = new XMLConfiguration("src/test/resources/jdiameter-realmrouting-config.xml");
+        RouterImpl router = new RouterImpl(null, null, new RealmTableImpl(newContainer()), config, null);
+
+        IStatisticManager manager = new StatisticManagerImpl(config);
+        PeerTest p1 = new PeerTest(1, 2, true, manager);
+        PeerTest p2 = new PeerTest(2, 1, true, manager);
+        IPeerTable table = newPeerTable(p1, p2);
+        IMessage request = newRequest("remotepeer.2scale.net");
+
+        // unhealthy peer keeps only probing share of its traffic
+        p1.setHealthScore(0);
+        int toDrained = 0;
+        for (int i = 0; i < 200; i++) {
+            if (router.getPeer(request, table) == p1) {
+                toDrained++;
+            }
+        }
+        assertTrue("Drained peer got " + toDrained + " of 200 requests", toDrained < 40);
+
+        // drained peer is preferred over peer with full window
+        p2.setInFlightWindowFull(true);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(p1.toString(), router.getPeer(request, table).toString());
+        }
+
+        // and used when it is the only peer up
+        p2.setInFlightWindowFull(false);
+        p2.setState(PeerState.DOWN);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(p1.toString(), router.getPeer(request, table).toString());
+        }
+
+        p2.setState(PeerState.OKAY);
+        p1.setHealthScore(100);
+        assertEquals(p1.toString(), router.getPeer(request, table).toString());
+    }
+
+    @Test
+    public void testLongestWildcardRealmWinsAndExactRealmBeatsWildcard() throws Exception {
+
+        Configuration config = new XMLConfiguration("src/test/resources/jdiameter-realmrouting-config.xml");
+        RealmTableImpl realmTable = new RealmTableImpl(newContainer());
+        RouterImpl router = new RouterImpl(null, null, realmTable, config, null);
+        ApplicationId appId = realmTable.getRealms("remotepeer.2scale.net").iterator().next().getApplicationId();
+        realmTable.addRealm("*.2scale.net", appId, LocalAction.LOCAL, (IAgentConfiguration) null, false, 1, new String[] {"3"});
+        realmTable.addRealm("*.east.2scale.net", appId, LocalAction.LOCAL, (IAgentConfiguration) null, false, 1, new String[] {"2"});
+
+        IStatisticManager manager = new StatisticManagerImpl(config);
+        PeerTest p1 = new PeerTest(1, 2, true, manager);
+        PeerTest p2 = new PeerTest(2, 1, true, manager);
+        PeerTest p3 = new PeerTest(3, 1, true, manager);
+        IPeerTable table = newPeerTable(p1, p2, p3);
+
+        // exact realm is not overridden by wildcard matching it
+        assertEquals(p1.toString(), router.getPeer(newRequest("remotepeer.2scale.net"), table).toString());
+        // longest matching suffix wins
+        assertEquals(p2.toString(), router.getPeer(newRequest("hss.east.2scale.net"), table).toString());
+        assertEquals(p2.toString(), router.getPeer(newRequest("hss.site1.east.2scale.net"), table).toString());
+        assertEquals(p3.toString(), router.getPeer(newRequest("hss.west.2scale.net"), table).toString());
+
+        assertTrue(realmTable.realmExists("hss.west.2scale.net"));
+        assertTrue(realmTable.realmExists("remotepeer.2scale.net"));
+        assertTrue(!realmTable.realmExists("2scale.org"));
+        assertTrue(!realmTable.realmExists("2scale.net"));
+        assertEquals("*.east.2scale.net", realmTable.getRealm("hss.east.2scale.net", appId).getName());
+        assertEquals("remotepeer.2scale.net", realmTable.getRealm("remotepeer.2scale.net", appId).getName());
+        assertEquals(null, realmTable.getRealm("2scale.org", appId));
+    }
+
+    @Test
+    public void testPeerCandidatesFollowPeerStateAndPeerRemoval() throws Exception {
+
+        Configuration config = new XMLConfiguration("src/test/resources/jdiameter-realmrouting-config.xml");
+        RouterImpl router = new RouterImpl(null, null, new RealmTableImpl(newContainer()), config, null);
+
+        IStatisticManager manager = new StatisticManagerImpl(config);
+        PeerTest p1 = new PeerTest(1, 2, true, manager);
+        PeerTest p2 = new PeerTest(2, 1, true, manager);
+        Map<String, IPeer> peers = new HashMap<String, IPeer>();
+        peers.put("1", p1);
+        peers.put("2", p2);
+        IPeerTable table = newPeerTable(peers);
+        IMessage request = newRequest("remotepeer.2scale.net");
+
+        assertEquals(p1.toString(), router.getPeer(request, table).toString());
+        assertEquals(1, p1.getStateListenerCount());
+
+        // cached candidates are dropped when peer goes down and when it comes back
+        p1.setState(PeerState.DOWN);
+        assertEquals(p2.toString(), router.getPeer(request, table).toString());
+        p1.setState(PeerState.OKAY);
+        assertEquals(p1.toString(), router.getPeer(request, table).toString());
+
+        // removed peer is not watched anymore once peer table reports the change
+        peers.remove("2");
+        router.peerTableChanged(table);
+        assertEquals(0, p2.getStateListenerCount());
+        assertEquals(1, p1.getStateListenerCount());
+        assertEquals(p1.toString(), router.getPeer(request, table).toString());
+
+        router.destroy();
+        assertEquals(0, p1.getStateListenerCount());
+    }
+
+    @Test
+    public void testPeerCandidatesWithUnknownPeerAreCachedUntilPeerIsAdded() throws Exception {
+
+        Configuration config = new XMLConfiguration("src/test/resources/jdiameter-realmrouting-config.xml");
+        RouterImpl router = new RouterImpl(null, null, new RealmTableImpl(newContainer()), config, null);
+
+        IStatisticManager manager = new StatisticManagerImpl(config);
+        PeerTest p1 = new PeerTest(1, 2, true, manager);
+        PeerTest p2 = new PeerTest(2, 1, true, manager);
+        final Map<String, IPeer> peers = new HashMap<String, IPeer>();
+        peers.put("2", p2);
+        final AtomicInteger lookups = new AtomicInteger();
+        IPeerTable table = proxy(IPeerTable.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getPeer")) {
+                    lookups.incrementAndGet();
+                    return peers.get(args[0]);
+                }
+                return null;
+            }
+        });
+        IMessage request = newRequest("remotepeer.2scale.net");
+
+        assertEquals(p2.toString(), router.getPeer(request, table).toString());
+        int resolved = lookups.get();
+        // peer "1" is still unknown, candidates are not resolved again anyway
+        assertEquals(p2.toString(), router.getPeer(request, table).toString());
+        assertEquals(resolved, lookups.get());
+
+        peers.put("1", p1);
+        router.peerTableChanged(table);
+        assertEquals(p1.toString(), router.getPeer(request, table).toString());
+        assertEquals(1, p1.getStateListenerCount());
+
+        router.destroy();
+    }
+
+    private static IMessage newRequest(String destinationRealm) {
+        IMessage request = new MessageParser().createEmptyMessage(Message.ACCOUNTING_REQUEST, 4);
+        request.setRequest(true);
+        request.getAvps().addAvp(Avp.DESTINATION_REALM, destinationRealm, true, false, true);
+        AvpSet appId = request.getAvps().addGroupedAvp(Avp.VENDOR_SPECIFIC_APPLICATION_ID, true, false);
+        appId.addAvp(Avp.VENDOR_ID, 10415, true, false, true);
+        appId.addAvp(Avp.AUTH_APPLICATION_ID, 4, true, false, true);
+        return request;
+    }
+
+    private static IPeerTable newPeerTable(PeerTest... peers) {
+        Map<String, IPeer> byName = new HashMap<String, IPeer>();
+        for (PeerTest peer : peers) {
+            byName.put(peer.getUri().getFQDN(), peer);
+        }
+        return newPeerTable(byName);
+    }
+
+    private static IPeerTable newPeerTable(final Map<String, IPeer> byName) {
+        return proxy(IPeerTable.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return method.getName().equals("getPeer") ? byName.get(args[0]) : null;
+            }
+        });
+    }
+
+    private static IContainer newContainer() {
+        return proxy(IContainer.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+        return iface.cast(Proxy.newProxyInstance(TestRouter.class.getClassLoader(), new Class<?>[] {iface}, handler));
+    }
+
     private static class RealmTableTest implements IRealmTable {
 
         public Realm matchRealm(IRequest request) {
@@ -323,6 +591,12 @@ public class TestRouter {
         private int id;
         private int rating;
         private boolean connected;
+        private int outstandingRequests;
+        private long responseTime;
+        private int healthScore = 100;
+        private boolean inFlightWindowFull;
+        private PeerState state = PeerState.OKAY;
+        private final List<PeerStateListener> stateListeners = new CopyOnWriteArrayList<PeerStateListener>();
 
         public PeerTest(int id, int rating, boolean connected, IStatisticManager manager) throws URISyntaxException, UnknownServiceException {
             super(new URI("aaa://"+id), manager);
@@ -356,6 +630,58 @@ public class TestRouter {
             return new IMessage[0];
         }
 
+        public void setOutstandingRequests(int outstandingRequests) {
+            this.outstandingRequests = outstandingRequests;
+        }
+
+        public int getOutstandingRequests() {
+            return outstandingRequests;
+        }
+
+        public void setResponseTime(long responseTime) {
+            this.responseTime = responseTime;
+        }
+
+        public long getResponseTime() {
+            return responseTime;
+        }
+
+        public int getOverloadReduction() {
+            return 0;
+        }
+
+        public void setHealthScore(int healthScore) {
+            this.healthScore = healthScore;
+        }
+
+        public int getHealthScore() {
+            return healthScore;
+        }
+
+        public long getWatchdogRoundTripTime() {
+            return 0;
+        }
+
+        public void setInFlightWindowFull(boolean inFlightWindowFull) {
+            this.inFlightWindowFull = inFlightWindowFull;
+        }
+
+        public boolean isInFlightWindowFull(long applicationId) {
+            return inFlightWindowFull;
+        }
+
+        public int getInFlightRequests(long applicationId) {
+            return 0;
+        }
+
+        public long getInFlightQueuedRequests() {
+            return 0;
+        }
+
+        public long getInFlightRejectedRequests() {
+            return 0;
+        }
+
         public boolean handleMessage(EventTypes type, IMessage message, String key) throws TransportException, OverloadException, InternalException {
             return false;
         }
@@ -405,8 +731,17 @@ public class TestRouter {
 
         }
 
+        public void setState(PeerState state) {
+            PeerState old = this.state;
+            this.state = state;
+            for (PeerStateListener listener : stateListeners) {
+                listener.stateChanged(old, state);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
         public <E> E getState(Class<E> enumc) {
-            return null;
+            return enumc == PeerState.class ? (E) state : null;
         }
 
         public URI getUri() {
@@ -438,11 +773,15 @@ public class TestRouter {
         }
 
         public void addPeerStateListener(PeerStateListener listener) {
-
+            stateListeners.add(listener);
         }
 
         public void removePeerStateListener(PeerStateListener listener) {
+            stateListeners.remove(listener);
+        }
 
+        public int getStateListenerCount() {
+            return stateListeners.size();
         }
 
         @Override
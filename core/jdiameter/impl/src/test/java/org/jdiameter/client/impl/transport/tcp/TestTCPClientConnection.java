@@ -0,0 +1,159 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.client.impl.transport.tcp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.io.IConnectionListener;
+import org.jdiameter.client.api.io.TransportException;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.jdiameter.common.api.concurrent.DummyConcurrentFactory;
+import org.testng.annotations.Test;
+
+public class TestTCPClientConnection {
+
+  private final MessageParser parser = new MessageParser();
+
+  /**
+   * Messages read before listener is attached are buffered and delivered in order once it is attached.
+   */
+  @Test
+  public void testMessagesReadBeforeListenerIsAddedAreDelivered() throws Exception {
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    SocketChannel remote = SocketChannel.open(server.socket().getLocalSocketAddress());
+    SocketChannel accepted = server.accept();
+    TCPClientConnection connection = new TCPClientConnection(null, new DummyConcurrentFactory(), accepted.socket(), parser, null);
+    try {
+      List<Long> expected = new ArrayList<Long>();
+      for (int i = 0; i < 3; i++) {
+        IMessage message = parser.createEmptyMessage(280, 0);
+        expected.add(message.getEndToEndIdentifier());
+        remote.write(parser.encodeMessage(message));
+      }
+      // let transport read the messages while there is no listener
+      Thread.sleep(100);
+
+      RecordingListener listener = new RecordingListener(expected.size());
+      connection.addConnectionListener(listener);
+      assertTrue(listener.received.await(5, TimeUnit.SECONDS), "messages were not delivered");
+      assertEquals(listener.endToEndIds, expected);
+    }
+    finally {
+      connection.release();
+      remote.close();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testFullBufferBlocksTransportUntilListenerIsAdded() throws Exception {
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    // not connected, messages are fed as if read by transport
+    final TCPClientConnection connection = new TCPClientConnection(null, new DummyConcurrentFactory(), localhost, 3868, localhost, 0, parser, null);
+    final int count = TCPClientConnection.BUFFER_SIZE + 10;
+    final List<ByteBuffer> messages = new ArrayList<ByteBuffer>();
+    List<Long> expected = new ArrayList<Long>();
+    for (int i = 0; i < count; i++) {
+      IMessage message = parser.createEmptyMessage(280, 0);
+      expected.add(message.getEndToEndIdentifier());
+      messages.add(parser.encodeMessage(message));
+    }
+
+    final AtomicInteger delivered = new AtomicInteger();
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    Thread transport = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (ByteBuffer message : messages) {
+            connection.onMessageReceived(message);
+            delivered.incrementAndGet();
+          }
+        }
+        catch (Exception e) {
+          failure.set(e);
+        }
+      }
+    };
+    transport.start();
+
+    // transport stops when buffer is full instead of dropping events
+    long deadline = System.currentTimeMillis() + 5000;
+    while (transport.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(transport.getState(), Thread.State.TIMED_WAITING);
+    assertEquals(delivered.get(), TCPClientConnection.BUFFER_SIZE);
+
+    RecordingListener listener = new RecordingListener(count);
+    connection.addConnectionListener(listener);
+    assertTrue(listener.received.await(5, TimeUnit.SECONDS));
+    transport.join(5000);
+    assertFalse(transport.isAlive());
+    assertNull(failure.get(), "transport failed: " + failure.get());
+    assertEquals(delivered.get(), count);
+    assertEquals(listener.endToEndIds, expected);
+  }
+
+  private static class RecordingListener implements IConnectionListener {
+
+    private final List<Long> endToEndIds = new ArrayList<Long>();
+    private final CountDownLatch received;
+
+    RecordingListener(int expected) {
+      this.received = new CountDownLatch(expected);
+    }
+
+    @Override
+    public void connectionOpened(String connKey) {
+    }
+
+    @Override
+    public void connectionClosed(String connKey, List notSended) {
+    }
+
+    @Override
+    public void messageReceived(String connKey, IMessage message) {
+      endToEndIds.add(message.getEndToEndIdentifier());
+      received.countDown();
+    }
+
+    @Override
+    public void internalError(String connKey, IMessage message, TransportException cause) {
+    }
+  }
+}
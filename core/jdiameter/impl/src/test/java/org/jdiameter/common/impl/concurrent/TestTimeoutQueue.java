@@ -0,0 +1,228 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.common.impl.concurrent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jdiameter.common.impl.concurrent.TimeoutQueue.Timeout;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestTimeoutQueue {
+
+  private static final Runnable NOOP = new Runnable() {
+    @Override
+    public void run() {
+    }
+  };
+
+  private TestExecutor executor;
+
+  @BeforeMethod
+  public void setUp() {
+    executor = new TestExecutor();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testQueueIsKeptPerExecutor() {
+    TimeoutQueue queue = TimeoutQueue.forExecutor(executor);
+    TestExecutor other = new TestExecutor();
+    try {
+      assertSame(TimeoutQueue.forExecutor(executor), queue);
+      assertTrue(TimeoutQueue.forExecutor(other) != queue);
+      assertSame(TimeoutQueue.forExecutor(executor), queue);
+    }
+    finally {
+      other.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testTasksExpireInDeadlineOrder() throws Exception {
+    TimeoutQueue queue = TimeoutQueue.forExecutor(executor);
+    List<String> expired = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch done = new CountDownLatch(4);
+
+    queue.add(new Record("a1", expired, done), 150, TimeUnit.MILLISECONDS);
+    queue.add(new Record("b", expired, done), 50, TimeUnit.MILLISECONDS);
+    queue.add(new Record("a2", expired, done), 150, TimeUnit.MILLISECONDS);
+    queue.add(new Record("c", expired, done), 100, TimeUnit.MILLISECONDS);
+    assertEquals(queue.size(), 4);
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    // tasks of one timeout value run in the order they were added
+    assertEquals(expired, Arrays.asList("b", "c", "a1", "a2"));
+    assertEquals(queue.size(), 0);
+  }
+
+  @Test
+  public void testTaskDoesNotRunBeforeItsTimeout() throws Exception {
+    TimeoutQueue queue = TimeoutQueue.forExecutor(executor);
+    final long added = System.nanoTime();
+    final AtomicReference<Long> ranAfter = new AtomicReference<Long>();
+    final CountDownLatch done = new CountDownLatch(1);
+    queue.add(new Runnable() {
+      @Override
+      public void run() {
+        ranAfter.set(System.nanoTime() - added);
+        done.countDown();
+      }
+    }, 50, TimeUnit.MILLISECONDS);
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(ranAfter.get() >= TimeUnit.MILLISECONDS.toNanos(50), "ran after " + ranAfter.get());
+  }
+
+  @Test
+  public void testCancelledTaskDoesNotRun() throws Exception {
+    TimeoutQueue queue = TimeoutQueue.forExecutor(executor);
+    List<String> expired = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch done = new CountDownLatch(1);
+
+    Timeout cancelled = queue.add(new Record("cancelled", expired, done), 30, TimeUnit.MILLISECONDS);
+    queue.add(new Record("kept", expired, done), 60, TimeUnit.MILLISECONDS);
+    cancelled.cancel();
+    // task is released at once, cancelling again does nothing
+    assertNull(cancelled.get());
+    cancelled.cancel();
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(expired, Arrays.asList("kept"));
+    assertEquals(queue.size(), 0);
+  }
+
+  @Test
+  public void testCancelledEntriesAreCompactedAboveThreshold() throws Exception {
+    TimeoutQueue queue = TimeoutQueue.forExecutor(executor);
+    int total = TimeoutQueue.COMPACT_THRESHOLD * 2;
+    List<Timeout> timeouts = new ArrayList<Timeout>();
+    for (int i = 0; i < total; i++) {
+      timeouts.add(queue.add(NOOP, 1, TimeUnit.HOURS));
+    }
+
+    // below threshold cancelled entries stay until they reach head of the queue
+    for (int i = 0; i < TimeoutQueue.COMPACT_THRESHOLD; i++) {
+      timeouts.get(i).cancel();
+    }
+    Thread.sleep(TimeoutQueue.TICK * 5);
+    assertEquals(queue.size(), total);
+
+    int cancelled = TimeoutQueue.COMPACT_THRESHOLD + 10;
+    for (int i = TimeoutQueue.COMPACT_THRESHOLD; i < cancelled; i++) {
+      timeouts.get(i).cancel();
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (queue.size() != total - cancelled && System.currentTimeMillis() < deadline) {
+      Thread.sleep(TimeoutQueue.TICK);
+    }
+    assertEquals(queue.size(), total - cancelled);
+    for (int i = cancelled; i < total; i++) {
+      assertSame(timeouts.get(i).get(), NOOP);
+    }
+  }
+
+  @Test
+  public void testTaskRunsInPlaceWhenExecutorRejectsIt() throws Exception {
+    TimeoutQueue queue = TimeoutQueue.forExecutor(executor);
+    executor.rejectTasks = true;
+    final CountDownLatch done = new CountDownLatch(1);
+    queue.add(new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    }, 20, TimeUnit.MILLISECONDS);
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(executor.rejected > 0);
+    assertEquals(queue.size(), 0);
+  }
+
+  @Test
+  public void testTimeoutsDoNotFireOnceExecutorIsShutDown() throws Exception {
+    TimeoutQueue queue = TimeoutQueue.forExecutor(executor);
+    executor.shutdown();
+    List<String> expired = Collections.synchronizedList(new ArrayList<String>());
+    CountDownLatch done = new CountDownLatch(1);
+
+    queue.add(new Record("lost", expired, done), 10, TimeUnit.MILLISECONDS);
+
+    assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(queue.size(), 1);
+  }
+
+  private static class Record implements Runnable {
+
+    private final String name;
+    private final List<String> expired;
+    private final CountDownLatch done;
+
+    Record(String name, List<String> expired, CountDownLatch done) {
+      this.name = name;
+      this.expired = expired;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      expired.add(name);
+      done.countDown();
+    }
+  }
+
+  private static class TestExecutor extends ScheduledThreadPoolExecutor {
+
+    volatile boolean rejectTasks;
+    volatile int rejected;
+
+    TestExecutor() {
+      super(1);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      if (rejectTasks) {
+        rejected++;
+        throw new RejectedExecutionException();
+      }
+      super.execute(command);
+    }
+  }
+}
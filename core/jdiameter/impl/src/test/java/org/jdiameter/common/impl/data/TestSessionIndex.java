@@ -0,0 +1,139 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.common.impl.data;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.jdiameter.api.BaseSession;
+import org.jdiameter.common.api.data.ISessionIndex;
+import org.jdiameter.common.api.data.ISessionKeyExtractor;
+import org.testng.annotations.Test;
+
+public class TestSessionIndex {
+
+  // sessions are indexed by the part of their id after the last ';'
+  private static final ISessionKeyExtractor EXTRACTOR = new ISessionKeyExtractor() {
+    @Override
+    public String[] getKeys(BaseSession session) {
+      String id = session.getSessionId();
+      return id.startsWith("unindexed") ? null : new String[] {id.substring(id.lastIndexOf(';') + 1)};
+    }
+  };
+
+  @Test
+  public void testBindingsFollowSessionLifecycle() {
+    LocalDataSource datasource = new LocalDataSource();
+    ISessionIndex index = datasource.addIndex("ip", EXTRACTOR);
+    assertSame(datasource.getIndex("ip"), index);
+    assertNull(datasource.getIndex("apn"));
+
+    datasource.addSession(newSession("host;1;10.0.0.1"));
+    datasource.addSession(newSession("host;2;10.0.0.2"));
+    datasource.addSession(newSession("unindexed;3"));
+    assertEquals(index.getSessionId("10.0.0.1"), "host;1;10.0.0.1");
+    assertEquals(index.getSessionId("10.0.0.2"), "host;2;10.0.0.2");
+    assertEquals(index.size(), 2);
+
+    // keys learned later are bound explicitly and removed with the session too
+    assertTrue(index.bind("imsi-001", "host;1;10.0.0.1"));
+    datasource.removeSession("host;1;10.0.0.1");
+    assertNull(index.getSessionId("10.0.0.1"));
+    assertNull(index.getSessionId("imsi-001"));
+    assertEquals(index.size(), 1);
+  }
+
+  @Test
+  public void testBindReplacesPreviousBinding() {
+    LocalDataSource datasource = new LocalDataSource();
+    ISessionIndex index = datasource.addIndex("ip", null);
+    datasource.addSession(newSession("host;1"));
+    datasource.addSession(newSession("host;2"));
+
+    assertTrue(index.bind("10.0.0.1", "host;1"));
+    // address reassigned to other session
+    assertTrue(index.bind("10.0.0.1", "host;2"));
+    assertEquals(index.getSessionId("10.0.0.1"), "host;2");
+    assertFalse(index.unbind("10.0.0.1", "host;1"));
+
+    // removal of first session does not touch binding of the second one
+    datasource.removeSession("host;1");
+    assertEquals(index.getSessionId("10.0.0.1"), "host;2");
+    assertTrue(index.unbind("10.0.0.1", "host;2"));
+    assertNull(index.getSessionId("10.0.0.1"));
+    assertEquals(index.size(), 0);
+  }
+
+  @Test
+  public void testBindToMissingSessionIsRejected() {
+    LocalDataSource datasource = new LocalDataSource();
+    ISessionIndex index = datasource.addIndex("ip", null);
+
+    assertFalse(index.bind("10.0.0.1", "host;released"));
+    assertNull(index.getSessionId("10.0.0.1"));
+    assertEquals(index.size(), 0);
+  }
+
+  @Test
+  public void testIndexNamesAreUnique() {
+    LocalDataSource datasource = new LocalDataSource();
+    datasource.addIndex("ip", null);
+    try {
+      datasource.addIndex("ip", EXTRACTOR);
+      fail("Index with duplicate name must not be created");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static BaseSession newSession(final String sessionId) {
+    return (BaseSession) Proxy.newProxyInstance(TestSessionIndex.class.getClassLoader(), new Class<?>[] {BaseSession.class},
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getSessionId")) {
+              return sessionId;
+            }
+            else if (method.getName().equals("isReplicable")) {
+              return false;
+            }
+            else if (method.getName().equals("toString")) {
+              return "Session[" + sessionId + "]";
+            }
+            else if (method.getName().equals("hashCode")) {
+              return System.identityHashCode(proxy);
+            }
+            else if (method.getName().equals("equals")) {
+              return proxy == args[0];
+            }
+            return null;
+          }
+        });
+  }
+}
@@ -0,0 +1,288 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.common.impl.message;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.Message;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.jdiameter.common.impl.validation.DictionaryImpl;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class TestMessageViewGenerator {
+
+  private static final String PACKAGE = "org.example.views";
+  private static final int ACCOUNTING_INPUT_OCTETS = 363;
+  private static final int SUBSCRIPTION_ID_COUNT = 1001;
+  private static final long TMPL = 35797;
+
+  private final MessageParser parser = new MessageParser();
+  private File directory;
+  private URLClassLoader classLoader;
+
+  @BeforeClass
+  public void generateAndCompile() throws Exception {
+    DictionaryImpl dictionary = (DictionaryImpl) DictionaryImpl.getInstance("test-dictionary.xml");
+    directory = Files.createTempDirectory("views").toFile();
+    File sources = new File(directory, "src");
+    File classes = new File(directory, "classes");
+    assertTrue(classes.mkdirs());
+
+    List<String> generated = new MessageViewGenerator(dictionary, PACKAGE).generate(sources, "Credit-Control-Request",
+        "Accounting-Request");
+    assertEquals(generated, Arrays.asList("AccountingRequest", "CreditControlRequest"));
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertNotNull(compiler, "tests must run on a JDK");
+    List<String> args = new ArrayList<String>(Arrays.asList("-nowarn", "-d", classes.getPath(), "-cp",
+        location(Message.class) + File.pathSeparator + location(AbstractMessageView.class)));
+    for (String name : generated) {
+      args.add(sourceFile(sources, name + "View").getPath());
+      args.add(sourceFile(sources, name + "Builder").getPath());
+    }
+    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+    int result = compiler.run(null, errors, errors, args.toArray(new String[args.size()]));
+    assertEquals(result, 0, "generated sources do not compile: " + errors);
+    classLoader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader());
+  }
+
+  @AfterClass
+  public void cleanUp() throws IOException {
+    if (classLoader != null) {
+      classLoader.close();
+    }
+    delete(directory);
+  }
+
+  @Test
+  public void testViewReadsParsedMessage() throws Exception {
+    IMessage request = parser.createEmptyMessage(272, 4);
+    request.setRequest(true);
+    AvpSet avps = request.getAvps();
+    avps.addAvp(Avp.SESSION_ID, "client.example.com;1;1", true, false, false);
+    avps.addAvp(Avp.ORIGIN_HOST, "client.example.com", true, false, true);
+    avps.addAvp(Avp.ORIGIN_REALM, "example.com", true, false, true);
+    avps.addAvp(Avp.DESTINATION_REALM, "server.com", true, false, true);
+    avps.addAvp(Avp.ROUTE_RECORD, "relay1.example.com", true, false, true);
+    avps.addAvp(Avp.AUTH_APPLICATION_ID, 4, true, false, true);
+    avps.addAvp(Avp.SERVICE_CONTEXT_ID, "32251@3gpp.org", true, false, false);
+    avps.addAvp(Avp.CC_REQUEST_TYPE, 1, true, false);
+    avps.addAvp(Avp.CC_REQUEST_NUMBER, 7, true, false, true);
+    AvpSet first = avps.addGroupedAvp(Avp.SUBSCRIPTION_ID, true, false);
+    first.addAvp(Avp.SUBSCRIPTION_ID_TYPE, 1, true, false);
+    first.addAvp(Avp.SUBSCRIPTION_ID_DATA, "260011234567890", true, false, false);
+    avps.addAvp(SUBSCRIPTION_ID_COUNT, 2, TMPL, false, false, true);
+    AvpSet second = avps.addGroupedAvp(Avp.SUBSCRIPTION_ID, true, false);
+    second.addAvp(Avp.SUBSCRIPTION_ID_TYPE, 0, true, false);
+    second.addAvp(Avp.SUBSCRIPTION_ID_DATA, "48600123456", true, false, false);
+    avps.addAvp(Avp.ROUTE_RECORD, "relay2.example.com", true, false, true);
+    // not defined for the command, ignored by the view
+    avps.addAvp(Avp.RESULT_CODE, 2001, true, false, true);
+    Message parsed = parser.createMessage(parser.encodeMessage(request));
+
+    Object view = newInstance(PACKAGE + ".CreditControlRequestView", parsed);
+
+    assertEquals(call(view, "getSessionId"), "client.example.com;1;1");
+    assertEquals(call(view, "getOriginHost"), "client.example.com");
+    assertEquals(call(view, "getDestinationRealm"), "server.com");
+    assertEquals(call(view, "getAuthApplicationId"), 4L);
+    assertEquals(call(view, "getServiceContextId"), "32251@3gpp.org");
+    assertEquals(call(view, "getCCRequestType"), 1);
+    assertEquals(call(view, "getCCRequestNumber"), 7L);
+    assertEquals(call(view, "hasDestinationHost"), false);
+    assertEquals(call(view, "hasEventTimestamp"), false);
+    assertEquals(call(view, "getRouteRecordCount"), 2);
+    assertEquals(call(view, "getRouteRecord", 0), "relay1.example.com");
+    assertEquals(call(view, "getRouteRecord", 1), "relay2.example.com");
+    // getter of Subscription-Id-Count keeps its name, count of Subscription-Id is renamed
+    assertEquals(call(view, "getSubscriptionIdCount"), 2L);
+    assertEquals(call(view, "getSubscriptionIdAvpCount"), 2);
+    AvpSet subscription = (AvpSet) call(view, "getSubscriptionId", 1);
+    assertEquals(subscription.getAvp(Avp.SUBSCRIPTION_ID_DATA).getUTF8String(), "48600123456");
+    assertEquals(call(view, "getUsedServiceUnitCount"), 0);
+
+    // AVPs without definition and not allowed AVPs have no accessors
+    assertNoMethod(view, "getProxyInfoCount");
+    assertNoMethod(view, "hasResultCode");
+    assertNoMethod(view, "getResultCodeCount");
+  }
+
+  @Test
+  public void testSlotsFollowSortedKeys() throws Exception {
+    Class<?> viewClass = classLoader.loadClass(PACKAGE + ".CreditControlRequestView");
+    Field field = viewClass.getDeclaredField("KEYS");
+    field.setAccessible(true);
+    long[] keys = (long[]) field.get(null);
+
+    long[] expected = {
+        AbstractMessageView.key(Avp.USER_NAME, 0),
+        AbstractMessageView.key(Avp.EVENT_TIMESTAMP, 0),
+        AbstractMessageView.key(Avp.AUTH_APPLICATION_ID, 0),
+        AbstractMessageView.key(Avp.SESSION_ID, 0),
+        AbstractMessageView.key(Avp.ROUTE_RECORD, 0),
+        AbstractMessageView.key(Avp.DESTINATION_REALM, 0),
+        AbstractMessageView.key(Avp.DESTINATION_HOST, 0),
+        AbstractMessageView.key(Avp.ORIGIN_REALM, 0),
+        AbstractMessageView.key(Avp.CC_REQUEST_NUMBER, 0),
+        AbstractMessageView.key(Avp.CC_REQUEST_TYPE, 0),
+        AbstractMessageView.key(Avp.SUBSCRIPTION_ID, 0),
+        AbstractMessageView.key(Avp.USED_SERVICE_UNIT, 0),
+        AbstractMessageView.key(Avp.SERVICE_CONTEXT_ID, 0),
+        AbstractMessageView.key(SUBSCRIPTION_ID_COUNT, TMPL),
+        AbstractMessageView.key(Avp.ORIGIN_HOST, 0),
+    };
+    Arrays.sort(expected);
+    assertEquals(toList(keys), toList(expected));
+
+    // one AVP in each slot, getter of slot returns the AVP of its key
+    IMessage request = parser.createEmptyMessage(272, 4);
+    request.setRequest(true);
+    for (int slot = 0; slot < keys.length; slot++) {
+      int code = (int) (keys[slot] >>> 32);
+      long vendorId = keys[slot] & 0xffffffffL;
+      boolean grouped = code == Avp.SUBSCRIPTION_ID || code == Avp.USED_SERVICE_UNIT;
+      request.getAvps().addAvp(code, grouped ? new byte[0] : new byte[] {(byte) slot}, vendorId, false, false);
+    }
+    Object view = newInstance(PACKAGE + ".CreditControlRequestView", request);
+    assertEquals(((AbstractMessageView) view).getMessage(), request);
+    assertEquals(call(view, "getOriginHost"), new String(new byte[] {(byte) Arrays.binarySearch(keys,
+        AbstractMessageView.key(Avp.ORIGIN_HOST, 0))}, "US-ASCII"));
+    assertEquals(((AvpSet) call(view, "getSubscriptionId", 0)).size(), 0);
+  }
+
+  @Test
+  public void testBuilderEncodesValuesAsDefined() throws Exception {
+    IMessage request = parser.createEmptyMessage(271, 3);
+    request.setRequest(true);
+    Date timestamp = new Date(1700000000000L);
+    Object builder = newInstance(PACKAGE + ".AccountingRequestBuilder", request);
+    call(builder, "setSessionId", "client.example.com;1;2");
+    call(builder, "setOriginHost", "client.example.com");
+    call(builder, "setAccountingRecordType", 2);
+    call(builder, "setAccountingRecordNumber", 3L);
+    call(builder, "setAccountingInputOctets", (1L << 40) + 5);
+    call(builder, "setEventTimestamp", timestamp);
+    call(builder, "addClass", new byte[] {1, 2});
+    call(builder, "addClass", new byte[] {3});
+    assertEquals(((AbstractMessageBuilder<?>) builder).build(), request);
+
+    Message parsed = parser.createMessage(parser.encodeMessage(request));
+    // Unsigned64 is encoded on 8 octets, Unsigned32 on 4
+    assertEquals(parsed.getAvps().getAvp(ACCOUNTING_INPUT_OCTETS).getRaw().length, 8);
+    assertEquals(parsed.getAvps().getAvp(Avp.ACC_RECORD_NUMBER).getRaw().length, 4);
+    Avp originHost = parsed.getAvps().getAvp(Avp.ORIGIN_HOST);
+    assertTrue(originHost.isMandatory());
+    assertFalse(originHost.isVendorId());
+
+    Object view = newInstance(PACKAGE + ".AccountingRequestView", parsed);
+    assertEquals(call(view, "getSessionId"), "client.example.com;1;2");
+    assertEquals(call(view, "getOriginHost"), "client.example.com");
+    assertEquals(call(view, "getAccountingRecordType"), 2);
+    assertEquals(call(view, "getAccountingRecordNumber"), 3L);
+    assertEquals(call(view, "getAccountingInputOctets"), (1L << 40) + 5);
+    assertEquals(call(view, "getEventTimestamp"), timestamp);
+    assertEquals(call(view, "getClassCount"), 2);
+    assertEquals(toList((byte[]) call(view, "getClass", 1)), Arrays.asList(3L));
+    assertEquals(call(view, "hasUserName"), false);
+  }
+
+  private Object newInstance(String className, Message message) throws Exception {
+    return classLoader.loadClass(className).getConstructor(Message.class).newInstance(message);
+  }
+
+  private static Object call(Object target, String name, Object... args) throws Exception {
+    for (Method method : target.getClass().getMethods()) {
+      if (method.getName().equals(name) && method.getParameterTypes().length == args.length) {
+        return method.invoke(target, args);
+      }
+    }
+    throw new NoSuchMethodException(name);
+  }
+
+  private static void assertNoMethod(Object target, String name) {
+    for (Method method : target.getClass().getMethods()) {
+      if (method.getName().equals(name)) {
+        fail("unexpected method " + method);
+      }
+    }
+  }
+
+  private static List<Long> toList(long[] values) {
+    List<Long> list = new ArrayList<Long>();
+    for (long value : values) {
+      list.add(value);
+    }
+    return list;
+  }
+
+  private static List<Long> toList(byte[] values) {
+    List<Long> list = new ArrayList<Long>();
+    for (byte value : values) {
+      list.add((long) value);
+    }
+    return list;
+  }
+
+  private static File sourceFile(File sources, String className) {
+    return new File(sources, (PACKAGE + "." + className).replace('.', File.separatorChar) + ".java");
+  }
+
+  private static String location(Class<?> clazz) throws Exception {
+    return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+  }
+
+  private static void delete(File file) {
+    if (file == null) {
+      return;
+    }
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
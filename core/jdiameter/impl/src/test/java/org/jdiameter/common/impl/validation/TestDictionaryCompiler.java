@@ -0,0 +1,262 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+package org.jdiameter.common.impl.validation;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.jdiameter.api.validation.AvpRepresentation;
+import org.jdiameter.api.validation.MessageRepresentation;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestDictionaryCompiler {
+
+  private File directory;
+  private byte[] source;
+  private String hash;
+  private DictionaryImpl dictionary;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    directory = new File(Files.createTempDirectory("dictionary").toFile(), "cache");
+    System.setProperty(DictionaryCompiler.CACHE_PROPERTY, directory.getPath());
+    InputStream is = getClass().getResourceAsStream("/test-dictionary.xml");
+    try {
+      source = DictionaryCompiler.readFully(is);
+    }
+    finally {
+      is.close();
+    }
+    hash = DictionaryCompiler.hash(source);
+    dictionary = (DictionaryImpl) DictionaryImpl.INSTANCE;
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    System.clearProperty(DictionaryCompiler.CACHE_PROPERTY);
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+    directory.getParentFile().delete();
+  }
+
+  @Test
+  public void testCompiledDictionaryEqualsParsedOne() throws Exception {
+    // first configuration parses XML and stores compiled form
+    dictionary.configure(new ByteArrayInputStream(source));
+    File compiled = DictionaryCompiler.getCompiledFile(directory, hash);
+    assertTrue(compiled.isFile(), "compiled dictionary not stored");
+    if (isPosix()) {
+      assertEquals(PosixFilePermissions.toString(Files.getPosixFilePermissions(directory.toPath())), "rwx------");
+    }
+    Map<String, Object> parsed = snapshot(dictionary);
+    assertParsed(parsed);
+
+    Map<AvpRepresentation, AvpRepresentation> avps = dictionary.getAvpMap();
+    assertTrue(DictionaryCompiler.load(dictionary, hash));
+    assertNotSame(dictionary.getAvpMap(), avps);
+    assertEquals(snapshot(dictionary), parsed);
+
+    // second configuration of the same XML uses compiled form
+    dictionary.configure(new ByteArrayInputStream(source));
+    assertEquals(snapshot(dictionary), parsed);
+    assertTrue(dictionary.isConfigured());
+  }
+
+  @Test
+  public void testCorruptedFileFallsBackToXml() throws Exception {
+    dictionary.configure(new ByteArrayInputStream(source));
+    Map<String, Object> parsed = snapshot(dictionary);
+    File compiled = DictionaryCompiler.getCompiledFile(directory, hash);
+
+    RandomAccessFile raf = new RandomAccessFile(compiled, "rw");
+    try {
+      raf.setLength(raf.length() / 2);
+    }
+    finally {
+      raf.close();
+    }
+    assertFalse(DictionaryCompiler.load(dictionary, hash));
+
+    dictionary.configure(new ByteArrayInputStream(source));
+    assertTrue(dictionary.isConfigured());
+    assertEquals(snapshot(dictionary), parsed);
+    // XML configuration replaced corrupted file
+    assertTrue(DictionaryCompiler.load(dictionary, hash));
+    assertEquals(snapshot(dictionary), parsed);
+  }
+
+  @Test
+  public void testFileOfOtherSourceIsNotLoaded() throws Exception {
+    dictionary.configure(new ByteArrayInputStream(source));
+    File compiled = DictionaryCompiler.getCompiledFile(directory, hash);
+    String otherHash = DictionaryCompiler.hash(new byte[] {1});
+    assertTrue(compiled.renameTo(DictionaryCompiler.getCompiledFile(directory, otherHash)));
+
+    assertFalse(DictionaryCompiler.load(dictionary, otherHash));
+    assertFalse(DictionaryCompiler.load(dictionary, hash));
+  }
+
+  @Test
+  public void testUntrustedFileFallsBackToXml() throws Exception {
+    if (!isPosix()) {
+      return;
+    }
+    dictionary.configure(new ByteArrayInputStream(source));
+    Map<String, Object> parsed = snapshot(dictionary);
+    File compiled = DictionaryCompiler.getCompiledFile(directory, hash);
+
+    Files.setPosixFilePermissions(compiled.toPath(), PosixFilePermissions.fromString("rw-rw----"));
+    assertFalse(DictionaryCompiler.load(dictionary, hash));
+    Files.setPosixFilePermissions(compiled.toPath(), PosixFilePermissions.fromString("rw-------"));
+    assertTrue(DictionaryCompiler.load(dictionary, hash));
+
+    Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+    assertFalse(DictionaryCompiler.load(dictionary, hash));
+    dictionary.configure(new ByteArrayInputStream(source));
+    assertTrue(dictionary.isConfigured());
+    assertEquals(snapshot(dictionary), parsed);
+  }
+
+  /**
+   * Sanity check of the snapshot, so that equality is not reached on empty or incomplete dictionaries
+   */
+  @SuppressWarnings("unchecked")
+  private void assertParsed(Map<String, Object> snapshot) {
+    Map<String, String> vendors = (Map<String, String>) snapshot.get("vendors");
+    assertEquals(vendors.get("TMPL"), "35797");
+    Map<String, String> typedefs = (Map<String, String>) snapshot.get("typedefs");
+    assertEquals(typedefs.get("DiameterURI"), "UTF8String");
+
+    List<String> avps = (List<String>) snapshot.get("avps");
+    assertTrue(avps.contains("Used-Service-Unit 446/0 Grouped/Grouped grouped allowed mandatory=must protected=may vendor=mustnot "
+        + "multiplicity=0+ index=-1 [CC-Time 420/0 Unsigned32/Unsigned32 allowed mandatory=must protected=may vendor=mustnot "
+        + "multiplicity=0-1 index=-1, CC-Input-Octets 412/0 Unsigned64/Unsigned64 allowed mandatory=must protected=may "
+        + "vendor=mustnot multiplicity=0-1 index=-1]"), avps.toString());
+    // child without definition makes it and its parent weak
+    boolean weak = false;
+    for (String avp : avps) {
+      if (avp.startsWith("Cost-Information 423/0 ")) {
+        assertTrue(avp.contains(" weak ") && avp.contains("[Unit-Value -1/0 null/null weak "), avp);
+        weak = true;
+      }
+    }
+    assertTrue(weak, avps.toString());
+
+    Map<String, List<String>> commands = (Map<String, List<String>>) snapshot.get("commands");
+    List<String> ccr = commands.get("Credit-Control-Request 272/4 request");
+    // rule of Proxy-Info, which has no definition, is dropped
+    assertEquals(ccr.size(), 16, ccr.toString());
+    assertTrue(ccr.contains("Session-Id 263/0 UTF8String/UTF8String allowed encrypt mandatory=must protected=mustnot "
+        + "vendor=mustnot multiplicity=1 index=0"), ccr.toString());
+    assertTrue(ccr.contains("Destination-Host 293/0 OctetString/DiameterIdentity allowed mandatory=must protected=mustnot "
+        + "vendor=mustnot multiplicity=0-1 index=-1"), ccr.toString());
+    assertTrue(ccr.contains("Result-Code 268/0 Unsigned32/Unsigned32 mandatory=must protected=mustnot vendor=mustnot "
+        + "multiplicity=0 index=-1"), ccr.toString());
+    assertEquals(commands.keySet(), new TreeSet<String>(Arrays.asList("Accounting-Request 271/3 request",
+        "Credit-Control-Answer 272/4 answer", "Credit-Control-Request 272/4 request")));
+  }
+
+  private static Map<String, Object> snapshot(DictionaryImpl dictionary) {
+    Map<String, Object> snapshot = new TreeMap<String, Object>();
+    snapshot.put("vendors", new TreeMap<String, String>(dictionary.getVendorMap()));
+    snapshot.put("typedefs", new TreeMap<String, String>(dictionary.getTypedefMap()));
+    List<String> avps = new ArrayList<String>();
+    for (Map.Entry<AvpRepresentation, AvpRepresentation> entry : dictionary.getAvpMap().entrySet()) {
+      assertEquals(entry.getKey(), entry.getValue());
+      avps.add(describe(entry.getValue()));
+    }
+    Collections.sort(avps);
+    snapshot.put("avps", avps);
+    Map<String, String> avpNames = new TreeMap<String, String>();
+    for (Map.Entry<String, AvpRepresentation> entry : dictionary.getNameToCodeMap().entrySet()) {
+      avpNames.put(entry.getKey(), entry.getValue().getCode() + "/" + entry.getValue().getVendorId());
+    }
+    snapshot.put("avpNames", avpNames);
+    Map<String, List<String>> commands = new TreeMap<String, List<String>>();
+    for (MessageRepresentation command : dictionary.getCommandMap().values()) {
+      List<String> rules = new ArrayList<String>();
+      for (AvpRepresentation rule : command.getMessageAvps().values()) {
+        rules.add(describe(rule));
+      }
+      Collections.sort(rules);
+      commands.put(command.getName() + " " + command.getCommandCode() + "/" + command.getApplicationId()
+          + (command.isRequest() ? " request" : " answer"), rules);
+    }
+    snapshot.put("commands", commands);
+    return snapshot;
+  }
+
+  private static String describe(AvpRepresentation avp) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(avp.getName()).append(' ').append(avp.getCode()).append('/').append(avp.getVendorId()).append(' ')
+        .append(avp.getType()).append('/').append(avp.getOriginalType());
+    if (avp.isGrouped()) {
+      sb.append(" grouped");
+    }
+    if (avp.isWeak()) {
+      sb.append(" weak");
+    }
+    if (avp.isAllowed()) {
+      sb.append(" allowed");
+    }
+    if (avp.isMayEncrypt()) {
+      sb.append(" encrypt");
+    }
+    sb.append(" mandatory=").append(avp.getRuleMandatory()).append(" protected=").append(avp.getRuleProtected())
+        .append(" vendor=").append(avp.getRuleVendorBit()).append(" multiplicity=").append(avp.getMultiplicityIndicator());
+    sb.append(" index=").append(avp.getPositionIndex());
+    if (avp.isGrouped()) {
+      List<String> children = new ArrayList<String>();
+      for (AvpRepresentation child : avp.getChildren()) {
+        children.add(describe(child));
+      }
+      // order of children is kept
+      sb.append(' ').append(children);
+    }
+    return sb.toString();
+  }
+
+  private static boolean isPosix() {
+    return Files.getFileAttributeView(new File(".").toPath(), PosixFileAttributeView.class) != null;
+  }
+}
@@ -0,0 +1,186 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl;
+
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.ApplicationId;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.Message;
+import org.jdiameter.api.NetworkReqListener;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.Selector;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.jdiameter.server.api.IIndexedSelector;
+import org.jdiameter.server.impl.helpers.ApplicationIdSelector;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestNetworkListenerIndex {
+
+  private static final long RELAY_APPLICATION_ID = 0xffffffffL;
+  private static final ApplicationId COMMON_AUTH = ApplicationId.createByAuthAppId(0, RELAY_APPLICATION_ID);
+  private static final ApplicationId COMMON_ACC = ApplicationId.createByAccAppId(0, RELAY_APPLICATION_ID);
+  private static final ApplicationId CCA = ApplicationId.createByAuthAppId(0, 4);
+  private static final ApplicationId GX = ApplicationId.createByAuthAppId(10415, 16777238);
+  private static final ApplicationId GX_OTHER_VENDOR = ApplicationId.createByAuthAppId(5535, 16777238);
+
+  private final MessageParser parser = new MessageParser();
+  private final Map<ApplicationId, NetworkReqListener> appListeners = new HashMap<ApplicationId, NetworkReqListener>();
+  private final Map<Selector, NetworkReqListener> selectors = new HashMap<Selector, NetworkReqListener>();
+
+  @BeforeMethod
+  public void setUp() {
+    appListeners.clear();
+    selectors.clear();
+  }
+
+  @Test
+  public void testSelectorsAreFoundByApplicationIdAvp() {
+    NetworkReqListener cca = new TestListener();
+    NetworkReqListener gx = new TestListener();
+    selectors.put(new ApplicationIdSelector(CCA), cca);
+    selectors.put(new ApplicationIdSelector(GX), gx);
+    NetworkListenerIndex index = newIndex();
+
+    assertSame(index.getListener(newRequest(4, 272, CCA)), cca);
+    assertSame(index.getListener(newRequest(16777238, 272, GX)), gx);
+    // relayed requests carry relay id in header
+    assertSame(index.getListener(newRequest(RELAY_APPLICATION_ID, 272, CCA)), cca);
+    assertSame(index.getListener(newRequest(RELAY_APPLICATION_ID, 272, GX)), gx);
+    assertNull(index.getListener(newRequest(RELAY_APPLICATION_ID, 272, GX_OTHER_VENDOR)));
+  }
+
+  @Test
+  public void testApplicationListenersAreFoundByApplicationIdAvp() {
+    NetworkReqListener gx = new TestListener();
+    NetworkReqListener gxOtherVendor = new TestListener();
+    appListeners.put(GX, gx);
+    appListeners.put(GX_OTHER_VENDOR, gxOtherVendor);
+    NetworkListenerIndex index = newIndex();
+
+    assertSame(index.getListener(newRequest(16777238, 272, GX)), gx);
+    assertSame(index.getListener(newRequest(16777238, 272, GX_OTHER_VENDOR)), gxOtherVendor);
+    assertSame(index.getListener(newRequest(RELAY_APPLICATION_ID, 272, GX)), gx);
+    assertNull(index.getListener(newRequest(4, 272, CCA)));
+
+    // relay listener takes everything not taken by a selector
+    NetworkReqListener relay = new TestListener();
+    NetworkReqListener cca = new TestListener();
+    appListeners.put(COMMON_AUTH, relay);
+    selectors.put(new ApplicationIdSelector(CCA), cca);
+    index = newIndex();
+    assertSame(index.getListener(newRequest(16777238, 272, GX)), relay);
+    assertSame(index.getListener(newRequest(4, 272, CCA)), cca);
+  }
+
+  @Test
+  public void testCommandCodeAndNotIndexedSelectors() {
+    NetworkReqListener ccr = new TestListener();
+    NetworkReqListener asr = new TestListener();
+    NetworkReqListener other = new TestListener();
+    selectors.put(new CommandSelector(16777238, 272), ccr);
+    selectors.put(new CommandSelector(IIndexedSelector.ANY, 274), asr);
+    selectors.put(new Selector<Message, ApplicationId>() {
+      @Override
+      public boolean checkRule(Message message) {
+        return message.getCommandCode() == 258;
+      }
+
+      @Override
+      public ApplicationId getMetaData() {
+        return null;
+      }
+    }, other);
+    NetworkListenerIndex index = newIndex();
+
+    assertSame(index.getListener(newRequest(RELAY_APPLICATION_ID, 272, GX)), ccr);
+    assertSame(index.getListener(newRequest(4, 274, CCA)), asr);
+    assertSame(index.getListener(newRequest(16777238, 274, GX)), asr);
+    assertSame(index.getListener(newRequest(16777238, 258, GX)), other);
+    assertNull(index.getListener(newRequest(4, 272, CCA)));
+  }
+
+  private NetworkListenerIndex newIndex() {
+    return new NetworkListenerIndex(appListeners, selectors, COMMON_AUTH, COMMON_ACC);
+  }
+
+  private IMessage newRequest(long headerApplicationId, int commandCode, ApplicationId applicationId) {
+    IMessage request = parser.createEmptyMessage(commandCode, headerApplicationId);
+    request.setRequest(true);
+    AvpSet avps = request.getAvps();
+    if (applicationId.getVendorId() != 0) {
+      AvpSet vendorSpecific = avps.addGroupedAvp(Avp.VENDOR_SPECIFIC_APPLICATION_ID, true, false);
+      vendorSpecific.addAvp(Avp.VENDOR_ID, applicationId.getVendorId(), true, false, true);
+      vendorSpecific.addAvp(Avp.AUTH_APPLICATION_ID, applicationId.getAuthAppId(), true, false, true);
+    }
+    else {
+      avps.addAvp(Avp.AUTH_APPLICATION_ID, applicationId.getAuthAppId(), true, false, true);
+    }
+    return request;
+  }
+
+  private static class CommandSelector implements IIndexedSelector<Message, ApplicationId> {
+
+    private final long applicationId;
+    private final int commandCode;
+
+    CommandSelector(long applicationId, int commandCode) {
+      this.applicationId = applicationId;
+      this.commandCode = commandCode;
+    }
+
+    @Override
+    public boolean checkRule(Message message) {
+      return message.getCommandCode() == commandCode && (applicationId == ANY
+          || NetworkListenerIndex.getApplicationIdKey(((IMessage) message).getSingleApplicationId()) == applicationId);
+    }
+
+    @Override
+    public ApplicationId getMetaData() {
+      return null;
+    }
+
+    @Override
+    public long getApplicationIdKey() {
+      return applicationId;
+    }
+
+    @Override
+    public long getCommandCodeKey() {
+      return commandCode;
+    }
+  }
+
+  private static class TestListener implements NetworkReqListener {
+
+    @Override
+    public Answer processRequest(Request request) {
+      return null;
+    }
+  }
+}
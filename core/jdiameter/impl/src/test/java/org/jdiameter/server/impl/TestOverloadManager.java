@@ -0,0 +1,87 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jdiameter.client.impl.helpers.EmptyConfiguration;
+import org.jdiameter.client.impl.helpers.Parameters;
+import org.testng.annotations.Test;
+
+public class TestOverloadManager {
+
+  private static final long TARGET_LATENCY = 10;
+
+  @Test
+  public void testReductionFollowsProcessingTime() {
+    OverloadManagerImpl manager = newManager();
+    manager.updateLocalLoad();
+    assertEquals(manager.getReductionPercentage(), 0);
+
+    finishSlowRequest(manager);
+    manager.updateLocalLoad();
+    assertEquals(manager.getReductionPercentage(), 100);
+    assertTrue(manager.isLocalOverload(false));
+    // senders taking part in overload control throttle themselves
+    assertFalse(manager.isLocalOverload(true));
+
+    // slow requests keep finishing, so reduction stays
+    for (int i = 0; i < 5; i++) {
+      finishSlowRequest(manager);
+      manager.updateLocalLoad();
+      assertEquals(manager.getReductionPercentage(), 100);
+    }
+  }
+
+  @Test
+  public void testReductionIsReleasedWhenNoRequestFinishes() {
+    OverloadManagerImpl manager = newManager();
+    finishSlowRequest(manager);
+    manager.updateLocalLoad();
+    assertEquals(manager.getReductionPercentage(), 100);
+
+    // at full reduction nothing is processed, idle updates must still bring node out of overload
+    int previous = manager.getReductionPercentage();
+    for (int i = 0; i < 30 && manager.getReductionPercentage() > 0; i++) {
+      manager.updateLocalLoad();
+      assertTrue(manager.getReductionPercentage() <= previous);
+      previous = manager.getReductionPercentage();
+    }
+    assertEquals(manager.getReductionPercentage(), 0);
+    assertTrue(manager.getLocalLoad() < 0.8, "load " + manager.getLocalLoad());
+    assertFalse(manager.isLocalOverload(false));
+  }
+
+  private static void finishSlowRequest(OverloadManagerImpl manager) {
+    long startTime = manager.processingStarted();
+    manager.processingFinished(startTime - TimeUnit.MILLISECONDS.toNanos(TARGET_LATENCY * 100));
+  }
+
+  private static OverloadManagerImpl newManager() {
+    EmptyConfiguration config = new EmptyConfiguration() { };
+    config.add(Parameters.OverloadControlEnabled, true);
+    config.add(Parameters.OverloadControlTargetLatency, TARGET_LATENCY);
+    return new OverloadManagerImpl(config);
+  }
+}
@@ -0,0 +1,392 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl.agent;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpDataException;
+import org.jdiameter.api.MetaData;
+import org.jdiameter.api.Peer;
+import org.jdiameter.api.PeerState;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.URI;
+import org.jdiameter.client.api.IAssembler;
+import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.IRequest;
+import org.jdiameter.client.api.controller.IPeer;
+import org.jdiameter.client.api.controller.IPeerTable;
+import org.jdiameter.client.api.controller.IRealm;
+import org.jdiameter.client.impl.helpers.EmptyConfiguration;
+import org.jdiameter.client.impl.helpers.Parameters;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestProxyAgent {
+
+  private static final String LOCAL_HOST = "proxy.example.com";
+  private static final long ORIGIN_HOP_BY_HOP_ID = 77;
+
+  private final MessageParser parser = new MessageParser();
+  private final Map<String, IPeer> peerTable = new HashMap<String, IPeer>();
+  private ScheduledExecutorService scheduler;
+  private ProxyAgentImpl agent;
+  private FakePeer origin;
+
+  @BeforeMethod
+  public void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    EmptyConfiguration config = new EmptyConfiguration() { };
+    config.add(Parameters.OwnDiameterURI, "aaa://" + LOCAL_HOST + ":3868");
+    agent = new ProxyAgentImpl(newContainer(config), null);
+    origin = addPeer("client.example.com");
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void testLoopIsAnsweredWithLoopDetected() throws Exception {
+    FakePeer server = addPeer("server1.example.com");
+    IMessage request = newRequest();
+    request.getAvps().addAvp(Avp.ROUTE_RECORD, "relay.example.com", true, false, true);
+    request.getAvps().addAvp(Avp.ROUTE_RECORD, LOCAL_HOST, true, false, true);
+
+    Answer answer = agent.processRequest((IRequest) request, newRealm(server));
+
+    assertErrorAnswer(answer, ResultCode.LOOP_DETECTED);
+    assertTrue(server.sent.isEmpty());
+    assertEquals(agent.getRejectedRequests(), 1);
+  }
+
+  @Test
+  public void testDestinationHostIsPreferred() throws Exception {
+    FakePeer server1 = addPeer("server1.example.com");
+    FakePeer server2 = addPeer("server2.example.com");
+    IRealm realm = newRealm(server1, server2);
+
+    for (int i = 0; i < 3; i++) {
+      IMessage request = newRequest();
+      request.getAvps().addAvp(Avp.DESTINATION_HOST, "server2.example.com", true, false, true);
+      assertNull(agent.processRequest((IRequest) request, realm));
+    }
+    assertEquals(server2.sent.size(), 3);
+    assertTrue(server1.sent.isEmpty());
+
+    // Destination-Host which cannot be used falls back to realm peers
+    server2.state = PeerState.DOWN;
+    IMessage request = newRequest();
+    request.getAvps().addAvp(Avp.DESTINATION_HOST, "server2.example.com", true, false, true);
+    assertNull(agent.processRequest((IRequest) request, realm));
+    assertEquals(server1.sent.size(), 1);
+  }
+
+  @Test
+  public void testRoundRobinSkipsOriginatingPeer() throws Exception {
+    FakePeer server1 = addPeer("server1.example.com");
+    FakePeer server2 = addPeer("server2.example.com");
+    IRealm realm = newRealm(origin, server1, server2);
+
+    for (int i = 0; i < 6; i++) {
+      assertNull(agent.processRequest((IRequest) newRequest(), realm));
+    }
+    assertTrue(origin.sent.isEmpty());
+    assertEquals(server1.sent.size() + server2.sent.size(), 6);
+    assertTrue(server1.sent.size() >= 2, "server1 got " + server1.sent.size());
+    assertTrue(server2.sent.size() >= 2, "server2 got " + server2.sent.size());
+
+    // request is not sent back, even if Destination-Host names the originating peer
+    IMessage request = newRequest();
+    request.getAvps().addAvp(Avp.DESTINATION_HOST, origin.name, true, false, true);
+    assertNull(agent.processRequest((IRequest) request, realm));
+    assertTrue(origin.sent.isEmpty());
+    assertEquals(agent.getForwardedRequests(), 7);
+  }
+
+  @Test
+  public void testForwardedRequestCarriesRouteRecordAndOwnHopByHopId() throws Exception {
+    FakePeer server = addPeer("server1.example.com");
+    IMessage request = newRequest();
+
+    assertNull(agent.processRequest((IRequest) request, newRealm(server)));
+
+    assertEquals(server.sent.size(), 1);
+    IMessage forwarded = server.sent.get(0);
+    assertSame(forwarded, request);
+    assertEquals(forwarded.getHopByHopIdentifier(), server.lastHopByHopId);
+    assertTrue(forwarded.getHopByHopIdentifier() != ORIGIN_HOP_BY_HOP_ID);
+    assertSame(server.added.get(0), forwarded);
+    assertEquals(getRouteRecords(forwarded), list(origin.name));
+    // other AVPs are passed along
+    assertEquals(forwarded.getAvps().getAvp(Avp.ORIGIN_HOST).getDiameterIdentity(), origin.name);
+  }
+
+  @Test
+  public void testAnswerIsReturnedWithOriginalHopByHopId() throws Exception {
+    FakePeer server = addPeer("server1.example.com");
+    IMessage request = newRequest();
+    assertNull(agent.processRequest((IRequest) request, newRealm(server)));
+    long forwardedHopByHopId = request.getHopByHopIdentifier();
+
+    IMessage answer = (IMessage) request.createAnswer(ResultCode.SUCCESS);
+    assertEquals(answer.getHopByHopIdentifier(), forwardedHopByHopId);
+    request.getEventListener().receivedSuccessMessage((IRequest) request, answer);
+
+    assertEquals(origin.sent.size(), 1);
+    IMessage returned = origin.sent.get(0);
+    assertSame(returned, answer);
+    assertEquals(returned.getHopByHopIdentifier(), ORIGIN_HOP_BY_HOP_ID);
+    assertSame(returned.getPeer(), origin.peer);
+    assertEquals(agent.getForwardedAnswers(), 1);
+  }
+
+  @Test
+  public void testUnableToDeliverWhenNoNextHop() throws Exception {
+    FakePeer server = addPeer("server1.example.com");
+    server.state = PeerState.DOWN;
+
+    Answer answer = agent.processRequest((IRequest) newRequest(), newRealm(origin, server));
+
+    assertErrorAnswer(answer, ResultCode.UNABLE_TO_DELIVER);
+    assertEquals(((IMessage) answer).getHopByHopIdentifier(), ORIGIN_HOP_BY_HOP_ID);
+    assertTrue(server.sent.isEmpty());
+    assertEquals(agent.getRejectedRequests(), 1);
+  }
+
+  @Test
+  public void testUnableToDeliverWhenForwardingFails() throws Exception {
+    FakePeer server = addPeer("server1.example.com");
+    server.accept = false;
+    IMessage request = newRequest();
+
+    Answer answer = agent.processRequest((IRequest) request, newRealm(server));
+
+    assertErrorAnswer(answer, ResultCode.UNABLE_TO_DELIVER);
+    assertEquals(((IMessage) answer).getHopByHopIdentifier(), ORIGIN_HOP_BY_HOP_ID);
+    assertTrue(server.added.isEmpty());
+    assertFalse(request.getEventListener().isValid());
+    assertEquals(agent.getForwardedRequests(), 0);
+  }
+
+  @Test
+  public void testUnableToDeliverWhenNextHopTimesOut() throws Exception {
+    FakePeer server = addPeer("server1.example.com");
+    IMessage request = newRequest();
+    assertNull(agent.processRequest((IRequest) request, newRealm(server)));
+
+    request.getEventListener().timeoutExpired((IRequest) request);
+
+    assertEquals(origin.sent.size(), 1);
+    assertErrorAnswer(origin.sent.get(0), ResultCode.UNABLE_TO_DELIVER);
+    assertEquals(origin.sent.get(0).getHopByHopIdentifier(), ORIGIN_HOP_BY_HOP_ID);
+    assertEquals(agent.getTimedOutRequests(), 1);
+  }
+
+  private void assertErrorAnswer(Answer answer, long resultCode) throws AvpDataException {
+    assertNotNull(answer);
+    IMessage message = (IMessage) answer;
+    assertFalse(message.isRequest());
+    assertTrue(message.isError());
+    assertEquals(message.getResultCode().getUnsigned32(), resultCode);
+    assertEquals(message.getAvps().getAvp(Avp.ORIGIN_HOST).getDiameterIdentity(), LOCAL_HOST);
+    assertSame(message.getPeer(), origin.peer);
+  }
+
+  private IMessage newRequest() {
+    IMessage request = parser.createEmptyMessage(272, 4);
+    request.setRequest(true);
+    request.setProxiable(true);
+    request.setHopByHopIdentifier(ORIGIN_HOP_BY_HOP_ID);
+    request.getAvps().addAvp(Avp.SESSION_ID, "client.example.com;1;1", true, false, false);
+    request.getAvps().addAvp(Avp.ORIGIN_HOST, origin.name, true, false, true);
+    request.getAvps().addAvp(Avp.ORIGIN_REALM, "example.com", true, false, true);
+    request.getAvps().addAvp(Avp.DESTINATION_REALM, "example.com", true, false, true);
+    request.setPeer(origin.peer);
+    return request;
+  }
+
+  private static List<String> getRouteRecords(IMessage message) throws AvpDataException {
+    List<String> identities = new ArrayList<String>();
+    for (Avp avp : message.getAvps().getAvps(Avp.ROUTE_RECORD)) {
+      identities.add(avp.getDiameterIdentity());
+    }
+    return identities;
+  }
+
+  private static List<String> list(String... values) {
+    List<String> result = new ArrayList<String>();
+    for (String value : values) {
+      result.add(value);
+    }
+    return result;
+  }
+
+  private FakePeer addPeer(String name) {
+    FakePeer peer = new FakePeer(name);
+    peerTable.put(name, peer.peer);
+    return peer;
+  }
+
+  private static IRealm newRealm(FakePeer... peers) {
+    final String[] names = new String[peers.length];
+    for (int i = 0; i < peers.length; i++) {
+      names[i] = peers[i].name;
+    }
+    return proxy(IRealm.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("getPeerNames")) {
+          return names;
+        }
+        if (method.getName().equals("getName")) {
+          return "example.com";
+        }
+        return null;
+      }
+    });
+  }
+
+  private IContainer newContainer(final EmptyConfiguration config) {
+    final IPeerTable table = proxy(IPeerTable.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getPeer") ? peerTable.get(args[0]) : null;
+      }
+    });
+    final IAssembler assembler = proxy(IAssembler.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getComponentInstance") && args[0] == IPeerTable.class ? table : null;
+      }
+    });
+    final Peer localPeer = proxy(Peer.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+        if (method.getName().equals("getUri")) {
+          return new URI("aaa://" + LOCAL_HOST + ":3868");
+        }
+        return method.getName().equals("getRealmName") ? "example.com" : null;
+      }
+    });
+    final MetaData metaData = proxy(MetaData.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getLocalPeer") ? localPeer : null;
+      }
+    });
+    return proxy(IContainer.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("getConfiguration")) {
+          return config;
+        }
+        if (method.getName().equals("getAssemblerFacility")) {
+          return assembler;
+        }
+        if (method.getName().equals("getScheduledFacility")) {
+          return scheduler;
+        }
+        return method.getName().equals("getMetaData") ? metaData : null;
+      }
+    });
+  }
+
+  private static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+    return iface.cast(Proxy.newProxyInstance(TestProxyAgent.class.getClassLoader(), new Class<?>[] {iface}, handler));
+  }
+
+  private static class FakePeer implements InvocationHandler {
+
+    final String name;
+    final IPeer peer;
+    final List<IMessage> sent = new ArrayList<IMessage>();
+    final List<IMessage> added = new ArrayList<IMessage>();
+    volatile PeerState state = PeerState.OKAY;
+    volatile boolean accept = true;
+    long lastHopByHopId = 1000;
+
+    FakePeer(String name) {
+      this.name = name;
+      this.peer = proxy(IPeer.class, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+      String methodName = method.getName();
+      if (methodName.equals("getState")) {
+        return state;
+      }
+      if (methodName.equals("hasValidConnection")) {
+        return true;
+      }
+      if (methodName.equals("getUri")) {
+        return new URI("aaa://" + name + ":3868");
+      }
+      if (methodName.equals("getHopByHopIdentifier")) {
+        return ++lastHopByHopId;
+      }
+      if (methodName.equals("addMessage")) {
+        added.add((IMessage) args[0]);
+        return null;
+      }
+      if (methodName.equals("remMessage")) {
+        added.remove(args[0]);
+        return null;
+      }
+      if (methodName.equals("sendMessage")) {
+        if (accept) {
+          sent.add((IMessage) args[0]);
+        }
+        return accept;
+      }
+      if (methodName.equals("toString")) {
+        return name;
+      }
+      if (methodName.equals("hashCode")) {
+        return System.identityHashCode(proxy);
+      }
+      if (methodName.equals("equals")) {
+        return proxy == args[0];
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,191 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl.app.acc.bulk;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestAccountingJournal {
+
+  // two entries of ENTRY_LENGTH fit into one segment
+  private static final int SEGMENT_SIZE = 256;
+  private static final int ENTRY_LENGTH = 100;
+
+  private File directory;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("journal").toFile();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testReplayReturnsEntriesInOrder() throws IOException {
+    AccountingJournal journal = new AccountingJournal(directory, SEGMENT_SIZE, false);
+    for (int i = 0; i < 5; i++) {
+      journal.append(entry(i));
+    }
+    journal.close();
+
+    assertEquals(replay(), Arrays.asList(0, 1, 2, 3, 4));
+    assertEquals(segmentCount(), 3);
+  }
+
+  @Test
+  public void testReplaySkipsConsumedEntriesOfPartlyReleasedSegment() throws IOException {
+    AccountingJournal journal = new AccountingJournal(directory, SEGMENT_SIZE, false);
+    long[] positions = new long[5];
+    for (int i = 0; i < 5; i++) {
+      positions[i] = journal.append(entry(i));
+    }
+    // first entry of second segment consumed, first segment is not needed anymore
+    journal.release(positions[2]);
+    assertEquals(segmentCount(), 2);
+    // releasing older position does not move checkpoint back
+    journal.release(positions[1]);
+    journal.close();
+
+    assertEquals(replay(), Arrays.asList(3, 4));
+  }
+
+  @Test
+  public void testReopenedJournalContinuesAfterConsumedSegments() throws IOException {
+    AccountingJournal journal = new AccountingJournal(directory, SEGMENT_SIZE, false);
+    long position = 0;
+    for (int i = 0; i < 4; i++) {
+      position = journal.append(entry(i));
+    }
+    journal.release(position);
+    journal.close();
+    assertEquals(segmentCount(), 1);
+    assertEquals(replay(), Arrays.asList());
+    // spool cleaned up while stopped
+    for (File f : segmentFiles()) {
+      f.delete();
+    }
+
+    journal = new AccountingJournal(directory, SEGMENT_SIZE, false);
+    journal.append(entry(4));
+    journal.append(entry(5));
+    journal.close();
+
+    // new entries are not mistaken for consumed ones
+    assertEquals(replay(), Arrays.asList(4, 5));
+  }
+
+  @Test
+  public void testDamagedCheckpointReplaysAllEntries() throws IOException {
+    AccountingJournal journal = new AccountingJournal(directory, SEGMENT_SIZE, false);
+    long[] positions = new long[3];
+    for (int i = 0; i < 3; i++) {
+      positions[i] = journal.append(entry(i));
+    }
+    journal.release(positions[0]);
+    journal.close();
+
+    RandomAccessFile checkpoint = new RandomAccessFile(new File(directory, "acr.consumed"), "rw");
+    try {
+      checkpoint.writeLong(positions[1]);
+    }
+    finally {
+      checkpoint.close();
+    }
+
+    assertEquals(replay(), Arrays.asList(0, 1, 2));
+  }
+
+  @Test
+  public void testTruncatedEntryStopsReplayOfSegment() throws IOException {
+    AccountingJournal journal = new AccountingJournal(directory, SEGMENT_SIZE, false);
+    journal.append(entry(0));
+    journal.append(entry(1));
+    journal.close();
+
+    RandomAccessFile f = new RandomAccessFile(segmentFiles().get(0), "rw");
+    try {
+      // damage data of second entry
+      f.seek(2 * 8 + ENTRY_LENGTH + 1);
+      f.write(0xff);
+    }
+    finally {
+      f.close();
+    }
+
+    assertEquals(replay(), Arrays.asList(0));
+  }
+
+  private static ByteBuffer entry(int id) {
+    byte[] data = new byte[ENTRY_LENGTH];
+    data[0] = (byte) id;
+    return ByteBuffer.wrap(data);
+  }
+
+  private List<Integer> replay() throws IOException {
+    final List<Integer> ids = new ArrayList<Integer>();
+    final long[] last = {-1};
+    AccountingJournal.replay(directory, new AccountingJournal.EntryHandler() {
+      @Override
+      public void entry(long position, byte[] data) {
+        assertTrue(position > last[0]);
+        last[0] = position;
+        assertEquals(data.length, ENTRY_LENGTH);
+        ids.add((int) data[0]);
+      }
+    });
+    return ids;
+  }
+
+  private List<File> segmentFiles() {
+    List<File> segments = new ArrayList<File>();
+    for (File f : directory.listFiles()) {
+      if (f.getName().endsWith(".journal")) {
+        segments.add(f);
+      }
+    }
+    return segments;
+  }
+
+  private int segmentCount() {
+    return segmentFiles().size();
+  }
+}
@@ -0,0 +1,253 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl.app.acc.bulk;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.MetaData;
+import org.jdiameter.api.Peer;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.URI;
+import org.jdiameter.client.api.IAssembler;
+import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.ISessionFactory;
+import org.jdiameter.client.api.parser.IMessageParser;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.jdiameter.common.api.app.acc.IAccountingRecordSink;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class TestBulkAccountingListener {
+
+  private static final int ACC_APPLICATION_ID = 3;
+
+  private final MessageParser parser = new MessageParser();
+  private File directory;
+
+  @AfterMethod
+  public void tearDown() {
+    if (directory != null) {
+      for (File f : directory.listFiles()) {
+        f.delete();
+      }
+      directory.delete();
+      directory = null;
+    }
+  }
+
+  @Test
+  public void testRecordsAreAnsweredAndConsumedInOrder() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    BulkAccountingListener listener = new BulkAccountingListener(newSessionFactory(), sink, 100, 4, 10);
+    listener.start();
+
+    for (int i = 0; i < 10; i++) {
+      Answer answer = listener.processRequest(newRequest("session" + i, AccountingRecord.EVENT_RECORD, i));
+      assertEquals(answer.getResultCode().getUnsigned32(), ResultCode.SUCCESS);
+      assertEquals(answer.getAvps().getAvp(Avp.ACC_RECORD_NUMBER).getUnsigned32(), i);
+      assertEquals(answer.getAvps().getAvps(Avp.ACCT_APPLICATION_ID).size(), 1);
+      assertEquals(answer.getAvps().getAvp(Avp.ORIGIN_HOST).getDiameterIdentity(), "acct.example.org");
+    }
+    listener.stop(5, TimeUnit.SECONDS);
+
+    assertEquals(sink.records.size(), 10);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(sink.records.get(i).getRecordNumber(), i);
+      assertEquals(sink.records.get(i).getSessionId(), "session" + i);
+    }
+    assertEquals(listener.getReceivedRecords(), 10);
+    assertEquals(listener.getConsumedRecords(), 10);
+    assertTrue(listener.getBatches() >= 3);
+  }
+
+  @Test
+  public void testInvalidRecordIsAnsweredWithError() throws Exception {
+    BulkAccountingListener listener = new BulkAccountingListener(newSessionFactory(), new RecordingSink(), 100, 4, 10);
+    listener.start();
+
+    IMessage request = newRequest("session1", AccountingRecord.START_RECORD, 0);
+    request.getAvps().removeAvp(Avp.ACC_RECORD_NUMBER);
+    Answer answer = listener.processRequest(request);
+    listener.stop(5, TimeUnit.SECONDS);
+
+    assertEquals(answer.getResultCode().getUnsigned32(), ResultCode.MISSING_AVP);
+    assertNotNull(answer.getAvps().getAvp(Avp.FAILED_AVP));
+    assertEquals(listener.getInvalidRecords(), 1);
+    assertEquals(listener.getReceivedRecords(), 0);
+  }
+
+  @Test
+  public void testFullQueueIsAnsweredWithTooBusy() throws Exception {
+    final CountDownLatch consuming = new CountDownLatch(1);
+    final CountDownLatch resume = new CountDownLatch(1);
+    RecordingSink sink = new RecordingSink() {
+      @Override
+      public void consume(List<AccountingRecord> batch) throws Exception {
+        consuming.countDown();
+        resume.await();
+        super.consume(batch);
+      }
+    };
+    BulkAccountingListener listener = new BulkAccountingListener(newSessionFactory(), sink, 1, 1, 10);
+    listener.start();
+
+    assertEquals(listener.processRequest(newRequest("session1", AccountingRecord.EVENT_RECORD, 1)).getResultCode().getUnsigned32(),
+        ResultCode.SUCCESS);
+    assertTrue(consuming.await(5, TimeUnit.SECONDS));
+    // sink is busy with first record, second fills the queue
+    assertEquals(listener.processRequest(newRequest("session2", AccountingRecord.EVENT_RECORD, 2)).getResultCode().getUnsigned32(),
+        ResultCode.SUCCESS);
+    assertEquals(listener.processRequest(newRequest("session3", AccountingRecord.EVENT_RECORD, 3)).getResultCode().getUnsigned32(),
+        ResultCode.TOO_BUSY);
+    resume.countDown();
+    listener.stop(5, TimeUnit.SECONDS);
+
+    assertEquals(listener.getRejectedRecords(), 1);
+    assertEquals(sink.records.size(), 2);
+  }
+
+  @Test
+  public void testRecordsNotConsumedAreReplayedFromJournal() throws Exception {
+    directory = Files.createTempDirectory("journal").toFile();
+    final RecordingSink sink = new RecordingSink() {
+      @Override
+      public void consume(List<AccountingRecord> batch) throws Exception {
+        // only the first batch gets stored, later ones keep failing
+        if (!records.isEmpty()) {
+          throw new IOException("Storage not available");
+        }
+        super.consume(batch);
+      }
+    };
+    AccountingJournal journal = new AccountingJournal(directory, 4096, false);
+    BulkAccountingListener listener = new BulkAccountingListener(newSessionFactory(), sink, 100, 1, 10);
+    listener.setJournal(journal);
+    listener.start();
+
+    for (int i = 1; i <= 3; i++) {
+      listener.processRequest(newRequest("session" + i, AccountingRecord.INTERIM_RECORD, i));
+    }
+    listener.stop(200, TimeUnit.MILLISECONDS);
+    journal.close();
+    assertEquals(sink.records.size(), 1);
+
+    final List<Long> replayed = new ArrayList<Long>();
+    AccountingJournal.replay(directory, new AccountingJournal.EntryHandler() {
+      @Override
+      public void entry(long position, byte[] data) throws IOException {
+        try {
+          replayed.add(parser.createMessage(data).getAvps().getAvp(Avp.ACC_RECORD_NUMBER).getUnsigned32());
+        }
+        catch (Exception e) {
+          throw new IOException(e);
+        }
+      }
+    });
+    // consumed record is not delivered again
+    assertEquals(replayed.size(), 2);
+    assertEquals(replayed.get(0).longValue(), 2);
+    assertEquals(replayed.get(1).longValue(), 3);
+  }
+
+  private IMessage newRequest(String sessionId, int recordType, long recordNumber) {
+    IMessage request = parser.createEmptyMessage(Request.ACCOUNTING_REQUEST, ACC_APPLICATION_ID);
+    request.setRequest(true);
+    AvpSet avps = request.getAvps();
+    avps.addAvp(Avp.SESSION_ID, sessionId, false);
+    avps.addAvp(Avp.ORIGIN_HOST, "client.example.org", true);
+    avps.addAvp(Avp.ORIGIN_REALM, "example.org", true);
+    avps.addAvp(Avp.ACCT_APPLICATION_ID, ACC_APPLICATION_ID, true, false, true);
+    avps.addAvp(Avp.ACC_RECORD_TYPE, recordType, true, false);
+    avps.addAvp(Avp.ACC_RECORD_NUMBER, recordNumber, true, false, true);
+    return request;
+  }
+
+  private ISessionFactory newSessionFactory() throws Exception {
+    final URI uri = new URI("aaa://acct.example.org:3868");
+    final Peer localPeer = proxy(Peer.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("getUri")) {
+          return uri;
+        }
+        return method.getName().equals("getRealmName") ? "example.org" : null;
+      }
+    });
+    final MetaData metaData = proxy(MetaData.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getLocalPeer") ? localPeer : null;
+      }
+    });
+    final IAssembler assembler = proxy(IAssembler.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getComponentInstance") && args[0] == IMessageParser.class ? parser : null;
+      }
+    });
+    final IContainer container = proxy(IContainer.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("getMetaData")) {
+          return metaData;
+        }
+        return method.getName().equals("getAssemblerFacility") ? assembler : null;
+      }
+    });
+    return proxy(ISessionFactory.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getContainer") ? container : null;
+      }
+    });
+  }
+
+  private static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+    return iface.cast(Proxy.newProxyInstance(TestBulkAccountingListener.class.getClassLoader(), new Class<?>[] {iface}, handler));
+  }
+
+  private static class RecordingSink implements IAccountingRecordSink {
+
+    final List<AccountingRecord> records = new ArrayList<AccountingRecord>();
+
+    @Override
+    public void consume(List<AccountingRecord> batch) throws Exception {
+      records.addAll(batch);
+    }
+  }
+}
@@ -0,0 +1,219 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.jdiameter.server.impl.app.bulk;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.common.api.app.bulk.IBulkRequestSender;
+import org.testng.annotations.Test;
+
+public class TestBulkSignalJob {
+
+  @Test
+  public void testAnsweredSessionsCompleteJob() {
+    RecordingSender sender = new RecordingSender();
+    BulkSignalJob job = new BulkSignalJob("test", Arrays.asList("s1", "s2", "s3").iterator(), sender, 1000, 10, 3, 0, 60000);
+
+    job.run();
+    assertEquals(sender.sent, Arrays.asList("s1", "s2", "s3"));
+    assertEquals(job.getOutstanding(), 3);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(job.answerReceived(sender.sent.get(i), sender.endToEndIds.get(i), ResultCode.SUCCESS));
+    }
+    // answer reported twice is ignored
+    assertFalse(job.answerReceived("s1", sender.endToEndIds.get(0), ResultCode.SUCCESS));
+    job.run();
+
+    assertTrue(job.isCompleted());
+    assertEquals(job.getSucceeded(), 3);
+    assertEquals(job.getIgnoredAnswers(), 1);
+  }
+
+  @Test
+  public void testLateAnswerToTimedOutRequestIsIgnored() throws Exception {
+    RecordingSender sender = new RecordingSender();
+    BulkSignalJob job = new BulkSignalJob("test", Arrays.asList("s1").iterator(), sender, 1000, 10, 1, 0, 1);
+
+    job.run();
+    long first = sender.endToEndIds.get(0);
+    Thread.sleep(5);
+    // first request times out and is sent again at once
+    job.run();
+    assertEquals(sender.sent, Arrays.asList("s1", "s1"));
+    long second = sender.endToEndIds.get(1);
+
+    assertFalse(job.answerReceived("s1", first, ResultCode.SUCCESS));
+    assertEquals(job.getOutstanding(), 1);
+    assertTrue(job.answerReceived("s1", second, ResultCode.SUCCESS));
+    job.run();
+
+    assertTrue(job.isCompleted());
+    assertEquals(job.getTimedOut(), 1);
+    assertEquals(job.getRetried(), 1);
+    assertEquals(job.getSucceeded(), 1);
+    assertEquals(job.getIgnoredAnswers(), 1);
+  }
+
+  @Test
+  public void testUndeliveredRequestIsRetriedUpToLimit() throws Exception {
+    RecordingSender sender = new RecordingSender();
+    BulkSignalJob job = new BulkSignalJob("test", Arrays.asList("s1").iterator(), sender, 1000, 10, 2, 0, 60000);
+
+    for (int i = 0; i < 3; i++) {
+      Thread.sleep(2);
+      job.run();
+      assertEquals(sender.sent.size(), i + 1);
+      assertTrue(job.answerReceived("s1", sender.endToEndIds.get(i), ResultCode.UNABLE_TO_DELIVER));
+    }
+    Thread.sleep(2);
+    job.run();
+
+    assertTrue(job.isCompleted());
+    assertEquals(sender.sent.size(), 3);
+    assertEquals(job.getRetried(), 2);
+    assertEquals(job.getFailed(), 1);
+  }
+
+  @Test
+  public void testRequestsPerPeerAreLimited() {
+    RecordingSender sender = new RecordingSender();
+    sender.peers.put("s1", "peer1");
+    sender.peers.put("s2", "peer1");
+    sender.peers.put("s3", "peer2");
+    BulkSignalJob job = new BulkSignalJob("test", Arrays.asList("s1", "s2", "s3").iterator(), sender, 1000, 1, 3, 0, 60000);
+
+    job.run();
+    // second session of peer1 waits, session of peer2 does not
+    assertEquals(sender.sent, Arrays.asList("s1", "s3"));
+    assertTrue(job.answerReceived("s1", sender.endToEndIds.get(0), ResultCode.SUCCESS));
+    job.run();
+    assertEquals(sender.sent, Arrays.asList("s1", "s3", "s2"));
+  }
+
+  @Test
+  public void testDeferredSessionsWaitForAnswerOfTheirPeer() {
+    RecordingSender sender = new RecordingSender();
+    sender.peers.put("s1", "peer1");
+    sender.peers.put("s2", "peer1");
+    sender.peers.put("s3", "peer1");
+    sender.peers.put("s4", "peer2");
+    sender.peers.put("s5", "peer2");
+    BulkSignalJob job = new BulkSignalJob("test", Arrays.asList("s1", "s2", "s3", "s4", "s5").iterator(), sender, 1000, 1, 3, 0,
+        60000);
+
+    job.run();
+    assertEquals(sender.sent, Arrays.asList("s1", "s4"));
+    // answer of other peer does not release sessions of peer1
+    assertTrue(job.answerReceived("s4", sender.endToEndIds.get(1), ResultCode.SUCCESS));
+    job.run();
+    assertEquals(sender.sent, Arrays.asList("s1", "s4", "s5"));
+    job.run();
+    assertEquals(sender.sent, Arrays.asList("s1", "s4", "s5"));
+
+    // one answer releases one session of the peer, in order they were taken
+    assertTrue(job.answerReceived("s1", sender.endToEndIds.get(0), ResultCode.SUCCESS));
+    job.run();
+    assertEquals(sender.sent, Arrays.asList("s1", "s4", "s5", "s2"));
+    assertTrue(job.answerReceived("s2", sender.endToEndIds.get(3), ResultCode.SUCCESS));
+    job.run();
+    assertEquals(sender.sent, Arrays.asList("s1", "s4", "s5", "s2", "s3"));
+    assertTrue(job.answerReceived("s3", sender.endToEndIds.get(4), ResultCode.SUCCESS));
+    assertTrue(job.answerReceived("s5", sender.endToEndIds.get(2), ResultCode.SUCCESS));
+    job.run();
+
+    assertTrue(job.isCompleted());
+    assertEquals(job.getSucceeded(), 5);
+  }
+
+  @Test
+  public void testUndeliveredRequestIsRetriedToCurrentPeerOfSession() throws Exception {
+    RecordingSender sender = new RecordingSender();
+    sender.peers.put("s1", "peer1");
+    sender.peers.put("s2", "peer2");
+    BulkSignalJob job = new BulkSignalJob("test", Arrays.asList("s1", "s2").iterator(), sender, 1000, 1, 1, 0, 60000);
+
+    job.run();
+    assertEquals(sender.sent, Arrays.asList("s1", "s2"));
+    // peer1 is gone, session is now routed to peer2 which is busy with s2
+    sender.peers.put("s1", "peer2");
+    assertTrue(job.answerReceived("s1", sender.endToEndIds.get(0), ResultCode.UNABLE_TO_DELIVER));
+    Thread.sleep(2);
+    job.run();
+    assertEquals(sender.sent, Arrays.asList("s1", "s2"));
+
+    assertTrue(job.answerReceived("s2", sender.endToEndIds.get(1), ResultCode.SUCCESS));
+    job.run();
+    assertEquals(sender.sent, Arrays.asList("s1", "s2", "s1"));
+    assertTrue(job.answerReceived("s1", sender.endToEndIds.get(2), ResultCode.SUCCESS));
+    job.run();
+
+    assertTrue(job.isCompleted());
+    assertEquals(job.getRetried(), 1);
+    assertEquals(job.getSucceeded(), 2);
+  }
+
+  @Test
+  public void testReleasedSessionIsSkipped() {
+    RecordingSender sender = new RecordingSender();
+    sender.released.add("s2");
+    BulkSignalJob job = new BulkSignalJob("test", Arrays.asList("s1", "s2").iterator(), sender, 1000, 10, 3, 0, 60000);
+
+    job.run();
+    assertTrue(job.answerReceived("s1", sender.endToEndIds.get(0), ResultCode.SUCCESS));
+    job.run();
+
+    assertTrue(job.isCompleted());
+    assertEquals(job.getSkipped(), 1);
+    assertEquals(job.getSucceeded(), 1);
+  }
+
+  private static class RecordingSender implements IBulkRequestSender {
+
+    final List<String> sent = new ArrayList<String>();
+    final List<Long> endToEndIds = new ArrayList<Long>();
+    final Map<String, String> peers = new HashMap<String, String>();
+    final List<String> released = new ArrayList<String>();
+    private long nextEndToEndId = 1000;
+
+    @Override
+    public String getPeer(String sessionId) {
+      return peers.get(sessionId);
+    }
+
+    @Override
+    public long send(String sessionId) {
+      if (released.contains(sessionId)) {
+        return NOT_SENT;
+      }
+      sent.add(sessionId);
+      endToEndIds.add(nextEndToEndId);
+      return nextEndToEndId++;
+    }
+  }
+}
@@ -0,0 +1,222 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+package org.jdiameter.server.impl.app.cca;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdiameter.api.Answer;
+import org.jdiameter.api.Avp;
+import org.jdiameter.api.AvpSet;
+import org.jdiameter.api.MetaData;
+import org.jdiameter.api.NetworkReqListener;
+import org.jdiameter.api.Peer;
+import org.jdiameter.api.Request;
+import org.jdiameter.api.ResultCode;
+import org.jdiameter.api.URI;
+import org.jdiameter.api.cca.events.JCreditControlRequest;
+import org.jdiameter.client.api.IContainer;
+import org.jdiameter.client.api.IMessage;
+import org.jdiameter.client.api.ISessionFactory;
+import org.jdiameter.client.impl.parser.MessageParser;
+import org.jdiameter.common.api.app.cca.ICCAEventHandler;
+import org.testng.annotations.Test;
+
+public class TestStatelessCCAListener {
+
+  private static final long CREDIT_CONTROL_APPLICATION_ID = 4;
+  private static final int INITIAL_REQUEST = 1;
+  private static final int EVENT_REQUEST = 4;
+  private static final int ABORT_SESSION_REQUEST = 274;
+
+  private final MessageParser parser = new MessageParser();
+  private long endToEndId;
+
+  @Test
+  public void testEventRequestIsAnsweredByHandler() throws Exception {
+    final List<JCreditControlRequest> handled = new ArrayList<JCreditControlRequest>();
+    RecordingListener delegate = new RecordingListener();
+    StatelessCCAListener listener = new StatelessCCAListener(newSessionFactory(), new ICCAEventHandler() {
+      @Override
+      public long doCreditControlEvent(JCreditControlRequest request, AvpSet answerAvps) {
+        handled.add(request);
+        answerAvps.addGroupedAvp(Avp.GRANTED_SERVICE_UNIT).addAvp(Avp.CC_TIME, 60, true, false, true);
+        return ResultCode.SUCCESS;
+      }
+    }, delegate);
+
+    Request request = newCcr(JCreditControlRequest.code, EVENT_REQUEST);
+    Answer answer = listener.processRequest(request);
+
+    assertEquals(handled.size(), 1);
+    assertEquals(handled.get(0).getMessage(), request);
+    assertEquals(answer.getResultCode().getUnsigned32(), ResultCode.SUCCESS);
+    AvpSet avps = answer.getAvps();
+    assertEquals(avps.getAvpByIndex(0).getCode(), Avp.SESSION_ID);
+    assertEquals(avps.getAvpByIndex(1).getCode(), Avp.RESULT_CODE);
+    assertEquals(avps.getAvp(Avp.ORIGIN_HOST).getDiameterIdentity(), "ocs.example.org");
+    assertEquals(avps.getAvp(Avp.ORIGIN_REALM).getDiameterIdentity(), "example.org");
+    assertEquals(avps.getAvp(Avp.CC_REQUEST_TYPE).getInteger32(), EVENT_REQUEST);
+    assertEquals(avps.getAvp(Avp.CC_REQUEST_NUMBER).getUnsigned32(), 0);
+    assertNotNull(avps.getAvp(Avp.GRANTED_SERVICE_UNIT));
+    assertEquals(listener.getEvents(), 1);
+    assertEquals(listener.getDelegatedRequests(), 0);
+    assertEquals(delegate.requests.size(), 0);
+  }
+
+  @Test
+  public void testFailedHandlerIsAnsweredWithUnableToComply() throws Exception {
+    StatelessCCAListener listener = new StatelessCCAListener(newSessionFactory(), new ICCAEventHandler() {
+      @Override
+      public long doCreditControlEvent(JCreditControlRequest request, AvpSet answerAvps) throws Exception {
+        answerAvps.addGroupedAvp(Avp.GRANTED_SERVICE_UNIT);
+        throw new IllegalStateException("rating engine unavailable");
+      }
+    }, null);
+
+    Answer answer = listener.processRequest(newCcr(JCreditControlRequest.code, EVENT_REQUEST));
+
+    assertEquals(answer.getResultCode().getUnsigned32(), ResultCode.UNABLE_TO_COMPLY);
+    // half filled answer of the handler is dropped
+    assertNull(answer.getAvps().getAvp(Avp.GRANTED_SERVICE_UNIT));
+    assertNotNull(answer.getAvps().getAvp(Avp.CC_REQUEST_NUMBER));
+    assertEquals(listener.getFailedEvents(), 1);
+    assertEquals(listener.getEvents(), 0);
+  }
+
+  @Test
+  public void testSessionBasedRequestIsDelegated() {
+    RecordingListener delegate = new RecordingListener();
+    StatelessCCAListener listener = new StatelessCCAListener(newSessionFactory(), new FailingHandler(), delegate);
+
+    Request initial = newCcr(JCreditControlRequest.code, INITIAL_REQUEST);
+    assertSame(listener.processRequest(initial), delegate.answer);
+    Request asr = newCcr(ABORT_SESSION_REQUEST, EVENT_REQUEST);
+    assertSame(listener.processRequest(asr), delegate.answer);
+
+    assertEquals(delegate.requests.size(), 2);
+    assertSame(delegate.requests.get(0), initial);
+    assertSame(delegate.requests.get(1), asr);
+    assertEquals(listener.getDelegatedRequests(), 2);
+  }
+
+  @Test
+  public void testSessionBasedRequestWithoutDelegateIsRejected() throws Exception {
+    StatelessCCAListener listener = new StatelessCCAListener(newSessionFactory(), new FailingHandler(), null);
+
+    Answer answer = listener.processRequest(newCcr(JCreditControlRequest.code, INITIAL_REQUEST));
+    assertEquals(answer.getResultCode().getUnsigned32(), ResultCode.UNABLE_TO_COMPLY);
+    assertEquals(answer.getAvps().getAvp(Avp.ORIGIN_HOST).getDiameterIdentity(), "ocs.example.org");
+
+    answer = listener.processRequest(newCcr(ABORT_SESSION_REQUEST, EVENT_REQUEST));
+    assertEquals(answer.getResultCode().getUnsigned32(), ResultCode.COMMAND_UNSUPPORTED);
+    assertEquals(listener.getDelegatedRequests(), 0);
+  }
+
+  @Test
+  public void testRequestWithoutRequestTypeIsRejected() throws Exception {
+    StatelessCCAListener listener = new StatelessCCAListener(newSessionFactory(), new FailingHandler(), new RecordingListener());
+    IMessage request = parser.createEmptyMessage(JCreditControlRequest.code, CREDIT_CONTROL_APPLICATION_ID);
+    request.setRequest(true);
+    request.getAvps().addAvp(Avp.SESSION_ID, "pcef.example.org;1", false);
+    request.getAvps().addAvp(Avp.CC_REQUEST_NUMBER, 0, true, false, true);
+
+    Answer answer = listener.processRequest(request);
+
+    assertEquals(answer.getResultCode().getUnsigned32(), ResultCode.MISSING_AVP);
+    assertNotNull(answer.getAvps().getAvp(Avp.FAILED_AVP).getGrouped().getAvp(Avp.CC_REQUEST_TYPE));
+    assertEquals(listener.getInvalidRequests(), 1);
+    assertEquals(listener.getDelegatedRequests(), 0);
+  }
+
+  private Request newCcr(int commandCode, int requestType) {
+    IMessage request = parser.createEmptyMessage(commandCode, CREDIT_CONTROL_APPLICATION_ID);
+    request.setRequest(true);
+    request.setEndToEndIdentifier(++endToEndId);
+    AvpSet avps = request.getAvps();
+    avps.addAvp(Avp.SESSION_ID, "pcef.example.org;" + endToEndId, false);
+    avps.addAvp(Avp.AUTH_APPLICATION_ID, CREDIT_CONTROL_APPLICATION_ID, true, false, true);
+    avps.addAvp(Avp.CC_REQUEST_TYPE, requestType, true, false);
+    avps.addAvp(Avp.CC_REQUEST_NUMBER, 0, true, false, true);
+    return request;
+  }
+
+  private static ISessionFactory newSessionFactory() {
+    final Peer localPeer = proxy(Peer.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+        if (method.getName().equals("getUri")) {
+          return new URI("aaa://ocs.example.org:3868");
+        }
+        return method.getName().equals("getRealmName") ? "example.org" : null;
+      }
+    });
+    final MetaData metaData = proxy(MetaData.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getLocalPeer") ? localPeer : null;
+      }
+    });
+    final IContainer container = proxy(IContainer.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getMetaData") ? metaData : null;
+      }
+    });
+    return proxy(ISessionFactory.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return method.getName().equals("getContainer") ? container : null;
+      }
+    });
+  }
+
+  private static <T> T proxy(Class<T> iface, InvocationHandler handler) {
+    return iface.cast(Proxy.newProxyInstance(TestStatelessCCAListener.class.getClassLoader(), new Class<?>[] {iface}, handler));
+  }
+
+  private static class RecordingListener implements NetworkReqListener {
+
+    final List<Request> requests = new ArrayList<Request>();
+    Answer answer;
+
+    @Override
+    public Answer processRequest(Request request) {
+      requests.add(request);
+      answer = request.createAnswer(ResultCode.SUCCESS);
+      return answer;
+    }
+  }
+
+  private static class FailingHandler implements ICCAEventHandler {
+
+    @Override
+    public long doCreditControlEvent(JCreditControlRequest request, AvpSet answerAvps) {
+      throw new AssertionError("Event handler must not be called");
+    }
+  }
+}
@@ -77,6 +77,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -138,7 +139,12 @@ public class DiameterStackMultiplexer extends ServiceMBeanSupport implements Dia
 
   protected HashMap<DiameterListener, Collection<org.jdiameter.api.ApplicationId>> listenerToAppId =
       new HashMap<DiameterListener, Collection<org.jdiameter.api.ApplicationId>>(3);
-  protected HashMap<Long, DiameterListener> appIdToListener = new HashMap<Long, DiameterListener>(3);
+  // read on every message without locking, replaced as a whole (under lock) when listeners change
+  protected volatile ListenerDispatchTable dispatchTable = ListenerDispatchTable.EMPTY;
+
+  // header Application-Ids of messages which carry the actual application in AVPs only
+  private static final long BASE_APPLICATION_ID = 0;
+  private static final long RELAY_APPLICATION_ID = 0xffffffffL;
 
   // This is for synch
   protected ReentrantLock lock = new ReentrantLock();
@@ -175,13 +181,6 @@ public class DiameterStackMultiplexer extends ServiceMBeanSupport implements Dia
           logger.info("Diameter Stack Mux :: Adding Listener for [{}].", appId);
         }
         network.addNetworkReqListener(this, appId);
-
-        if (appId.getAcctAppId() != org.jdiameter.api.ApplicationId.UNDEFINED_VALUE) {
-          this.appIdToListener.put(appId.getAcctAppId(), null);
-        }
-        else if (appId.getAuthAppId() != org.jdiameter.api.ApplicationId.UNDEFINED_VALUE) {
-          this.appIdToListener.put(appId.getAuthAppId(), null);
-        }
       }
 
       try {
@@ -232,58 +231,55 @@ public class DiameterStackMultiplexer extends ServiceMBeanSupport implements Dia
   }
 
   private DiameterListener findListener(Message message) {
-    List<org.jdiameter.api.ApplicationId> appIds = message.getApplicationIdAvps();
+    ListenerDispatchTable table = this.dispatchTable;
+    ListenerDispatchTable.Entry entry = null;
 
-    if (appIds.size() > 0) {
-      for (org.jdiameter.api.ApplicationId appId : appIds) {
+    // Header Application-Id is enough, unless it's a base protocol or relay message
+    long appId = message.getApplicationId();
+    if (appId != BASE_APPLICATION_ID && appId != RELAY_APPLICATION_ID) {
+      entry = table.getEntry(appId);
+      if (logger.isDebugEnabled()) {
+        logger.debug("Diameter Stack Mux :: findListener :: Header AppId [" + appId + "]");
+      }
+    }
+
+    // ... otherwise look into Auth/Acct/Vendor-Specific-Application-Id AVPs
+    if (entry == null) {
+      for (org.jdiameter.api.ApplicationId avpAppId : message.getApplicationIdAvps()) {
         if (logger.isDebugEnabled()) {
-          logger.debug("Diameter Stack Mux :: findListener :: AVP AppId [" + appId + "]");
+          logger.debug("Diameter Stack Mux :: findListener :: AVP AppId [" + avpAppId + "]");
         }
 
-        DiameterListener listener;
-
-        Long appIdValue = appId.getAcctAppId() != org.jdiameter.api.ApplicationId.UNDEFINED_VALUE ? appId.getAcctAppId() : appId.getAuthAppId();
-
-        if ((listener = this.appIdToListener.get(appIdValue)) != null) {
-          if (logger.isDebugEnabled()) {
-            logger.debug("Diameter Stack Mux :: findListener :: Found Listener [" + listener + "]");
-          }
-
-          return listener;
+        if ((entry = table.getEntry(getAppIdValue(avpAppId))) != null) {
+          break;
         }
       }
     }
-    else {
-      Long appId = message.getApplicationId();
 
+    if (entry == null || entry.listener == null) {
       if (logger.isDebugEnabled()) {
-        logger.debug("Diameter Stack Mux :: findListener :: Header AppId [" + appId + "]");
-      }
-
-      DiameterListener listener;
-
-      if ((listener = this.appIdToListener.get(appId)) != null) {
-        if (logger.isDebugEnabled()) {
-          logger.debug("Diameter Stack Mux :: findListener :: Found Listener [" + listener + "]");
-        }
-
-        return listener;
+        logger.debug("Diameter Stack Mux :: findListener :: No Listener Found.");
       }
+      return null;
     }
 
-    if (logger.isInfoEnabled()) {
-      logger.info("Diameter Stack Mux :: findListener :: No Listener Found.");
+    if (logger.isDebugEnabled()) {
+      logger.debug("Diameter Stack Mux :: findListener :: Found Listener [" + entry.listener + "]");
     }
+    entry.dispatched.incrementAndGet();
+    return entry.listener;
+  }
 
-    return null;
+  private static long getAppIdValue(org.jdiameter.api.ApplicationId appId) {
+    return appId.getAcctAppId() != org.jdiameter.api.ApplicationId.UNDEFINED_VALUE ? appId.getAcctAppId() : appId.getAuthAppId();
   }
 
   // ===== NetworkReqListener IMPLEMENTATION =====
 
   @Override
   public Answer processRequest(Request request) {
-    if (logger.isInfoEnabled()) {
-      logger.info("Diameter Stack Mux :: processRequest :: Command-Code [" + request.getCommandCode() + "]");
+    if (logger.isDebugEnabled()) {
+      logger.debug("Diameter Stack Mux :: processRequest :: Command-Code [" + request.getCommandCode() + "]");
     }
 
     DiameterListener listener = findListener(request);
@@ -461,10 +457,10 @@ public class DiameterStackMultiplexer extends ServiceMBeanSupport implements Dia
         network.addNetworkReqListener(this, appId);
 
         if (appId.getAcctAppId() != org.jdiameter.api.ApplicationId.UNDEFINED_VALUE) {
-          this.appIdToListener.put(appId.getAcctAppId(), listener);
+          this.dispatchTable = this.dispatchTable.put(appId.getAcctAppId(), listener);
         }
         else if (appId.getAuthAppId() != org.jdiameter.api.ApplicationId.UNDEFINED_VALUE) {
-          this.appIdToListener.put(appId.getAuthAppId(), listener);
+          this.dispatchTable = this.dispatchTable.put(appId.getAuthAppId(), listener);
         }
       }
 
@@ -486,10 +482,9 @@ public class DiameterStackMultiplexer extends ServiceMBeanSupport implements Dia
 
         for (; curAppIdIndex >= 0; curAppIdIndex--) {
           ApplicationId appId = appIds[curAppIdIndex];
-          Long appIdValue = appId.getAcctAppId() != org.jdiameter.api.ApplicationId.UNDEFINED_VALUE ? appId.getAcctAppId() : appId.getAuthAppId();
 
           // Remove the app id from map
-          this.appIdToListener.remove(appIdValue);
+          this.dispatchTable = this.dispatchTable.remove(getAppIdValue(appId));
 
           // Unregister it from stack listener
           network.removeNetworkReqListener(appId);
@@ -536,10 +531,8 @@ public class DiameterStackMultiplexer extends ServiceMBeanSupport implements Dia
             logger.info("Diameter Stack Mux :: unregisterListener :: Unregistering AppId [" + appId + "]");
           }
 
-          Long appIdValue = appId.getAcctAppId() != org.jdiameter.api.ApplicationId.UNDEFINED_VALUE ? appId.getAcctAppId() : appId.getAuthAppId();
-
           // Remove the appid from map
-          this.appIdToListener.remove(appIdValue);
+          this.dispatchTable = this.dispatchTable.remove(getAppIdValue(appId));
 
           // and unregister the listener from stack
           network.removeNetworkReqListener(appId);
@@ -633,6 +626,15 @@ public class DiameterStackMultiplexer extends ServiceMBeanSupport implements Dia
       throw new MBeanException(e, "Failed to retrieve peer");
     }
   }
+
+  @Override
+  public Map<String, Long> _Mux_getListenerDispatchCounts() throws MBeanException {
+    Map<String, Long> counts = new HashMap<String, Long>();
+    for (Map.Entry<DiameterListener, Long> entry : this.dispatchTable.getDispatchCounts().entrySet()) {
+      counts.put(String.valueOf(entry.getKey()), entry.getValue());
+    }
+    return counts;
+  }
   /*
    * (non-Javadoc)
    * @see org.mobicents.diameter.stack.DiameterStackMultiplexerMBean#_LocalPeer_removeIPAddress(java.lang.String)
@@ -44,6 +44,7 @@ package org.mobicents.diameter.stack;
 
 import java.net.InetAddress;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.management.MBeanException;
@@ -340,4 +341,12 @@ public interface DiameterStackMultiplexerMBean extends ServiceMBean {
 
   boolean _Network_Peers_isPeerConnected(String name) throws MBeanException;
   List<Peer> _Network_Peers_retrievePeer() throws MBeanException;
+
+  /**
+   * Number of messages (requests, answers and timeouts) dispatched to each registered listener.
+   *
+   * @return map of listener to dispatched messages count
+   * @throws MBeanException if the operation is unable to perform correctly
+   */
+  Map<String, Long> _Mux_getListenerDispatchCounts() throws MBeanException;
 }
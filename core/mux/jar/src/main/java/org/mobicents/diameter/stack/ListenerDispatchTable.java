@@ -0,0 +1,138 @@
+ /*
+  * TeleStax, Open Source Cloud Communications
+  * Copyright 2011-2016, TeleStax Inc. and individual contributors
+  * by the @authors tag.
+  *
+  * This program is free software: you can redistribute it and/or modify
+  * under the terms of the GNU Affero General Public License as
+  * published by the Free Software Foundation; either version 3 of
+  * the License, or (at your option) any later version.
+  *
+  * This program is distributed in the hope that it will be useful,
+  * but WITHOUT ANY WARRANTY; without even the implied warranty of
+  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  * GNU Affero General Public License for more details.
+  *
+  * You should have received a copy of the GNU Affero General Public License
+  * along with this program.  If not, see <http://www.gnu.org/licenses/>
+  */
+
+package org.mobicents.diameter.stack;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable Application-Id to {@link DiameterListener} table used by {@link DiameterStackMultiplexer} to dispatch
+ * messages. Lookups are a binary search over a primitive array, so they need neither locking nor boxing; changes
+ * create a new table which is then published through a volatile field (copy-on-write).
+ *
+ * Each listener has a dispatch counter shared by all its Application-Ids and kept over table changes.
+ */
+public final class ListenerDispatchTable {
+
+  static final ListenerDispatchTable EMPTY = new ListenerDispatchTable(new long[0], new Entry[0]);
+
+  private final long[] appIds;
+  private final Entry[] entries;
+
+  private ListenerDispatchTable(long[] appIds, Entry[] entries) {
+    this.appIds = appIds;
+    this.entries = entries;
+  }
+
+  /**
+   * @return listener registered for Application-Id or null if there is none
+   */
+  public DiameterListener get(long appId) {
+    Entry entry = getEntry(appId);
+    return entry != null ? entry.listener : null;
+  }
+
+  Entry getEntry(long appId) {
+    int index = Arrays.binarySearch(appIds, appId);
+    return index >= 0 ? entries[index] : null;
+  }
+
+  /**
+   * @return copy of this table with listener registered for Application-Id, replacing the previous one if any
+   */
+  ListenerDispatchTable put(long appId, DiameterListener listener) {
+    // keep counter of listener if it's already registered for other application
+    AtomicLong counter = null;
+    for (Entry entry : entries) {
+      if (entry.listener == listener) {
+        counter = entry.dispatched;
+        break;
+      }
+    }
+    Entry entry = new Entry(listener, counter != null ? counter : new AtomicLong());
+
+    int index = Arrays.binarySearch(appIds, appId);
+    if (index >= 0) {
+      Entry[] newEntries = entries.clone();
+      newEntries[index] = entry;
+      return new ListenerDispatchTable(appIds, newEntries);
+    }
+    index = -index - 1;
+    long[] newAppIds = new long[appIds.length + 1];
+    Entry[] newEntries = new Entry[entries.length + 1];
+    System.arraycopy(appIds, 0, newAppIds, 0, index);
+    System.arraycopy(entries, 0, newEntries, 0, index);
+    newAppIds[index] = appId;
+    newEntries[index] = entry;
+    System.arraycopy(appIds, index, newAppIds, index + 1, appIds.length - index);
+    System.arraycopy(entries, index, newEntries, index + 1, entries.length - index);
+    return new ListenerDispatchTable(newAppIds, newEntries);
+  }
+
+  /**
+   * @return copy of this table without Application-Id, or this table if it was not registered
+   */
+  ListenerDispatchTable remove(long appId) {
+    int index = Arrays.binarySearch(appIds, appId);
+    if (index < 0) {
+      return this;
+    }
+    long[] newAppIds = new long[appIds.length - 1];
+    Entry[] newEntries = new Entry[entries.length - 1];
+    System.arraycopy(appIds, 0, newAppIds, 0, index);
+    System.arraycopy(entries, 0, newEntries, 0, index);
+    System.arraycopy(appIds, index + 1, newAppIds, index, appIds.length - index - 1);
+    System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+    return new ListenerDispatchTable(newAppIds, newEntries);
+  }
+
+  /**
+   * @return number of messages dispatched to each registered listener
+   */
+  public Map<DiameterListener, Long> getDispatchCounts() {
+    Map<DiameterListener, Long> counts = new LinkedHashMap<DiameterListener, Long>();
+    for (Entry entry : entries) {
+      counts.put(entry.listener, entry.dispatched.get());
+    }
+    return counts;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("ListenerDispatchTable[");
+    for (int i = 0; i < appIds.length; i++) {
+      sb.append(i > 0 ? ", " : "").append(appIds[i]).append('=').append(entries[i].listener);
+    }
+    return sb.append(']').toString();
+  }
+
+  static final class Entry {
+
+    final DiameterListener listener;
+    final AtomicLong dispatched;
+
+    Entry(DiameterListener listener, AtomicLong dispatched) {
+      this.listener = listener;
+      this.dispatched = dispatched;
+    }
+  }
+}